@@ -37,11 +37,13 @@ android {
     }
     buildFeatures {
         compose = true
+        buildConfig = true
     }
 }
 
 dependencies {
 
+    implementation(project(":engine"))
     implementation(libs.androidx.core.ktx)
     implementation(libs.androidx.lifecycle.runtime.ktx)
     implementation(libs.androidx.activity.compose)
@@ -79,4 +81,13 @@ dependencies {
     
     // MPAndroidChart for price charts
     implementation("com.github.PhilJay:MPAndroidChart:v3.1.0")
-}
\ No newline at end of file
+}
+// Timing of the portfolio and correlation analytics on the JVM, kept out of the unit tests:
+// ./gradlew :app:benchmark
+tasks.register<JavaExec>("benchmark") {
+    description = "Measures the app's in-memory analytics on this machine"
+    group = "verification"
+    dependsOn("compileDebugUnitTestJavaWithJavac")
+    classpath = files(provider { tasks.getByName<Test>("testDebugUnitTest").classpath })
+    mainClass.set("com.koigzzzz.cex.utils.AppBenchmark")
+}
@@ -22,12 +22,56 @@ import com.koigzzzz.cex.fragments.OrdersFragment;
 import com.koigzzzz.cex.fragments.PortfolioFragment;
 import com.koigzzzz.cex.fragments.ProfileFragment;
 import com.koigzzzz.cex.fragments.TradeFragment;
+import com.koigzzzz.cex.models.Order;
+import com.koigzzzz.cex.utils.CorrelationEngine;
 import com.koigzzzz.cex.utils.FirebaseHelper;
+import com.koigzzzz.cex.utils.LatencyTracer;
+import com.koigzzzz.cex.utils.OrderIntentQueue;
+import com.koigzzzz.cex.utils.PendingOrderWatcher;
+
+import java.util.List;
 
 public class HomeActivity extends AppCompatActivity {
 
     private BottomNavigationView bottomNavigation;
 
+    // Pending orders can fill on any screen; report them from here
+    private final PendingOrderWatcher.Listener orderWatcherListener = new PendingOrderWatcher.Listener() {
+        @Override
+        public void onOrderExecuted(Order order) {
+            Toast.makeText(HomeActivity.this,
+                    order.getOrderType() + " " + order.getType() + " order executed at $"
+                            + String.format("%.2f", order.getExecutionPrice()),
+                    Toast.LENGTH_SHORT).show();
+        }
+
+        @Override
+        public void onOrderFailed(Order order, String error) {
+            Toast.makeText(HomeActivity.this,
+                    "Error executing " + order.getSymbol() + " " + order.getOrderType() + " order: " + error,
+                    Toast.LENGTH_SHORT).show();
+        }
+    };
+
+    // Queued orders the exchange refused have already been shown as placed; say so
+    private final OrderIntentQueue.Listener orderQueueListener = new OrderIntentQueue.Listener() {
+        @Override
+        public void onQueueChanged() {
+        }
+
+        @Override
+        public void onCommitted(List<Order> orders) {
+        }
+
+        @Override
+        public void onRejected(List<Order> orders, String error) {
+            Order order = orders.get(0);
+            Toast.makeText(HomeActivity.this,
+                    order.getType() + " " + order.getSymbol() + " order rolled back: " + error,
+                    Toast.LENGTH_LONG).show();
+        }
+    };
+
     @Override
     protected void onCreate(Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -75,6 +119,24 @@ public class HomeActivity extends AppCompatActivity {
         if (apiKey != null && !apiKey.equals("YOUR_API_KEY_HERE")) {
             priceManager.setApiKey(apiKey);
         }
+        
+        // Start collecting 1-minute returns for the portfolio's correlation figure
+        CorrelationEngine.getInstance();
+
+        // Keep order latency percentiles across restarts (shown under Profile > Latency Stats)
+        LatencyTracer.getInstance().attach(this);
+
+        // Execute pending limit orders across all symbols while the app is open
+        if (!isAdmin) {
+            PendingOrderWatcher orderWatcher = PendingOrderWatcher.getInstance();
+            orderWatcher.addListener(orderWatcherListener);
+            orderWatcher.start(firebaseHelper.getCurrentUser().getUid());
+
+            // Send orders placed offline or in an earlier session
+            OrderIntentQueue orderQueue = OrderIntentQueue.getInstance(this);
+            orderQueue.addListener(orderQueueListener);
+            orderQueue.start(firebaseHelper.getCurrentUser().getUid());
+        }
 
         bottomNavigation.setOnItemSelectedListener(new NavigationBarView.OnItemSelectedListener() {
             @Override
@@ -98,6 +160,8 @@ public class HomeActivity extends AppCompatActivity {
                         return false;
                     }
                 } else if (itemId == R.id.nav_logout) {
+                    PendingOrderWatcher.getInstance().stop();
+                    OrderIntentQueue.getInstance(HomeActivity.this).stop();
                     FirebaseAuth.getInstance().signOut();
                     Intent intent = new Intent(HomeActivity.this, MainActivity.class);
                     startActivity(intent);
@@ -145,6 +209,13 @@ public class HomeActivity extends AppCompatActivity {
         }
     }
 
+    @Override
+    protected void onDestroy() {
+        super.onDestroy();
+        PendingOrderWatcher.getInstance().removeListener(orderWatcherListener);
+        OrderIntentQueue.getInstance(this).removeListener(orderQueueListener);
+    }
+
     public void navigateToTrade(String symbol) {
         TradeFragment tradeFragment = TradeFragment.newInstance(symbol);
         getSupportFragmentManager()
@@ -0,0 +1,46 @@
+package com.koigzzzz.cex.adapters;
+
+import android.view.View;
+import android.view.ViewGroup;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.RecyclerView;
+
+/**
+ * Shows one fixed view as the first item of a ConcatAdapter, so a screen's header
+ * scrolls together with a recycled list instead of wrapping it in a ScrollView.
+ */
+public class HeaderAdapter extends RecyclerView.Adapter<HeaderAdapter.HeaderViewHolder> {
+
+    private final View headerView;
+
+    public HeaderAdapter(View headerView) {
+        this.headerView = headerView;
+    }
+
+    @NonNull
+    @Override
+    public HeaderViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        if (headerView.getParent() instanceof ViewGroup) {
+            ((ViewGroup) headerView.getParent()).removeView(headerView);
+        }
+        return new HeaderViewHolder(headerView);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull HeaderViewHolder holder, int position) {
+    }
+
+    @Override
+    public int getItemCount() {
+        return 1;
+    }
+
+    static class HeaderViewHolder extends RecyclerView.ViewHolder {
+        HeaderViewHolder(@NonNull View itemView) {
+            super(itemView);
+            // The header holds live views; never hand it out for reuse
+            setIsRecyclable(false);
+        }
+    }
+}
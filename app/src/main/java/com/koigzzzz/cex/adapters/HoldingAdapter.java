@@ -0,0 +1,104 @@
+package com.koigzzzz.cex.adapters;
+
+import android.view.LayoutInflater;
+import android.view.View;
+import android.view.ViewGroup;
+import android.widget.TextView;
+
+import androidx.annotation.NonNull;
+import androidx.recyclerview.widget.DiffUtil;
+import androidx.recyclerview.widget.RecyclerView;
+
+import com.koigzzzz.cex.R;
+import com.koigzzzz.cex.models.Holding;
+
+import java.text.DecimalFormat;
+import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Wallet holdings list. New lists are applied with DiffUtil so a price tick only rebinds
+ * the rows whose value changed and moves rows whose rank changed.
+ */
+public class HoldingAdapter extends RecyclerView.Adapter<HoldingAdapter.HoldingViewHolder> {
+
+    private static final String QUOTE_ASSET = "USDT";
+
+    private List<Holding> holdingList = new ArrayList<>();
+    private final NumberFormat valueFormat = new DecimalFormat("#,##0.00");
+    private final NumberFormat tokenFormat = new DecimalFormat("#,##0.00000000");
+
+    /**
+     * Replace the list, dispatching only the changes
+     */
+    public void submitHoldings(List<Holding> newHoldings) {
+        List<Holding> oldHoldings = holdingList;
+        DiffUtil.DiffResult diff = DiffUtil.calculateDiff(new DiffUtil.Callback() {
+            @Override
+            public int getOldListSize() {
+                return oldHoldings.size();
+            }
+
+            @Override
+            public int getNewListSize() {
+                return newHoldings.size();
+            }
+
+            @Override
+            public boolean areItemsTheSame(int oldPosition, int newPosition) {
+                return oldHoldings.get(oldPosition).getSymbol().equals(newHoldings.get(newPosition).getSymbol());
+            }
+
+            @Override
+            public boolean areContentsTheSame(int oldPosition, int newPosition) {
+                Holding oldHolding = oldHoldings.get(oldPosition);
+                Holding newHolding = newHoldings.get(newPosition);
+                return oldHolding.getQuantity() == newHolding.getQuantity()
+                        && oldHolding.getPrice() == newHolding.getPrice();
+            }
+        });
+        holdingList = newHoldings;
+        diff.dispatchUpdatesTo(this);
+    }
+
+    @NonNull
+    @Override
+    public HoldingViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
+        View view = LayoutInflater.from(parent.getContext())
+                .inflate(R.layout.item_holding, parent, false);
+        return new HoldingViewHolder(view);
+    }
+
+    @Override
+    public void onBindViewHolder(@NonNull HoldingViewHolder holder, int position) {
+        holder.bind(holdingList.get(position));
+    }
+
+    @Override
+    public int getItemCount() {
+        return holdingList.size();
+    }
+
+    class HoldingViewHolder extends RecyclerView.ViewHolder {
+        private TextView tvSymbol, tvValue, tvBalance;
+
+        public HoldingViewHolder(@NonNull View itemView) {
+            super(itemView);
+            tvSymbol = itemView.findViewById(R.id.tvHoldingSymbol);
+            tvValue = itemView.findViewById(R.id.tvHoldingValue);
+            tvBalance = itemView.findViewById(R.id.tvHoldingBalance);
+        }
+
+        public void bind(Holding holding) {
+            tvSymbol.setText(holding.getSymbol());
+            tvValue.setText(holding.hasPrice() ? "$" + valueFormat.format(holding.getValue()) : "N/A");
+            if (QUOTE_ASSET.equals(holding.getSymbol())) {
+                tvBalance.setVisibility(View.GONE);
+            } else {
+                tvBalance.setVisibility(View.VISIBLE);
+                tvBalance.setText(tokenFormat.format(holding.getQuantity()) + " " + holding.getSymbol());
+            }
+        }
+    }
+}
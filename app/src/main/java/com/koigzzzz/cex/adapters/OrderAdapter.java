@@ -18,13 +18,16 @@ import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.text.SimpleDateFormat;
 import java.util.Date;
+import java.util.HashSet;
 import java.util.List;
 import java.util.Locale;
+import java.util.Set;
 
 public class OrderAdapter extends RecyclerView.Adapter<OrderAdapter.OrderViewHolder> {
 
     private List<Order> orderList;
     private OnCancelOrderListener cancelListener;
+    private Set<String> syncingOrderIds = new HashSet<>();
 
     public interface OnCancelOrderListener {
         void onCancelOrder(Order order);
@@ -38,6 +41,13 @@ public class OrderAdapter extends RecyclerView.Adapter<OrderAdapter.OrderViewHol
         this.cancelListener = listener;
     }
 
+    /**
+     * Orders still waiting in OrderIntentQueue, shown as SYNCING
+     */
+    public void setSyncingOrderIds(Set<String> syncingOrderIds) {
+        this.syncingOrderIds = syncingOrderIds;
+    }
+
     @NonNull
     @Override
     public OrderViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -80,7 +90,8 @@ public class OrderAdapter extends RecyclerView.Adapter<OrderAdapter.OrderViewHol
             tvSymbol.setText(order.getSymbol() + "/USDT");
             
             // Order type and buy/sell
-            String orderTypeText = order.getOrderType() + " / " + order.getType();
+            String orderTypeText = order.getOrderType() + (order.getLinkedOrderId() != null ? " (OCO)" : "")
+                    + " / " + order.getType();
             tvOrderTypeAndTime.setText(orderTypeText);
             
             // Color code buy/sell
@@ -95,9 +106,10 @@ public class OrderAdapter extends RecyclerView.Adapter<OrderAdapter.OrderViewHol
             tvTimestamp.setText(sdf.format(new Date(order.getTimestamp())));
 
             // Filled / Amount
-            double filledAmount = 0.0;
+            double filledAmount = order.getFilledQuantity();
             double totalAmount = order.getQuantity();
-            if (order.getStatus().equals(Order.STATUS_COMPLETED)) {
+            if (order.getStatus().equals(Order.STATUS_COMPLETED) && filledAmount <= 0) {
+                // Completed before fills were tracked
                 filledAmount = totalAmount;
             }
             
@@ -125,13 +137,26 @@ public class OrderAdapter extends RecyclerView.Adapter<OrderAdapter.OrderViewHol
 
             // Price
             NumberFormat priceFormat = new DecimalFormat("#,##0.00");
-            tvPrice.setText(priceFormat.format(order.getPrice()));
+            if (order.getAverageFillPrice() > 0) {
+                tvPrice.setText(priceFormat.format(order.getAverageFillPrice()));
+            } else if (order.getExecutionPrice() > 0) {
+                tvPrice.setText(priceFormat.format(order.getExecutionPrice()));
+            } else if (Order.ORDER_TYPE_TRAILING_STOP.equals(order.getOrderType())) {
+                tvPrice.setText("Trail " + priceFormat.format(order.getTrailingOffset()));
+            } else if (Order.ORDER_TYPE_STOP_LIMIT.equals(order.getOrderType())) {
+                tvPrice.setText(priceFormat.format(order.getStopPrice()) + " / " + priceFormat.format(order.getPrice()));
+            } else {
+                tvPrice.setText(priceFormat.format(order.getPrice()));
+            }
 
             // Status
-            tvStatus.setText(order.getStatus());
+            boolean syncing = syncingOrderIds.contains(order.getOrderId());
+            tvStatus.setText(syncing ? "SYNCING" : order.getStatus());
             
             // Color code status
-            if (order.getStatus().equals(Order.STATUS_COMPLETED)) {
+            if (syncing) {
+                tvStatus.setTextColor(Color.parseColor("#848E9C")); // Gray until it reaches the server
+            } else if (order.getStatus().equals(Order.STATUS_COMPLETED)) {
                 tvStatus.setTextColor(Color.parseColor("#0ECB81")); // Green
             } else if (order.getStatus().equals(Order.STATUS_PENDING)) {
                 tvStatus.setTextColor(Color.parseColor("#F0B90B")); // Yellow
@@ -139,8 +164,8 @@ public class OrderAdapter extends RecyclerView.Adapter<OrderAdapter.OrderViewHol
                 tvStatus.setTextColor(Color.parseColor("#848E9C")); // Gray
             }
 
-            // Cancel button - only show for pending orders
-            if (order.getStatus().equals(Order.STATUS_PENDING)) {
+            // Cancel button - only show for pending orders and orders not sent yet
+            if (order.getStatus().equals(Order.STATUS_PENDING) || syncing) {
                 btnCancel.setVisibility(View.VISIBLE);
                 btnCancel.setOnClickListener(v -> {
                     if (cancelListener != null) {
@@ -11,17 +11,23 @@ import androidx.recyclerview.widget.RecyclerView;
 
 import com.koigzzzz.cex.R;
 import com.koigzzzz.cex.models.TokenPrice;
+import com.koigzzzz.cex.utils.PriceHistoryTracker;
 
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.List;
 import java.util.Locale;
+import java.util.Map;
 
 public class TokenAdapter extends RecyclerView.Adapter<TokenAdapter.TokenViewHolder> {
 
     private List<TokenPrice> tokenList;
     private OnTokenClickListener listener;
+    // symbol -> sliding-window stats (24h for high/low, 1h for volatility)
+    private Map<String, PriceHistoryTracker.WindowStats> stats24h = new HashMap<>();
+    private Map<String, PriceHistoryTracker.WindowStats> stats1h = new HashMap<>();
 
     public interface OnTokenClickListener {
         void onTokenClick(TokenPrice tokenPrice);
@@ -32,6 +38,12 @@ public class TokenAdapter extends RecyclerView.Adapter<TokenAdapter.TokenViewHol
         this.listener = listener;
     }
 
+    public void setWindowStats(Map<String, PriceHistoryTracker.WindowStats> stats24h,
+                               Map<String, PriceHistoryTracker.WindowStats> stats1h) {
+        this.stats24h = stats24h;
+        this.stats1h = stats1h;
+    }
+
     @NonNull
     @Override
     public TokenViewHolder onCreateViewHolder(@NonNull ViewGroup parent, int viewType) {
@@ -43,7 +55,8 @@ public class TokenAdapter extends RecyclerView.Adapter<TokenAdapter.TokenViewHol
     @Override
     public void onBindViewHolder(@NonNull TokenViewHolder holder, int position) {
         TokenPrice token = tokenList.get(position);
-        holder.bind(token, listener);
+        String symbolUpper = token.getSymbol().toUpperCase();
+        holder.bind(token, stats24h.get(symbolUpper), stats1h.get(symbolUpper), listener);
     }
 
     @Override
@@ -52,7 +65,7 @@ public class TokenAdapter extends RecyclerView.Adapter<TokenAdapter.TokenViewHol
     }
 
     static class TokenViewHolder extends RecyclerView.ViewHolder {
-        private TextView tvSymbol, tvName, tvPrice, tvChange24h, tvVolume;
+        private TextView tvSymbol, tvName, tvPrice, tvChange24h, tvVolume, tvHighLow, tvVolatility;
 
         public TokenViewHolder(@NonNull View itemView) {
             super(itemView);
@@ -61,9 +74,12 @@ public class TokenAdapter extends RecyclerView.Adapter<TokenAdapter.TokenViewHol
             tvPrice = itemView.findViewById(R.id.tvPrice);
             tvChange24h = itemView.findViewById(R.id.tvChange24h);
             tvVolume = itemView.findViewById(R.id.tvVolume);
+            tvHighLow = itemView.findViewById(R.id.tvHighLow);
+            tvVolatility = itemView.findViewById(R.id.tvVolatility);
         }
 
-        public void bind(TokenPrice token, OnTokenClickListener listener) {
+        public void bind(TokenPrice token, PriceHistoryTracker.WindowStats stats24h,
+                         PriceHistoryTracker.WindowStats stats1h, OnTokenClickListener listener) {
             tvSymbol.setText(token.getSymbol());
             tvName.setText(token.getName());
 
@@ -100,6 +116,20 @@ public class TokenAdapter extends RecyclerView.Adapter<TokenAdapter.TokenViewHol
                 tvVolume.setText("N/A");
             }
 
+            // 24h high/low and 1h volatility from tracked price history
+            if (stats24h != null) {
+                NumberFormat priceFormat = new DecimalFormat("#,##0.00");
+                tvHighLow.setText("24h H/L: $" + priceFormat.format(stats24h.high)
+                        + " / $" + priceFormat.format(stats24h.low));
+            } else {
+                tvHighLow.setText("24h H/L: N/A");
+            }
+            if (stats1h != null && stats1h.count > 2) {
+                tvVolatility.setText(String.format(Locale.US, "1h Vol: %.2f%%", stats1h.volatility * 100.0));
+            } else {
+                tvVolatility.setText("1h Vol: N/A");
+            }
+
             itemView.setOnClickListener(v -> {
                 if (listener != null) {
                     listener.onTokenClick(token);
@@ -17,15 +17,21 @@ import androidx.recyclerview.widget.LinearLayoutManager;
 import androidx.recyclerview.widget.RecyclerView;
 
 import android.widget.Button;
+import android.widget.TextView;
 import com.google.android.material.textfield.TextInputEditText;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.QuerySnapshot;
 import com.koigzzzz.cex.R;
 import com.koigzzzz.cex.adapters.TokenAdapter;
 import com.koigzzzz.cex.models.TokenPrice;
+import com.koigzzzz.cex.models.Wallet;
+import com.koigzzzz.cex.utils.CorrelationEngine;
 import com.koigzzzz.cex.utils.FirebaseHelper;
+import com.koigzzzz.cex.utils.PortfolioValuation;
+import com.koigzzzz.cex.utils.PriceHistoryTracker;
 import com.koigzzzz.cex.utils.PriceManager;
 
+import java.text.DecimalFormat;
 import java.util.ArrayList;
 import java.util.Collections;
 import java.util.Comparator;
@@ -41,6 +47,9 @@ public class MarketFragment extends Fragment {
     private List<TokenPrice> allTokenList; // Store all tokens for filtering
     private TextInputEditText etSearch;
     private Button btnSortByName;
+    private TextView tvPortfolioTotal;
+    private PortfolioValuation portfolioValuation;
+    private final PortfolioValuation.Listener valuationListener = symbol -> updatePortfolioTotal();
     private boolean isSortedByName = false;
     private PriceManager priceManager;
     private FirebaseHelper firebaseHelper;
@@ -55,6 +64,7 @@ public class MarketFragment extends Fragment {
         super.onCreate(savedInstanceState);
         priceManager = PriceManager.getInstance();
         firebaseHelper = FirebaseHelper.getInstance();
+        portfolioValuation = PortfolioValuation.getInstance();
         enabledTokenSymbols = new ArrayList<>();
         enabledTokenNames = new HashMap<>();
     }
@@ -69,6 +79,7 @@ public class MarketFragment extends Fragment {
         recyclerView = view.findViewById(R.id.recyclerViewTokens);
         etSearch = view.findViewById(R.id.etSearch);
         btnSortByName = view.findViewById(R.id.btnSortByName);
+        tvPortfolioTotal = view.findViewById(R.id.tvPortfolioTotal);
 
         recyclerView.setLayoutManager(new LinearLayoutManager(getContext()));
         adapter = new TokenAdapter(tokenList, tokenPrice -> {
@@ -180,6 +191,38 @@ public class MarketFragment extends Fragment {
     public void onPause() {
         super.onPause();
         stopAutoRefresh();
+        portfolioValuation.removeListener(valuationListener);
+    }
+
+    /**
+     * Live portfolio total in the header, pushed by PortfolioValuation on every tick.
+     * The wallet is only fetched if no screen has loaded the holdings yet.
+     */
+    private void startPortfolioTotal() {
+        portfolioValuation.addListener(valuationListener);
+        String userId = firebaseHelper.getCurrentUser() != null ? firebaseHelper.getCurrentUser().getUid() : null;
+        if (userId == null || firebaseHelper.isAdmin()) return;
+
+        if (portfolioValuation.hasHoldings(userId)) {
+            updatePortfolioTotal();
+            return;
+        }
+        firebaseHelper.getUserDocument(userId, task -> {
+            if (task.isSuccessful() && task.getResult() != null && task.getResult().exists()) {
+                Map<String, Object> walletMap = (Map<String, Object>) task.getResult().get("wallet");
+                if (walletMap != null) {
+                    Wallet wallet = new Wallet();
+                    wallet.loadFromMap(walletMap);
+                    wallet.loadReservations((Map<String, Object>) task.getResult().get("reservations"));
+                    portfolioValuation.setHoldings(userId, wallet);
+                }
+            }
+        });
+    }
+
+    private void updatePortfolioTotal() {
+        if (!isAdded() || getContext() == null || tvPortfolioTotal == null) return;
+        tvPortfolioTotal.setText("Portfolio $" + new DecimalFormat("#,##0.00").format(portfolioValuation.getTotal()));
     }
 
     private void stopAutoRefresh() {
@@ -213,6 +256,9 @@ public class MarketFragment extends Fragment {
                     enabledTokenSymbols.add("BNB");
                 }
                 
+                // Tokens disabled by the admin leave the correlation matrix
+                CorrelationEngine.getInstance().retainSymbols(enabledTokenSymbols);
+                
                 loadTokenPrices();
                 startAutoRefresh();
             } else {
@@ -296,14 +342,36 @@ public class MarketFragment extends Fragment {
             }
         }
         
+        updateWindowStats();
+        
         // Apply current search filter
         String searchQuery = etSearch.getText() != null ? etSearch.getText().toString().trim() : "";
         filterTokens(searchQuery);
     }
+    
+    private void updateWindowStats() {
+        // O(1) per token: the tracker maintains the window aggregates on every tick
+        PriceHistoryTracker tracker = PriceHistoryTracker.getInstance();
+        Map<String, PriceHistoryTracker.WindowStats> stats24h = new HashMap<>();
+        Map<String, PriceHistoryTracker.WindowStats> stats1h = new HashMap<>();
+        for (String symbol : enabledTokenSymbols) {
+            String symbolUpper = symbol.toUpperCase();
+            PriceHistoryTracker.WindowStats dayStats = tracker.getWindowStats(symbolUpper, PriceHistoryTracker.WINDOW_24H);
+            if (dayStats != null) {
+                stats24h.put(symbolUpper, dayStats);
+            }
+            PriceHistoryTracker.WindowStats hourStats = tracker.getWindowStats(symbolUpper, PriceHistoryTracker.WINDOW_1H);
+            if (hourStats != null) {
+                stats1h.put(symbolUpper, hourStats);
+            }
+        }
+        adapter.setWindowStats(stats24h, stats1h);
+    }
 
     @Override
     public void onResume() {
         super.onResume();
+        startPortfolioTotal();
         loadEnabledTokens();
     }
 
@@ -19,10 +19,12 @@ import com.koigzzzz.cex.R;
 import com.koigzzzz.cex.adapters.OrderAdapter;
 import com.koigzzzz.cex.models.Order;
 import com.koigzzzz.cex.utils.FirebaseHelper;
+import com.koigzzzz.cex.utils.OrderIntentQueue;
 
 import java.util.ArrayList;
+import java.util.HashSet;
 import java.util.List;
-import java.util.Map;
+import java.util.Set;
 
 public class OrdersFragment extends Fragment {
 
@@ -32,6 +34,26 @@ public class OrdersFragment extends Fragment {
     private FirebaseHelper firebaseHelper;
     private String userId;
 
+    private final OrderIntentQueue.Listener orderQueueListener = new OrderIntentQueue.Listener() {
+        @Override
+        public void onQueueChanged() {
+        }
+
+        @Override
+        public void onCommitted(List<Order> orders) {
+            if (isAdded() && getContext() != null) {
+                loadOrders();
+            }
+        }
+
+        @Override
+        public void onRejected(List<Order> orders, String error) {
+            if (isAdded() && getContext() != null) {
+                loadOrders();
+            }
+        }
+    };
+
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
         super.onCreate(savedInstanceState);
@@ -83,12 +105,23 @@ public class OrdersFragment extends Fragment {
                         Object qtyObj = doc.get("quantity");
                         Object priceObj = doc.get("price");
                         Object totalObj = doc.get("total");
+                        Object stopPriceObj = doc.get("stopPrice");
+                        Object trailingOffsetObj = doc.get("trailingOffset");
+                        Object executionPriceObj = doc.get("executionPrice");
+                        Object filledObj = doc.get("filledQuantity");
+                        Object averageFillPriceObj = doc.get("averageFillPrice");
                         Object timestampObj = doc.get("timestamp");
                         
                         if (qtyObj != null) order.setQuantity(((Number) qtyObj).doubleValue());
                         if (priceObj != null) order.setPrice(((Number) priceObj).doubleValue());
                         if (totalObj != null) order.setTotal(((Number) totalObj).doubleValue());
+                        if (stopPriceObj != null) order.setStopPrice(((Number) stopPriceObj).doubleValue());
+                        if (trailingOffsetObj != null) order.setTrailingOffset(((Number) trailingOffsetObj).doubleValue());
+                        if (executionPriceObj != null) order.setExecutionPrice(((Number) executionPriceObj).doubleValue());
+                        if (filledObj != null) order.setFilledQuantity(((Number) filledObj).doubleValue());
+                        if (averageFillPriceObj != null) order.setAverageFillPrice(((Number) averageFillPriceObj).doubleValue());
                         if (timestampObj != null) order.setTimestamp(((Number) timestampObj).longValue());
+                        order.setLinkedOrderId(doc.getString("linkedOrderId"));
                         
                         order.setStatus(doc.getString("status"));
                         orderList.add(order);
@@ -97,6 +130,18 @@ public class OrdersFragment extends Fragment {
                     }
                 }
                 
+                // Orders placed but not yet in Firestore (e.g. while offline)
+                if (getContext() != null) {
+                    OrderIntentQueue orderQueue = OrderIntentQueue.getInstance(getContext());
+                    Set<String> syncingIds = new HashSet<>();
+                    for (Order queued : orderQueue.getQueuedOrders(userId)) {
+                        syncingIds.add(queued.getOrderId());
+                    }
+                    orderList.removeIf(order -> syncingIds.contains(order.getOrderId()));
+                    orderList.addAll(orderQueue.getQueuedOrders(userId));
+                    adapter.setSyncingOrderIds(syncingIds);
+                }
+
                 // Sort by timestamp descending (most recent first)
                 orderList.sort((a, b) -> Long.compare(b.getTimestamp(), a.getTimestamp()));
                 
@@ -119,76 +164,49 @@ public class OrdersFragment extends Fragment {
     private void cancelOrder(Order order) {
         if (getContext() == null || userId == null) return;
 
+        // Not sent yet: dropping it locally is the whole cancellation
+        OrderIntentQueue orderQueue = OrderIntentQueue.getInstance(getContext());
+        if (orderQueue.isQueued(order.getOrderId())) {
+            if (orderQueue.discard(order.getOrderId())) {
+                Toast.makeText(getContext(), "Order cancelled", Toast.LENGTH_SHORT).show();
+                loadOrders();
+            } else {
+                Toast.makeText(getContext(), "Order is being sent, try again in a moment", Toast.LENGTH_SHORT).show();
+            }
+            return;
+        }
+
         // Only allow canceling pending orders
         if (!order.getStatus().equals(Order.STATUS_PENDING)) {
             Toast.makeText(getContext(), "Only pending orders can be cancelled", Toast.LENGTH_SHORT).show();
             return;
         }
 
-        // Get current wallet to refund the reserved funds
-        firebaseHelper.getUserDocument(userId, getUserTask -> {
-            if (!getUserTask.isSuccessful() || getUserTask.getResult() == null) {
-                Toast.makeText(getContext(), "Error loading wallet", Toast.LENGTH_SHORT).show();
-                return;
-            }
-
-            com.google.firebase.firestore.DocumentSnapshot walletDoc = getUserTask.getResult();
-            if (!walletDoc.exists()) {
-                Toast.makeText(getContext(), "Wallet not found", Toast.LENGTH_SHORT).show();
-                return;
-            }
-
-            Map<String, Object> walletMap = (Map<String, Object>) walletDoc.get("wallet");
-            if (walletMap == null) {
-                Toast.makeText(getContext(), "Wallet data not found", Toast.LENGTH_SHORT).show();
-                return;
-            }
-
-            com.koigzzzz.cex.models.Wallet wallet = new com.koigzzzz.cex.models.Wallet();
-            wallet.setUsdt(((Number) walletMap.get("usdt")).doubleValue());
-            wallet.setBtc(((Number) walletMap.get("btc")).doubleValue());
-            wallet.setEth(((Number) walletMap.get("eth")).doubleValue());
-            wallet.setSol(((Number) walletMap.get("sol")).doubleValue());
-            wallet.setBnb(((Number) walletMap.get("bnb")).doubleValue());
-
-            double total = order.getPrice() * order.getQuantity();
-
-            // Refund reserved funds
-            if (order.getType().equals(Order.TYPE_BUY)) {
-                // Refund USDT that was reserved for buy order
-                wallet.setUsdt(wallet.getUsdt() + total);
-            } else {
-                // Refund tokens that were reserved for sell order
-                wallet.setBalance(order.getSymbol(), wallet.getBalance(order.getSymbol()) + order.getQuantity());
-            }
-
-            // Update order status to cancelled
-            firebaseHelper.updateOrderStatus(order.getOrderId(), Order.STATUS_CANCELLED, updateTask -> {
-                if (updateTask.isSuccessful()) {
-                    // Update wallet with refunded funds
-                    firebaseHelper.updateWallet(userId, wallet.toMap(), updateWalletTask -> {
-                        if (isAdded() && getContext() != null) {
-                            if (updateWalletTask.isSuccessful()) {
-                                Toast.makeText(getContext(), "Order cancelled", Toast.LENGTH_SHORT).show();
-                                loadOrders(); // Reload orders list
-                            } else {
-                                Toast.makeText(getContext(), "Error refunding funds", Toast.LENGTH_SHORT).show();
-                            }
-                        }
-                    });
+        // Status change and refund of the reserved funds commit together
+        firebaseHelper.cancelOrder(order.getOrderId(), cancelTask -> {
+            if (isAdded() && getContext() != null) {
+                if (cancelTask.isSuccessful()) {
+                    Toast.makeText(getContext(), "Order cancelled", Toast.LENGTH_SHORT).show();
                 } else {
-                    if (isAdded() && getContext() != null) {
-                        Toast.makeText(getContext(), "Error cancelling order", Toast.LENGTH_SHORT).show();
-                    }
+                    String errorMsg = cancelTask.getException() != null ? cancelTask.getException().getMessage() : "Unknown error";
+                    Toast.makeText(getContext(), "Error cancelling order: " + errorMsg, Toast.LENGTH_SHORT).show();
                 }
-            });
+                loadOrders(); // Reload orders list
+            }
         });
     }
 
     @Override
     public void onResume() {
         super.onResume();
+        OrderIntentQueue.getInstance(requireContext()).addListener(orderQueueListener);
         loadOrders();
     }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        OrderIntentQueue.getInstance(requireContext()).removeListener(orderQueueListener);
+    }
 }
 
@@ -2,6 +2,8 @@ package com.koigzzzz.cex.fragments;
 
 import android.graphics.Color;
 import android.os.Bundle;
+import android.os.Handler;
+import android.os.Looper;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
@@ -11,37 +13,71 @@ import android.widget.Toast;
 import androidx.annotation.NonNull;
 import androidx.annotation.Nullable;
 import androidx.fragment.app.Fragment;
+import androidx.recyclerview.widget.ConcatAdapter;
+import androidx.recyclerview.widget.LinearLayoutManager;
+import androidx.recyclerview.widget.RecyclerView;
 
+import com.github.mikephil.charting.charts.LineChart;
+import com.github.mikephil.charting.data.Entry;
+import com.github.mikephil.charting.data.LineData;
+import com.github.mikephil.charting.data.LineDataSet;
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.koigzzzz.cex.R;
+import com.koigzzzz.cex.adapters.HeaderAdapter;
+import com.koigzzzz.cex.adapters.HoldingAdapter;
+import com.koigzzzz.cex.models.Holding;
 import com.koigzzzz.cex.models.Wallet;
 import com.koigzzzz.cex.models.TokenPrice;
+import com.koigzzzz.cex.utils.CorrelationEngine;
 import com.koigzzzz.cex.utils.FirebaseHelper;
+import com.koigzzzz.cex.utils.PortfolioHistoryStore;
+import com.koigzzzz.cex.utils.PortfolioLedger;
+import com.koigzzzz.cex.utils.PortfolioRiskAnalytics;
+import com.koigzzzz.cex.utils.PortfolioValuation;
 import com.koigzzzz.cex.utils.PortfolioValueTracker;
 import com.koigzzzz.cex.utils.PriceManager;
 
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 public class PortfolioFragment extends Fragment {
 
-    private TextView tvTotalBalance, tvUsdtBalance;
-    private TextView tvBtcBalance, tvBtcValue;
-    private TextView tvEthBalance, tvEthValue;
-    private TextView tvSolBalance, tvSolValue;
-    private TextView tvBnbBalance, tvBnbValue;
-    private TextView tvRevenue1d, tvRevenue3d, tvRevenue7d;
+    private TextView tvTotalBalance;
+    private RecyclerView recyclerViewHoldings;
+    private HoldingAdapter holdingAdapter;
+    private TextView tvRevenue1d, tvRevenue3d, tvRevenue7d, tvReturn7d;
+    private LineChart chartEquity;
+    private TextView tvRiskVolatility, tvRiskSharpe, tvRiskDrawdown, tvRiskCorrelation, tvRiskContribution;
     private FirebaseHelper firebaseHelper;
     private PriceManager priceManager;
     private PortfolioValueTracker portfolioValueTracker;
+    private PortfolioHistoryStore portfolioHistoryStore;
+    private PortfolioLedger portfolioLedger;
+    private PortfolioValuation portfolioValuation;
+    private final PortfolioValuation.Listener valuationListener = this::onValuationChanged;
+    private PortfolioRiskAnalytics riskAnalytics;
+    private final PortfolioRiskAnalytics.Listener riskListener = this::updateRiskDisplay;
     private String userId;
     private Wallet userWallet;
+    private double lastTotalValue = -1;
+
+    // Ticks for many tokens arrive in bursts; re-sort, diff and re-total at most this often
+    private static final long HOLDINGS_REFRESH_DELAY = 250;
+    private final Handler refreshHandler = new Handler(Looper.getMainLooper());
+    private final Runnable holdingsRefreshRunnable = this::refreshHoldings;
+    private boolean holdingsRefreshPending = false;
     
     // Time period constants (in milliseconds)
     private static final long PERIOD_1_DAY = 24 * 60 * 60 * 1000;     // 1 day
     private static final long PERIOD_3_DAYS = 3 * 24 * 60 * 60 * 1000; // 3 days
     private static final long PERIOD_7_DAYS = 7 * 24 * 60 * 60 * 1000; // 7 days
+    private static final long PERIOD_30_DAYS = 30 * 24 * 60 * 60 * 1000L; // 30 days
+    private static final long EQUITY_STEP = 60 * 60 * 1000; // 1 hour per chart point
 
     @Override
     public void onCreate(@Nullable Bundle savedInstanceState) {
@@ -49,6 +85,10 @@ public class PortfolioFragment extends Fragment {
         firebaseHelper = FirebaseHelper.getInstance();
         priceManager = PriceManager.getInstance();
         portfolioValueTracker = PortfolioValueTracker.getInstance();
+        portfolioHistoryStore = PortfolioHistoryStore.getInstance(requireContext());
+        portfolioLedger = PortfolioLedger.getInstance();
+        portfolioValuation = PortfolioValuation.getInstance();
+        riskAnalytics = PortfolioRiskAnalytics.getInstance();
         userId = firebaseHelper.getCurrentUser() != null ? firebaseHelper.getCurrentUser().getUid() : null;
     }
 
@@ -62,31 +102,62 @@ public class PortfolioFragment extends Fragment {
             return view;
         }
 
-        initializeViews(view);
+        initializeViews(inflater, view);
         loadPortfolio();
 
         return view;
     }
 
-    private void initializeViews(View view) {
-        tvTotalBalance = view.findViewById(R.id.tvTotalBalance);
-        tvUsdtBalance = view.findViewById(R.id.tvUsdtBalance);
-        tvBtcBalance = view.findViewById(R.id.tvBtcBalance);
-        tvBtcValue = view.findViewById(R.id.tvBtcValue);
-        tvEthBalance = view.findViewById(R.id.tvEthBalance);
-        tvEthValue = view.findViewById(R.id.tvEthValue);
-        tvSolBalance = view.findViewById(R.id.tvSolBalance);
-        tvSolValue = view.findViewById(R.id.tvSolValue);
-        tvBnbBalance = view.findViewById(R.id.tvBnbBalance);
-        tvBnbValue = view.findViewById(R.id.tvBnbValue);
-        tvRevenue1d = view.findViewById(R.id.tvRevenue1d);
-        tvRevenue3d = view.findViewById(R.id.tvRevenue3d);
-        tvRevenue7d = view.findViewById(R.id.tvRevenue7d);
+    private void initializeViews(LayoutInflater inflater, View view) {
+        recyclerViewHoldings = view.findViewById(R.id.recyclerViewHoldings);
+
+        // Total and revenue cards scroll as the first item of the holdings list
+        View header = inflater.inflate(R.layout.header_portfolio, recyclerViewHoldings, false);
+        tvTotalBalance = header.findViewById(R.id.tvTotalBalance);
+        tvRevenue1d = header.findViewById(R.id.tvRevenue1d);
+        tvRevenue3d = header.findViewById(R.id.tvRevenue3d);
+        tvRevenue7d = header.findViewById(R.id.tvRevenue7d);
+        tvReturn7d = header.findViewById(R.id.tvReturn7d);
+        chartEquity = header.findViewById(R.id.chartEquity);
+        tvRiskVolatility = header.findViewById(R.id.tvRiskVolatility);
+        tvRiskSharpe = header.findViewById(R.id.tvRiskSharpe);
+        tvRiskDrawdown = header.findViewById(R.id.tvRiskDrawdown);
+        tvRiskCorrelation = header.findViewById(R.id.tvRiskCorrelation);
+        tvRiskContribution = header.findViewById(R.id.tvRiskContribution);
+        setupEquityChart();
+
+        holdingAdapter = new HoldingAdapter();
+        recyclerViewHoldings.setLayoutManager(new LinearLayoutManager(getContext()));
+        recyclerViewHoldings.setAdapter(new ConcatAdapter(new HeaderAdapter(header), holdingAdapter));
+    }
+
+    private void setupEquityChart() {
+        chartEquity.setBackgroundColor(Color.TRANSPARENT);
+        chartEquity.getDescription().setEnabled(false);
+        chartEquity.setTouchEnabled(false);
+        chartEquity.setDrawGridBackground(false);
+        chartEquity.getLegend().setEnabled(false);
+        chartEquity.setNoDataText("Loading 30d history...");
+        chartEquity.setNoDataTextColor(Color.parseColor("#848E9C"));
+        chartEquity.getXAxis().setEnabled(false);
+        chartEquity.getAxisLeft().setEnabled(false);
+        chartEquity.getAxisRight().setEnabled(false);
+        chartEquity.setAutoScaleMinMaxEnabled(true);
     }
 
     private void loadPortfolio() {
         if (getContext() == null || userId == null) return;
 
+        // Stored value history is read lazily (bounded, off the main thread) the first time
+        // the portfolio is shown; refresh revenue once it is in
+        portfolioHistoryStore.loadHistory(userId, () -> {
+            // Seed the rolling risk window from the value history (runs in the background)
+            riskAnalytics.rebuild(userId);
+            if (isAdded() && getContext() != null && lastTotalValue >= 0) {
+                updateRevenueDisplay(lastTotalValue);
+            }
+        });
+
         firebaseHelper.getUserDocument(userId, task -> {
             if (task.isSuccessful()) {
                 DocumentSnapshot doc = task.getResult();
@@ -95,111 +166,164 @@ public class PortfolioFragment extends Fragment {
                     if (walletMap != null) {
                         userWallet = new Wallet();
                         userWallet.loadFromMap(walletMap); // Supports dynamic tokens
+                        userWallet.loadReservations((Map<String, Object>) doc.get("reservations"));
+
+                        // Rebuild the order/transfer ledger so past values don't depend on
+                        // the app having been open at the time
+                        portfolioLedger.load(userId, userWallet, () -> {
+                            if (isAdded() && getContext() != null) {
+                                if (lastTotalValue >= 0) {
+                                    updateRevenueDisplay(lastTotalValue);
+                                }
+                                updateEquityChart();
+                            }
+                        });
                         
-                        // Load prices and update display
-                        loadPricesAndUpdateDisplay();
+                        // Holdings drive the live valuation; ticks from the price fetch push updates
+                        portfolioValuation.setHoldings(userId, userWallet);
+                        loadPrices();
                     }
                 }
             }
         });
     }
 
-    private void loadPricesAndUpdateDisplay() {
+    private void loadPrices() {
         if (getContext() == null) return;
 
-        priceManager.fetchAllPrices(new PriceManager.AllPricesCallback() {
+        // Only price what the wallet actually holds, including admin-added tokens
+        String[] heldSymbols = portfolioValuation.getPricedSymbols();
+        if (heldSymbols.length == 0) {
+            renderPortfolio();
+            return;
+        }
+
+        // Fresh prices reach PortfolioValuation as ticks; cached answers are applied here
+        priceManager.fetchPricesForSymbols(heldSymbols, new PriceManager.AllPricesCallback() {
             @Override
             public void onPricesReceived(Map<String, TokenPrice> prices) {
+                portfolioValuation.updatePrices(prices);
                 if (isAdded() && getContext() != null) {
-                    updatePortfolioDisplay(prices);
+                    renderPortfolio();
                 }
             }
 
             @Override
             public void onError(String error) {
-                // Use cached prices if available
                 if (isAdded() && getContext() != null) {
-                    Map<String, TokenPrice> cached = new java.util.HashMap<>();
-                    String[] symbols = {"BTC", "ETH", "SOL", "BNB"};
-                    for (String symbol : symbols) {
-                        TokenPrice cachedPrice = priceManager.getCachedPrice(symbol);
-                        if (cachedPrice != null) {
-                            cached.put(symbol, cachedPrice);
-                        }
-                    }
-                    if (!cached.isEmpty()) {
-                        updatePortfolioDisplay(cached);
-                    }
+                    renderPortfolio();
                 }
             }
         });
     }
 
-    private void updatePortfolioDisplay(Map<String, TokenPrice> prices) {
-        if (userWallet == null || !isAdded() || getContext() == null) return;
+    private void onValuationChanged(String symbol) {
+        if (!isAdded() || getContext() == null || !portfolioValuation.hasHoldings(userId)) return;
 
-        NumberFormat format = new DecimalFormat("#,##0.00");
-        NumberFormat tokenFormat = new DecimalFormat("#,##0.00000000");
+        if (symbol == null) {
+            renderPortfolio();
+        } else {
+            scheduleHoldingsRefresh();
+        }
+    }
 
-        // USDT
-        tvUsdtBalance.setText("$" + format.format(userWallet.getUsdt()));
+    private void renderPortfolio() {
+        if (!isAdded() || getContext() == null || !portfolioValuation.hasHoldings(userId)) return;
 
-        double totalValue = userWallet.getUsdt();
+        refreshHandler.removeCallbacks(holdingsRefreshRunnable);
+        refreshHoldings();
+    }
 
-        // BTC
-        double btcBalance = userWallet.getBtc();
-        tvBtcBalance.setText(tokenFormat.format(btcBalance) + " BTC");
-        TokenPrice btcPrice = prices.get("BTC");
-        if (btcPrice != null) {
-            double btcValue = btcBalance * btcPrice.getPrice();
-            tvBtcValue.setText("$" + format.format(btcValue));
-            totalValue += btcValue;
-        } else {
-            tvBtcValue.setText("$0.00");
-        }
+    private void scheduleHoldingsRefresh() {
+        if (holdingsRefreshPending) return;
+        holdingsRefreshPending = true;
+        refreshHandler.postDelayed(holdingsRefreshRunnable, HOLDINGS_REFRESH_DELAY);
+    }
 
-        // ETH
-        double ethBalance = userWallet.getEth();
-        tvEthBalance.setText(tokenFormat.format(ethBalance) + " ETH");
-        TokenPrice ethPrice = prices.get("ETH");
-        if (ethPrice != null) {
-            double ethValue = ethBalance * ethPrice.getPrice();
-            tvEthValue.setText("$" + format.format(ethValue));
-            totalValue += ethValue;
-        } else {
-            tvEthValue.setText("$0.00");
+    /**
+     * Rebuild the holdings list sorted by value (largest first) and let DiffUtil apply
+     * only the rows that changed or moved, then update the total
+     */
+    private void refreshHoldings() {
+        holdingsRefreshPending = false;
+        if (!isAdded() || getContext() == null || holdingAdapter == null) return;
+
+        List<Holding> holdings = portfolioValuation.getHoldings();
+        holdings.sort((a, b) -> {
+            int byValue = Double.compare(b.getValue(), a.getValue());
+            return byValue != 0 ? byValue : a.getSymbol().compareTo(b.getSymbol());
+        });
+        holdingAdapter.submitHoldings(holdings);
+        updateCorrelationDisplay(holdings);
+        boolean fullyPriced = updateTotal();
+        if (fullyPriced) {
+            riskAnalytics.record(userId, System.currentTimeMillis(), lastTotalValue, holdings);
         }
+    }
 
-        // SOL
-        double solBalance = userWallet.getSol();
-        tvSolBalance.setText(tokenFormat.format(solBalance) + " SOL");
-        TokenPrice solPrice = prices.get("SOL");
-        if (solPrice != null) {
-            double solValue = solBalance * solPrice.getPrice();
-            tvSolValue.setText("$" + format.format(solValue));
-            totalValue += solValue;
-        } else {
-            tvSolValue.setText("$0.00");
+    /**
+     * Value-weighted mean correlation between held tokens' 1-minute returns; near 1 means
+     * the holdings move together and diversify little
+     */
+    private void updateCorrelationDisplay(List<Holding> holdings) {
+        Map<String, Double> weights = new HashMap<>();
+        for (Holding holding : holdings) {
+            weights.put(holding.getSymbol(), holding.getValue());
         }
+        double correlation = CorrelationEngine.getInstance().getMatrix().averageCorrelation(weights);
+        tvRiskCorrelation.setText(Double.isNaN(correlation) ? "N/A" : String.format(Locale.US, "%.2f", correlation));
+    }
 
-        // BNB
-        double bnbBalance = userWallet.getBnb();
-        tvBnbBalance.setText(tokenFormat.format(bnbBalance) + " BNB");
-        TokenPrice bnbPrice = prices.get("BNB");
-        if (bnbPrice != null) {
-            double bnbValue = bnbBalance * bnbPrice.getPrice();
-            tvBnbValue.setText("$" + format.format(bnbValue));
-            totalValue += bnbValue;
-        } else {
-            tvBnbValue.setText("$0.00");
+    private void updateRiskDisplay(PortfolioRiskAnalytics.RiskMetrics metrics) {
+        if (!isAdded() || getContext() == null || tvRiskVolatility == null) return;
+
+        tvRiskVolatility.setText(formatPercent(metrics.volatility));
+        tvRiskSharpe.setText(Double.isNaN(metrics.sharpe) ? "N/A" : String.format(Locale.US, "%.2f", metrics.sharpe));
+        tvRiskDrawdown.setText(metrics.returnCount > 0 ? formatPercent(metrics.maxDrawdown) : "N/A");
+
+        // Largest contributors to variance first
+        List<Map.Entry<String, Double>> contributions = new ArrayList<>(metrics.varianceContribution.entrySet());
+        if (contributions.isEmpty()) {
+            tvRiskContribution.setText("Variance contribution: N/A");
+            return;
         }
+        contributions.sort((a, b) -> Double.compare(Math.abs(b.getValue()), Math.abs(a.getValue())));
+        StringBuilder text = new StringBuilder("Variance contribution: ");
+        for (int i = 0; i < Math.min(3, contributions.size()); i++) {
+            if (i > 0) text.append(", ");
+            text.append(contributions.get(i).getKey()).append(' ')
+                    .append(formatPercent(contributions.get(i).getValue()));
+        }
+        tvRiskContribution.setText(text.toString());
+    }
+
+    private String formatPercent(double fraction) {
+        return Double.isNaN(fraction) ? "N/A" : String.format(Locale.US, "%.2f%%", fraction * 100.0);
+    }
+
+    /**
+     * Show the total and revenue, and record the total once every held token is priced
+     * @return Whether the total was complete and recorded
+     */
+    private boolean updateTotal() {
+        NumberFormat format = new DecimalFormat("#,##0.00");
+        double totalValue = portfolioValuation.getTotal();
+        boolean fullyPriced = portfolioValuation.isFullyPriced();
 
         // Total Balance
         tvTotalBalance.setText("$" + format.format(totalValue));
-        
-        // Track portfolio value for revenue calculation
+
+        if (!fullyPriced) {
+            // A total missing unpriced tokens would be stored as a loss; revenue waits too
+            lastTotalValue = -1;
+            updateRevenueDisplay(Double.NaN);
+            return false;
+        }
+
+        // Track portfolio value for revenue calculation (persisted across restarts)
+        lastTotalValue = totalValue;
         if (userId != null) {
-            portfolioValueTracker.addPortfolioValue(userId, totalValue);
+            portfolioHistoryStore.record(userId, totalValue);
             
             // TEST: Uncomment the line below to add test historical data for testing
             // This simulates portfolio values from the past so you can see revenue calculations immediately
@@ -208,6 +332,7 @@ public class PortfolioFragment extends Fragment {
         
         // Calculate and display revenue
         updateRevenueDisplay(totalValue);
+        return true;
     }
     
     private void updateRevenueDisplay(double currentValue) {
@@ -216,55 +341,114 @@ public class PortfolioFragment extends Fragment {
         NumberFormat format = new DecimalFormat("#,##0.00");
         
         // Calculate revenue for each time period
-        double revenue1d = portfolioValueTracker.calculateRevenue(userId, currentValue, PERIOD_1_DAY);
-        double revenue3d = portfolioValueTracker.calculateRevenue(userId, currentValue, PERIOD_3_DAYS);
-        double revenue7d = portfolioValueTracker.calculateRevenue(userId, currentValue, PERIOD_7_DAYS);
+        double revenue1d = calculateRevenue(currentValue, PERIOD_1_DAY);
+        double revenue3d = calculateRevenue(currentValue, PERIOD_3_DAYS);
+        double revenue7d = calculateRevenue(currentValue, PERIOD_7_DAYS);
         
-        // Display 1 day revenue
-        String revenue1dText;
-        if (revenue1d == 0.0) {
-            revenue1dText = "$0.00";
-        } else {
-            String sign = revenue1d >= 0 ? "+" : "-";
-            revenue1dText = sign + "$" + format.format(Math.abs(revenue1d));
-        }
-        tvRevenue1d.setText(revenue1dText);
-        tvRevenue1d.setTextColor(revenue1d >= 0 ? 
-                getResources().getColor(R.color.binance_green, null) : 
+        showRevenue(tvRevenue1d, revenue1d, format);
+        showRevenue(tvRevenue3d, revenue3d, format);
+        showRevenue(tvRevenue7d, revenue7d, format);
+
+        // Display 7 days time-weighted and money-weighted returns
+        double twr7d = portfolioValueTracker.calculateTimeWeightedReturn(userId, currentValue, PERIOD_7_DAYS);
+        double mwr7d = portfolioValueTracker.calculateMoneyWeightedReturn(userId, currentValue, PERIOD_7_DAYS);
+        tvReturn7d.setText(formatPercent(twr7d) + " / " + formatPercent(mwr7d));
+        tvReturn7d.setTextColor(Double.isNaN(twr7d) || twr7d >= 0 ?
+                getResources().getColor(R.color.binance_green, null) :
                 getResources().getColor(R.color.binance_red, null));
-        
-        // Display 3 days revenue
-        String revenue3dText;
-        if (revenue3d == 0.0) {
-            revenue3dText = "$0.00";
-        } else {
-            String sign = revenue3d >= 0 ? "+" : "-";
-            revenue3dText = sign + "$" + format.format(Math.abs(revenue3d));
+    }
+
+    /**
+     * Shows NaN (past value unknown) as N/A rather than a made-up gain or loss
+     */
+    private void showRevenue(TextView view, double revenue, NumberFormat format) {
+        if (Double.isNaN(revenue)) {
+            view.setText("N/A");
+            view.setTextColor(getResources().getColor(R.color.binance_text_secondary, null));
+            return;
         }
-        tvRevenue3d.setText(revenue3dText);
-        tvRevenue3d.setTextColor(revenue3d >= 0 ? 
-                getResources().getColor(R.color.binance_green, null) : 
-                getResources().getColor(R.color.binance_red, null));
-        
-        // Display 7 days revenue
-        String revenue7dText;
-        if (revenue7d == 0.0) {
-            revenue7dText = "$0.00";
+        String text;
+        if (revenue == 0.0) {
+            text = "$0.00";
         } else {
-            String sign = revenue7d >= 0 ? "+" : "-";
-            revenue7dText = sign + "$" + format.format(Math.abs(revenue7d));
+            String sign = revenue >= 0 ? "+" : "-";
+            text = sign + "$" + format.format(Math.abs(revenue));
         }
-        tvRevenue7d.setText(revenue7dText);
-        tvRevenue7d.setTextColor(revenue7d >= 0 ? 
-                getResources().getColor(R.color.binance_green, null) : 
+        view.setText(text);
+        view.setTextColor(revenue >= 0 ?
+                getResources().getColor(R.color.binance_green, null) :
                 getResources().getColor(R.color.binance_red, null));
     }
 
+    /**
+     * Revenue over a period, valuing the past from the order ledger when it can and falling
+     * back to the persisted portfolio value samples otherwise: before the ledger is loaded,
+     * and when a token held back then has no price in memory (price history is not kept
+     * across restarts). Transfers in and out are cash flows, not revenue.
+     * @return Revenue, or NaN if neither the ledger nor the samples know the past value
+     */
+    private double calculateRevenue(double currentValue, long periodMs) {
+        long now = System.currentTimeMillis();
+        double pastValue = portfolioLedger.getValueAt(userId, now - periodMs);
+        if (Double.isNaN(pastValue) || pastValue < 0) {
+            return portfolioValueTracker.calculateRevenue(userId, currentValue, periodMs);
+        }
+        return currentValue - pastValue - portfolioValueTracker.getNetCashFlow(userId, now - periodMs, now);
+    }
+
+    private void updateEquityChart() {
+        if (chartEquity == null || userId == null) return;
+
+        long now = System.currentTimeMillis();
+        List<PortfolioValueTracker.PortfolioValuePoint> curve =
+                portfolioLedger.getEquityCurve(userId, now - PERIOD_30_DAYS, now, EQUITY_STEP);
+        if (curve.size() < 2) {
+            chartEquity.clear();
+            chartEquity.setNoDataText("No history yet");
+            return;
+        }
+
+        ArrayList<Entry> entries = new ArrayList<>();
+        for (int i = 0; i < curve.size(); i++) {
+            entries.add(new Entry(i, (float) curve.get(i).value));
+        }
+
+        int lineColor = curve.get(curve.size() - 1).value >= curve.get(0).value
+                ? Color.parseColor("#0ECB81") // Binance green
+                : Color.parseColor("#F6465D"); // Binance red
+        LineDataSet dataSet = new LineDataSet(entries, "Equity");
+        dataSet.setColor(lineColor);
+        dataSet.setLineWidth(2f);
+        dataSet.setDrawCircles(false);
+        dataSet.setDrawValues(false);
+        dataSet.setDrawFilled(true);
+        dataSet.setFillColor(lineColor);
+        dataSet.setFillAlpha(30);
+
+        chartEquity.setData(new LineData(dataSet));
+        chartEquity.invalidate();
+    }
+
     @Override
     public void onResume() {
         super.onResume();
+        portfolioValuation.addListener(valuationListener);
+        riskAnalytics.addListener(riskListener);
+        PortfolioRiskAnalytics.RiskMetrics metrics = riskAnalytics.getLatest();
+        if (metrics != null) {
+            updateRiskDisplay(metrics);
+        }
         loadPortfolio();
     }
+
+    @Override
+    public void onPause() {
+        super.onPause();
+        portfolioValuation.removeListener(valuationListener);
+        riskAnalytics.removeListener(riskListener);
+        refreshHandler.removeCallbacks(holdingsRefreshRunnable);
+        holdingsRefreshPending = false;
+    }
     
     /**
      * TEST METHOD: Add historical portfolio values for testing revenue calculation
@@ -1,5 +1,6 @@
 package com.koigzzzz.cex.fragments;
 
+import android.graphics.Typeface;
 import android.os.Bundle;
 import android.text.TextUtils;
 import android.view.LayoutInflater;
@@ -7,6 +8,7 @@ import android.view.View;
 import android.view.ViewGroup;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.HorizontalScrollView;
 import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
@@ -19,18 +21,25 @@ import androidx.fragment.app.Fragment;
 
 import com.google.firebase.firestore.DocumentSnapshot;
 import com.google.firebase.firestore.QuerySnapshot;
+import com.koigzzzz.cex.BuildConfig;
 import com.koigzzzz.cex.R;
+import com.koigzzzz.cex.models.TokenPrice;
 import com.koigzzzz.cex.models.Wallet;
 import com.koigzzzz.cex.utils.FirebaseHelper;
+import com.koigzzzz.cex.utils.LatencyTracer;
+import com.koigzzzz.cex.utils.PortfolioValueTracker;
+import com.koigzzzz.cex.utils.PriceManager;
 
 import java.text.DecimalFormat;
 import java.text.NumberFormat;
+import java.util.List;
+import java.util.Locale;
 import java.util.Map;
 
 public class ProfileFragment extends Fragment {
 
     private TextView tvUsername, tvEmail;
-    private Button btnSendTokens;
+    private Button btnSendTokens, btnLatencyStats;
     private FirebaseHelper firebaseHelper;
     private String userId;
     private Wallet userWallet;
@@ -55,8 +64,14 @@ public class ProfileFragment extends Fragment {
         tvUsername = view.findViewById(R.id.tvUsername);
         tvEmail = view.findViewById(R.id.tvEmail);
         btnSendTokens = view.findViewById(R.id.btnSendTokens);
+        btnLatencyStats = view.findViewById(R.id.btnLatencyStats);
 
         btnSendTokens.setOnClickListener(v -> showSendTokenDialog());
+        // Debug screen; release builds keep it hidden
+        if (BuildConfig.DEBUG) {
+            btnLatencyStats.setVisibility(View.VISIBLE);
+            btnLatencyStats.setOnClickListener(v -> showLatencyStatsDialog());
+        }
 
         loadUserProfile();
 
@@ -90,6 +105,43 @@ public class ProfileFragment extends Fragment {
         });
     }
 
+    /**
+     * Debug view of the order path latency percentiles recorded by LatencyTracer
+     */
+    private void showLatencyStatsDialog() {
+        if (getContext() == null) return;
+
+        StringBuilder text = new StringBuilder();
+        List<LatencyTracer.Stats> stats = LatencyTracer.getInstance().getStats();
+        if (stats.isEmpty()) {
+            text.append("No samples yet. Place an order first.");
+        } else {
+            text.append(String.format(Locale.US, "%-26s %5s %8s %8s %8s %8s%n", "span", "n", "p50", "p95", "p99", "max"));
+            for (LatencyTracer.Stats stat : stats) {
+                text.append(String.format(Locale.US, "%-26s %5d %8.1f %8.1f %8.1f %8.1f%n",
+                        stat.name, stat.count, stat.p50Ms, stat.p95Ms, stat.p99Ms, stat.maxMs));
+            }
+            text.append("\nAll times in ms.");
+        }
+
+        TextView tvStats = new TextView(getContext());
+        tvStats.setTypeface(Typeface.MONOSPACE);
+        tvStats.setTextSize(11);
+        tvStats.setTextColor(ContextCompat.getColor(getContext(), R.color.binance_text_primary));
+        tvStats.setText(text);
+        int padding = (int) (16 * getResources().getDisplayMetrics().density);
+        tvStats.setPadding(padding, padding, padding, 0);
+        HorizontalScrollView scrollView = new HorizontalScrollView(getContext());
+        scrollView.addView(tvStats);
+
+        new AlertDialog.Builder(getContext(), R.style.AlertDialogTheme)
+                .setTitle("Latency Stats")
+                .setView(scrollView)
+                .setPositiveButton("Close", null)
+                .setNegativeButton("Reset", (d, which) -> LatencyTracer.getInstance().reset())
+                .show();
+    }
+
     private void showSendTokenDialog() {
         if (getContext() == null) return;
 
@@ -196,6 +248,36 @@ public class ProfileFragment extends Fragment {
         dialog.show();
     }
 
+    /**
+     * An outgoing transfer is a cash flow, not a loss, for portfolio returns. It is valued at
+     * a fetched price (the cache when fresh) before it is sent, and the value is stored on
+     * the transfer record so the ledger can read it back after a restart. With no price it
+     * is recorded as unpriced (NaN), so periods containing it show no revenue or return
+     * rather than a made-up loss.
+     */
+    private void valueTransfer(String tokenSymbol, double amount, ValueCallback callback) {
+        if ("USDT".equalsIgnoreCase(tokenSymbol)) {
+            callback.onValued(amount);
+            return;
+        }
+        PriceManager.getInstance().fetchPrice(tokenSymbol, new PriceManager.PriceCallback() {
+            @Override
+            public void onPriceReceived(TokenPrice tokenPrice) {
+                double price = tokenPrice != null ? tokenPrice.getPrice() : 0.0;
+                callback.onValued(price > 0 ? amount * price : Double.NaN);
+            }
+
+            @Override
+            public void onError(String error) {
+                callback.onValued(Double.NaN);
+            }
+        });
+    }
+
+    private interface ValueCallback {
+        void onValued(double valueUsd);
+    }
+
     private void sendTokens(String recipientUsername, String tokenSymbol, double amount, AlertDialog dialog) {
         if (getContext() == null || userId == null) return;
 
@@ -217,8 +299,11 @@ public class ProfileFragment extends Fragment {
                 }
 
                 // Perform transfer
-                firebaseHelper.transferTokens(userId, recipientUserId, tokenSymbol, amount, transferTask -> {
+                valueTransfer(tokenSymbol, amount, valueUsd -> firebaseHelper.transferTokens(userId, recipientUserId,
+                        tokenSymbol, amount, valueUsd, transferTask -> {
                     if (transferTask.isSuccessful()) {
+                        PortfolioValueTracker.getInstance().addCashFlow(userId, -valueUsd, System.currentTimeMillis());
+
                         Toast.makeText(getContext(), "Tokens sent successfully!", Toast.LENGTH_SHORT).show();
                         // Reload user profile to update balance
                         loadUserProfile();
@@ -231,7 +316,7 @@ public class ProfileFragment extends Fragment {
                                 transferTask.getException().getMessage() : "Transfer failed";
                         Toast.makeText(getContext(), "Error: " + error, Toast.LENGTH_SHORT).show();
                     }
-                });
+                }));
             } else {
                 Toast.makeText(getContext(), "Error finding user: " + recipientUsername, Toast.LENGTH_SHORT).show();
             }
@@ -8,8 +8,11 @@ import android.text.TextUtils;
 import android.view.LayoutInflater;
 import android.view.View;
 import android.view.ViewGroup;
+import android.widget.AdapterView;
 import android.widget.Button;
 import android.widget.EditText;
+import android.widget.LinearLayout;
+import android.widget.Spinner;
 import android.widget.TextView;
 import android.widget.Toast;
 
@@ -30,11 +33,17 @@ import com.github.mikephil.charting.listener.OnChartValueSelectedListener;
 import com.google.android.material.button.MaterialButtonToggleGroup;
 import com.google.android.material.textfield.TextInputLayout;
 import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.ListenerRegistration;
 import com.koigzzzz.cex.R;
+import com.koigzzzz.cex.engine.DepthBook;
 import com.koigzzzz.cex.models.Order;
 import com.koigzzzz.cex.models.TokenPrice;
 import com.koigzzzz.cex.models.Wallet;
 import com.koigzzzz.cex.utils.FirebaseHelper;
+import com.koigzzzz.cex.utils.LatencyTracer;
+import com.koigzzzz.cex.utils.OrderIntentQueue;
+import com.koigzzzz.cex.utils.PendingOrderWatcher;
+import com.koigzzzz.cex.utils.PortfolioValuation;
 import com.koigzzzz.cex.utils.PriceHistoryTracker;
 import com.koigzzzz.cex.utils.PriceManager;
 import com.koigzzzz.cex.utils.PriceMarker;
@@ -49,21 +58,73 @@ import java.util.UUID;
 
 public class TradeFragment extends Fragment {
 
-    private TextView tvSymbol, tvPrice, tvChange24h, tvBalance, tvAvailable, tvMarketPriceIndicator;
-    private EditText etPrice, etQuantity;
+    private TextView tvSymbol, tvPrice, tvChange24h, tvBalance, tvAvailable, tvSyncStatus, tvMarketPriceIndicator;
+    private TextView tvHighLow24h, tvVolatility;
+    private EditText etPrice, etQuantity, etStopPrice;
     private Button btnBuy, btnSell;
     private MaterialButtonToggleGroup toggleOrderType;
-    private TextInputLayout tilPrice;
+    private TextInputLayout tilPrice, tilStopPrice;
+    private Spinner spinnerStopType;
+    private Spinner spinnerDepthBucket;
+    private TextView tvDepthSpread;
+    private final List<View> askRows = new ArrayList<>();
+    private final List<View> bidRows = new ArrayList<>();
+    private final DepthBook depthBook = new DepthBook(DEFAULT_DEPTH_BUCKET);
+    private ListenerRegistration depthRegistration;
     private LineChart chartPrice;
     private String selectedSymbol;
     private PriceManager priceManager;
     private FirebaseHelper firebaseHelper;
-    private Wallet userWallet;
+    private Wallet userWallet; // confirmed wallet with queued orders applied
+    private Map<String, Object> confirmedWalletMap; // as last read from Firestore
+    private Map<String, Object> confirmedReservationsMap;
     private String userId;
     private TokenPrice currentTokenPrice;
     private Handler priceRefreshHandler;
     private Runnable priceRefreshRunnable;
     private static final long PRICE_REFRESH_INTERVAL = 2 * 60 * 1000; // 2 minutes (to respect 10k/day limit)
+    // Positions in @array/stop_order_types
+    private static final int STOP_TYPE_STOP = 0;
+    private static final int STOP_TYPE_STOP_LIMIT = 1;
+    private static final int STOP_TYPE_TRAILING = 2;
+    private static final int STOP_TYPE_OCO = 3;
+    private static final int DEPTH_LEVELS = 8; // rows per side in the order book ladder
+    private static final double DEFAULT_DEPTH_BUCKET = 0.01;
+    private final OrderIntentQueue.Listener orderQueueListener = new OrderIntentQueue.Listener() {
+        @Override
+        public void onQueueChanged() {
+            updateSyncStatus();
+            refreshWallet();
+        }
+
+        @Override
+        public void onCommitted(List<Order> orders) {
+            if (isAdded() && getContext() != null) {
+                loadUserWallet(LatencyTracer.getInstance().start("order.walletReload"));
+            }
+        }
+
+        @Override
+        public void onRejected(List<Order> orders, String error) {
+            // HomeActivity reports it; reload to undo the optimistic balance
+            if (isAdded() && getContext() != null) {
+                loadUserWallet();
+            }
+        }
+    };
+    private final PendingOrderWatcher.Listener orderWatcherListener = new PendingOrderWatcher.Listener() {
+        @Override
+        public void onOrderExecuted(Order order) {
+            // HomeActivity shows the result; just refresh balances shown here
+            if (isAdded() && getContext() != null) {
+                loadUserWallet();
+            }
+        }
+
+        @Override
+        public void onOrderFailed(Order order, String error) {
+        }
+    };
 
     public static TradeFragment newInstance(String symbol) {
         TradeFragment fragment = new TradeFragment();
@@ -127,7 +188,12 @@ public class TradeFragment extends Fragment {
     }
 
     private void updateOrderTypeUI(int checkedId) {
-        if (checkedId == R.id.btnMarketOrder) {
+        boolean stopOrder = checkedId == R.id.btnStopOrder;
+        spinnerStopType.setVisibility(stopOrder ? View.VISIBLE : View.GONE);
+        tilStopPrice.setVisibility(stopOrder ? View.VISIBLE : View.GONE);
+        if (stopOrder) {
+            updateStopOrderUI();
+        } else if (checkedId == R.id.btnMarketOrder) {
             // Market order - hide price input, show market price indicator
             tilPrice.setVisibility(View.GONE);
             tvMarketPriceIndicator.setVisibility(View.VISIBLE);
@@ -139,6 +205,7 @@ public class TradeFragment extends Fragment {
         } else if (checkedId == R.id.btnLimitOrder) {
             // Limit order - show price input, hide market indicator
             tilPrice.setVisibility(View.VISIBLE);
+            tilPrice.setHint("Price (USDT)");
             tvMarketPriceIndicator.setVisibility(View.GONE);
             if (currentTokenPrice != null) {
                 DecimalFormat priceInputFormat = new DecimalFormat("#.####");
@@ -147,18 +214,39 @@ public class TradeFragment extends Fragment {
         }
     }
 
+    private void updateStopOrderUI() {
+        int stopType = spinnerStopType.getSelectedItemPosition();
+        // Stop-limit and OCO also take a limit price
+        boolean hasLimit = stopType == STOP_TYPE_STOP_LIMIT || stopType == STOP_TYPE_OCO;
+        tilPrice.setVisibility(hasLimit ? View.VISIBLE : View.GONE);
+        tilPrice.setHint("Limit Price (USDT)");
+        tilStopPrice.setHint(stopType == STOP_TYPE_TRAILING ? "Trail Offset (USDT)" : "Stop Price (USDT)");
+        tvMarketPriceIndicator.setVisibility(View.VISIBLE);
+        if (currentTokenPrice != null) {
+            tvMarketPriceIndicator.setText("Current market price: $" + String.format("%.2f", currentTokenPrice.getPrice()));
+        }
+    }
+
     private void initializeViews(View view) {
         tvSymbol = view.findViewById(R.id.tvSymbol);
         tvPrice = view.findViewById(R.id.tvPrice);
         tvChange24h = view.findViewById(R.id.tvChange24h);
+        tvHighLow24h = view.findViewById(R.id.tvHighLow24h);
+        tvVolatility = view.findViewById(R.id.tvVolatility);
         tvBalance = view.findViewById(R.id.tvBalance);
         tvAvailable = view.findViewById(R.id.tvAvailable);
+        tvSyncStatus = view.findViewById(R.id.tvSyncStatus);
         etPrice = view.findViewById(R.id.etPrice);
         etQuantity = view.findViewById(R.id.etQuantity);
         btnBuy = view.findViewById(R.id.btnBuy);
         btnSell = view.findViewById(R.id.btnSell);
         toggleOrderType = view.findViewById(R.id.toggleOrderType);
         tilPrice = view.findViewById(R.id.tilPrice);
+        tilStopPrice = view.findViewById(R.id.tilStopPrice);
+        etStopPrice = view.findViewById(R.id.etStopPrice);
+        spinnerStopType = view.findViewById(R.id.spinnerStopType);
+        spinnerDepthBucket = view.findViewById(R.id.spinnerDepthBucket);
+        tvDepthSpread = view.findViewById(R.id.tvDepthSpread);
         tvMarketPriceIndicator = view.findViewById(R.id.tvMarketPriceIndicator);
         chartPrice = view.findViewById(R.id.chartPrice);
 
@@ -171,6 +259,7 @@ public class TradeFragment extends Fragment {
 
         // Setup chart
         setupChart();
+        setupDepthLadder(view);
 
         // Listen to order type toggle changes
         toggleOrderType.addOnButtonCheckedListener((group, checkedId, isChecked) -> {
@@ -178,6 +267,18 @@ public class TradeFragment extends Fragment {
                 updateOrderTypeUI(checkedId);
             }
         });
+        spinnerStopType.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                if (toggleOrderType.getCheckedButtonId() == R.id.btnStopOrder) {
+                    updateStopOrderUI();
+                }
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
     }
     
     private void setupChart() {
@@ -315,8 +416,39 @@ public class TradeFragment extends Fragment {
         chartPrice.fitScreen();
     }
 
+    private void updateWindowStats(String symbol) {
+        PriceHistoryTracker tracker = PriceHistoryTracker.getInstance();
+        NumberFormat priceFormat = new DecimalFormat("#,##0.00");
+        
+        PriceHistoryTracker.WindowStats dayStats = tracker.getWindowStats(symbol, PriceHistoryTracker.WINDOW_24H);
+        if (dayStats != null) {
+            tvHighLow24h.setText("24h High: $" + priceFormat.format(dayStats.high)
+                    + "  Low: $" + priceFormat.format(dayStats.low));
+        } else {
+            tvHighLow24h.setText("24h High: N/A  Low: N/A");
+        }
+        
+        PriceHistoryTracker.WindowStats hourStats = tracker.getWindowStats(symbol, PriceHistoryTracker.WINDOW_1H);
+        if (hourStats != null && hourStats.count > 2) {
+            tvVolatility.setText(String.format("1h Volatility: %.2f%% (StdDev $%s)",
+                    hourStats.volatility * 100.0, priceFormat.format(hourStats.stdDev)));
+        } else {
+            tvVolatility.setText("1h Volatility: N/A");
+        }
+    }
+
     private void loadUserWallet() {
-        if (getContext() == null || userId == null) return;
+        loadUserWallet(null);
+    }
+
+    /**
+     * @param span Ended once the wallet is shown, if not null
+     */
+    private void loadUserWallet(@Nullable LatencyTracer.Span span) {
+        if (getContext() == null || userId == null) {
+            if (span != null) span.cancel();
+            return;
+        }
 
         firebaseHelper.getUserDocument(userId, task -> {
             if (task.isSuccessful()) {
@@ -324,17 +456,48 @@ public class TradeFragment extends Fragment {
                 if (doc != null && doc.exists()) {
                     Map<String, Object> walletMap = (Map<String, Object>) doc.get("wallet");
                     if (walletMap != null) {
-                        userWallet = new Wallet();
-                        userWallet.loadFromMap(walletMap); // Supports dynamic tokens
-                        if (isAdded() && getContext() != null) {
-                            updateBalanceDisplay();
-                        }
+                        confirmedWalletMap = walletMap;
+                        confirmedReservationsMap = (Map<String, Object>) doc.get("reservations");
+                        refreshWallet();
                     }
                 }
             }
+            if (span != null) span.end();
         });
     }
 
+    /**
+     * Rebuild the wallet shown (and checked against) from the last one read from Firestore
+     * plus the orders still waiting in the queue
+     */
+    private void refreshWallet() {
+        if (confirmedWalletMap == null || getContext() == null) return;
+        userWallet = new Wallet();
+        userWallet.loadFromMap(confirmedWalletMap); // Supports dynamic tokens
+        userWallet.loadReservations(confirmedReservationsMap);
+        OrderIntentQueue.getInstance(getContext()).applyPending(userId, userWallet);
+        // Keep the live portfolio total in step with trades
+        PortfolioValuation.getInstance().setHoldings(userId, userWallet);
+        if (isAdded()) {
+            updateBalanceDisplay();
+        }
+    }
+
+    private void updateSyncStatus() {
+        if (!isAdded() || getContext() == null || tvSyncStatus == null) return;
+        OrderIntentQueue orderQueue = OrderIntentQueue.getInstance(getContext());
+        int queued = orderQueue.getQueuedCount(userId);
+        if (queued == 0) {
+            tvSyncStatus.setVisibility(View.GONE);
+            return;
+        }
+        String orders = queued == 1 ? "1 order" : queued + " orders";
+        tvSyncStatus.setText(orderQueue.isWaitingForNetwork()
+                ? "Offline: " + orders + " waiting to sync"
+                : "Syncing " + orders + "...");
+        tvSyncStatus.setVisibility(View.VISIBLE);
+    }
+
     private void loadTokenPrice() {
         if (getContext() == null) return;
 
@@ -369,9 +532,10 @@ public class TradeFragment extends Fragment {
                 
                 // Update chart with price history
                 updateChart(tokenPrice);
+                updateWindowStats(tokenPrice.getSymbol());
                 
-                // Check and execute pending limit orders for this symbol
-                checkAndExecutePendingOrders(tokenPrice.getPrice());
+                // Cached prices produce no tick, so hand them to the order watcher directly
+                PendingOrderWatcher.getInstance().checkPrice(tokenPrice.getSymbol(), tokenPrice.getPrice());
             }
 
             @Override
@@ -386,97 +550,17 @@ public class TradeFragment extends Fragment {
     private void updateBalanceDisplay() {
         if (userWallet != null && isAdded() && getContext() != null) {
             NumberFormat format = new DecimalFormat("#,##0.00");
-            double usdtBalance = userWallet.getUsdt();
-            double tokenBalance = userWallet.getBalance(selectedSymbol);
-            tvBalance.setText("USDT: $" + format.format(usdtBalance));
-            tvAvailable.setText(selectedSymbol + ": " + format.format(tokenBalance));
+            double usdtBalance = userWallet.getAvailable("usdt");
+            double tokenBalance = userWallet.getAvailable(selectedSymbol);
+            double usdtLocked = userWallet.getLocked("usdt");
+            double tokenLocked = userWallet.getLocked(selectedSymbol);
+            tvBalance.setText("USDT: $" + format.format(usdtBalance)
+                    + (usdtLocked > 0 ? " (+$" + format.format(usdtLocked) + " in orders)" : ""));
+            tvAvailable.setText(selectedSymbol + ": " + format.format(tokenBalance)
+                    + (tokenLocked > 0 ? " (+" + format.format(tokenLocked) + " in orders)" : ""));
         }
     }
 
-    private void checkAndExecutePendingOrders(double currentMarketPrice) {
-        if (getContext() == null || userId == null) return;
-
-        // First reload wallet to get latest balance before checking pending orders
-        firebaseHelper.getUserDocument(userId, walletTask -> {
-            if (!walletTask.isSuccessful() || walletTask.getResult() == null) return;
-            
-            com.google.firebase.firestore.DocumentSnapshot walletDoc = walletTask.getResult();
-            if (walletDoc.exists()) {
-                Map<String, Object> walletMap = (Map<String, Object>) walletDoc.get("wallet");
-                if (walletMap != null) {
-                    userWallet = new Wallet();
-                    userWallet.loadFromMap(walletMap); // Supports dynamic tokens
-                }
-            }
-
-            // Now check pending orders
-            firebaseHelper.getPendingOrders(userId, selectedSymbol, task -> {
-                if (task.isSuccessful() && task.getResult() != null) {
-                    com.google.firebase.firestore.QuerySnapshot querySnapshot = task.getResult();
-                    
-                    for (com.google.firebase.firestore.DocumentSnapshot doc : querySnapshot.getDocuments()) {
-                        try {
-                            Order order = new Order();
-                            order.setOrderId(doc.getString("orderId"));
-                            order.setType(doc.getString("type"));
-                            order.setSymbol(doc.getString("symbol"));
-                            
-                            Object qtyObj = doc.get("quantity");
-                            Object priceObj = doc.get("price");
-                            
-                            if (qtyObj != null) order.setQuantity(((Number) qtyObj).doubleValue());
-                            if (priceObj != null) order.setPrice(((Number) priceObj).doubleValue());
-                            
-                            // Check if order can be executed
-                            // Both buy and sell limit orders: Execute when market price reaches or exceeds limit price
-                            // Example: Limit $1100, Market reaches $1100 or above → Execute
-                            boolean canExecute = currentMarketPrice >= order.getPrice();
-                            
-                            if (canExecute) {
-                                executePendingOrder(order, doc.getId());
-                            }
-                        } catch (Exception e) {
-                            android.util.Log.e("TradeFragment", "Error processing pending order: " + doc.getId(), e);
-                        }
-                    }
-                }
-            });
-        });
-    }
-
-    private void executePendingOrder(Order order, String documentId) {
-        if (getContext() == null || userId == null || userWallet == null) return;
-
-        double total = order.getPrice() * order.getQuantity();
-        
-        if (order.getType().equals(Order.TYPE_BUY)) {
-            // Complete buy order: tokens already reserved, just mark as completed
-            // Wallet was already updated when order was created (USDT deducted, tokens will be added)
-            // But since it was reserved, we need to actually add the tokens now
-            userWallet.setBalance(order.getSymbol(), userWallet.getBalance(order.getSymbol()) + order.getQuantity());
-        } else {
-            // Complete sell order: USDT already reserved, just mark as completed
-            // Wallet was already updated when order was created (tokens deducted, USDT will be added)
-            // But since it was reserved, we need to actually add the USDT now
-            userWallet.setUsdt(userWallet.getUsdt() + total);
-        }
-
-        // Update order status to completed
-        firebaseHelper.updateOrderStatus(order.getOrderId(), Order.STATUS_COMPLETED, updateTask -> {
-            if (updateTask.isSuccessful()) {
-                // Update wallet
-                firebaseHelper.updateWallet(userId, userWallet.toMap(), walletTask -> {
-                    if (walletTask.isSuccessful() && isAdded() && getContext() != null) {
-                        loadUserWallet();
-                        android.widget.Toast.makeText(getContext(),
-                                order.getType() + " limit order executed at $" + String.format("%.2f", order.getPrice()),
-                                android.widget.Toast.LENGTH_SHORT).show();
-                    }
-                });
-            }
-        });
-    }
-
     private void setupListeners() {
         btnBuy.setOnClickListener(v -> executeOrder(Order.TYPE_BUY));
         btnSell.setOnClickListener(v -> executeOrder(Order.TYPE_SELL));
@@ -485,12 +569,34 @@ public class TradeFragment extends Fragment {
     private void executeOrder(String orderType) {
         if (getContext() == null) return;
 
+        LatencyTracer tracer = LatencyTracer.getInstance();
+        LatencyTracer.Span total = tracer.start("order.tapToToast");
+        LatencyTracer.Span validation = tracer.start("order.validate");
+        boolean submitted = false;
+        try {
+            submitted = toggleOrderType.getCheckedButtonId() == R.id.btnStopOrder
+                    ? placeStopOrder(orderType, validation, total)
+                    : submitOrder(orderType, validation, total);
+        } finally {
+            // Rejected before reaching Firestore: neither span means anything
+            if (!submitted) {
+                validation.cancel();
+                total.cancel();
+            }
+        }
+    }
+
+    /**
+     * Validate the order form and place a market or limit order.
+     * @return false if the order was rejected before being sent
+     */
+    private boolean submitOrder(String orderType, LatencyTracer.Span validation, LatencyTracer.Span total) {
         String quantityStr = etQuantity.getText().toString().trim();
         boolean isMarketOrder = toggleOrderType.getCheckedButtonId() == R.id.btnMarketOrder;
 
         if (TextUtils.isEmpty(quantityStr)) {
             Toast.makeText(getContext(), "Please enter quantity", Toast.LENGTH_SHORT).show();
-            return;
+            return false;
         }
 
         try {
@@ -501,7 +607,7 @@ public class TradeFragment extends Fragment {
                 // Market order - use current market price from the top display
                 if (currentTokenPrice == null) {
                     Toast.makeText(getContext(), "Please wait for price to load", Toast.LENGTH_SHORT).show();
-                    return;
+                    return false;
                 }
                 price = currentTokenPrice.getPrice();
                 orderTypeStr = Order.ORDER_TYPE_MARKET;
@@ -510,20 +616,20 @@ public class TradeFragment extends Fragment {
                 // IMPORTANT: For limit orders, we MUST have current price loaded to check execution
                 if (currentTokenPrice == null) {
                     Toast.makeText(getContext(), "Please wait for price to load before placing limit order", Toast.LENGTH_SHORT).show();
-                    return;
+                    return false;
                 }
                 
                 String priceStr = etPrice.getText().toString().trim();
                 if (TextUtils.isEmpty(priceStr)) {
                     Toast.makeText(getContext(), "Please enter price for limit order", Toast.LENGTH_SHORT).show();
-                    return;
+                    return false;
                 }
                 price = Double.parseDouble(priceStr);
                 orderTypeStr = Order.ORDER_TYPE_LIMIT;
                 
                 if (price <= 0) {
                     Toast.makeText(getContext(), "Price must be greater than 0", Toast.LENGTH_SHORT).show();
-                    return;
+                    return false;
                 }
             }
 
@@ -532,7 +638,7 @@ public class TradeFragment extends Fragment {
 
             if (quantity <= 0) {
                 Toast.makeText(getContext(), "Quantity must be greater than 0", Toast.LENGTH_SHORT).show();
-                return;
+                return false;
             }
 
             // Create order
@@ -552,17 +658,14 @@ public class TradeFragment extends Fragment {
                 if (currentTokenPrice == null) {
                     // This should never happen due to check above, but safety check
                     Toast.makeText(getContext(), "Cannot place limit order: price not loaded", Toast.LENGTH_SHORT).show();
-                    return;
+                    return false;
                 }
                 
                 double marketPrice = currentTokenPrice.getPrice();
-                // Both buy and sell limit orders: Wait until price reaches limit
-                // Buy limit: Wait until market price rises to limit (or above)
-                // Sell limit: Wait until market price rises to limit (or above) - same logic
-                // Example: Market $1080, Limit $1100 → Wait (pending)
-                //          Market $1100, Limit $1100 → Execute
-                //          Market $1110, Limit $1100 → Execute (price reached/passed limit)
-                shouldExecuteImmediately = marketPrice >= price;
+                // Buy limit: execute once the market is at or below the limit
+                // Sell limit: execute once the market is at or above the limit
+                // Example: Buy limit $1100, Market $1080 → Execute; Market $1120 → Wait (pending)
+                shouldExecuteImmediately = orderType.equals(Order.TYPE_BUY) ? marketPrice <= price : marketPrice >= price;
                 
                 // Log for debugging
                 android.util.Log.d("TradeFragment", String.format(
@@ -572,104 +675,289 @@ public class TradeFragment extends Fragment {
             }
 
             // Execute immediately for market orders or favorable limit orders
-            // Save as pending for limit orders that can't execute yet
-            if (shouldExecuteImmediately) {
-                // Execute immediately
-                if (orderType.equals(Order.TYPE_BUY)) {
-                    // Check if user has enough USDT
-                    if (userWallet.getUsdt() < total) {
-                        Toast.makeText(getContext(), "Insufficient USDT balance", Toast.LENGTH_SHORT).show();
-                        return;
-                    }
-                    // Update wallet: deduct USDT, add token
-                    userWallet.setUsdt(userWallet.getUsdt() - total);
-                    userWallet.setBalance(selectedSymbol, userWallet.getBalance(selectedSymbol) + quantity);
-                } else {
-                    // Check if user has enough tokens
-                    if (userWallet.getBalance(selectedSymbol) < quantity) {
-                        Toast.makeText(getContext(), "Insufficient " + selectedSymbol + " balance", Toast.LENGTH_SHORT).show();
-                        return;
-                    }
-                    // Update wallet: deduct token, add USDT
-                    userWallet.setBalance(selectedSymbol, userWallet.getBalance(selectedSymbol) - quantity);
-                    userWallet.setUsdt(userWallet.getUsdt() + total);
+            // Save as pending for limit orders that can't execute yet (their funds are reserved)
+            // Fast local balance check; placeOrder re-checks inside its transaction
+            if (orderType.equals(Order.TYPE_BUY)) {
+                if (userWallet.getAvailable("usdt") < total) {
+                    Toast.makeText(getContext(), "Insufficient USDT balance", Toast.LENGTH_SHORT).show();
+                    return false;
                 }
+            } else if (userWallet.getAvailable(selectedSymbol) < quantity) {
+                Toast.makeText(getContext(), "Insufficient " + selectedSymbol + " balance", Toast.LENGTH_SHORT).show();
+                return false;
+            }
+            if (shouldExecuteImmediately) {
                 order.setStatus(Order.STATUS_COMPLETED);
+                order.setClosedAt(order.getTimestamp());
+                order.setExecutionPrice(price);
             } else {
-                // Limit order not yet fillable - save as pending
-                // Reserve funds for pending orders
-                if (orderType.equals(Order.TYPE_BUY)) {
-                    // Check if user has enough USDT
-                    if (userWallet.getUsdt() < total) {
-                        Toast.makeText(getContext(), "Insufficient USDT balance", Toast.LENGTH_SHORT).show();
-                        return;
-                    }
-                    // Reserve USDT for pending buy order (deduct from available balance)
-                    userWallet.setUsdt(userWallet.getUsdt() - total);
-                } else {
-                    // Check if user has enough tokens
-                    if (userWallet.getBalance(selectedSymbol) < quantity) {
-                        Toast.makeText(getContext(), "Insufficient " + selectedSymbol + " balance", Toast.LENGTH_SHORT).show();
-                        return;
-                    }
-                    // Reserve tokens for pending sell order (deduct from available balance)
-                    userWallet.setBalance(selectedSymbol, userWallet.getBalance(selectedSymbol) - quantity);
-                }
                 order.setStatus(Order.STATUS_PENDING);
             }
 
-            firebaseHelper.createOrder(order, createTask -> {
-                if (createTask.isSuccessful()) {
-                    // Update wallet in Firestore
-                    firebaseHelper.updateWallet(userId, userWallet.toMap(), updateTask -> {
-                        if (isAdded() && getContext() != null) {
-                            if (updateTask.isSuccessful()) {
-                                if (order.getStatus().equals(Order.STATUS_COMPLETED)) {
-                                    Toast.makeText(getContext(),
-                                            orderType + " order executed successfully!", Toast.LENGTH_SHORT).show();
-                                } else {
-                                    Toast.makeText(getContext(),
-                                            "Limit order placed. Will execute when price reaches " + String.format("%.2f", price),
-                                            Toast.LENGTH_LONG).show();
-                                }
-                                loadUserWallet();
-                                etQuantity.setText("");
-                                if (orderTypeStr.equals(Order.ORDER_TYPE_LIMIT)) {
-                                    etPrice.setText("");
-                                }
-                            } else {
-                                Toast.makeText(getContext(),
-                                        "Error updating wallet: " + updateTask.getException().getMessage(),
-                                        Toast.LENGTH_LONG).show();
-                            }
-                        }
-                    });
-                } else {
-                    if (isAdded() && getContext() != null) {
-                        Toast.makeText(getContext(),
-                                "Error creating order: " + createTask.getException().getMessage(),
-                                Toast.LENGTH_LONG).show();
-                    }
-                }
-            });
+            validation.end();
+            if (shouldExecuteImmediately) {
+                fillNow(order, total);
+            } else {
+                // Shown as placed right away; the queue commits the order and its reservation
+                // together and rolls back (see orderQueueListener) if it is refused
+                OrderIntentQueue.getInstance(getContext()).enqueue(order);
+                Toast.makeText(getContext(),
+                        "Limit order placed. Will execute when price reaches " + String.format("%.2f", price),
+                        Toast.LENGTH_LONG).show();
+                total.end();
+            }
+            etQuantity.setText("");
+            if (orderTypeStr.equals(Order.ORDER_TYPE_LIMIT)) {
+                etPrice.setText("");
+            }
+            return true;
 
         } catch (NumberFormatException e) {
             if (getContext() != null) {
                 Toast.makeText(getContext(), "Invalid number format", Toast.LENGTH_SHORT).show();
             }
+            return false;
+        }
+    }
+
+    /**
+     * Commit an order that fills at the price on screen. Unlike pending orders it is not
+     * queued: it only succeeds while online and while the quote is fresh (see
+     * FirebaseHelper.placeOrder), and is reported executed once it has committed.
+     */
+    private void fillNow(Order order, LatencyTracer.Span total) {
+        firebaseHelper.placeOrder(order, task -> {
+            total.end();
+            if (!isAdded() || getContext() == null) return;
+            if (task.isSuccessful()) {
+                Toast.makeText(getContext(), order.getType() + " order executed at $"
+                        + String.format("%.2f", order.getExecutionPrice()), Toast.LENGTH_SHORT).show();
+                loadUserWallet(LatencyTracer.getInstance().start("order.walletReload"));
+            } else {
+                String error = task.getException() != null ? task.getException().getMessage() : "Unknown error";
+                Toast.makeText(getContext(), "Order not executed: " + error, Toast.LENGTH_LONG).show();
+            }
+        });
+    }
+
+    /**
+     * Place a stop, stop-limit, trailing-stop or OCO order. These always start pending and
+     * are triggered by PendingOrderWatcher; a stop that the market has already passed is
+     * rejected rather than executed at once.
+     * @return false if the order was rejected before being sent
+     */
+    private boolean placeStopOrder(String side, LatencyTracer.Span validation, LatencyTracer.Span total) {
+        if (currentTokenPrice == null) {
+            Toast.makeText(getContext(), "Please wait for price to load", Toast.LENGTH_SHORT).show();
+            return false;
+        }
+        int stopType = spinnerStopType.getSelectedItemPosition();
+        boolean buy = side.equals(Order.TYPE_BUY);
+        double marketPrice = currentTokenPrice.getPrice();
+        double quantity, stopValue, limitPrice = 0;
+        try {
+            quantity = Double.parseDouble(etQuantity.getText().toString().trim());
+            stopValue = Double.parseDouble(etStopPrice.getText().toString().trim());
+            if (stopType == STOP_TYPE_STOP_LIMIT || stopType == STOP_TYPE_OCO) {
+                limitPrice = Double.parseDouble(etPrice.getText().toString().trim());
+            }
+        } catch (NumberFormatException e) {
+            Toast.makeText(getContext(), "Please enter valid quantity and prices", Toast.LENGTH_SHORT).show();
+            return false;
+        }
+        if (quantity <= 0 || stopValue <= 0 || (limitPrice <= 0 && (stopType == STOP_TYPE_STOP_LIMIT || stopType == STOP_TYPE_OCO))) {
+            Toast.makeText(getContext(), "Quantity and prices must be greater than 0", Toast.LENGTH_SHORT).show();
+            return false;
+        }
+        // A buy stop fires on a rise, a sell stop on a fall
+        if (stopType != STOP_TYPE_TRAILING && (buy ? stopValue <= marketPrice : stopValue >= marketPrice)) {
+            Toast.makeText(getContext(), "Stop price must be " + (buy ? "above" : "below") + " the current price",
+                    Toast.LENGTH_SHORT).show();
+            return false;
+        }
+        if (stopType == STOP_TYPE_OCO && (buy ? limitPrice >= marketPrice : limitPrice <= marketPrice)) {
+            Toast.makeText(getContext(), "OCO limit price must be " + (buy ? "below" : "above") + " the current price",
+                    Toast.LENGTH_SHORT).show();
+            return false;
+        }
+
+        Order order;
+        Order ocoLimit = null;
+        if (stopType == STOP_TYPE_TRAILING) {
+            // Price records where the trail started
+            order = new Order(UUID.randomUUID().toString(), userId, side, Order.ORDER_TYPE_TRAILING_STOP,
+                    selectedSymbol, quantity, marketPrice);
+            order.setTrailingOffset(stopValue);
+        } else if (stopType == STOP_TYPE_STOP_LIMIT) {
+            order = new Order(UUID.randomUUID().toString(), userId, side, Order.ORDER_TYPE_STOP_LIMIT,
+                    selectedSymbol, quantity, limitPrice);
+            order.setStopPrice(stopValue);
+        } else {
+            order = new Order(UUID.randomUUID().toString(), userId, side, Order.ORDER_TYPE_STOP,
+                    selectedSymbol, quantity, stopValue);
+            order.setStopPrice(stopValue);
+            if (stopType == STOP_TYPE_OCO) {
+                ocoLimit = new Order(UUID.randomUUID().toString(), userId, side, Order.ORDER_TYPE_LIMIT,
+                        selectedSymbol, quantity, limitPrice);
+            }
+        }
+
+        // Fast local balance check; placement re-checks inside its transaction
+        double required = order.getPaidAmount(order.getReservationPrice());
+        if (ocoLimit != null) {
+            required = Math.max(required, ocoLimit.getPaidAmount(ocoLimit.getReservationPrice()));
+        }
+        double available = userWallet.getAvailable(buy ? "usdt" : selectedSymbol);
+        if (available < required) {
+            Toast.makeText(getContext(), "Insufficient " + (buy ? "USDT" : selectedSymbol) + " balance",
+                    Toast.LENGTH_SHORT).show();
+            return false;
+        }
+
+        validation.end();
+        OrderIntentQueue orderQueue = OrderIntentQueue.getInstance(getContext());
+        if (ocoLimit != null) {
+            orderQueue.enqueueOco(ocoLimit, order);
+        } else {
+            orderQueue.enqueue(order);
+        }
+        Toast.makeText(getContext(), spinnerStopType.getSelectedItem() + " order placed",
+                Toast.LENGTH_SHORT).show();
+        etQuantity.setText("");
+        etStopPrice.setText("");
+        etPrice.setText("");
+        total.end();
+        return true;
+    }
+
+    /**
+     * Build the ladder rows once; renderDepth only rewrites their text
+     */
+    private void setupDepthLadder(View view) {
+        LinearLayout layoutAsks = view.findViewById(R.id.layoutDepthAsks);
+        LinearLayout layoutBids = view.findViewById(R.id.layoutDepthBids);
+        LayoutInflater inflater = LayoutInflater.from(view.getContext());
+        for (int i = 0; i < DEPTH_LEVELS; i++) {
+            View askRow = inflater.inflate(R.layout.item_depth_level, layoutAsks, false);
+            ((TextView) askRow.findViewById(R.id.tvDepthPrice)).setTextColor(getResources().getColor(R.color.binance_red, null));
+            layoutAsks.addView(askRow);
+            askRows.add(askRow);
+
+            View bidRow = inflater.inflate(R.layout.item_depth_level, layoutBids, false);
+            ((TextView) bidRow.findViewById(R.id.tvDepthPrice)).setTextColor(getResources().getColor(R.color.binance_green, null));
+            layoutBids.addView(bidRow);
+            bidRows.add(bidRow);
+        }
+
+        spinnerDepthBucket.setOnItemSelectedListener(new AdapterView.OnItemSelectedListener() {
+            @Override
+            public void onItemSelected(AdapterView<?> parent, View view, int position, long id) {
+                depthBook.setBucketSize(Double.parseDouble(parent.getItemAtPosition(position).toString()));
+                renderDepth();
+            }
+
+            @Override
+            public void onNothingSelected(AdapterView<?> parent) {
+            }
+        });
+        renderDepth();
+    }
+
+    /**
+     * Follow this symbol's depth record, which holds every pending limit order aggregated by
+     * exact price; depthBook groups those levels into the selected bucket size
+     */
+    private void startDepthFeed() {
+        if (depthRegistration != null || tvDepthSpread == null) return;
+        depthBook.clear();
+        depthRegistration = firebaseHelper.listenToOrderBook(selectedSymbol, (snapshot, e) -> {
+            if (e != null || snapshot == null) {
+                android.util.Log.e("TradeFragment", "Error listening to order book", e);
+                return;
+            }
+            depthBook.clear();
+            loadDepthSide(snapshot.get("bids"), true);
+            loadDepthSide(snapshot.get("asks"), false);
+            if (isAdded() && getContext() != null) {
+                renderDepth();
+            }
+        });
+    }
+
+    private void stopDepthFeed() {
+        if (depthRegistration != null) {
+            depthRegistration.remove();
+            depthRegistration = null;
+        }
+    }
+
+    private void loadDepthSide(Object side, boolean buy) {
+        if (!(side instanceof Map)) return;
+        for (Map.Entry<?, ?> entry : ((Map<?, ?>) side).entrySet()) {
+            if (!(entry.getValue() instanceof Map)) continue;
+            Map<?, ?> level = (Map<?, ?>) entry.getValue();
+            Object priceObj = level.get("price");
+            Object qtyObj = level.get("quantity");
+            Object ordersObj = level.get("orders");
+            // Levels whose orders have all gone stay in the record at zero
+            if (priceObj instanceof Number && qtyObj instanceof Number && ordersObj instanceof Number
+                    && ((Number) priceObj).doubleValue() > 0 && ((Number) qtyObj).doubleValue() > 0
+                    && ((Number) ordersObj).intValue() > 0) {
+                depthBook.putLevel((buy ? "b" : "a") + entry.getKey(), buy, ((Number) priceObj).doubleValue(),
+                        ((Number) qtyObj).doubleValue(), ((Number) ordersObj).intValue());
+            }
+        }
+    }
+
+    private void renderDepth() {
+        List<DepthBook.Level> asks = depthBook.getLevels(false, DEPTH_LEVELS);
+        List<DepthBook.Level> bids = depthBook.getLevels(true, DEPTH_LEVELS);
+        // Asks read downwards towards the spread, so the best ask is the last row
+        for (int i = 0; i < DEPTH_LEVELS; i++) {
+            int askIndex = DEPTH_LEVELS - 1 - i;
+            bindDepthRow(askRows.get(i), askIndex < asks.size() ? asks.get(askIndex) : null);
+            bindDepthRow(bidRows.get(i), i < bids.size() ? bids.get(i) : null);
+        }
+        if (!asks.isEmpty() && !bids.isEmpty()) {
+            DecimalFormat format = new DecimalFormat("#,##0.00##");
+            tvDepthSpread.setText("Spread: " + format.format(asks.get(0).price - bids.get(0).price));
+        } else {
+            tvDepthSpread.setText("Spread: N/A");
+        }
+    }
+
+    private void bindDepthRow(View row, DepthBook.Level level) {
+        TextView tvPrice = row.findViewById(R.id.tvDepthPrice);
+        TextView tvQuantity = row.findViewById(R.id.tvDepthQuantity);
+        TextView tvOrders = row.findViewById(R.id.tvDepthOrders);
+        if (level == null) {
+            tvPrice.setText("-");
+            tvQuantity.setText("");
+            tvOrders.setText("");
+            return;
         }
+        tvPrice.setText(new DecimalFormat("#,##0.00##").format(level.price));
+        tvQuantity.setText(new DecimalFormat("#,##0.0000").format(level.quantity));
+        tvOrders.setText(String.valueOf(level.orderCount));
     }
 
     @Override
     public void onPause() {
         super.onPause();
         stopPriceRefresh();
+        stopDepthFeed();
+        PendingOrderWatcher.getInstance().removeListener(orderWatcherListener);
+        OrderIntentQueue.getInstance(requireContext()).removeListener(orderQueueListener);
     }
 
     @Override
     public void onResume() {
         super.onResume();
         startPriceRefresh();
+        startDepthFeed();
+        PendingOrderWatcher.getInstance().addListener(orderWatcherListener);
+        OrderIntentQueue.getInstance(requireContext()).addListener(orderQueueListener);
+        updateSyncStatus();
     }
 
     @Override
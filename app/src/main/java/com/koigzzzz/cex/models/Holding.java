@@ -0,0 +1,35 @@
+package com.koigzzzz.cex.models;
+
+public class Holding {
+    private final String symbol;
+    private final double quantity;
+    private final double price; // 0 if not known yet
+    private final double value;
+
+    public Holding(String symbol, double quantity, double price) {
+        this.symbol = symbol;
+        this.quantity = quantity;
+        this.price = price;
+        this.value = quantity * price;
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public double getQuantity() {
+        return quantity;
+    }
+
+    public double getPrice() {
+        return price;
+    }
+
+    public double getValue() {
+        return value;
+    }
+
+    public boolean hasPrice() {
+        return price > 0;
+    }
+}
@@ -8,6 +8,9 @@ public class Order {
     public static final String TYPE_SELL = "SELL";
     public static final String ORDER_TYPE_LIMIT = "LIMIT";
     public static final String ORDER_TYPE_MARKET = "MARKET";
+    public static final String ORDER_TYPE_STOP = "STOP";
+    public static final String ORDER_TYPE_STOP_LIMIT = "STOP_LIMIT";
+    public static final String ORDER_TYPE_TRAILING_STOP = "TRAILING_STOP";
     public static final String STATUS_PENDING = "PENDING";
     public static final String STATUS_COMPLETED = "COMPLETED";
     public static final String STATUS_CANCELLED = "CANCELLED";
@@ -15,13 +18,24 @@ public class Order {
     private String orderId;
     private String userId;
     private String type; // BUY or SELL
-    private String orderType; // LIMIT or MARKET
+    private String orderType; // LIMIT, MARKET, STOP, STOP_LIMIT or TRAILING_STOP
     private String symbol; // BTC, ETH, SOL, BNB
     private double quantity;
-    private double price;
+    private double price; // limit price; for a trailing stop, the price when it was placed
     private double total;
+    private double stopPrice; // STOP and STOP_LIMIT
+    private double trailingOffset; // TRAILING_STOP: distance the stop trails the price by
+    private boolean triggered; // STOP_LIMIT: stop reached, now waiting for the limit
+    private String linkedOrderId; // OCO partner, cancelled when this order fills
+    private double reserved; // legacy; pending orders now lock funds in the user's "reservations" map
+    private double executionPrice; // price the order filled at (average if in several fills)
+    private double filledQuantity; // filled so far; fills are recorded in the order's "fills" subcollection
+    private double averageFillPrice; // quantity-weighted price of the fills so far
+    private String executionId; // id of the execution that closed the order
+    private long version; // bumped on every change after placement, for conditional fills
     private String status;
     private long timestamp;
+    private long closedAt; // when the order was filled or cancelled, 0 while pending
 
     public Order() {
         // Default constructor required for Firestore
@@ -133,6 +147,123 @@ public class Order {
         this.timestamp = timestamp;
     }
 
+    public long getClosedAt() {
+        return closedAt;
+    }
+
+    public void setClosedAt(long closedAt) {
+        this.closedAt = closedAt;
+    }
+
+    public double getStopPrice() {
+        return stopPrice;
+    }
+
+    public void setStopPrice(double stopPrice) {
+        this.stopPrice = stopPrice;
+    }
+
+    public double getTrailingOffset() {
+        return trailingOffset;
+    }
+
+    public void setTrailingOffset(double trailingOffset) {
+        this.trailingOffset = trailingOffset;
+    }
+
+    public boolean isTriggered() {
+        return triggered;
+    }
+
+    public void setTriggered(boolean triggered) {
+        this.triggered = triggered;
+    }
+
+    public String getLinkedOrderId() {
+        return linkedOrderId;
+    }
+
+    public void setLinkedOrderId(String linkedOrderId) {
+        this.linkedOrderId = linkedOrderId;
+    }
+
+    public double getReserved() {
+        return reserved;
+    }
+
+    public void setReserved(double reserved) {
+        this.reserved = reserved;
+    }
+
+    public double getExecutionPrice() {
+        return executionPrice;
+    }
+
+    public void setExecutionPrice(double executionPrice) {
+        this.executionPrice = executionPrice;
+    }
+
+    public double getFilledQuantity() {
+        return filledQuantity;
+    }
+
+    public void setFilledQuantity(double filledQuantity) {
+        this.filledQuantity = filledQuantity;
+    }
+
+    public double getAverageFillPrice() {
+        return averageFillPrice;
+    }
+
+    public void setAverageFillPrice(double averageFillPrice) {
+        this.averageFillPrice = averageFillPrice;
+    }
+
+    public double getRemainingQuantity() {
+        return Math.max(0.0, quantity - filledQuantity);
+    }
+
+    public String getExecutionId() {
+        return executionId;
+    }
+
+    public void setExecutionId(String executionId) {
+        this.executionId = executionId;
+    }
+
+    public long getVersion() {
+        return version;
+    }
+
+    public void setVersion(long version) {
+        this.version = version;
+    }
+
+    public boolean isBuy() {
+        return TYPE_BUY.equals(type);
+    }
+
+    /**
+     * Funds this order pays if it fills at the given price: USDT for a buy, tokens for a sell
+     */
+    public double getPaidAmount(double fillPrice) {
+        return isBuy() ? quantity * fillPrice : quantity;
+    }
+
+    /**
+     * Highest price a pending buy can be expected to fill at, used to size its reservation.
+     * Stops fill at the price that crosses them, so a gap past the stop can cost more.
+     */
+    public double getReservationPrice() {
+        if (ORDER_TYPE_STOP.equals(orderType)) {
+            return stopPrice;
+        }
+        if (ORDER_TYPE_TRAILING_STOP.equals(orderType)) {
+            return price + trailingOffset;
+        }
+        return price;
+    }
+
     public Map<String, Object> toMap() {
         Map<String, Object> map = new HashMap<>();
         map.put("orderId", orderId);
@@ -145,7 +276,52 @@ public class Order {
         map.put("total", total);
         map.put("status", status);
         map.put("timestamp", timestamp);
+        map.put("closedAt", closedAt);
+        map.put("stopPrice", stopPrice);
+        map.put("trailingOffset", trailingOffset);
+        map.put("triggered", triggered);
+        map.put("linkedOrderId", linkedOrderId);
+        map.put("reserved", reserved);
+        map.put("executionPrice", executionPrice);
+        map.put("executionId", executionId);
+        map.put("filledQuantity", filledQuantity);
+        map.put("averageFillPrice", averageFillPrice);
+        map.put("version", version);
         return map;
     }
+
+    /**
+     * Rebuild an order from the output of toMap, e.g. after it was persisted locally
+     */
+    public static Order fromMap(Map<String, Object> map) {
+        Order order = new Order();
+        order.orderId = (String) map.get("orderId");
+        order.userId = (String) map.get("userId");
+        order.type = (String) map.get("type");
+        order.orderType = map.get("orderType") != null ? (String) map.get("orderType") : ORDER_TYPE_LIMIT;
+        order.symbol = (String) map.get("symbol");
+        order.quantity = number(map, "quantity");
+        order.price = number(map, "price");
+        order.total = number(map, "total");
+        order.status = (String) map.get("status");
+        order.timestamp = (long) number(map, "timestamp");
+        order.closedAt = (long) number(map, "closedAt");
+        order.stopPrice = number(map, "stopPrice");
+        order.trailingOffset = number(map, "trailingOffset");
+        order.triggered = Boolean.TRUE.equals(map.get("triggered"));
+        order.linkedOrderId = (String) map.get("linkedOrderId");
+        order.reserved = number(map, "reserved");
+        order.executionPrice = number(map, "executionPrice");
+        order.executionId = (String) map.get("executionId");
+        order.filledQuantity = number(map, "filledQuantity");
+        order.averageFillPrice = number(map, "averageFillPrice");
+        order.version = (long) number(map, "version");
+        return order;
+    }
+
+    private static double number(Map<String, Object> map, String key) {
+        Object value = map.get(key);
+        return value instanceof Number ? ((Number) value).doubleValue() : 0.0;
+    }
 }
 
@@ -3,9 +3,37 @@ package com.koigzzzz.cex.models;
 import java.util.HashMap;
 import java.util.Map;
 
+/**
+ * Balances per asset, split into available (the "wallet" map in Firestore) and locked by
+ * pending orders. Each pending order's lock is a reservation record keyed by its order id
+ * (the "reservations" map in Firestore), so cancelling or filling it releases exactly what
+ * was reserved. Locked totals are kept per asset, so checks against either are O(1).
+ */
 public class Wallet {
+    /**
+     * Funds one pending order (or OCO pair) holds
+     */
+    public static final class Reservation {
+        public final String asset;
+        public final double amount;
+
+        public Reservation(String asset, double amount) {
+            this.asset = asset.toLowerCase();
+            this.amount = amount;
+        }
+
+        public Map<String, Object> toMap() {
+            Map<String, Object> map = new HashMap<>();
+            map.put("asset", asset);
+            map.put("amount", amount);
+            return map;
+        }
+    }
+
     // Internal map to store all token balances (supports dynamic tokens)
     private Map<String, Double> balances;
+    private final Map<String, Double> locked = new HashMap<>();
+    private final Map<String, Reservation> reservations = new HashMap<>();
 
     public Wallet() {
         balances = new HashMap<>();
@@ -69,6 +97,83 @@ public class Wallet {
         balances.put(key, amount);
     }
 
+    /**
+     * Balance free to trade or send; same as getBalance
+     */
+    public double getAvailable(String symbol) {
+        return getBalance(symbol);
+    }
+
+    /**
+     * Balance held by pending orders
+     */
+    public double getLocked(String symbol) {
+        return locked.getOrDefault(symbol.toLowerCase(), 0.0);
+    }
+
+    /**
+     * Everything owned: available plus locked
+     */
+    public double getTotalBalance(String symbol) {
+        return getAvailable(symbol) + getLocked(symbol);
+    }
+
+    public Reservation getReservation(String orderId) {
+        return reservations.get(orderId);
+    }
+
+    /**
+     * Lock funds for a pending order, moving them out of the available balance
+     * @return false (and nothing changes) if not enough is available
+     */
+    public boolean reserve(String orderId, String asset, double amount) {
+        String key = asset.toLowerCase();
+        if (getAvailable(key) < amount) {
+            return false;
+        }
+        release(orderId);
+        balances.put(key, getAvailable(key) - amount);
+        addReservation(orderId, new Reservation(key, amount));
+        return true;
+    }
+
+    /**
+     * Return an order's reserved funds to the available balance
+     * @return The amount released, 0 if the order had no reservation
+     */
+    public double release(String orderId) {
+        Reservation reservation = reservations.remove(orderId);
+        if (reservation == null) {
+            return 0.0;
+        }
+        locked.put(reservation.asset, getLocked(reservation.asset) - reservation.amount);
+        balances.put(reservation.asset, getAvailable(reservation.asset) + reservation.amount);
+        return reservation.amount;
+    }
+
+    /**
+     * Load the reservation records stored next to the wallet, replacing any loaded before
+     */
+    public void loadReservations(Map<String, Object> reservationsMap) {
+        reservations.clear();
+        locked.clear();
+        if (reservationsMap == null) return;
+        for (Map.Entry<String, Object> entry : reservationsMap.entrySet()) {
+            if (!(entry.getValue() instanceof Map)) continue;
+            Map<?, ?> record = (Map<?, ?>) entry.getValue();
+            Object asset = record.get("asset");
+            Object amount = record.get("amount");
+            if (asset instanceof String && amount instanceof Number) {
+                addReservation(entry.getKey(), new Reservation((String) asset, ((Number) amount).doubleValue()));
+            }
+        }
+    }
+
+    private void addReservation(String orderId, Reservation reservation) {
+        reservations.put(orderId, reservation);
+        locked.put(reservation.asset, getLocked(reservation.asset) + reservation.amount);
+    }
+
     // Load wallet from Firestore map (supports dynamic tokens)
     public void loadFromMap(Map<String, Object> walletMap) {
         if (walletMap == null) return;
@@ -99,5 +204,16 @@ public class Wallet {
         }
         return map;
     }
+
+    /**
+     * Like toMap but with locked funds included, i.e. everything owned per asset
+     */
+    public Map<String, Object> toTotalsMap() {
+        Map<String, Object> map = toMap();
+        for (Map.Entry<String, Double> entry : locked.entrySet()) {
+            map.put(entry.getKey(), getTotalBalance(entry.getKey()));
+        }
+        return map;
+    }
 }
 
@@ -0,0 +1,342 @@
+package com.koigzzzz.cex.utils;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Incremental pairwise correlation of 1-minute log returns across tokens.
+ *
+ * Ticks are sampled into synchronized 1-minute bars (last price wins). A token only has a
+ * return in a bar it ticked in, measured from its previous close, so a token that skipped
+ * bars (prices refresh less often than once a minute) contributes no fake zero returns.
+ * When a bar closes every pair of tokens with a return in that bar updates its running
+ * sums, which are exponentially decayed so old bars fade out without keeping the return
+ * history. A bar close costs O(n^2) over the active tokens; reading the matrix never
+ * rescans history. PortfolioFragment reads it to show how correlated the holdings are.
+ */
+public class CorrelationEngine implements PriceHistoryTracker.TickListener {
+    private static CorrelationEngine instance;
+
+    private static final long BAR_MS = PriceHistoryTracker.MINUTE_MS;
+    // Bars weigh half as much after one day of 1-minute bars
+    private static final int DEFAULT_HALF_LIFE_BARS = 24 * 60;
+    private static final int INITIAL_CAPACITY = 16;
+
+    private final double decay;
+
+    // symbol -> slot index in the per-pair arrays
+    private final Map<String, Integer> slots = new HashMap<>();
+    private String[] slotSymbols;
+    private int capacity;
+
+    // Per-slot bar sampling state
+    private double[] lastPrice;
+    private double[] prevClose;
+    // Whether the slot ticked since the last bar close
+    private boolean[] ticked;
+
+    // Per-pair running sums, row-major [i * capacity + j]
+    private double[] weight;     // decayed count of bars where both i and j had a return
+    private double[] sum;        // sum of r_i over those bars
+    private double[] sumSq;      // sum of r_i^2 over those bars
+    private double[] sumCross;   // sum of r_i * r_j (symmetric)
+
+    private long currentBarStart = Long.MIN_VALUE;
+    private long barsClosed;
+
+    // Scratch buffers reused on every bar close
+    private int[] activeSlots;
+    private double[] activeReturns;
+
+    private CorrelationEngine() {
+        this(DEFAULT_HALF_LIFE_BARS);
+    }
+
+    public CorrelationEngine(int halfLifeBars) {
+        if (halfLifeBars <= 0) {
+            throw new IllegalArgumentException("Half-life must be positive");
+        }
+        decay = Math.pow(0.5, 1.0 / halfLifeBars);
+        allocate(INITIAL_CAPACITY);
+    }
+
+    /**
+     * Shared engine fed by PriceHistoryTracker ticks.
+     */
+    public static synchronized CorrelationEngine getInstance() {
+        if (instance == null) {
+            instance = new CorrelationEngine();
+            PriceHistoryTracker.getInstance().addTickListener(instance);
+        }
+        return instance;
+    }
+
+    @Override
+    public void onTick(String symbol, double price, long timestamp) {
+        addTick(symbol, price, timestamp);
+    }
+
+    /**
+     * Record a tick. Closes the previous bar first if the tick starts a new minute.
+     */
+    public synchronized void addTick(String symbol, double price, long timestamp) {
+        if (price <= 0) return;
+
+        long barStart = timestamp - Math.floorMod(timestamp, BAR_MS);
+        if (currentBarStart == Long.MIN_VALUE) {
+            currentBarStart = barStart;
+        } else if (barStart > currentBarStart) {
+            closeBar();
+            currentBarStart = barStart;
+        }
+
+        int slot = slotFor(symbol.toUpperCase());
+        lastPrice[slot] = price;
+        ticked[slot] = true;
+    }
+
+    /**
+     * Stop tracking a token and drop its pair statistics.
+     */
+    public synchronized void removeSymbol(String symbol) {
+        Integer slot = slots.remove(symbol.toUpperCase());
+        if (slot == null) return;
+        slotSymbols[slot] = null;
+        clearSlot(slot);
+    }
+
+    /**
+     * Keep only the given tokens, e.g. the currently enabled token list.
+     */
+    public synchronized void retainSymbols(List<String> symbols) {
+        List<String> keep = new ArrayList<>();
+        for (String symbol : symbols) {
+            keep.add(symbol.toUpperCase());
+        }
+        for (String symbol : new ArrayList<>(slots.keySet())) {
+            if (!keep.contains(symbol)) {
+                removeSymbol(symbol);
+            }
+        }
+    }
+
+    public synchronized long getBarsClosed() {
+        return barsClosed;
+    }
+
+    /**
+     * Current correlation matrix over all tracked tokens. Entries are NaN where a pair
+     * has fewer than two common bars or one side has no variance.
+     */
+    public synchronized CorrelationMatrix getMatrix() {
+        int n = slots.size();
+        String[] symbols = new String[n];
+        int[] index = new int[n];
+        int k = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            if (slotSymbols[slot] != null) {
+                symbols[k] = slotSymbols[slot];
+                index[k] = slot;
+                k++;
+            }
+        }
+
+        double[] values = new double[n * n];
+        for (int a = 0; a < n; a++) {
+            values[a * n + a] = 1.0;
+            for (int b = a + 1; b < n; b++) {
+                double c = correlation(index[a], index[b]);
+                values[a * n + b] = c;
+                values[b * n + a] = c;
+            }
+        }
+        return new CorrelationMatrix(symbols, values);
+    }
+
+    private double correlation(int i, int j) {
+        int ij = i * capacity + j;
+        int ji = j * capacity + i;
+        double w = weight[ij];
+        if (w < 2.0) return Double.NaN;
+        double cov = w * sumCross[ij] - sum[ij] * sum[ji];
+        double varI = w * sumSq[ij] - sum[ij] * sum[ij];
+        double varJ = w * sumSq[ji] - sum[ji] * sum[ji];
+        if (varI <= 0 || varJ <= 0) return Double.NaN;
+        double c = cov / Math.sqrt(varI * varJ);
+        return Math.max(-1.0, Math.min(1.0, c));
+    }
+
+    private void closeBar() {
+        // Collect returns for every token that ticked in this bar and has a previous close.
+        // Tokens that did not tick keep their old close, so their next return spans the gap.
+        int active = 0;
+        for (int slot = 0; slot < capacity; slot++) {
+            if (slotSymbols[slot] == null || !ticked[slot]) continue;
+            ticked[slot] = false;
+            if (prevClose[slot] > 0) {
+                activeSlots[active] = slot;
+                activeReturns[active] = Math.log(lastPrice[slot] / prevClose[slot]);
+                active++;
+            }
+            prevClose[slot] = lastPrice[slot];
+        }
+        if (active < 2) return;
+        barsClosed++;
+
+        // Decay every tracked pair, then fold this bar's returns into pairs present in it
+        for (int slot = 0; slot < capacity; slot++) {
+            if (slotSymbols[slot] == null) continue;
+            int row = slot * capacity;
+            for (int other = 0; other < capacity; other++) {
+                int ij = row + other;
+                weight[ij] *= decay;
+                sum[ij] *= decay;
+                sumSq[ij] *= decay;
+                sumCross[ij] *= decay;
+            }
+        }
+        for (int a = 0; a < active; a++) {
+            int i = activeSlots[a];
+            double ri = activeReturns[a];
+            int row = i * capacity;
+            for (int b = 0; b < active; b++) {
+                if (a == b) continue;
+                double rj = activeReturns[b];
+                int ij = row + activeSlots[b];
+                weight[ij] += 1.0;
+                sum[ij] += ri;
+                sumSq[ij] += ri * ri;
+                sumCross[ij] += ri * rj;
+            }
+        }
+    }
+
+    private int slotFor(String symbol) {
+        Integer slot = slots.get(symbol);
+        if (slot != null) return slot;
+
+        int free = -1;
+        for (int i = 0; i < capacity; i++) {
+            if (slotSymbols[i] == null) {
+                free = i;
+                break;
+            }
+        }
+        if (free < 0) {
+            free = capacity;
+            resize(capacity * 2);
+        }
+        slotSymbols[free] = symbol;
+        slots.put(symbol, free);
+        clearSlot(free);
+        return free;
+    }
+
+    private void clearSlot(int slot) {
+        lastPrice[slot] = 0.0;
+        prevClose[slot] = 0.0;
+        ticked[slot] = false;
+        for (int other = 0; other < capacity; other++) {
+            int ij = slot * capacity + other;
+            int ji = other * capacity + slot;
+            weight[ij] = weight[ji] = 0.0;
+            sum[ij] = sum[ji] = 0.0;
+            sumSq[ij] = sumSq[ji] = 0.0;
+            sumCross[ij] = sumCross[ji] = 0.0;
+        }
+    }
+
+    private void allocate(int newCapacity) {
+        capacity = newCapacity;
+        slotSymbols = new String[newCapacity];
+        lastPrice = new double[newCapacity];
+        prevClose = new double[newCapacity];
+        ticked = new boolean[newCapacity];
+        weight = new double[newCapacity * newCapacity];
+        sum = new double[newCapacity * newCapacity];
+        sumSq = new double[newCapacity * newCapacity];
+        sumCross = new double[newCapacity * newCapacity];
+        activeSlots = new int[newCapacity];
+        activeReturns = new double[newCapacity];
+    }
+
+    private void resize(int newCapacity) {
+        int oldCapacity = capacity;
+        String[] oldSymbols = slotSymbols;
+        double[] oldLast = lastPrice;
+        double[] oldPrev = prevClose;
+        boolean[] oldTicked = ticked;
+        double[] oldWeight = weight;
+        double[] oldSum = sum;
+        double[] oldSumSq = sumSq;
+        double[] oldCross = sumCross;
+
+        allocate(newCapacity);
+        System.arraycopy(oldSymbols, 0, slotSymbols, 0, oldCapacity);
+        System.arraycopy(oldLast, 0, lastPrice, 0, oldCapacity);
+        System.arraycopy(oldPrev, 0, prevClose, 0, oldCapacity);
+        System.arraycopy(oldTicked, 0, ticked, 0, oldCapacity);
+        for (int i = 0; i < oldCapacity; i++) {
+            System.arraycopy(oldWeight, i * oldCapacity, weight, i * newCapacity, oldCapacity);
+            System.arraycopy(oldSum, i * oldCapacity, sum, i * newCapacity, oldCapacity);
+            System.arraycopy(oldSumSq, i * oldCapacity, sumSq, i * newCapacity, oldCapacity);
+            System.arraycopy(oldCross, i * oldCapacity, sumCross, i * newCapacity, oldCapacity);
+        }
+    }
+
+    /**
+     * Correlation matrix snapshot: values is row-major size x size, aligned with symbols.
+     */
+    public static class CorrelationMatrix {
+        public final String[] symbols;
+        public final double[] values;
+        public final int size;
+
+        public CorrelationMatrix(String[] symbols, double[] values) {
+            this.symbols = symbols;
+            this.values = values;
+            this.size = symbols.length;
+        }
+
+        public double get(int i, int j) {
+            return values[i * size + j];
+        }
+
+        public int indexOf(String symbol) {
+            return Arrays.asList(symbols).indexOf(symbol.toUpperCase());
+        }
+
+        /**
+         * Mean correlation over pairs of the given tokens, each pair weighted by the product
+         * of its two weights (e.g. holding values). Pairs with no known correlation are
+         * left out.
+         * @return NaN if no pair of the given tokens has a known correlation
+         */
+        public double averageCorrelation(Map<String, Double> weights) {
+            List<Integer> indices = new ArrayList<>();
+            List<Double> tokenWeights = new ArrayList<>();
+            for (Map.Entry<String, Double> entry : weights.entrySet()) {
+                int index = indexOf(entry.getKey());
+                if (index >= 0 && entry.getValue() > 0) {
+                    indices.add(index);
+                    tokenWeights.add(entry.getValue());
+                }
+            }
+            double weighted = 0.0;
+            double totalWeight = 0.0;
+            for (int a = 0; a < indices.size(); a++) {
+                for (int b = a + 1; b < indices.size(); b++) {
+                    double c = get(indices.get(a), indices.get(b));
+                    if (Double.isNaN(c)) continue;
+                    double w = tokenWeights.get(a) * tokenWeights.get(b);
+                    weighted += w * c;
+                    totalWeight += w;
+                }
+            }
+            return totalWeight > 0 ? weighted / totalWeight : Double.NaN;
+        }
+    }
+}
@@ -0,0 +1,210 @@
+package com.koigzzzz.cex.utils;
+
+import com.koigzzzz.cex.models.Order;
+
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.Map;
+import java.util.Set;
+
+/**
+ * What one fillOrders transaction decides, worked out from plain values it read so the rules
+ * can be tested without Firestore. FirebaseHelper reads the user and order documents, adds
+ * the orders here, decides each execution in chunk order and turns the decisions into writes.
+ *
+ * Each decision sees the earlier ones: orders they closed are no longer pending, a second
+ * execution of an order already handled in the chunk is stale, and the balance check counts
+ * their wallet changes. See FirebaseHelper.fillOrders for the rules themselves.
+ */
+public class FillPlanner {
+    private static final String QUOTE_ASSET = "usdt";
+    // Rounding slack when a fill uses exactly the reserved and free balance
+    static final double BALANCE_TOLERANCE = 1e-9;
+    // Remaining quantity at or below this counts as fully filled
+    static final double QUANTITY_TOLERANCE = 1e-12;
+
+    public enum Outcome {
+        FILLED,
+        PARTIALLY_FILLED,
+        NOT_PENDING,
+        STALE,
+        REJECTED
+    }
+
+    /**
+     * What the transaction read about one order
+     */
+    public static final class OrderState {
+        public final String orderId;
+        public final String userId;
+        public final String status;
+        public final long version;
+        // Last execution applied to or rejected by the order
+        public final String executionId;
+        public final boolean buy;
+        public final String symbol;
+        public final double quantity;
+        public final double filledQuantity;
+        public final double averageFillPrice;
+        // Funds the order holds, from its reservation record or legacy fields
+        public final double reserved;
+        public final String linkedOrderId;
+
+        public OrderState(String orderId, String userId, String status, long version, String executionId,
+                          boolean buy, String symbol, double quantity, double filledQuantity,
+                          double averageFillPrice, double reserved, String linkedOrderId) {
+            this.orderId = orderId;
+            this.userId = userId;
+            this.status = status;
+            this.version = version;
+            this.executionId = executionId;
+            this.buy = buy;
+            this.symbol = symbol;
+            this.quantity = quantity;
+            this.filledQuantity = filledQuantity;
+            this.averageFillPrice = averageFillPrice;
+            this.reserved = reserved;
+            this.linkedOrderId = linkedOrderId;
+        }
+
+        boolean isPending() {
+            return Order.STATUS_PENDING.equals(status);
+        }
+
+        String paidKey() {
+            return buy ? QUOTE_ASSET : symbol.toLowerCase();
+        }
+    }
+
+    /**
+     * Outcome of one execution and, when it applies, what to write
+     */
+    public static final class Decision {
+        public final Outcome outcome;
+        // Committed by an earlier attempt; reported again with nothing to write
+        public final boolean replayed;
+        public final String paidKey;
+        // Quantity and price of this fill (0 quantity if rejected)
+        public final double quantity;
+        public final double price;
+        // The order's running totals after this fill
+        public final double filledQuantity;
+        public final double averageFillPrice;
+        // What stays reserved for the rest of a partly filled order
+        public final double reservationLeft;
+        // OCO partner to cancel along with this execution, or null
+        public final String cancelledSiblingId;
+
+        Decision(Outcome outcome, boolean replayed, String paidKey, double quantity, double price,
+                 double filledQuantity, double averageFillPrice, double reservationLeft, String cancelledSiblingId) {
+            this.outcome = outcome;
+            this.replayed = replayed;
+            this.paidKey = paidKey;
+            this.quantity = quantity;
+            this.price = price;
+            this.filledQuantity = filledQuantity;
+            this.averageFillPrice = averageFillPrice;
+            this.reservationLeft = reservationLeft;
+            this.cancelledSiblingId = cancelledSiblingId;
+        }
+
+        static Decision skipped(Outcome outcome, boolean replayed) {
+            return new Decision(outcome, replayed, null, 0, 0, 0, 0, 0, null);
+        }
+
+        /**
+         * Whether the order (and possibly its partner) must be written
+         */
+        public boolean isApplied() {
+            return !replayed && (outcome == Outcome.FILLED || outcome == Outcome.PARTIALLY_FILLED
+                    || outcome == Outcome.REJECTED);
+        }
+    }
+
+    private final String userId;
+    private final Map<String, Double> balances;
+    private final Map<String, OrderState> orders = new HashMap<>();
+    // Net change per asset across the decisions so far
+    private final Map<String, Double> deltas = new HashMap<>();
+    private final Set<String> closed = new HashSet<>();
+    private final Set<String> handled = new HashSet<>();
+
+    /**
+     * @param balances Available wallet balance per lowercase asset
+     */
+    public FillPlanner(String userId, Map<String, Double> balances) {
+        this.userId = userId;
+        this.balances = balances;
+    }
+
+    /**
+     * Add an order the transaction read, either one being executed or an OCO partner
+     */
+    public void addOrder(OrderState order) {
+        orders.put(order.orderId, order);
+    }
+
+    /**
+     * Decide one execution.
+     * @param quantity Quantity to fill, or 0 for whatever is left
+     * @param alreadyRecorded Whether the order already has a fill record for this execution
+     */
+    public Decision decide(String executionId, String orderId, long expectedVersion, double price,
+                           double quantity, boolean alreadyRecorded) {
+        OrderState order = orders.get(orderId);
+        if (alreadyRecorded) {
+            boolean completed = order != null && Order.STATUS_COMPLETED.equals(order.status);
+            return Decision.skipped(completed ? Outcome.FILLED : Outcome.PARTIALLY_FILLED, true);
+        }
+        if (order != null && executionId.equals(order.executionId)) {
+            return Decision.skipped(Outcome.REJECTED, true);
+        }
+        if (order == null || !order.isPending() || !userId.equals(order.userId) || closed.contains(orderId)) {
+            return Decision.skipped(Outcome.NOT_PENDING, false);
+        }
+        // A second execution of the same order in one chunk was decided on the old version too
+        if (order.version != expectedVersion || !handled.add(orderId)) {
+            return Decision.skipped(Outcome.STALE, false);
+        }
+
+        OrderState sibling = order.linkedOrderId != null ? orders.get(order.linkedOrderId) : null;
+        boolean cancelSibling = sibling != null && sibling.isPending() && !closed.contains(sibling.orderId);
+        String siblingId = cancelSibling ? sibling.orderId : null;
+        String paidKey = order.paidKey();
+        String receivedKey = order.buy ? order.symbol.toLowerCase() : QUOTE_ASSET;
+        double remaining = order.quantity - order.filledQuantity;
+        double filled = quantity > 0 ? Math.min(quantity, remaining) : remaining;
+        boolean lastFill = remaining - filled <= QUANTITY_TOLERANCE;
+        double reserved = order.reserved + (cancelSibling ? sibling.reserved : 0.0);
+        double released = lastFill ? reserved : reserved * filled / remaining;
+        double paid = order.buy ? filled * price : filled;
+        double paidDelta = released - paid;
+        if (cancelSibling) {
+            closed.add(siblingId);
+        }
+
+        if (balances.getOrDefault(paidKey, 0.0) + deltas.getOrDefault(paidKey, 0.0) + paidDelta < -BALANCE_TOLERANCE) {
+            // Gapped past what was reserved and the rest of the balance cannot cover it
+            deltas.merge(paidKey, reserved, Double::sum);
+            closed.add(orderId);
+            return new Decision(Outcome.REJECTED, false, paidKey, 0, price, order.filledQuantity,
+                    order.averageFillPrice, 0, siblingId);
+        }
+        deltas.merge(paidKey, paidDelta, Double::sum);
+        deltas.merge(receivedKey, order.buy ? filled : filled * price, Double::sum);
+        double filledAfter = order.filledQuantity + filled;
+        double averagePrice = (order.averageFillPrice * order.filledQuantity + price * filled) / filledAfter;
+        if (lastFill) {
+            closed.add(orderId);
+        }
+        return new Decision(lastFill ? Outcome.FILLED : Outcome.PARTIALLY_FILLED, false, paidKey, filled, price,
+                filledAfter, averagePrice, lastFill ? 0.0 : reserved - released, siblingId);
+    }
+
+    /**
+     * Net wallet change per asset across every decision so far
+     */
+    public Map<String, Double> getDeltas() {
+        return deltas;
+    }
+}
@@ -11,17 +11,32 @@ import com.google.firebase.auth.FirebaseAuth;
 import com.google.firebase.auth.FirebaseUser;
 import com.google.firebase.firestore.DocumentReference;
 import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.EventListener;
+import com.google.firebase.firestore.FieldPath;
+import com.google.firebase.firestore.FieldValue;
 import com.google.firebase.firestore.FirebaseFirestore;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.google.firebase.firestore.ListenerRegistration;
 import com.google.firebase.firestore.QuerySnapshot;
+import com.google.firebase.firestore.SetOptions;
+import com.google.firebase.firestore.Transaction;
+import com.koigzzzz.cex.engine.DepthDelta;
 import com.koigzzzz.cex.models.Order;
 import com.koigzzzz.cex.models.Token;
 import com.koigzzzz.cex.models.User;
+import com.koigzzzz.cex.models.Wallet;
 
+import java.util.ArrayList;
 import java.util.HashMap;
+import java.util.List;
 import java.util.Map;
 
 public class FirebaseHelper {
     private static final String TAG = "FirebaseHelper";
+    // Firestore's limit on writes in one batch or transaction
+    private static final int MAX_WRITES_PER_COMMIT = 500;
+    // An order filled at the price on screen must commit within this long of being placed
+    private static final long MAX_QUOTE_AGE_MS = 30 * 1000;
     private static FirebaseHelper instance;
     private FirebaseFirestore db;
     private FirebaseAuth auth;
@@ -51,9 +66,11 @@ public class FirebaseHelper {
     }
 
     public void getUserDocument(String userId, OnCompleteListener<DocumentSnapshot> listener) {
+        LatencyTracer.Span span = LatencyTracer.getInstance().start("firestore.getUserDocument");
         db.collection("users")
                 .document(userId)
                 .get()
+                .addOnCompleteListener(task -> span.end())
                 .addOnCompleteListener(listener)
                 .addOnFailureListener(e -> Log.e(TAG, "Error getting user document", e));
     }
@@ -83,6 +100,19 @@ public class FirebaseHelper {
                 .addOnFailureListener(e -> Log.e(TAG, "Error getting user orders", e));
     }
 
+    /**
+     * Orders closed (filled or cancelled) at or after since. Needs a composite index on
+     * userId + closedAt, unlike getUserOrders.
+     */
+    public void getUserOrdersClosedSince(String userId, long since, OnCompleteListener<QuerySnapshot> listener) {
+        db.collection("orders")
+                .whereEqualTo("userId", userId)
+                .whereGreaterThanOrEqualTo("closedAt", since)
+                .get()
+                .addOnCompleteListener(listener)
+                .addOnFailureListener(e -> Log.e(TAG, "Error getting closed orders", e));
+    }
+
     public void getPendingOrders(String userId, String symbol, OnCompleteListener<QuerySnapshot> listener) {
         db.collection("orders")
                 .whereEqualTo("userId", userId)
@@ -93,22 +123,661 @@ public class FirebaseHelper {
                 .addOnFailureListener(e -> Log.e(TAG, "Error getting pending orders", e));
     }
 
-    public void updateOrderStatus(String orderId, String status, OnCompleteListener<Void> listener) {
-        db.collection("orders")
-                .document(orderId)
-                .update("status", status)
+    // Order lifecycle: each call is one transaction that commits the order and its wallet change together.
+    // Every change to an order after placement bumps its "version", so an execution decided on
+    // an older snapshot of the order can be refused.
+    // Each call's round trip is recorded by LatencyTracer as "firestore.<method>".
+    // Pending limit orders are also counted in their symbol's depth record (see listenToOrderBook)
+    // by the same transaction that places, fills or cancels them.
+
+    /**
+     * Create an order and move its funds. A completed order swaps funds at once; a pending
+     * order locks what it may pay (see Order.getReservationPrice) in a reservation record
+     * keyed by its id in the user's "reservations" map. Fails with
+     * FAILED_PRECONDITION on insufficient balance, or for a completed order placed more than
+     * MAX_QUOTE_AGE_MS ago, since its price is no longer the market's. Placing an order id that
+     * already exists succeeds without changing anything, so a placement can be retried safely.
+     */
+    public void placeOrder(Order order, OnCompleteListener<Void> listener) {
+        LatencyTracer.Span span = LatencyTracer.getInstance().start("firestore.placeOrder");
+        DocumentReference userRef = db.collection("users").document(order.getUserId());
+        DocumentReference orderRef = db.collection("orders").document(order.getOrderId());
+        boolean completed = Order.STATUS_COMPLETED.equals(order.getStatus());
+        String paidKey = order.isBuy() ? "usdt" : order.getSymbol().toLowerCase();
+        String receivedKey = order.isBuy() ? order.getSymbol().toLowerCase() : "usdt";
+        double paid = order.getPaidAmount(completed ? order.getPrice() : order.getReservationPrice());
+        double received = order.isBuy() ? order.getQuantity() : order.getTotal();
+        if (completed) {
+            order.setFilledQuantity(order.getQuantity());
+            order.setAverageFillPrice(order.getPrice());
+        }
+
+        db.runTransaction((Transaction.Function<Void>) transaction -> {
+            DocumentSnapshot userDoc = transaction.get(userRef);
+            // Already placed by an earlier attempt whose result was lost
+            if (transaction.get(orderRef).exists()) {
+                return null;
+            }
+            if (completed && System.currentTimeMillis() - order.getTimestamp() > MAX_QUOTE_AGE_MS) {
+                throw new FirebaseFirestoreException("Price quote expired; place the order again",
+                        FirebaseFirestoreException.Code.FAILED_PRECONDITION);
+            }
+            double paidBalance = requireBalance(userDoc, paidKey, paid);
+            Map<String, Object> walletUpdates = new HashMap<>();
+            walletUpdates.put("wallet." + paidKey, paidBalance - paid);
+            if (completed) {
+                walletUpdates.put("wallet." + receivedKey, walletBalance(userDoc, receivedKey) + received);
+            } else {
+                walletUpdates.put(reservationKey(order.getOrderId()), new Wallet.Reservation(paidKey, paid).toMap());
+            }
+            transaction.update(userRef, walletUpdates);
+            DepthDelta depth = new DepthDelta();
+            transaction.set(orderRef, depthCounted(order, depth));
+            writeDepth(transaction, order.getSymbol(), depth);
+            if (completed) {
+                transaction.set(orderRef.collection("fills").document(order.getOrderId()),
+                        fillRecord(order.getOrderId(), order.getQuantity(), order.getPrice(), order.getTimestamp()));
+            }
+            return null;
+        })
+                .addOnCompleteListener(task -> span.end())
                 .addOnCompleteListener(listener)
-                .addOnFailureListener(e -> Log.e(TAG, "Error updating order status", e));
+                .addOnFailureListener(e -> Log.e(TAG, "Error placing order", e));
     }
 
-    public void getAllOrders(String symbol, OnCompleteListener<QuerySnapshot> listener) {
-        db.collection("orders")
-                .whereEqualTo("symbol", symbol)
-                .whereEqualTo("status", Order.STATUS_PENDING)
-                .orderBy("price", com.google.firebase.firestore.Query.Direction.DESCENDING)
+    /**
+     * Place two pending orders as one-cancels-other: when either fills the other is cancelled.
+     * Both must be on the same side of the same symbol; they share one reservation, sized for
+     * whichever leg may pay more and held on the first. Fails with FAILED_PRECONDITION on
+     * insufficient balance. Like placeOrder, safe to retry.
+     */
+    public void placeOcoOrders(Order first, Order second, OnCompleteListener<Void> listener) {
+        if (!first.getType().equals(second.getType()) || !first.getSymbol().equalsIgnoreCase(second.getSymbol())) {
+            throw new IllegalArgumentException("OCO orders must be on the same side of the same symbol");
+        }
+        LatencyTracer.Span span = LatencyTracer.getInstance().start("firestore.placeOcoOrders");
+        DocumentReference userRef = db.collection("users").document(first.getUserId());
+        String paidKey = first.isBuy() ? "usdt" : first.getSymbol().toLowerCase();
+        double paid = Math.max(first.getPaidAmount(first.getReservationPrice()),
+                second.getPaidAmount(second.getReservationPrice()));
+        first.setLinkedOrderId(second.getOrderId());
+        second.setLinkedOrderId(first.getOrderId());
+
+        DocumentReference firstRef = db.collection("orders").document(first.getOrderId());
+        db.runTransaction((Transaction.Function<Void>) transaction -> {
+            DocumentSnapshot userDoc = transaction.get(userRef);
+            if (transaction.get(firstRef).exists()) {
+                return null;
+            }
+            double paidBalance = requireBalance(userDoc, paidKey, paid);
+            transaction.update(userRef, "wallet." + paidKey, paidBalance - paid,
+                    reservationKey(first.getOrderId()), new Wallet.Reservation(paidKey, paid).toMap());
+            DepthDelta depth = new DepthDelta();
+            transaction.set(firstRef, depthCounted(first, depth));
+            transaction.set(db.collection("orders").document(second.getOrderId()), depthCounted(second, depth));
+            writeDepth(transaction, first.getSymbol(), depth);
+            return null;
+        })
+                .addOnCompleteListener(task -> span.end())
+                .addOnCompleteListener(listener)
+                .addOnFailureListener(e -> Log.e(TAG, "Error placing OCO orders", e));
+    }
+
+    /**
+     * Record that a pending stop-limit order reached its stop and now waits for its limit.
+     * Fails with ABORTED if it is no longer pending.
+     */
+    public void markOrderTriggered(String orderId, OnCompleteListener<Void> listener) {
+        LatencyTracer.Span span = LatencyTracer.getInstance().start("firestore.markOrderTriggered");
+        DocumentReference orderRef = db.collection("orders").document(orderId);
+        db.runTransaction((Transaction.Function<Void>) transaction -> {
+            DocumentSnapshot orderDoc = requirePending(transaction.get(orderRef));
+            transaction.update(orderRef, "triggered", true, "version", orderVersion(orderDoc) + 1);
+            return null;
+        })
+                .addOnCompleteListener(task -> span.end())
+                .addOnCompleteListener(listener)
+                .addOnFailureListener(e -> Log.e(TAG, "Error marking order triggered", e));
+    }
+
+    /**
+     * Cancel a pending order, and its OCO partner if it has one, and refund exactly what
+     * their reservations hold. Fails with ABORTED if the order is no longer pending.
+     */
+    public void cancelOrder(String orderId, OnCompleteListener<Void> listener) {
+        LatencyTracer.Span span = LatencyTracer.getInstance().start("firestore.cancelOrder");
+        DocumentReference orderRef = db.collection("orders").document(orderId);
+        db.runTransaction((Transaction.Function<Void>) transaction -> {
+            DocumentSnapshot orderDoc = requirePending(transaction.get(orderRef));
+            DocumentSnapshot siblingDoc = readSibling(transaction, orderDoc);
+            DocumentReference userRef = db.collection("users").document(orderDoc.getString("userId"));
+            DocumentSnapshot userDoc = transaction.get(userRef);
+
+            String paidKey = paidKey(orderDoc);
+            double refund = reservedAmount(userDoc, orderDoc);
+            Map<String, Object> userUpdates = new HashMap<>();
+            userUpdates.put(reservationKey(orderId), FieldValue.delete());
+            long now = System.currentTimeMillis();
+            DepthDelta depth = new DepthDelta();
+            close(transaction, orderDoc, Order.STATUS_CANCELLED, now);
+            updateDepth(depth, orderDoc, 0.0);
+            if (isPending(siblingDoc)) {
+                refund += reservedAmount(userDoc, siblingDoc);
+                userUpdates.put(reservationKey(siblingDoc.getId()), FieldValue.delete());
+                close(transaction, siblingDoc, Order.STATUS_CANCELLED, now);
+                updateDepth(depth, siblingDoc, 0.0);
+            }
+            userUpdates.put("wallet." + paidKey, walletBalance(userDoc, paidKey) + refund);
+            transaction.update(userRef, userUpdates);
+            writeDepth(transaction, orderDoc.getString("symbol"), depth);
+            return null;
+        })
+                .addOnCompleteListener(task -> span.end())
+                .addOnCompleteListener(listener)
+                .addOnFailureListener(e -> Log.e(TAG, "Error cancelling order", e));
+    }
+
+    /**
+     * Fill many of one user's pending orders at once, e.g. everything a price jump crossed,
+     * each at its own execution price and quantity. Orders are committed in chunks that fit
+     * Firestore's 500-write limit: each chunk is one transaction that applies its fills,
+     * cancels the OCO partners of orders that start filling, and applies the net wallet
+     * change in a single update. Chunks commit in order, each after the previous one finishes.
+     * A chunk that fails leaves its orders untouched and the rest still run.
+     *
+     * A fill releases the order's reservation record in proportion to the quantity filled
+     * (all of what is left on the last fill), so a buy credits back whatever the reservation
+     * did not need. A fill that costs more than the released reservation plus the free balance
+     * cancels the order and refunds it instead. Each fill is appended as a small document in
+     * the order's "fills" subcollection, keyed by execution id; the order itself only gets
+     * its running filledQuantity and averageFillPrice updated, and becomes COMPLETED once
+     * nothing is left.
+     *
+     * Fills are idempotent. An execution only applies if the order is still PENDING at the
+     * version it was triggered from, and leaves a fill record (or, if rejected, its id on the
+     * order).
+     * Replaying an execution that already committed (e.g. after a lost acknowledgement)
+     * reports its original outcome without touching the wallet again, and when several
+     * devices race to execute the same order exactly one execution wins. The per-execution
+     * decisions are made by FillPlanner from what each transaction read.
+     */
+    public void fillOrders(String userId, List<Execution> executions, OnCompleteListener<BatchFillResult> listener) {
+        LatencyTracer.Span span = LatencyTracer.getInstance().start("firestore.fillOrders");
+        DocumentReference userRef = db.collection("users").document(userId);
+        List<List<Execution>> chunks = new ArrayList<>();
+        // Four writes per order (itself, its fill record, an OCO partner and at most one depth
+        // record, shared by orders of the same symbol) plus the wallet update
+        int chunkSize = (MAX_WRITES_PER_COMMIT - 1) / 4;
+        for (int start = 0; start < executions.size(); start += chunkSize) {
+            chunks.add(executions.subList(start, Math.min(executions.size(), start + chunkSize)));
+        }
+
+        // Chunks commit one after another: they all update the user document, so running them
+        // at once would only make them abort and retry against each other
+        BatchFillResult result = new BatchFillResult();
+        Task<Void> previous = Tasks.forResult(null);
+        for (List<Execution> chunk : chunks) {
+            previous = previous.continueWithTask(ignored -> fillChunk(userRef, userId, chunk))
+                    .continueWith(task -> {
+                        if (task.isSuccessful()) {
+                            BatchFillResult chunkResult = task.getResult();
+                            result.filled.addAll(chunkResult.filled);
+                            result.partiallyFilled.addAll(chunkResult.partiallyFilled);
+                            result.notPending.addAll(chunkResult.notPending);
+                            result.stale.addAll(chunkResult.stale);
+                            result.rejected.addAll(chunkResult.rejected);
+                        } else {
+                            Log.e(TAG, "Error filling order chunk", task.getException());
+                            for (Execution execution : chunk) {
+                                result.failed.add(execution.orderId);
+                            }
+                        }
+                        return null;
+                    });
+        }
+        previous.continueWith(task -> result)
+                .addOnCompleteListener(task -> span.end())
+                .addOnCompleteListener(listener);
+    }
+
+    /**
+     * One fillOrders chunk as a single transaction
+     */
+    private Task<BatchFillResult> fillChunk(DocumentReference userRef, String userId, List<Execution> chunk) {
+        return db.runTransaction((Transaction.Function<BatchFillResult>) transaction -> {
+            DocumentSnapshot userDoc = transaction.get(userRef);
+            Map<String, DocumentSnapshot> orderDocs = new HashMap<>();
+            Map<String, DocumentSnapshot> fillDocs = new HashMap<>();
+            for (Execution execution : chunk) {
+                DocumentReference orderRef = db.collection("orders").document(execution.orderId);
+                orderDocs.put(execution.orderId, transaction.get(orderRef));
+                fillDocs.put(execution.executionId, transaction.get(orderRef.collection("fills").document(execution.executionId)));
+            }
+            Map<String, DocumentSnapshot> siblingDocs = new HashMap<>();
+            for (DocumentSnapshot orderDoc : new ArrayList<>(orderDocs.values())) {
+                String siblingId = orderDoc.getString("linkedOrderId");
+                if (siblingId != null && !orderDocs.containsKey(siblingId) && !siblingDocs.containsKey(siblingId)) {
+                    siblingDocs.put(siblingId, readSibling(transaction, orderDoc));
+                }
+            }
+
+            FillPlanner planner = new FillPlanner(userId, walletBalances(userDoc));
+            Map<String, DocumentSnapshot> docs = new HashMap<>(siblingDocs);
+            docs.putAll(orderDocs);
+            for (DocumentSnapshot doc : docs.values()) {
+                if (doc != null && doc.exists()) {
+                    planner.addOrder(orderState(userDoc, doc));
+                }
+            }
+
+            Map<String, Object> reservationUpdates = new HashMap<>();
+            // Order id to what is left of it once this chunk commits
+            Map<String, Double> remaining = new HashMap<>();
+            BatchFillResult chunkResult = new BatchFillResult();
+            long now = System.currentTimeMillis();
+            for (Execution execution : chunk) {
+                String orderId = execution.orderId;
+                FillPlanner.Decision decision = planner.decide(execution.executionId, orderId,
+                        execution.expectedVersion, execution.price, execution.quantity,
+                        fillDocs.get(execution.executionId).exists());
+                chunkResult.add(decision.outcome, orderId);
+                if (!decision.isApplied()) continue;
+
+                DocumentSnapshot orderDoc = orderDocs.get(orderId);
+                Map<String, Object> orderUpdates = new HashMap<>();
+                orderUpdates.put("executionId", execution.executionId);
+                if (decision.outcome == FillPlanner.Outcome.REJECTED) {
+                    remaining.put(orderId, 0.0);
+                    reservationUpdates.put(reservationKey(orderId), FieldValue.delete());
+                    close(transaction, orderDoc, Order.STATUS_CANCELLED, now, orderUpdates);
+                } else {
+                    boolean lastFill = decision.outcome == FillPlanner.Outcome.FILLED;
+                    remaining.put(orderId, lastFill ? 0.0 : orderQuantity(orderDoc) - decision.filledQuantity);
+                    orderUpdates.put("filledQuantity", decision.filledQuantity);
+                    orderUpdates.put("averageFillPrice", decision.averageFillPrice);
+                    // What is left of the reservation (and the OCO partner's) stays locked for the rest
+                    reservationUpdates.put(reservationKey(orderId), lastFill ? FieldValue.delete()
+                            : new Wallet.Reservation(decision.paidKey, decision.reservationLeft).toMap());
+                    if (lastFill) {
+                        orderUpdates.put("executionPrice", decision.averageFillPrice);
+                        orderUpdates.put("total", decision.filledQuantity * decision.averageFillPrice);
+                        close(transaction, orderDoc, Order.STATUS_COMPLETED, now, orderUpdates);
+                    } else {
+                        orderUpdates.put("version", orderVersion(orderDoc) + 1);
+                        transaction.update(orderDoc.getReference(), orderUpdates);
+                    }
+                    transaction.set(orderDoc.getReference().collection("fills").document(execution.executionId),
+                            fillRecord(execution.executionId, decision.quantity, decision.price, now));
+                }
+                if (decision.cancelledSiblingId != null) {
+                    remaining.put(decision.cancelledSiblingId, 0.0);
+                    reservationUpdates.put(reservationKey(decision.cancelledSiblingId), FieldValue.delete());
+                    close(transaction, docs.get(decision.cancelledSiblingId), Order.STATUS_CANCELLED, now);
+                }
+            }
+            Map<String, Double> deltas = planner.getDeltas();
+            if (!deltas.isEmpty() || !reservationUpdates.isEmpty()) {
+                Map<String, Object> walletUpdates = new HashMap<>(reservationUpdates);
+                for (Map.Entry<String, Double> delta : deltas.entrySet()) {
+                    walletUpdates.put("wallet." + delta.getKey(), walletBalance(userDoc, delta.getKey()) + delta.getValue());
+                }
+                transaction.update(userRef, walletUpdates);
+            }
+            Map<String, DepthDelta> depths = new HashMap<>();
+            for (Map.Entry<String, Double> entry : remaining.entrySet()) {
+                DocumentSnapshot orderDoc = docs.get(entry.getKey());
+                String symbol = orderDoc.getString("symbol");
+                DepthDelta depth = depths.get(symbol);
+                if (depth == null) {
+                    depth = new DepthDelta();
+                    depths.put(symbol, depth);
+                }
+                updateDepth(depth, orderDoc, entry.getValue());
+            }
+            for (Map.Entry<String, DepthDelta> depth : depths.entrySet()) {
+                writeDepth(transaction, depth.getKey(), depth.getValue());
+            }
+            return chunkResult;
+        });
+    }
+
+    /**
+     * One attempt to fill an order. Retry with the same execution id so a fill that already
+     * committed is recognised rather than applied twice.
+     */
+    public static class Execution {
+        public final String executionId;
+        public final String orderId;
+        // Order version the trigger decision was made on
+        public final long expectedVersion;
+        public final double price;
+        // 0 fills whatever is left of the order
+        public final double quantity;
+
+        public Execution(String executionId, String orderId, long expectedVersion, double price) {
+            this(executionId, orderId, expectedVersion, price, 0);
+        }
+
+        public Execution(String executionId, String orderId, long expectedVersion, double price, double quantity) {
+            this.executionId = executionId;
+            this.orderId = orderId;
+            this.expectedVersion = expectedVersion;
+            this.price = price;
+            this.quantity = quantity;
+        }
+    }
+
+    /**
+     * Per-order outcome of fillOrders
+     */
+    public static class BatchFillResult {
+        public final List<String> filled = new ArrayList<>();
+        // Filled in part; still pending for the rest
+        public final List<String> partiallyFilled = new ArrayList<>();
+        // Already filled or cancelled by another execution
+        public final List<String> notPending = new ArrayList<>();
+        // Still pending but changed since it was triggered; decide again on the new version
+        public final List<String> stale = new ArrayList<>();
+        // Could not be paid for at the execution price; cancelled and refunded
+        public final List<String> rejected = new ArrayList<>();
+        // Commit failed; the order is unchanged
+        public final List<String> failed = new ArrayList<>();
+
+        void add(FillPlanner.Outcome outcome, String orderId) {
+            switch (outcome) {
+                case FILLED:
+                    filled.add(orderId);
+                    break;
+                case PARTIALLY_FILLED:
+                    partiallyFilled.add(orderId);
+                    break;
+                case NOT_PENDING:
+                    notPending.add(orderId);
+                    break;
+                case STALE:
+                    stale.add(orderId);
+                    break;
+                default:
+                    rejected.add(orderId);
+                    break;
+            }
+        }
+    }
+
+    private static DocumentSnapshot requirePending(DocumentSnapshot orderDoc) throws FirebaseFirestoreException {
+        if (!orderDoc.exists()) {
+            throw new FirebaseFirestoreException("Order not found", FirebaseFirestoreException.Code.NOT_FOUND);
+        }
+        if (!Order.STATUS_PENDING.equals(orderDoc.getString("status"))) {
+            throw new FirebaseFirestoreException("Order is no longer pending", FirebaseFirestoreException.Code.ABORTED);
+        }
+        return orderDoc;
+    }
+
+    private static double requireBalance(DocumentSnapshot userDoc, String key, double amount) throws FirebaseFirestoreException {
+        double balance = walletBalance(userDoc, key);
+        if (balance < amount) {
+            throw new FirebaseFirestoreException("Insufficient " + key.toUpperCase() + " balance",
+                    FirebaseFirestoreException.Code.FAILED_PRECONDITION);
+        }
+        return balance;
+    }
+
+    /**
+     * An order's fields to write on placement, counting it in the depth if it rests there.
+     * Counted orders are marked "inDepth", so orders placed before the depth record existed
+     * are never taken out of it.
+     */
+    private static Map<String, Object> depthCounted(Order order, DepthDelta depth) {
+        Map<String, Object> orderMap = order.toMap();
+        boolean resting = Order.STATUS_PENDING.equals(order.getStatus())
+                && Order.ORDER_TYPE_LIMIT.equals(order.getOrderType()) && order.getPrice() > 0;
+        if (resting) {
+            depth.update(order.isBuy(), order.getPrice(), 0.0, order.getQuantity());
+            orderMap.put("inDepth", true);
+        }
+        return orderMap;
+    }
+
+    /**
+     * Quantity an order read in this transaction shows in the depth: what is left of a
+     * pending limit order counted on placement. Stops are not visible liquidity until
+     * they fire.
+     */
+    private static double restingQuantity(DocumentSnapshot orderDoc) {
+        if (!isPending(orderDoc) || !Boolean.TRUE.equals(orderDoc.getBoolean("inDepth"))) {
+            return 0.0;
+        }
+        return Math.max(0.0, orderQuantity(orderDoc) - numberField(orderDoc, "filledQuantity"));
+    }
+
+    /**
+     * Move an order's depth from what it showed when read to remaining (0 once it is closed)
+     */
+    private static void updateDepth(DepthDelta depth, DocumentSnapshot orderDoc, double remaining) {
+        double before = restingQuantity(orderDoc);
+        depth.update(Order.TYPE_BUY.equals(orderDoc.getString("type")), numberField(orderDoc, "price"),
+                before, before > 0 ? remaining : 0.0);
+    }
+
+    /**
+     * Apply depth changes as increments, so the transaction never reads the shared record
+     * and orders on the same symbol do not contend for it
+     */
+    private void writeDepth(Transaction transaction, String symbol, DepthDelta depth) {
+        Map<String, Object> bids = new HashMap<>();
+        Map<String, Object> asks = new HashMap<>();
+        for (DepthDelta.Change change : depth.getChanges()) {
+            Map<String, Object> level = new HashMap<>();
+            level.put("price", change.price);
+            level.put("quantity", FieldValue.increment(change.getQuantity()));
+            level.put("orders", FieldValue.increment(change.getOrderCount()));
+            (change.buy ? bids : asks).put(change.key, level);
+        }
+        // An empty map would replace that whole side when merged, so only send sides that changed
+        Map<String, Object> updates = new HashMap<>();
+        if (!bids.isEmpty()) {
+            updates.put("bids", bids);
+        }
+        if (!asks.isEmpty()) {
+            updates.put("asks", asks);
+        }
+        if (updates.isEmpty()) return;
+        transaction.set(db.collection("depth").document(symbol), updates, SetOptions.merge());
+    }
+
+    private static void close(Transaction transaction, DocumentSnapshot orderDoc, String status, long closedAt) {
+        close(transaction, orderDoc, status, closedAt, new HashMap<>());
+    }
+
+    /**
+     * Write an order's final status, bumping its version
+     */
+    private static void close(Transaction transaction, DocumentSnapshot orderDoc, String status, long closedAt,
+                              Map<String, Object> updates) {
+        updates.put("status", status);
+        updates.put("closedAt", closedAt);
+        updates.put("version", orderVersion(orderDoc) + 1);
+        transaction.update(orderDoc.getReference(), updates);
+    }
+
+    private static Map<String, Object> fillRecord(String executionId, double quantity, double price, long timestamp) {
+        Map<String, Object> fill = new HashMap<>();
+        fill.put("executionId", executionId);
+        fill.put("quantity", quantity);
+        fill.put("price", price);
+        fill.put("timestamp", timestamp);
+        return fill;
+    }
+
+    private static double numberField(DocumentSnapshot doc, String field) {
+        Object value = doc.get(field);
+        return value instanceof Number ? ((Number) value).doubleValue() : 0.0;
+    }
+
+    private static long orderVersion(DocumentSnapshot orderDoc) {
+        Object value = orderDoc.get("version");
+        return value instanceof Number ? ((Number) value).longValue() : 0L;
+    }
+
+    private DocumentSnapshot readSibling(Transaction transaction, DocumentSnapshot orderDoc) throws FirebaseFirestoreException {
+        String siblingId = orderDoc.getString("linkedOrderId");
+        return siblingId != null ? transaction.get(db.collection("orders").document(siblingId)) : null;
+    }
+
+    private static boolean isPending(DocumentSnapshot orderDoc) {
+        return orderDoc != null && orderDoc.exists() && Order.STATUS_PENDING.equals(orderDoc.getString("status"));
+    }
+
+    private static String paidKey(DocumentSnapshot orderDoc) {
+        return Order.TYPE_BUY.equals(orderDoc.getString("type")) ? "usdt" : orderDoc.getString("symbol").toLowerCase();
+    }
+
+    private static String reservationKey(String orderId) {
+        return "reservations." + orderId;
+    }
+
+    /**
+     * Funds a pending order holds: its reservation record in the user document. Orders placed
+     * before those records existed keep theirs in the order's "reserved" field, or, older
+     * still, hold their total (buys) or quantity (sells).
+     */
+    private static double reservedAmount(DocumentSnapshot userDoc, DocumentSnapshot orderDoc) {
+        Object recorded = userDoc.get(FieldPath.of("reservations", orderDoc.getId(), "amount"));
+        if (recorded instanceof Number) {
+            return ((Number) recorded).doubleValue();
+        }
+        Object reserved = orderDoc.get("reserved");
+        if (reserved instanceof Number) {
+            return ((Number) reserved).doubleValue();
+        }
+        return Order.TYPE_BUY.equals(orderDoc.getString("type")) ? orderTotal(orderDoc) : orderQuantity(orderDoc);
+    }
+
+    private static double walletBalance(DocumentSnapshot userDoc, String key) {
+        Object value = userDoc.get("wallet." + key);
+        return value instanceof Number ? ((Number) value).doubleValue() : 0.0;
+    }
+
+    private static Map<String, Double> walletBalances(DocumentSnapshot userDoc) {
+        Map<String, Double> balances = new HashMap<>();
+        Object wallet = userDoc.get("wallet");
+        if (wallet instanceof Map) {
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) wallet).entrySet()) {
+                if (entry.getValue() instanceof Number) {
+                    balances.put(String.valueOf(entry.getKey()), ((Number) entry.getValue()).doubleValue());
+                }
+            }
+        }
+        return balances;
+    }
+
+    private static FillPlanner.OrderState orderState(DocumentSnapshot userDoc, DocumentSnapshot orderDoc) {
+        return new FillPlanner.OrderState(orderDoc.getId(), orderDoc.getString("userId"), orderDoc.getString("status"),
+                orderVersion(orderDoc), orderDoc.getString("executionId"), Order.TYPE_BUY.equals(orderDoc.getString("type")),
+                orderDoc.getString("symbol"), orderQuantity(orderDoc), numberField(orderDoc, "filledQuantity"),
+                numberField(orderDoc, "averageFillPrice"), reservedAmount(userDoc, orderDoc), orderDoc.getString("linkedOrderId"));
+    }
+
+    private static double orderQuantity(DocumentSnapshot orderDoc) {
+        Object value = orderDoc.get("quantity");
+        return value instanceof Number ? ((Number) value).doubleValue() : 0.0;
+    }
+
+    private static double orderTotal(DocumentSnapshot orderDoc) {
+        Object total = orderDoc.get("total");
+        if (total instanceof Number) {
+            return ((Number) total).doubleValue();
+        }
+        Object price = orderDoc.get("price");
+        return price instanceof Number ? ((Number) price).doubleValue() * orderQuantity(orderDoc) : 0.0;
+    }
+
+    /**
+     * Listen to a user's pending orders for one symbol (or every symbol when symbol is null).
+     * Remove the returned registration to stop listening.
+     */
+    public ListenerRegistration listenToPendingOrders(String userId, String symbol, EventListener<QuerySnapshot> listener) {
+        com.google.firebase.firestore.Query query = db.collection("orders")
+                .whereEqualTo("userId", userId)
+                .whereEqualTo("status", Order.STATUS_PENDING);
+        if (symbol != null) {
+            query = query.whereEqualTo("symbol", symbol);
+        }
+        return query.addSnapshotListener(listener);
+    }
+
+    /**
+     * Listen to a symbol's depth record, depth/{symbol}: the remaining quantity and count of
+     * every user's pending limit orders per exact price, as "bids" and "asks" maps from
+     * DepthDelta.levelKey to {price, quantity, orders}. Levels with no orders left stay at 0
+     * and should be skipped. One document with an entry per price rather than a document per
+     * order, kept by the transactions that place, fill and cancel orders. Remove the returned
+     * registration to stop listening.
+     */
+    public ListenerRegistration listenToOrderBook(String symbol, EventListener<DocumentSnapshot> listener) {
+        return db.collection("depth").document(symbol).addSnapshotListener(listener);
+    }
+
+    public void getSentTransfers(String userId, OnCompleteListener<QuerySnapshot> listener) {
+        db.collection("transfers")
+                .whereEqualTo("fromUserId", userId)
                 .get()
                 .addOnCompleteListener(listener)
-                .addOnFailureListener(e -> Log.e(TAG, "Error getting orders", e));
+                .addOnFailureListener(e -> Log.e(TAG, "Error getting sent transfers", e));
+    }
+
+    public void getReceivedTransfers(String userId, OnCompleteListener<QuerySnapshot> listener) {
+        db.collection("transfers")
+                .whereEqualTo("toUserId", userId)
+                .get()
+                .addOnCompleteListener(listener)
+                .addOnFailureListener(e -> Log.e(TAG, "Error getting received transfers", e));
+    }
+
+    // Transfers at or after since; need composite indexes on fromUserId/toUserId + timestamp
+    public void getSentTransfersSince(String userId, long since, OnCompleteListener<QuerySnapshot> listener) {
+        db.collection("transfers")
+                .whereEqualTo("fromUserId", userId)
+                .whereGreaterThanOrEqualTo("timestamp", since)
+                .get()
+                .addOnCompleteListener(listener)
+                .addOnFailureListener(e -> Log.e(TAG, "Error getting sent transfers", e));
+    }
+
+    public void getReceivedTransfersSince(String userId, long since, OnCompleteListener<QuerySnapshot> listener) {
+        db.collection("transfers")
+                .whereEqualTo("toUserId", userId)
+                .whereGreaterThanOrEqualTo("timestamp", since)
+                .get()
+                .addOnCompleteListener(listener)
+                .addOnFailureListener(e -> Log.e(TAG, "Error getting received transfers", e));
+    }
+
+    // Portfolio value snapshots: users/{userId}/portfolioSnapshots/{hourStart}, at most one per hour
+    public void savePortfolioSnapshot(String userId, long timestamp, double value, OnCompleteListener<Void> listener) {
+        long hourStart = timestamp - (timestamp % (60 * 60 * 1000L));
+        Map<String, Object> snapshot = new HashMap<>();
+        snapshot.put("timestamp", timestamp);
+        snapshot.put("value", value);
+        db.collection("users")
+                .document(userId)
+                .collection("portfolioSnapshots")
+                .document(String.valueOf(hourStart))
+                .set(snapshot)
+                .addOnCompleteListener(listener)
+                .addOnFailureListener(e -> Log.e(TAG, "Error saving portfolio snapshot", e));
+    }
+
+    public void getRecentPortfolioSnapshots(String userId, int limit, OnCompleteListener<QuerySnapshot> listener) {
+        db.collection("users")
+                .document(userId)
+                .collection("portfolioSnapshots")
+                .orderBy("timestamp", com.google.firebase.firestore.Query.Direction.DESCENDING)
+                .limit(limit)
+                .get()
+                .addOnCompleteListener(listener)
+                .addOnFailureListener(e -> Log.e(TAG, "Error getting portfolio snapshots", e));
     }
 
     // Admin functions
@@ -176,96 +845,55 @@ public class FirebaseHelper {
                 .addOnFailureListener(e -> Log.e(TAG, "Error finding user by username", e));
     }
 
-    public void transferTokens(String senderUserId, String recipientUserId, String tokenSymbol, double amount, OnCompleteListener<Void> listener) {
-        // Use a batch write to ensure atomicity
-        com.google.firebase.firestore.WriteBatch batch = db.batch();
-        
-        // Get sender and recipient documents
-        com.google.firebase.firestore.DocumentReference senderRef = db.collection("users").document(senderUserId);
-        com.google.firebase.firestore.DocumentReference recipientRef = db.collection("users").document(recipientUserId);
-        
-        // Get sender wallet first
-        senderRef.get().addOnSuccessListener(senderDoc -> {
-            if (!senderDoc.exists()) {
-                if (listener != null) {
-                    Task<Void> errorTask = Tasks.forException(new Exception("Sender not found"));
-                    listener.onComplete(errorTask);
-                }
-                return;
+    /**
+     * Move tokens between two users and record the transfer, in one transaction that reads
+     * both user documents, so concurrent orders or transfers cannot overdraw the sender. The
+     * sender's "wallet" balance is what is left after pending orders' reservations, so funds
+     * held by an order cannot be sent.
+     * @param valueUsd USDT value of the tokens at send time, stored on the transfer record so
+     * portfolio returns can treat it as a cash flow later; NaN if no price was available
+     */
+    public void transferTokens(String senderUserId, String recipientUserId, String tokenSymbol, double amount,
+                               double valueUsd, OnCompleteListener<Void> listener) {
+        LatencyTracer.Span span = LatencyTracer.getInstance().start("firestore.transferTokens");
+        DocumentReference senderRef = db.collection("users").document(senderUserId);
+        DocumentReference recipientRef = db.collection("users").document(recipientUserId);
+        String tokenKey = tokenSymbol.toLowerCase();
+        db.runTransaction((Transaction.Function<Void>) transaction -> {
+            if (senderUserId.equals(recipientUserId)) {
+                throw new FirebaseFirestoreException("Cannot transfer to yourself",
+                        FirebaseFirestoreException.Code.INVALID_ARGUMENT);
             }
-            
-            Map<String, Object> senderWalletMap = (Map<String, Object>) senderDoc.get("wallet");
-            if (senderWalletMap == null) {
-                if (listener != null) {
-                    Task<Void> errorTask = Tasks.forException(new Exception("Sender wallet not found"));
-                    listener.onComplete(errorTask);
-                }
-                return;
+            DocumentSnapshot senderDoc = transaction.get(senderRef);
+            DocumentSnapshot recipientDoc = transaction.get(recipientRef);
+            if (!senderDoc.exists()) {
+                throw new FirebaseFirestoreException("Sender not found", FirebaseFirestoreException.Code.NOT_FOUND);
             }
-            
-            // Check balance
-            String tokenKey = tokenSymbol.toLowerCase();
-            double senderBalance = ((Number) senderWalletMap.get(tokenKey)).doubleValue();
-            if (senderBalance < amount) {
-                if (listener != null) {
-                    Task<Void> errorTask = Tasks.forException(new Exception("Insufficient balance"));
-                    listener.onComplete(errorTask);
-                }
-                return;
+            if (!recipientDoc.exists()) {
+                throw new FirebaseFirestoreException("Recipient not found", FirebaseFirestoreException.Code.NOT_FOUND);
             }
-            
-            // Get recipient wallet
-            recipientRef.get().addOnSuccessListener(recipientDoc -> {
-                if (!recipientDoc.exists()) {
-                    if (listener != null) {
-                        Task<Void> errorTask = Tasks.forException(new Exception("Recipient not found"));
-                        listener.onComplete(errorTask);
-                    }
-                    return;
-                }
-                
-                Map<String, Object> recipientWalletMap = (Map<String, Object>) recipientDoc.get("wallet");
-                if (recipientWalletMap == null) {
-                    if (listener != null) {
-                        Task<Void> errorTask = Tasks.forException(new Exception("Recipient wallet not found"));
-                        listener.onComplete(errorTask);
-                    }
-                    return;
-                }
-                
-                // Create new maps for batch update (Firestore requires fresh map references)
-                Map<String, Object> newSenderWallet = new HashMap<>(senderWalletMap);
-                Map<String, Object> newRecipientWallet = new HashMap<>(recipientWalletMap);
-                
-                // Update sender wallet (deduct)
-                double newSenderBalance = senderBalance - amount;
-                newSenderWallet.put(tokenKey, newSenderBalance);
-                batch.update(senderRef, "wallet", newSenderWallet);
-                
-                // Update recipient wallet (add)
-                double recipientBalance = ((Number) recipientWalletMap.get(tokenKey)).doubleValue();
-                double newRecipientBalance = recipientBalance + amount;
-                newRecipientWallet.put(tokenKey, newRecipientBalance);
-                batch.update(recipientRef, "wallet", newRecipientWallet);
-                
-                // Commit batch
-                batch.commit()
-                        .addOnCompleteListener(listener)
-                        .addOnFailureListener(e -> Log.e(TAG, "Error transferring tokens", e));
-            }).addOnFailureListener(e -> {
-                Log.e(TAG, "Error getting recipient document", e);
-                if (listener != null) {
-                    Task<Void> errorTask = Tasks.forException(e);
-                    listener.onComplete(errorTask);
-                }
-            });
-        }).addOnFailureListener(e -> {
-            Log.e(TAG, "Error getting sender document", e);
-            if (listener != null) {
-                Task<Void> errorTask = Tasks.forException(e);
-                listener.onComplete(errorTask);
+
+            // Update only the transferred token, leaving the rest of each wallet untouched
+            double senderBalance = requireBalance(senderDoc, tokenKey, amount);
+            transaction.update(senderRef, "wallet." + tokenKey, senderBalance - amount);
+            transaction.update(recipientRef, "wallet." + tokenKey, walletBalance(recipientDoc, tokenKey) + amount);
+
+            // Record the transfer so portfolio history can be rebuilt from it
+            Map<String, Object> transfer = new HashMap<>();
+            transfer.put("fromUserId", senderUserId);
+            transfer.put("toUserId", recipientUserId);
+            transfer.put("symbol", tokenSymbol.toUpperCase());
+            transfer.put("amount", amount);
+            if (valueUsd > 0) {
+                transfer.put("valueUsd", valueUsd);
             }
-        });
+            transfer.put("timestamp", System.currentTimeMillis());
+            transaction.set(db.collection("transfers").document(), transfer);
+            return null;
+        })
+                .addOnCompleteListener(task -> span.end())
+                .addOnCompleteListener(listener)
+                .addOnFailureListener(e -> Log.e(TAG, "Error transferring tokens", e));
     }
 }
 
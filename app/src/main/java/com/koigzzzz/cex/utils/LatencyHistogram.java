@@ -0,0 +1,117 @@
+package com.koigzzzz.cex.utils;
+
+import java.util.Arrays;
+
+/**
+ * Latency histogram with logarithmic buckets, so percentiles are within BUCKET_GROWTH of the
+ * true value from a microsecond up to minutes while memory stays fixed (a few hundred
+ * counters) however many samples are recorded.
+ *
+ * Not thread-safe; LatencyTracer synchronizes access.
+ */
+public class LatencyHistogram {
+    // Each bucket is 5% wider than the one below it
+    private static final double BUCKET_GROWTH = 1.05;
+    private static final double LOG_GROWTH = Math.log(BUCKET_GROWTH);
+    // 1.05^420 microseconds is over 13 minutes; anything slower goes in the last bucket
+    static final int BUCKET_COUNT = 420;
+
+    private final long[] counts = new long[BUCKET_COUNT];
+    private long count;
+    private long maxMicros;
+
+    public void record(long micros) {
+        micros = Math.max(1, micros);
+        counts[bucketOf(micros)]++;
+        count++;
+        maxMicros = Math.max(maxMicros, micros);
+    }
+
+    public long getCount() {
+        return count;
+    }
+
+    public long getMaxMicros() {
+        return maxMicros;
+    }
+
+    /**
+     * Upper bound of the bucket holding the given percentile, e.g. 0.99 for p99; 0 if empty
+     */
+    public long getPercentileMicros(double percentile) {
+        if (count == 0) return 0;
+        long rank = Math.max(1, (long) Math.ceil(percentile * count));
+        long seen = 0;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            seen += counts[i];
+            if (seen >= rank) {
+                // Never report more than the slowest sample actually seen
+                return Math.min(maxMicros, upperBound(i));
+            }
+        }
+        return maxMicros;
+    }
+
+    /**
+     * Add another histogram's samples to this one
+     */
+    public void merge(LatencyHistogram other) {
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            counts[i] += other.counts[i];
+        }
+        count += other.count;
+        maxMicros = Math.max(maxMicros, other.maxMicros);
+    }
+
+    public void clear() {
+        Arrays.fill(counts, 0);
+        count = 0;
+        maxMicros = 0;
+    }
+
+    /**
+     * Sparse "max;bucket:count,bucket:count" form for persisting
+     */
+    public String encode() {
+        StringBuilder sb = new StringBuilder().append(maxMicros).append(';');
+        boolean first = true;
+        for (int i = 0; i < BUCKET_COUNT; i++) {
+            if (counts[i] == 0) continue;
+            if (!first) sb.append(',');
+            sb.append(i).append(':').append(counts[i]);
+            first = false;
+        }
+        return sb.toString();
+    }
+
+    /**
+     * @return null if the string is not a histogram written by encode
+     */
+    public static LatencyHistogram decode(String encoded) {
+        try {
+            LatencyHistogram histogram = new LatencyHistogram();
+            int separator = encoded.indexOf(';');
+            histogram.maxMicros = Long.parseLong(encoded.substring(0, separator));
+            String buckets = encoded.substring(separator + 1);
+            if (!buckets.isEmpty()) {
+                for (String entry : buckets.split(",")) {
+                    int colon = entry.indexOf(':');
+                    long bucketCount = Long.parseLong(entry.substring(colon + 1));
+                    histogram.counts[Integer.parseInt(entry.substring(0, colon))] += bucketCount;
+                    histogram.count += bucketCount;
+                }
+            }
+            return histogram;
+        } catch (RuntimeException e) {
+            return null;
+        }
+    }
+
+    private static int bucketOf(long micros) {
+        return Math.min(BUCKET_COUNT - 1, (int) (Math.log(micros) / LOG_GROWTH));
+    }
+
+    private static long upperBound(int bucket) {
+        return (long) Math.ceil(Math.exp((bucket + 1) * LOG_GROWTH));
+    }
+}
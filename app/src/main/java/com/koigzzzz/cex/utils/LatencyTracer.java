@@ -0,0 +1,193 @@
+package com.koigzzzz.cex.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Build;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.Trace;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.atomic.AtomicInteger;
+
+/**
+ * Named latency spans with a histogram per name, e.g. "firestore.placeOrder" or
+ * "order.tapToToast".
+ *
+ * A span may end on a different thread from the one it started on (Firestore callbacks), so
+ * each span is also emitted as an async android.os.Trace section and lines up with the rest
+ * of a Perfetto capture (API 29+; older devices only get the histograms). Histograms are
+ * saved to SharedPreferences a few seconds after they change and reloaded by attach, so
+ * percentiles accumulate across app restarts.
+ */
+public class LatencyTracer {
+    private static final String PREFS_NAME = "latency_histograms";
+    private static final long SAVE_DELAY_MS = 5000;
+    private static LatencyTracer instance;
+
+    /**
+     * One timed operation. end() records it once; cancel() drops it (e.g. validation failed).
+     */
+    public final class Span {
+        private final String name;
+        private final int cookie;
+        private final long startNanos;
+        private boolean finished;
+
+        private Span(String name) {
+            this.name = name;
+            this.cookie = nextCookie.incrementAndGet();
+            this.startNanos = System.nanoTime();
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                Trace.beginAsyncSection(name, cookie);
+            }
+        }
+
+        /**
+         * Record the span; later calls do nothing
+         */
+        public void end() {
+            if (finish()) {
+                record(name, (System.nanoTime() - startNanos) / 1000);
+            }
+        }
+
+        public void cancel() {
+            finish();
+        }
+
+        private synchronized boolean finish() {
+            if (finished) return false;
+            finished = true;
+            if (Build.VERSION.SDK_INT >= Build.VERSION_CODES.Q) {
+                Trace.endAsyncSection(name, cookie);
+            }
+            return true;
+        }
+    }
+
+    /**
+     * Percentiles of one span name, in milliseconds
+     */
+    public static class Stats {
+        public final String name;
+        public final long count;
+        public final double p50Ms;
+        public final double p95Ms;
+        public final double p99Ms;
+        public final double maxMs;
+
+        Stats(String name, LatencyHistogram histogram) {
+            this.name = name;
+            this.count = histogram.getCount();
+            this.p50Ms = histogram.getPercentileMicros(0.50) / 1000.0;
+            this.p95Ms = histogram.getPercentileMicros(0.95) / 1000.0;
+            this.p99Ms = histogram.getPercentileMicros(0.99) / 1000.0;
+            this.maxMs = histogram.getMaxMicros() / 1000.0;
+        }
+    }
+
+    private final AtomicInteger nextCookie = new AtomicInteger();
+    private final Map<String, LatencyHistogram> histograms = new TreeMap<>();
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final Runnable saveRunnable = this::save;
+    private SharedPreferences prefs;
+    private boolean saveScheduled;
+
+    private LatencyTracer() {
+    }
+
+    public static synchronized LatencyTracer getInstance() {
+        if (instance == null) {
+            instance = new LatencyTracer();
+        }
+        return instance;
+    }
+
+    /**
+     * Load saved histograms and start saving changes. Spans recorded before this are kept.
+     */
+    public void attach(Context context) {
+        synchronized (this) {
+            if (prefs != null) return;
+            prefs = context.getApplicationContext().getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        }
+        ioExecutor.execute(() -> {
+            Map<String, ?> saved = prefs.getAll();
+            synchronized (this) {
+                for (Map.Entry<String, ?> entry : saved.entrySet()) {
+                    LatencyHistogram histogram = entry.getValue() instanceof String
+                            ? LatencyHistogram.decode((String) entry.getValue()) : null;
+                    if (histogram == null) continue;
+                    LatencyHistogram current = histograms.get(entry.getKey());
+                    if (current != null) {
+                        histogram.merge(current);
+                    }
+                    histograms.put(entry.getKey(), histogram);
+                }
+            }
+        });
+    }
+
+    public Span start(String name) {
+        return new Span(name);
+    }
+
+    /**
+     * Snapshot of every span name's percentiles, sorted by name
+     */
+    public synchronized List<Stats> getStats() {
+        List<Stats> stats = new ArrayList<>();
+        for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+            stats.add(new Stats(entry.getKey(), entry.getValue()));
+        }
+        return stats;
+    }
+
+    public void reset() {
+        synchronized (this) {
+            histograms.clear();
+        }
+        if (prefs != null) {
+            ioExecutor.execute(() -> prefs.edit().clear().apply());
+        }
+    }
+
+    private void record(String name, long micros) {
+        synchronized (this) {
+            LatencyHistogram histogram = histograms.get(name);
+            if (histogram == null) {
+                histogram = new LatencyHistogram();
+                histograms.put(name, histogram);
+            }
+            histogram.record(micros);
+            if (prefs == null || saveScheduled) return;
+            saveScheduled = true;
+        }
+        // Batch the writes of a burst of spans into one save
+        mainHandler.postDelayed(saveRunnable, SAVE_DELAY_MS);
+    }
+
+    private void save() {
+        Map<String, String> encoded = new TreeMap<>();
+        synchronized (this) {
+            saveScheduled = false;
+            for (Map.Entry<String, LatencyHistogram> entry : histograms.entrySet()) {
+                encoded.put(entry.getKey(), entry.getValue().encode());
+            }
+        }
+        ioExecutor.execute(() -> {
+            SharedPreferences.Editor editor = prefs.edit();
+            for (Map.Entry<String, String> entry : encoded.entrySet()) {
+                editor.putString(entry.getKey(), entry.getValue());
+            }
+            editor.apply();
+        });
+    }
+}
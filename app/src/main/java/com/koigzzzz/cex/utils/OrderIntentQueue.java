@@ -0,0 +1,477 @@
+package com.koigzzzz.cex.utils;
+
+import android.content.Context;
+import android.net.ConnectivityManager;
+import android.net.Network;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.android.gms.tasks.OnCompleteListener;
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.FirebaseFirestoreException;
+import com.koigzzzz.cex.models.Order;
+import com.koigzzzz.cex.models.Wallet;
+
+import org.json.JSONArray;
+import org.json.JSONException;
+import org.json.JSONObject;
+
+import java.io.File;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Write-ahead queue of pending order placements, so placing an order never waits on Firestore.
+ *
+ * Only pending orders are queued: they hold funds rather than trade at a price, so they can
+ * commit whenever the network allows. Orders that fill at once are placed directly with
+ * FirebaseHelper.placeOrder, which refuses a stale quote.
+ *
+ * An enqueued order counts at once: callers show it and fold its reservation into the wallet
+ * with applyPending. The intent is written to a local file before it is sent, then sent in the
+ * order it was queued, one at a time, since a later order may spend what an earlier one
+ * receives. A transient failure (offline, timeout, contention) keeps the intent at the head
+ * and retries with backoff, and right away when the network comes back. A rejection (e.g.
+ * insufficient balance) drops the intent and is reported to listeners, which roll the
+ * optimistic state back by reloading.
+ *
+ * Placement is idempotent on the order id (see FirebaseHelper.placeOrder), so an intent that
+ * committed but whose acknowledgement was lost is harmlessly replayed, even after a restart.
+ * Until that acknowledgement arrives a wallet read from Firestore may already include the
+ * order; applyPending recognises it by its reservation. Completed orders queued by older
+ * versions are still sent, and placeOrder refuses them unless they already committed.
+ *
+ * Call everything on the main thread; file I/O runs on a background thread.
+ */
+public class OrderIntentQueue {
+    private static final String TAG = "OrderIntentQueue";
+    private static final String FILE_NAME = "order_intents.json";
+    private static final long MIN_RETRY_MS = 1000;
+    private static final long MAX_RETRY_MS = 60 * 1000;
+
+    private static OrderIntentQueue instance;
+
+    public interface Listener {
+        /**
+         * Intents were queued, sent or dropped, or the queue started or stopped waiting for
+         * the network
+         */
+        void onQueueChanged();
+
+        void onCommitted(List<Order> orders);
+
+        void onRejected(List<Order> orders, String error);
+    }
+
+    private static final class Intent {
+        // One order, or the two legs of an OCO pair
+        final List<Order> orders;
+        // Enqueue to commit; null for intents restored from disk
+        LatencyTracer.Span span;
+        boolean persisted;
+
+        Intent(List<Order> orders) {
+            this.orders = orders;
+        }
+
+        String userId() {
+            return orders.get(0).getUserId();
+        }
+    }
+
+    private final File file;
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Runnable retryRunnable = this::sendNext;
+    private final ConnectivityManager connectivityManager;
+    private final ConnectivityManager.NetworkCallback networkCallback = new ConnectivityManager.NetworkCallback() {
+        @Override
+        public void onAvailable(Network network) {
+            mainHandler.post(() -> {
+                if (waitingForNetwork) {
+                    retryDelayMs = MIN_RETRY_MS;
+                    mainHandler.removeCallbacks(retryRunnable);
+                    sendNext();
+                }
+            });
+        }
+    };
+
+    // Every user's intents, oldest first; only the current user's are sent
+    private final List<Intent> intents = new ArrayList<>();
+    private String userId;
+    private boolean loaded;
+    private boolean loading;
+    private boolean networkCallbackRegistered;
+    private Intent inFlight;
+    private boolean waitingForNetwork;
+    private long retryDelayMs = MIN_RETRY_MS;
+
+    private OrderIntentQueue(Context context) {
+        Context appContext = context.getApplicationContext();
+        file = new File(appContext.getFilesDir(), FILE_NAME);
+        connectivityManager = (ConnectivityManager) appContext.getSystemService(Context.CONNECTIVITY_SERVICE);
+    }
+
+    public static synchronized OrderIntentQueue getInstance(Context context) {
+        if (instance == null) {
+            instance = new OrderIntentQueue(context);
+        }
+        return instance;
+    }
+
+    public void addListener(Listener listener) {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Start sending a user's intents, including any left from an earlier session
+     */
+    public void start(String userId) {
+        this.userId = userId;
+        if (!networkCallbackRegistered && connectivityManager != null) {
+            try {
+                connectivityManager.registerDefaultNetworkCallback(networkCallback);
+                networkCallbackRegistered = true;
+            } catch (RuntimeException e) {
+                // Without the callback, backoff retries still get through eventually
+                Log.e(TAG, "Error registering network callback", e);
+            }
+        }
+        if (!loaded && !loading) {
+            loading = true;
+            ioExecutor.execute(() -> {
+                List<Intent> restored = read();
+                mainHandler.post(() -> onLoaded(restored));
+            });
+        } else {
+            sendNext();
+        }
+    }
+
+    /**
+     * Stop sending, e.g. on sign-out. Queued intents stay on disk for the next start.
+     */
+    public void stop() {
+        userId = null;
+        mainHandler.removeCallbacks(retryRunnable);
+        if (networkCallbackRegistered) {
+            connectivityManager.unregisterNetworkCallback(networkCallback);
+            networkCallbackRegistered = false;
+        }
+    }
+
+    public void enqueue(Order order) {
+        if (!Order.STATUS_PENDING.equals(order.getStatus())) {
+            throw new IllegalArgumentException("Only pending orders are queued");
+        }
+        add(new Intent(Collections.singletonList(order)));
+    }
+
+    /**
+     * Queue two orders to be placed together as one-cancels-other (see
+     * FirebaseHelper.placeOcoOrders)
+     */
+    public void enqueueOco(Order first, Order second) {
+        add(new Intent(Arrays.asList(first, second)));
+    }
+
+    /**
+     * Drop a queued order before it is sent.
+     * @return false if it is not queued or is being sent right now
+     */
+    public boolean discard(String orderId) {
+        Intent intent = find(orderId);
+        if (intent == null || intent == inFlight) {
+            return false;
+        }
+        intents.remove(intent);
+        if (intent.span != null) intent.span.cancel();
+        persist();
+        notifyChanged();
+        return true;
+    }
+
+    public boolean isQueued(String orderId) {
+        return find(orderId) != null;
+    }
+
+    /**
+     * Orders of a user that are not in Firestore yet, oldest first
+     */
+    public List<Order> getQueuedOrders(String userId) {
+        List<Order> orders = new ArrayList<>();
+        for (Intent intent : intents) {
+            if (intent.userId().equals(userId)) {
+                orders.addAll(intent.orders);
+            }
+        }
+        return orders;
+    }
+
+    public int getQueuedCount(String userId) {
+        int count = 0;
+        for (Intent intent : intents) {
+            if (intent.userId().equals(userId)) count++;
+        }
+        return count;
+    }
+
+    /**
+     * True while the head intent is held back by a transient failure
+     */
+    public boolean isWaitingForNetwork() {
+        return waitingForNetwork;
+    }
+
+    /**
+     * Apply a user's queued orders to a wallet read from Firestore, the same way placement
+     * will: each pending order (or OCO pair) reserves what it may pay.
+     */
+    public void applyPending(String userId, Wallet wallet) {
+        for (Intent intent : intents) {
+            if (!intent.userId().equals(userId)) continue;
+            Order order = intent.orders.get(0);
+            String paidKey = order.isBuy() ? "usdt" : order.getSymbol();
+            // A completed order left from an older version is refused unless it already committed
+            if (!Order.STATUS_PENDING.equals(order.getStatus())) continue;
+            if (wallet.getReservation(order.getOrderId()) == null) {
+                // (A reservation already in the wallet means it committed unacknowledged)
+                double reserved = 0;
+                for (Order leg : intent.orders) {
+                    reserved = Math.max(reserved, leg.getPaidAmount(leg.getReservationPrice()));
+                }
+                // Only fails if the balance moved since the pre-trade check; placement will refuse it too
+                wallet.reserve(order.getOrderId(), paidKey, reserved);
+            }
+        }
+    }
+
+    private void add(Intent intent) {
+        intent.span = LatencyTracer.getInstance().start("order.queueToCommit");
+        intents.add(intent);
+        persist();
+        notifyChanged();
+    }
+
+    private Intent find(String orderId) {
+        for (Intent intent : intents) {
+            for (Order order : intent.orders) {
+                if (order.getOrderId().equals(orderId)) return intent;
+            }
+        }
+        return null;
+    }
+
+    private void onLoaded(List<Intent> restored) {
+        loading = false;
+        loaded = true;
+        // Anything queued while the file was loading goes after what was already on disk
+        List<Intent> queuedMeanwhile = new ArrayList<>(intents);
+        intents.clear();
+        for (Intent intent : restored) {
+            if (find(intent.orders.get(0).getOrderId()) == null) {
+                intent.persisted = true;
+                intents.add(intent);
+            }
+        }
+        intents.addAll(queuedMeanwhile);
+        if (!queuedMeanwhile.isEmpty()) {
+            persist();
+        }
+        notifyChanged();
+        sendNext();
+    }
+
+    private void sendNext() {
+        if (inFlight != null || !loaded || userId == null) return;
+        Intent next = null;
+        for (Intent intent : intents) {
+            if (intent.userId().equals(userId)) {
+                next = intent;
+                break;
+            }
+        }
+        // Only send what is already on disk, so a crash cannot lose an order that committed
+        if (next == null || !next.persisted) return;
+
+        Intent intent = next;
+        inFlight = intent;
+        OnCompleteListener<Void> onSent = task -> onSent(intent, task);
+        if (intent.orders.size() == 2) {
+            FirebaseHelper.getInstance().placeOcoOrders(intent.orders.get(0), intent.orders.get(1), onSent);
+        } else {
+            FirebaseHelper.getInstance().placeOrder(intent.orders.get(0), onSent);
+        }
+    }
+
+    private void onSent(Intent intent, Task<Void> task) {
+        inFlight = null;
+        if (task.isSuccessful()) {
+            intents.remove(intent);
+            waitingForNetwork = false;
+            retryDelayMs = MIN_RETRY_MS;
+            if (intent.span != null) intent.span.end();
+            persist();
+            notifyChanged();
+            for (Listener listener : listeners) {
+                listener.onCommitted(intent.orders);
+            }
+            sendNext();
+        } else if (isTransient(task.getException())) {
+            waitingForNetwork = true;
+            notifyChanged();
+            mainHandler.postDelayed(retryRunnable, retryDelayMs);
+            retryDelayMs = Math.min(MAX_RETRY_MS, retryDelayMs * 2);
+        } else {
+            intents.remove(intent);
+            if (intent.span != null) intent.span.cancel();
+            persist();
+            notifyChanged();
+            String error = task.getException() != null ? task.getException().getMessage() : "Unknown error";
+            for (Listener listener : listeners) {
+                listener.onRejected(intent.orders, error);
+            }
+            sendNext();
+        }
+    }
+
+    /**
+     * Failures worth retrying unchanged; anything else is a rejection
+     */
+    private static boolean isTransient(Exception e) {
+        if (!(e instanceof FirebaseFirestoreException)) {
+            return false;
+        }
+        switch (((FirebaseFirestoreException) e).getCode()) {
+            case UNAVAILABLE:
+            case DEADLINE_EXCEEDED:
+            case ABORTED:
+            case RESOURCE_EXHAUSTED:
+            case INTERNAL:
+                return true;
+            default:
+                return false;
+        }
+    }
+
+    private void notifyChanged() {
+        for (Listener listener : listeners) {
+            listener.onQueueChanged();
+        }
+    }
+
+    /**
+     * Write the whole queue (it stays small) and mark the written intents sendable
+     */
+    private void persist() {
+        List<Intent> snapshot = new ArrayList<>(intents);
+        String json;
+        try {
+            JSONArray array = new JSONArray();
+            for (Intent intent : snapshot) {
+                JSONArray orders = new JSONArray();
+                for (Order order : intent.orders) {
+                    orders.put(new JSONObject(order.toMap()));
+                }
+                array.put(new JSONObject().put("orders", orders));
+            }
+            json = array.toString();
+        } catch (JSONException e) {
+            Log.e(TAG, "Error encoding order intents", e);
+            return;
+        }
+        ioExecutor.execute(() -> {
+            boolean written = write(json);
+            mainHandler.post(() -> {
+                if (!written) return;
+                for (Intent intent : snapshot) {
+                    intent.persisted = true;
+                }
+                sendNext();
+            });
+        });
+    }
+
+    /**
+     * Replace the file atomically and sync it to disk (I/O thread)
+     */
+    private boolean write(String json) {
+        File temp = new File(file.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            out.write(json.getBytes(StandardCharsets.UTF_8));
+            out.getFD().sync();
+        } catch (IOException e) {
+            Log.e(TAG, "Error writing order intents", e);
+            return false;
+        }
+        if (!temp.renameTo(file)) {
+            Log.e(TAG, "Failed to replace " + file);
+            temp.delete();
+            return false;
+        }
+        return true;
+    }
+
+    /**
+     * Intents saved by an earlier session (I/O thread)
+     */
+    private List<Intent> read() {
+        List<Intent> restored = new ArrayList<>();
+        if (!file.exists()) {
+            return restored;
+        }
+        try (FileInputStream in = new FileInputStream(file)) {
+            byte[] bytes = new byte[(int) file.length()];
+            int read = 0;
+            while (read < bytes.length) {
+                int n = in.read(bytes, read, bytes.length - read);
+                if (n < 0) break;
+                read += n;
+            }
+            JSONArray array = new JSONArray(new String(bytes, 0, read, StandardCharsets.UTF_8));
+            for (int i = 0; i < array.length(); i++) {
+                JSONArray orders = array.getJSONObject(i).getJSONArray("orders");
+                List<Order> legs = new ArrayList<>();
+                for (int j = 0; j < orders.length(); j++) {
+                    legs.add(Order.fromMap(toMap(orders.getJSONObject(j))));
+                }
+                restored.add(new Intent(legs));
+            }
+        } catch (IOException | JSONException e) {
+            Log.e(TAG, "Error reading order intents", e);
+        }
+        return restored;
+    }
+
+    private static Map<String, Object> toMap(JSONObject object) {
+        Map<String, Object> map = new HashMap<>();
+        Iterator<String> keys = object.keys();
+        while (keys.hasNext()) {
+            String key = keys.next();
+            Object value = object.opt(key);
+            map.put(key, value == JSONObject.NULL ? null : value);
+        }
+        return map;
+    }
+}
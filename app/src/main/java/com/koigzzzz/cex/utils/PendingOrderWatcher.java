@@ -0,0 +1,467 @@
+package com.koigzzzz.cex.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.firebase.firestore.DocumentChange;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.ListenerRegistration;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.koigzzzz.cex.engine.OrderTriggerEngine;
+import com.koigzzzz.cex.models.Order;
+import com.koigzzzz.cex.models.TokenPrice;
+import com.koigzzzz.cex.models.Wallet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.UUID;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Executes the signed-in user's pending limit, stop, stop-limit, trailing-stop and OCO orders
+ * whatever screen is open.
+ *
+ * Pending orders for every symbol come from one Firestore snapshot listener and are indexed
+ * in an OrderTriggerEngine per symbol. Prices arrive as PriceHistoryTracker ticks, and the watcher
+ * polls PriceManager for the symbols it holds orders in so they keep moving with no trade
+ * screen open. Trigger checks run on a background thread, and everything one price triggers
+ * is filled in a single commit with one net wallet update, so executions never race on the
+ * wallet. Fills are conditional on the order version the trigger saw and carry an execution
+ * id, so another device executing the same orders cannot cause a double fill. Results are
+ * posted to listeners on the main thread.
+ *
+ * Trailing-stop peaks are kept in memory only; after a restart a trailing stop resumes from
+ * the better of its placement price and the latest price.
+ */
+public class PendingOrderWatcher implements PriceHistoryTracker.TickListener {
+    private static final String TAG = "PendingOrderWatcher";
+    private static PendingOrderWatcher instance;
+
+    private static final long PRICE_POLL_INTERVAL = 2 * 60 * 1000; // same budget as TradeFragment
+
+    public interface Listener {
+        void onOrderExecuted(Order order);
+        void onOrderFailed(Order order, String error);
+    }
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Runnable pricePoll = this::pollPrices;
+
+    // Main thread
+    private ListenerRegistration registration;
+    private String watchedUserId;
+
+    // Executor thread only
+    private String userId;
+    private final Map<String, OrderTriggerEngine<Order>> engines = new HashMap<>();
+    private final Map<String, Double> lastPrices = new HashMap<>();
+    private final Map<String, Order> queued = new LinkedHashMap<>();
+    private final Set<String> executingIds = new HashSet<>();
+    // OCO partners dropped when their order triggered, by that order's id, until it fills
+    private final Map<String, Order> heldPartners = new HashMap<>();
+    // Latest snapshot of orders that changed while queued or executing; null once removed
+    private final Map<String, Order> deferredUpdates = new HashMap<>();
+    private final List<Order> armed = new ArrayList<>();
+    private boolean executing;
+
+    private final OrderTriggerEngine.Listener<Order> triggerListener = new OrderTriggerEngine.Listener<Order>() {
+        @Override
+        public void onTriggered(Order order, double executionPrice) {
+            order.setExecutionPrice(executionPrice);
+            // Kept across retries so a fill that committed unacknowledged is recognised
+            if (order.getExecutionId() == null) {
+                order.setExecutionId(UUID.randomUUID().toString());
+            }
+            queued.put(order.getOrderId(), order);
+        }
+
+        @Override
+        public void onArmed(Order order) {
+            order.setTriggered(true);
+            armed.add(order);
+        }
+
+        @Override
+        public void onCancelled(Order partner) {
+            // fillOrders cancels it in Firestore along with the fill
+            heldPartners.put(partner.getLinkedOrderId(), partner);
+        }
+    };
+
+    private PendingOrderWatcher() {
+    }
+
+    public static synchronized PendingOrderWatcher getInstance() {
+        if (instance == null) {
+            instance = new PendingOrderWatcher();
+            PriceHistoryTracker.getInstance().addTickListener(instance);
+        }
+        return instance;
+    }
+
+    public void addListener(Listener listener) {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Start watching a user's pending orders. Call on the main thread; restarting for the
+     * same user is a no-op.
+     */
+    public void start(String userId) {
+        if (registration != null) {
+            if (userId.equals(watchedUserId)) return;
+            stop();
+        }
+        watchedUserId = userId;
+        executor.execute(() -> this.userId = userId);
+        registration = FirebaseHelper.getInstance().listenToPendingOrders(userId, null, (snapshot, e) -> {
+            if (e != null || snapshot == null) {
+                Log.e(TAG, "Error listening to pending orders", e);
+                return;
+            }
+            executor.execute(() -> applyChanges(userId, snapshot));
+        });
+        mainHandler.postDelayed(pricePoll, PRICE_POLL_INTERVAL);
+    }
+
+    /**
+     * Stop watching, e.g. on logout. Call on the main thread.
+     */
+    public void stop() {
+        if (registration != null) {
+            registration.remove();
+            registration = null;
+        }
+        watchedUserId = null;
+        mainHandler.removeCallbacks(pricePoll);
+        executor.execute(() -> {
+            userId = null;
+            engines.clear();
+            lastPrices.clear();
+            queued.clear();
+            executingIds.clear();
+            heldPartners.clear();
+            deferredUpdates.clear();
+            armed.clear();
+        });
+    }
+
+    @Override
+    public void onTick(String symbol, double price, long timestamp) {
+        checkPrice(symbol, price);
+    }
+
+    /**
+     * Check a price that did not come through PriceHistoryTracker, e.g. a cached fetch
+     */
+    public void checkPrice(String symbol, double price) {
+        if (price <= 0) return;
+        String symbolUpper = symbol.toUpperCase();
+        executor.execute(() -> {
+            lastPrices.put(symbolUpper, price);
+            OrderTriggerEngine<Order> engine = engines.get(symbolUpper);
+            if (engine != null && engine.size() > 0) {
+                applyPrice(engine, price);
+                executeIfIdle();
+            }
+        });
+    }
+
+    private void pollPrices() {
+        executor.execute(() -> {
+            List<String> symbols = new ArrayList<>();
+            for (Map.Entry<String, OrderTriggerEngine<Order>> entry : engines.entrySet()) {
+                if (entry.getValue().size() > 0) {
+                    symbols.add(entry.getKey());
+                }
+            }
+            if (symbols.isEmpty()) return;
+            mainHandler.post(() -> PriceManager.getInstance().fetchPricesForSymbols(symbols.toArray(new String[0]),
+                    new PriceManager.AllPricesCallback() {
+                        @Override
+                        public void onPricesReceived(Map<String, TokenPrice> prices) {
+                            // Fresh prices also arrive as ticks; this covers cache hits
+                            for (TokenPrice price : prices.values()) {
+                                checkPrice(price.getSymbol(), price.getPrice());
+                            }
+                        }
+
+                        @Override
+                        public void onError(String error) {
+                            Log.e(TAG, "Error polling prices: " + error);
+                        }
+                    }));
+        });
+        mainHandler.postDelayed(pricePoll, PRICE_POLL_INTERVAL);
+    }
+
+    private void applyChanges(String snapshotUserId, QuerySnapshot snapshot) {
+        if (!snapshotUserId.equals(userId)) return;
+        List<String> touched = new ArrayList<>();
+        for (DocumentChange change : snapshot.getDocumentChanges()) {
+            DocumentSnapshot doc = change.getDocument();
+            boolean inFlight = queued.containsKey(doc.getId()) || executingIds.contains(doc.getId());
+            if (change.getType() == DocumentChange.Type.REMOVED) {
+                if (inFlight) {
+                    deferredUpdates.put(doc.getId(), null);
+                }
+                for (OrderTriggerEngine<Order> engine : engines.values()) {
+                    if (engine.remove(doc.getId()) != null) break;
+                }
+                continue;
+            }
+            Order order = parsePendingOrder(doc);
+            if (inFlight) {
+                // Already triggered; the fill decides whether this version still applies
+                deferredUpdates.put(doc.getId(), order);
+                continue;
+            }
+            if (order != null) {
+                addTrigger(order);
+                touched.add(order.getSymbol().toUpperCase());
+            }
+        }
+        // Orders added while the price was already past their trigger
+        for (String symbol : touched) {
+            Double price = lastPrices.get(symbol);
+            OrderTriggerEngine<Order> engine = engines.get(symbol);
+            if (price != null && engine != null) {
+                applyPrice(engine, price);
+            }
+        }
+        executeIfIdle();
+    }
+
+    private static Order parsePendingOrder(DocumentSnapshot doc) {
+        try {
+            Order order = new Order();
+            order.setOrderId(doc.getId());
+            order.setUserId(doc.getString("userId"));
+            order.setType(doc.getString("type"));
+            order.setOrderType(doc.getString("orderType") != null ? doc.getString("orderType") : Order.ORDER_TYPE_LIMIT);
+            order.setSymbol(doc.getString("symbol"));
+            order.setStatus(Order.STATUS_PENDING);
+
+            order.setLinkedOrderId(doc.getString("linkedOrderId"));
+            order.setTriggered(Boolean.TRUE.equals(doc.getBoolean("triggered")));
+
+            Object qtyObj = doc.get("quantity");
+            Object priceObj = doc.get("price");
+            Object stopPriceObj = doc.get("stopPrice");
+            Object trailingOffsetObj = doc.get("trailingOffset");
+            Object timestampObj = doc.get("timestamp");
+            Object versionObj = doc.get("version");
+            Object filledObj = doc.get("filledQuantity");
+
+            if (qtyObj != null) order.setQuantity(((Number) qtyObj).doubleValue());
+            if (priceObj != null) order.setPrice(((Number) priceObj).doubleValue());
+            if (stopPriceObj != null) order.setStopPrice(((Number) stopPriceObj).doubleValue());
+            if (trailingOffsetObj != null) order.setTrailingOffset(((Number) trailingOffsetObj).doubleValue());
+            if (timestampObj != null) order.setTimestamp(((Number) timestampObj).longValue());
+            if (versionObj != null) order.setVersion(((Number) versionObj).longValue());
+            if (filledObj != null) order.setFilledQuantity(((Number) filledObj).doubleValue());
+            return order.getType() != null && order.getSymbol() != null ? order : null;
+        } catch (Exception e) {
+            Log.e(TAG, "Error parsing pending order: " + doc.getId(), e);
+            return null;
+        }
+    }
+
+    private void addTrigger(Order order) {
+        String symbol = order.getSymbol().toUpperCase();
+        OrderTriggerEngine<Order> engine = engines.get(symbol);
+        if (engine == null) {
+            engine = new OrderTriggerEngine<>();
+            engines.put(symbol, engine);
+        }
+        String id = order.getOrderId();
+        boolean buy = order.isBuy();
+        try {
+            if (Order.ORDER_TYPE_STOP.equals(order.getOrderType())) {
+                engine.addStop(id, buy, order.getStopPrice(), order);
+            } else if (Order.ORDER_TYPE_STOP_LIMIT.equals(order.getOrderType())) {
+                engine.addStopLimit(id, buy, order.getStopPrice(), order.getPrice(), order.isTriggered(), order);
+            } else if (Order.ORDER_TYPE_TRAILING_STOP.equals(order.getOrderType())) {
+                // The peak since placement is at least as good as both of these
+                double reference = order.getPrice();
+                Double lastPrice = lastPrices.get(symbol);
+                if (lastPrice != null) {
+                    reference = buy ? Math.min(reference, lastPrice) : Math.max(reference, lastPrice);
+                }
+                engine.addTrailingStop(id, buy, reference, order.getTrailingOffset(), order);
+            } else {
+                engine.addLimit(id, buy, order.getPrice(), order);
+            }
+        } catch (IllegalArgumentException e) {
+            Log.e(TAG, "Invalid pending order: " + id, e);
+            return;
+        }
+        String linkedId = order.getLinkedOrderId();
+        if (linkedId != null && engine.contains(linkedId)) {
+            engine.linkOco(id, linkedId);
+        }
+    }
+
+    private void applyPrice(OrderTriggerEngine<Order> engine, double price) {
+        engine.onPrice(price, triggerListener);
+        // Persist arming only for stop-limits still waiting on their limit
+        for (Order order : armed) {
+            if (!queued.containsKey(order.getOrderId())) {
+                FirebaseHelper.getInstance().markOrderTriggered(order.getOrderId(), task -> {
+                });
+            }
+        }
+        armed.clear();
+    }
+
+    /**
+     * Put a triggered order back after its fill did not apply, along with the OCO partner it
+     * dropped. A snapshot that arrived meanwhile replaces the triggered copy; with retry false
+     * the order only comes back that way.
+     */
+    private void restoreTrigger(Order order, boolean retry) {
+        String orderId = order.getOrderId();
+        Order partner = heldPartners.remove(orderId);
+        Order latest = retry ? order : null;
+        if (deferredUpdates.containsKey(orderId)) {
+            latest = deferredUpdates.remove(orderId);
+            if (latest == null) return; // filled or cancelled elsewhere, partner with it
+        }
+        if (partner != null) {
+            addTrigger(partner);
+        }
+        if (latest != null) {
+            addTrigger(latest);
+        }
+    }
+
+    private void executeIfIdle() {
+        if (!executing && !queued.isEmpty()) {
+            executeNextBatch();
+        }
+    }
+
+    /**
+     * Fill everything queued in one chunked commit with a single net wallet update
+     */
+    private void executeNextBatch() {
+        executingIds.clear();
+        if (queued.isEmpty() || userId == null) {
+            executing = false;
+            return;
+        }
+        executing = true;
+        Map<String, Order> batch = new HashMap<>(queued);
+        List<FirebaseHelper.Execution> executions = new ArrayList<>();
+        for (Order order : batch.values()) {
+            executions.add(new FirebaseHelper.Execution(order.getExecutionId(), order.getOrderId(),
+                    order.getVersion(), order.getExecutionPrice()));
+        }
+        queued.clear();
+        executingIds.addAll(batch.keySet());
+        String batchUserId = userId;
+
+        FirebaseHelper.getInstance().fillOrders(batchUserId, executions, task -> executor.execute(() -> {
+            if (!batchUserId.equals(userId)) {
+                executingIds.clear();
+                executing = false;
+                return;
+            }
+            if (!task.isSuccessful() || task.getResult() == null) {
+                // Should not happen (chunk failures are reported per order); retry on the next price
+                for (Order order : batch.values()) {
+                    restoreTrigger(order, true);
+                }
+                executeNextBatch();
+                return;
+            }
+            FirebaseHelper.BatchFillResult result = task.getResult();
+            for (String orderId : result.filled) {
+                Order order = batch.get(orderId);
+                order.setStatus(Order.STATUS_COMPLETED);
+                heldPartners.remove(orderId);
+                notifyExecuted(order);
+            }
+            // notPending orders were cancelled or filled elsewhere in the meantime; nothing to do
+            for (String orderId : result.notPending) {
+                heldPartners.remove(orderId);
+            }
+            // Changed since it triggered (e.g. by another device), or filled only in part;
+            // re-evaluate the new version
+            for (String orderId : result.stale) {
+                restoreTrigger(batch.get(orderId), false);
+            }
+            for (String orderId : result.partiallyFilled) {
+                restoreTrigger(batch.get(orderId), false);
+            }
+            for (String orderId : result.rejected) {
+                Order order = batch.get(orderId);
+                order.setStatus(Order.STATUS_CANCELLED);
+                heldPartners.remove(orderId);
+                notifyFailed(order, "Insufficient balance at the execution price; order cancelled");
+            }
+            for (String orderId : result.failed) {
+                // Nothing changed, so no snapshot will bring it back; retry on the next price
+                Order order = batch.get(orderId);
+                restoreTrigger(order, true);
+                notifyFailed(order, "Could not fill order");
+            }
+            for (String orderId : batch.keySet()) {
+                deferredUpdates.remove(orderId);
+            }
+            if (!result.filled.isEmpty() || !result.partiallyFilled.isEmpty() || !result.rejected.isEmpty()) {
+                refreshHoldings(batchUserId);
+            }
+            executeNextBatch();
+        }));
+    }
+
+    /**
+     * Keep the live portfolio total in step with the fills. Funds still reserved by pending
+     * orders are loaded too, so they count toward the total like everywhere else.
+     */
+    private void refreshHoldings(String batchUserId) {
+        FirebaseHelper.getInstance().getUserDocument(batchUserId, task -> {
+            DocumentSnapshot doc = task.isSuccessful() ? task.getResult() : null;
+            Object walletObj = doc != null && doc.exists() ? doc.get("wallet") : null;
+            if (walletObj instanceof Map) {
+                Wallet wallet = new Wallet();
+                wallet.loadFromMap((Map<String, Object>) walletObj);
+                wallet.loadReservations((Map<String, Object>) doc.get("reservations"));
+                PortfolioValuation.getInstance().setHoldings(batchUserId, wallet);
+            }
+        });
+    }
+
+    private void notifyExecuted(Order order) {
+        mainHandler.post(() -> {
+            for (Listener listener : listeners) {
+                listener.onOrderExecuted(order);
+            }
+        });
+    }
+
+    private void notifyFailed(Order order, String error) {
+        mainHandler.post(() -> {
+            for (Listener listener : listeners) {
+                listener.onOrderFailed(order, error);
+            }
+        });
+    }
+}
@@ -0,0 +1,269 @@
+package com.koigzzzz.cex.utils;
+
+import android.content.Context;
+import android.content.SharedPreferences;
+import android.os.Handler;
+import android.os.Looper;
+import android.util.Log;
+
+import com.google.firebase.firestore.DocumentSnapshot;
+
+import java.io.BufferedOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Durable portfolio value history so revenue survives app restarts.
+ *
+ * Each user has an append-only file of fixed 16-byte records (long timestamp, double value)
+ * holding at most one point per STORE_INTERVAL_MS. Loads only read the last MAX_LOAD_RECORDS
+ * records, so opening the portfolio stays fast however long the app has been used. When the
+ * file grows past twice that size it is compacted down to its tail. Optionally, one snapshot
+ * per hour is also written to users/{userId}/portfolioSnapshots so history can be restored
+ * on a new device. All file I/O runs on a single background thread.
+ */
+public class PortfolioHistoryStore {
+    private static final String TAG = "PortfolioHistoryStore";
+    private static final String DIR_NAME = "portfolio_history";
+    private static final String PREFS_NAME = "portfolio_history";
+    private static final String PREF_LAST_CLOUD_SNAPSHOT = "last_cloud_snapshot_";
+
+    private static final int RECORD_SIZE = 16;
+    // 1024 points at one per 15 minutes covers ~10 days, enough for the 7d revenue
+    private static final int MAX_LOAD_RECORDS = 1024;
+    private static final int COMPACT_THRESHOLD_RECORDS = 2 * MAX_LOAD_RECORDS;
+    private static final long STORE_INTERVAL_MS = 15 * 60 * 1000L;
+    private static final long CLOUD_SNAPSHOT_INTERVAL_MS = 60 * 60 * 1000L;
+    // Enough hourly snapshots to cover the 7d revenue with some margin
+    private static final int CLOUD_RESTORE_LIMIT = 24 * 8;
+
+    private static PortfolioHistoryStore instance;
+
+    private final File directory;
+    private final SharedPreferences prefs;
+    private final ExecutorService ioExecutor;
+    private final Handler mainHandler;
+    private final PortfolioValueTracker tracker;
+
+    private final Set<String> loadedUsers = ConcurrentHashMap.newKeySet();
+    // Newest timestamp written to each user's file
+    private final Map<String, Long> lastStoredTime = new ConcurrentHashMap<>();
+    private volatile boolean cloudSnapshotsEnabled = true;
+
+    private PortfolioHistoryStore(Context context) {
+        Context appContext = context.getApplicationContext();
+        directory = new File(appContext.getFilesDir(), DIR_NAME);
+        prefs = appContext.getSharedPreferences(PREFS_NAME, Context.MODE_PRIVATE);
+        ioExecutor = Executors.newSingleThreadExecutor();
+        mainHandler = new Handler(Looper.getMainLooper());
+        tracker = PortfolioValueTracker.getInstance();
+    }
+
+    public static synchronized PortfolioHistoryStore getInstance(Context context) {
+        if (instance == null) {
+            instance = new PortfolioHistoryStore(context);
+        }
+        return instance;
+    }
+
+    public void setCloudSnapshotsEnabled(boolean enabled) {
+        cloudSnapshotsEnabled = enabled;
+    }
+
+    public boolean isLoaded(String userId) {
+        return loadedUsers.contains(userId);
+    }
+
+    /**
+     * Load a user's stored history into PortfolioValueTracker the first time it is needed.
+     * onLoaded runs on the main thread; immediately if history was already loaded.
+     */
+    public void loadHistory(String userId, Runnable onLoaded) {
+        if (loadedUsers.contains(userId)) {
+            if (onLoaded != null) onLoaded.run();
+            return;
+        }
+
+        ioExecutor.execute(() -> {
+            if (loadedUsers.contains(userId)) {
+                // Another request loaded it while this one was queued
+                if (onLoaded != null) mainHandler.post(onLoaded);
+                return;
+            }
+            int loaded = readTail(userId);
+            loadedUsers.add(userId);
+
+            if (loaded == 0 && cloudSnapshotsEnabled) {
+                // Nothing on this device yet: try the hourly cloud snapshots
+                mainHandler.post(() -> restoreFromCloud(userId, onLoaded));
+            } else if (onLoaded != null) {
+                mainHandler.post(onLoaded);
+            }
+        });
+    }
+
+    /**
+     * Record the current portfolio value: always into the in-memory tracker, into the
+     * local file at most every STORE_INTERVAL_MS and into Firestore at most hourly.
+     */
+    public void record(String userId, double value) {
+        long now = System.currentTimeMillis();
+        tracker.addPortfolioValue(userId, value, now);
+
+        ioExecutor.execute(() -> {
+            Long last = lastStoredTime.get(userId);
+            if (last == null || now - last >= STORE_INTERVAL_MS) {
+                append(userId, now, value);
+            }
+        });
+
+        if (cloudSnapshotsEnabled) {
+            String key = PREF_LAST_CLOUD_SNAPSHOT + userId;
+            long lastSnapshot = prefs.getLong(key, 0);
+            if (now - lastSnapshot >= CLOUD_SNAPSHOT_INTERVAL_MS) {
+                prefs.edit().putLong(key, now).apply();
+                FirebaseHelper.getInstance().savePortfolioSnapshot(userId, now, value, task -> {
+                    if (!task.isSuccessful()) {
+                        // Allow another attempt on the next update
+                        prefs.edit().remove(key).apply();
+                    }
+                });
+            }
+        }
+    }
+
+    private void restoreFromCloud(String userId, Runnable onLoaded) {
+        FirebaseHelper.getInstance().getRecentPortfolioSnapshots(userId, CLOUD_RESTORE_LIMIT, task -> {
+            if (task.isSuccessful() && task.getResult() != null) {
+                long[] times = new long[task.getResult().size()];
+                double[] values = new double[times.length];
+                int n = 0;
+                for (DocumentSnapshot doc : task.getResult().getDocuments()) {
+                    Object timestampObj = doc.get("timestamp");
+                    Object valueObj = doc.get("value");
+                    if (timestampObj instanceof Number && valueObj instanceof Number) {
+                        times[n] = ((Number) timestampObj).longValue();
+                        values[n] = ((Number) valueObj).doubleValue();
+                        tracker.addPortfolioValue(userId, values[n], times[n]);
+                        n++;
+                    }
+                }
+                final int count = n;
+                ioExecutor.execute(() -> {
+                    // Snapshots come newest first; keep the local file in time order
+                    for (int i = count - 1; i >= 0; i--) {
+                        append(userId, times[i], values[i]);
+                    }
+                });
+            }
+            if (onLoaded != null) {
+                onLoaded.run();
+            }
+        });
+    }
+
+    private File fileFor(String userId) {
+        return new File(directory, userId + ".bin");
+    }
+
+    /**
+     * Read at most the last MAX_LOAD_RECORDS records into the tracker (I/O thread).
+     * @return Number of records loaded
+     */
+    private int readTail(String userId) {
+        File file = fileFor(userId);
+        if (!file.exists()) {
+            return 0;
+        }
+
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r")) {
+            // A crash mid-append can leave a partial record at the end; ignore it
+            long records = raf.length() / RECORD_SIZE;
+            int count = (int) Math.min(records, MAX_LOAD_RECORDS);
+            byte[] bytes = new byte[count * RECORD_SIZE];
+            raf.seek((records - count) * RECORD_SIZE);
+            raf.readFully(bytes);
+
+            ByteBuffer buffer = ByteBuffer.wrap(bytes);
+            long newest = Long.MIN_VALUE;
+            for (int i = 0; i < count; i++) {
+                long timestamp = buffer.getLong();
+                double value = buffer.getDouble();
+                tracker.addPortfolioValue(userId, value, timestamp);
+                newest = Math.max(newest, timestamp);
+            }
+            if (count > 0) {
+                lastStoredTime.put(userId, newest);
+            }
+            return count;
+        } catch (IOException e) {
+            Log.e(TAG, "Error reading portfolio history", e);
+            return 0;
+        }
+    }
+
+    /**
+     * Append one record and compact the file if it grew too large (I/O thread).
+     */
+    private void append(String userId, long timestamp, double value) {
+        if (!directory.exists() && !directory.mkdirs()) {
+            Log.e(TAG, "Cannot create " + directory);
+            return;
+        }
+
+        File file = fileFor(userId);
+        try {
+            // Drop a partial trailing record so the file stays aligned
+            long length = file.length();
+            if (length % RECORD_SIZE != 0) {
+                try (RandomAccessFile raf = new RandomAccessFile(file, "rw")) {
+                    raf.setLength(length - length % RECORD_SIZE);
+                }
+            }
+
+            try (DataOutputStream out = new DataOutputStream(new FileOutputStream(file, true))) {
+                out.writeLong(timestamp);
+                out.writeDouble(value);
+            }
+            Long last = lastStoredTime.get(userId);
+            if (last == null || timestamp > last) {
+                lastStoredTime.put(userId, timestamp);
+            }
+
+            if (file.length() / RECORD_SIZE > COMPACT_THRESHOLD_RECORDS) {
+                compact(file);
+            }
+        } catch (IOException e) {
+            Log.e(TAG, "Error appending portfolio history", e);
+        }
+    }
+
+    /**
+     * Rewrite the file keeping only its last MAX_LOAD_RECORDS records.
+     */
+    private void compact(File file) throws IOException {
+        File temp = new File(file.getPath() + ".tmp");
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             DataOutputStream out = new DataOutputStream(new BufferedOutputStream(new FileOutputStream(temp)))) {
+            long records = raf.length() / RECORD_SIZE;
+            int count = (int) Math.min(records, MAX_LOAD_RECORDS);
+            byte[] bytes = new byte[count * RECORD_SIZE];
+            raf.seek((records - count) * RECORD_SIZE);
+            raf.readFully(bytes);
+            out.write(bytes);
+        }
+        if (!temp.renameTo(file)) {
+            temp.delete();
+            throw new IOException("Failed to replace " + file);
+        }
+    }
+}
@@ -0,0 +1,501 @@
+package com.koigzzzz.cex.utils;
+
+import android.util.Log;
+
+import com.google.android.gms.tasks.Task;
+import com.google.firebase.firestore.DocumentSnapshot;
+import com.google.firebase.firestore.QuerySnapshot;
+import com.koigzzzz.cex.models.Order;
+import com.koigzzzz.cex.models.Wallet;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+
+/**
+ * Event-sourced portfolio valuation: rebuilds a user's holdings at any timestamp from their
+ * orders and transfers and prices them with PriceHistoryTracker, so "value at T" does not
+ * depend on the app having been open at T.
+ *
+ * Every order and transfer becomes one or more single-asset balance changes ("legs"). Funds
+ * a pending order has locked are still owned, so an order only changes holdings when it
+ * fills: it pays for and receives what filled at its fill time (the cancel time for a
+ * partially filled order that was then cancelled). The ledger is anchored on the current wallet and walked backwards once to
+ * store a holdings checkpoint every CHECKPOINT_INTERVAL legs, so a lookup copies the nearest
+ * checkpoint and replays at most CHECKPOINT_INTERVAL legs forward.
+ */
+public class PortfolioLedger {
+    private static final String TAG = "PortfolioLedger";
+    private static PortfolioLedger instance;
+
+    private static final int CHECKPOINT_INTERVAL = 32;
+    private static final String QUOTE_ASSET = "usdt";
+
+    // Incremental fetches reach back this far before the cursor, since closedAt and transfer
+    // timestamps come from device clocks that may disagree; the overlap is deduplicated by id
+    private static final long CURSOR_OVERLAP_MS = 10 * 60 * 1000L;
+
+    private final Map<String, Ledger> ledgers = new ConcurrentHashMap<>();
+    // Legs fetched so far per user, so later loads only fetch what closed since
+    private final Map<String, Builder> builders = new ConcurrentHashMap<>();
+    // Set once a since-query fails (e.g. its index is missing); every load is then a full one
+    private volatile boolean incrementalUnavailable;
+
+    private PortfolioLedger() {
+    }
+
+    public static synchronized PortfolioLedger getInstance() {
+        if (instance == null) {
+            instance = new PortfolioLedger();
+        }
+        return instance;
+    }
+
+    /**
+     * Rebuild the user's ledger against the given wallet. The first load fetches every order
+     * and transfer; later ones fetch only orders closed and transfers made since the newest
+     * already held and add them to the existing legs. onLoaded runs on the main thread once
+     * the ledger is available; a failed fetch keeps the previous ledger, if any.
+     */
+    public void load(String userId, Wallet currentWallet, Runnable onLoaded) {
+        Builder builder = builders.get(userId);
+        if (builder == null || incrementalUnavailable) {
+            loadAll(userId, currentWallet, onLoaded);
+        } else {
+            loadSince(userId, builder, currentWallet, onLoaded);
+        }
+    }
+
+    private void loadAll(String userId, Wallet currentWallet, Runnable onLoaded) {
+        FirebaseHelper firebaseHelper = FirebaseHelper.getInstance();
+        firebaseHelper.getUserOrders(userId, ordersTask -> {
+            if (!ordersTask.isSuccessful() || ordersTask.getResult() == null) {
+                return;
+            }
+            firebaseHelper.getSentTransfers(userId, sentTask -> {
+                firebaseHelper.getReceivedTransfers(userId, receivedTask -> {
+                    Builder builder = new Builder();
+                    for (DocumentSnapshot doc : ordersTask.getResult().getDocuments()) {
+                        builder.addOrder(doc);
+                    }
+                    // A failed transfer query only loses the transfer legs, and the next
+                    // load starts over instead of building on them
+                    boolean complete = true;
+                    if (sentTask.isSuccessful() && sentTask.getResult() != null) {
+                        builder.addTransfers(sentTask.getResult(), -1);
+                    } else {
+                        complete = false;
+                    }
+                    if (receivedTask.isSuccessful() && receivedTask.getResult() != null) {
+                        builder.addTransfers(receivedTask.getResult(), 1);
+                    } else {
+                        complete = false;
+                    }
+                    if (complete) {
+                        builders.put(userId, builder);
+                    } else {
+                        builders.remove(userId);
+                    }
+                    publish(userId, builder, currentWallet, onLoaded);
+                });
+            });
+        });
+    }
+
+    private void loadSince(String userId, Builder builder, Wallet currentWallet, Runnable onLoaded) {
+        FirebaseHelper firebaseHelper = FirebaseHelper.getInstance();
+        long orderSince = builder.orderCursor - CURSOR_OVERLAP_MS;
+        long transferSince = builder.transferCursor - CURSOR_OVERLAP_MS;
+        firebaseHelper.getUserOrdersClosedSince(userId, orderSince, ordersTask -> {
+            firebaseHelper.getSentTransfersSince(userId, transferSince, sentTask -> {
+                firebaseHelper.getReceivedTransfersSince(userId, transferSince, receivedTask -> {
+                    if (!succeeded(ordersTask) || !succeeded(sentTask) || !succeeded(receivedTask)) {
+                        Log.w(TAG, "Incremental ledger fetch failed, falling back to full fetches");
+                        incrementalUnavailable = true;
+                        builders.remove(userId);
+                        loadAll(userId, currentWallet, onLoaded);
+                        return;
+                    }
+                    for (DocumentSnapshot doc : ordersTask.getResult().getDocuments()) {
+                        builder.addOrder(doc);
+                    }
+                    builder.addTransfers(sentTask.getResult(), -1);
+                    builder.addTransfers(receivedTask.getResult(), 1);
+                    publish(userId, builder, currentWallet, onLoaded);
+                });
+            });
+        });
+    }
+
+    private static boolean succeeded(Task<QuerySnapshot> task) {
+        return task.isSuccessful() && task.getResult() != null;
+    }
+
+    private void publish(String userId, Builder builder, Wallet currentWallet, Runnable onLoaded) {
+        ledgers.put(userId, builder.build(currentWallet.toTotalsMap()));
+        builder.publishCashFlows(userId);
+        if (onLoaded != null) {
+            onLoaded.run();
+        }
+    }
+
+    public boolean isLoaded(String userId) {
+        return ledgers.containsKey(userId);
+    }
+
+    public void clear(String userId) {
+        ledgers.remove(userId);
+        builders.remove(userId);
+    }
+
+    /**
+     * Holdings (lowercase symbol -> quantity) at a timestamp, or null if the ledger is not loaded
+     */
+    public Map<String, Double> getHoldingsAt(String userId, long timestamp) {
+        Ledger ledger = ledgers.get(userId);
+        if (ledger == null) {
+            return null;
+        }
+        double[] holdings = new double[ledger.assets.length];
+        ledger.holdingsAt(timestamp, holdings);
+        Map<String, Double> result = new HashMap<>();
+        for (int a = 0; a < holdings.length; a++) {
+            result.put(ledger.assets[a], holdings[a]);
+        }
+        return result;
+    }
+
+    /**
+     * Portfolio value in USDT at a timestamp.
+     * @return Value, -1 if the ledger is not loaded, or NaN if a held token has no recorded
+     * price at that time
+     */
+    public double getValueAt(String userId, long timestamp) {
+        Ledger ledger = ledgers.get(userId);
+        if (ledger == null) {
+            return -1;
+        }
+        double[] holdings = new double[ledger.assets.length];
+        ledger.holdingsAt(timestamp, holdings);
+
+        PriceHistoryTracker tracker = PriceHistoryTracker.getInstance();
+        double value = 0;
+        for (int a = 0; a < holdings.length; a++) {
+            if (holdings[a] == 0) continue;
+            double price = QUOTE_ASSET.equals(ledger.assets[a])
+                    ? 1.0 : tracker.getPriceAt(ledger.assets[a], timestamp);
+            if (price < 0) {
+                return Double.NaN;
+            }
+            value += holdings[a] * price;
+        }
+        return value;
+    }
+
+    /**
+     * Portfolio value every stepMs from fromTime to toTime (inclusive), oldest first.
+     * Holdings are swept forward once and each token's prices are looked up in one batch,
+     * so a 30-day hourly curve costs one checkpoint lookup plus O(points * tokens * log n).
+     * Points where a held token has no recorded price are skipped.
+     */
+    public List<PortfolioValueTracker.PortfolioValuePoint> getEquityCurve(String userId, long fromTime,
+                                                                         long toTime, long stepMs) {
+        List<PortfolioValueTracker.PortfolioValuePoint> curve = new ArrayList<>();
+        Ledger ledger = ledgers.get(userId);
+        if (ledger == null || stepMs <= 0 || toTime < fromTime) {
+            return curve;
+        }
+
+        int points = (int) ((toTime - fromTime) / stepMs) + 1;
+        long[] times = new long[points];
+        for (int i = 0; i < points; i++) {
+            times[i] = fromTime + i * stepMs;
+        }
+
+        // Prices per asset for every point; NaN where unknown
+        int assetCount = ledger.assets.length;
+        PriceHistoryTracker tracker = PriceHistoryTracker.getInstance();
+        double[][] prices = new double[assetCount][];
+        for (int a = 0; a < assetCount; a++) {
+            double[] row = new double[points];
+            if (QUOTE_ASSET.equals(ledger.assets[a])) {
+                Arrays.fill(row, 1.0);
+            } else if (tracker.getPricesAt(ledger.assets[a], times, row)) {
+                for (int i = 0; i < points; i++) {
+                    if (row[i] < 0) row[i] = Double.NaN;
+                }
+            } else {
+                Arrays.fill(row, Double.NaN);
+            }
+            prices[a] = row;
+        }
+
+        double[] holdings = new double[assetCount];
+        int next = ledger.holdingsAt(fromTime, holdings);
+        for (int i = 0; i < points; i++) {
+            next = ledger.advance(holdings, next, times[i]);
+            double value = 0;
+            for (int a = 0; a < assetCount; a++) {
+                if (holdings[a] != 0) {
+                    value += holdings[a] * prices[a][i];
+                }
+            }
+            if (!Double.isNaN(value)) {
+                curve.add(new PortfolioValueTracker.PortfolioValuePoint(value, times[i]));
+            }
+        }
+        return curve;
+    }
+
+    /**
+     * Collects legs from Firestore documents. Kept between loads; documents already added
+     * are skipped by id, so overlapping fetches are harmless.
+     */
+    static class Builder {
+        private final List<long[]> legTimes = new ArrayList<>();
+        private final List<String> legAssets = new ArrayList<>();
+        private final List<Double> legDeltas = new ArrayList<>();
+        private final List<Long> transferTimes = new ArrayList<>();
+        private final List<String> transferSymbols = new ArrayList<>();
+        private final List<Double> transferAmounts = new ArrayList<>();
+        // USDT value stored on the transfer when it was sent, NaN for older records
+        private final List<Double> transferValues = new ArrayList<>();
+        private final Set<String> seenIds = new HashSet<>();
+        // Newest closedAt and transfer timestamp added so far
+        long orderCursor;
+        long transferCursor;
+
+        void addLeg(long timestamp, String symbol, double delta) {
+            legTimes.add(new long[]{timestamp, legTimes.size()});
+            legAssets.add(symbol.toLowerCase());
+            legDeltas.add(delta);
+        }
+
+        void addTransfers(QuerySnapshot snapshot, int sign) {
+            for (DocumentSnapshot doc : snapshot.getDocuments()) {
+                Object amountObj = doc.get("amount");
+                Object timestampObj = doc.get("timestamp");
+                String symbol = doc.getString("symbol");
+                if (symbol == null || !(amountObj instanceof Number) || !(timestampObj instanceof Number)
+                        || !seenIds.add((sign < 0 ? "sent/" : "received/") + doc.getId())) {
+                    continue;
+                }
+                long timestamp = ((Number) timestampObj).longValue();
+                transferCursor = Math.max(transferCursor, timestamp);
+                Object valueObj = doc.get("valueUsd");
+                double valueUsd = valueObj instanceof Number ? ((Number) valueObj).doubleValue() : Double.NaN;
+                addTransfer(timestamp, symbol, sign * ((Number) amountObj).doubleValue(), sign * valueUsd);
+            }
+        }
+
+        /**
+         * @param valueUsd Signed USDT value recorded with the transfer, or NaN if it has none
+         */
+        void addTransfer(long timestamp, String symbol, double amount, double valueUsd) {
+            addLeg(timestamp, symbol, amount);
+            transferTimes.add(timestamp);
+            transferSymbols.add(symbol);
+            transferAmounts.add(amount);
+            transferValues.add(valueUsd);
+        }
+
+        /**
+         * Hand the transfers to PortfolioValueTracker as USDT cash flows, so returns can
+         * exclude them. Each is valued with the USDT value stored on the transfer when it was
+         * sent. Older records without one fall back to the in-memory token price at transfer
+         * time, and are passed as NaN (unpriced) rather than as 0 if there is none.
+         */
+        void publishCashFlows(String userId) {
+            PriceHistoryTracker tracker = PriceHistoryTracker.getInstance();
+            int n = transferTimes.size();
+            long[] times = new long[n];
+            double[] amounts = new double[n];
+            for (int i = 0; i < n; i++) {
+                String symbol = transferSymbols.get(i);
+                times[i] = transferTimes.get(i);
+                if (!Double.isNaN(transferValues.get(i))) {
+                    amounts[i] = transferValues.get(i);
+                    continue;
+                }
+                double price = QUOTE_ASSET.equalsIgnoreCase(symbol) ? 1.0 : tracker.getPriceAt(symbol, times[i]);
+                amounts[i] = price > 0 ? transferAmounts.get(i) * price : Double.NaN;
+            }
+            PortfolioValueTracker.getInstance().setCashFlows(userId, times, amounts);
+        }
+
+        void addOrder(DocumentSnapshot doc) {
+            try {
+                String type = doc.getString("type");
+                String symbol = doc.getString("symbol");
+                String status = doc.getString("status");
+                Object qtyObj = doc.get("quantity");
+                Object priceObj = doc.get("price");
+                Object totalObj = doc.get("total");
+                Object timestampObj = doc.get("timestamp");
+                Object closedAtObj = doc.get("closedAt");
+                Object filledObj = doc.get("filledQuantity");
+                Object averageFillPriceObj = doc.get("averageFillPrice");
+                if (type == null || symbol == null || status == null
+                        || !(qtyObj instanceof Number) || !(timestampObj instanceof Number)) {
+                    return;
+                }
+                // Pending orders are picked up again once they close
+                boolean closed = Order.STATUS_COMPLETED.equals(status) || Order.STATUS_CANCELLED.equals(status);
+                if (!closed || !seenIds.add("order/" + doc.getId())) {
+                    return;
+                }
+
+                double quantity = ((Number) qtyObj).doubleValue();
+                double total = totalObj instanceof Number ? ((Number) totalObj).doubleValue()
+                        : priceObj instanceof Number ? ((Number) priceObj).doubleValue() * quantity : 0;
+                long placedAt = ((Number) timestampObj).longValue();
+                long closedAt = closedAtObj instanceof Number ? ((Number) closedAtObj).longValue() : 0;
+                orderCursor = Math.max(orderCursor, closedAt);
+                boolean buy = Order.TYPE_BUY.equals(type);
+                String paidAsset = buy ? QUOTE_ASSET : symbol;
+                double paid = buy ? total : quantity;
+
+                if (Order.STATUS_CANCELLED.equals(status)) {
+                    double filled = filledObj instanceof Number ? ((Number) filledObj).doubleValue() : 0;
+                    double fillPrice = averageFillPriceObj instanceof Number ? ((Number) averageFillPriceObj).doubleValue() : 0;
+                    // A partially filled order keeps its fills, placed at the cancel time as
+                    // per-fill times live in its fills subcollection
+                    if (closedAt > 0 && filled > 0) {
+                        addLeg(closedAt, paidAsset, -(buy ? filled * fillPrice : filled));
+                        addLeg(closedAt, buy ? symbol : QUOTE_ASSET, buy ? filled : filled * fillPrice);
+                    }
+                    return;
+                }
+
+                if (Order.STATUS_COMPLETED.equals(status)) {
+                    long filledAt = closedAt > 0 ? closedAt : placedAt;
+                    addLeg(filledAt, paidAsset, -paid);
+                    addLeg(filledAt, buy ? symbol : QUOTE_ASSET, buy ? quantity : total);
+                }
+            } catch (Exception e) {
+                Log.e(TAG, "Error parsing order: " + doc.getId(), e);
+            }
+        }
+
+        Ledger build(Map<String, Object> walletMap) {
+            Map<String, Double> currentBalances = new HashMap<>();
+            for (Map.Entry<String, Object> entry : walletMap.entrySet()) {
+                if (entry.getValue() instanceof Number) {
+                    currentBalances.put(entry.getKey().toLowerCase(), ((Number) entry.getValue()).doubleValue());
+                }
+            }
+
+            // Stable sort by time so same-timestamp legs keep insertion order
+            legTimes.sort((x, y) -> x[0] != y[0] ? Long.compare(x[0], y[0]) : Long.compare(x[1], y[1]));
+
+            Map<String, Integer> slots = new HashMap<>();
+            List<String> assets = new ArrayList<>(currentBalances.keySet());
+            for (String asset : legAssets) {
+                if (!currentBalances.containsKey(asset) && !assets.contains(asset)) {
+                    assets.add(asset);
+                }
+            }
+            for (int a = 0; a < assets.size(); a++) {
+                slots.put(assets.get(a), a);
+            }
+
+            int n = legTimes.size();
+            long[] times = new long[n];
+            int[] assetIndex = new int[n];
+            double[] deltas = new double[n];
+            for (int i = 0; i < n; i++) {
+                int original = (int) legTimes.get(i)[1];
+                times[i] = legTimes.get(i)[0];
+                assetIndex[i] = slots.get(legAssets.get(original));
+                deltas[i] = legDeltas.get(original);
+            }
+
+            double[] current = new double[assets.size()];
+            for (Map.Entry<String, Double> entry : currentBalances.entrySet()) {
+                current[slots.get(entry.getKey())] = entry.getValue();
+            }
+            return new Ledger(assets.toArray(new String[0]), times, assetIndex, deltas, current);
+        }
+    }
+
+    /**
+     * Immutable time-sorted legs plus holdings checkpoints, in primitive arrays.
+     * Checkpoint c holds the holdings after the first c * CHECKPOINT_INTERVAL legs.
+     */
+    static class Ledger {
+        final String[] assets;
+        final long[] times;
+        final int[] assetIndex;
+        final double[] deltas;
+        final double[] checkpoints; // row-major [c * assets.length + a]
+
+        Ledger(String[] assets, long[] times, int[] assetIndex, double[] deltas, double[] currentHoldings) {
+            this.assets = assets;
+            this.times = times;
+            this.assetIndex = assetIndex;
+            this.deltas = deltas;
+
+            // Walk back from the current holdings, storing a row at every checkpoint boundary
+            int width = assets.length;
+            int rows = times.length / CHECKPOINT_INTERVAL + 1;
+            checkpoints = new double[rows * width];
+            double[] holdings = currentHoldings.clone();
+            for (int k = times.length; k >= 0; k--) {
+                if (k % CHECKPOINT_INTERVAL == 0) {
+                    System.arraycopy(holdings, 0, checkpoints, (k / CHECKPOINT_INTERVAL) * width, width);
+                }
+                if (k > 0) {
+                    holdings[assetIndex[k - 1]] -= deltas[k - 1];
+                }
+            }
+        }
+
+        /**
+         * Number of legs at or before timestamp
+         */
+        int countUpTo(long timestamp) {
+            int lo = 0;
+            int hi = times.length;
+            while (lo < hi) {
+                int mid = (lo + hi) >>> 1;
+                if (times[mid] <= timestamp) {
+                    lo = mid + 1;
+                } else {
+                    hi = mid;
+                }
+            }
+            return lo;
+        }
+
+        /**
+         * Fill out with the holdings at timestamp.
+         * @return Index of the first leg after timestamp
+         */
+        int holdingsAt(long timestamp, double[] out) {
+            int k = countUpTo(timestamp);
+            int c = k / CHECKPOINT_INTERVAL;
+            System.arraycopy(checkpoints, c * assets.length, out, 0, assets.length);
+            for (int i = c * CHECKPOINT_INTERVAL; i < k; i++) {
+                out[assetIndex[i]] += deltas[i];
+            }
+            return k;
+        }
+
+        /**
+         * Apply legs from index next up to timestamp to holdings.
+         * @return Index of the first leg after timestamp
+         */
+        int advance(double[] holdings, int next, long timestamp) {
+            while (next < times.length && times[next] <= timestamp) {
+                holdings[assetIndex[next]] += deltas[next];
+                next++;
+            }
+            return next;
+        }
+    }
+}
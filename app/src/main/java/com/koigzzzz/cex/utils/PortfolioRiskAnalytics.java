@@ -0,0 +1,360 @@
+package com.koigzzzz.cex.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.koigzzzz.cex.models.Holding;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Rolling risk metrics for the signed-in user's portfolio: volatility, max drawdown,
+ * a Sharpe-like ratio and each asset's contribution to portfolio variance.
+ *
+ * Portfolio values are sampled into 5-minute bars (the same buckets PortfolioValueTracker
+ * keeps). Each closed bar adds one return to a fixed window of WINDOW_BARS returns and
+ * evicts the oldest, updating running sums in O(1) (O(assets) for the contributions), so
+ * nothing is rescanned as history grows. All updates run on a background thread and
+ * listeners get the new metrics on the main thread.
+ */
+public class PortfolioRiskAnalytics {
+    private static PortfolioRiskAnalytics instance;
+
+    static final long BAR_MS = 5 * 60 * 1000L;
+    // One day of 5-minute bars
+    static final int WINDOW_BARS = 288;
+    private static final double YEAR_MS = 365.0 * 24 * 60 * 60 * 1000;
+
+    public interface Listener {
+        void onRiskMetricsUpdated(RiskMetrics metrics);
+    }
+
+    private final ExecutorService executor = Executors.newSingleThreadExecutor();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+
+    // Only touched on the executor thread
+    private String userId;
+    private RiskState state;
+
+    private volatile RiskMetrics latest;
+
+    private PortfolioRiskAnalytics() {
+    }
+
+    public static synchronized PortfolioRiskAnalytics getInstance() {
+        if (instance == null) {
+            instance = new PortfolioRiskAnalytics();
+        }
+        return instance;
+    }
+
+    public void addListener(Listener listener) {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Latest metrics, or null if nothing has been computed yet
+     */
+    public RiskMetrics getLatest() {
+        return latest;
+    }
+
+    /**
+     * Start over for a user from the value history already in PortfolioValueTracker.
+     * Replayed points carry no per-asset prices, so contributions build up from live samples.
+     */
+    public void rebuild(String userId) {
+        executor.execute(() -> {
+            this.userId = userId;
+            state = new RiskState(WINDOW_BARS);
+            for (PortfolioValueTracker.PortfolioValuePoint point
+                    : PortfolioValueTracker.getInstance().getPortfolioHistory(userId)) {
+                state.add(point.timestamp, point.value, null);
+            }
+            publish();
+        });
+    }
+
+    /**
+     * Record the current total and positions. Cheap on the calling thread; the bar update
+     * runs in the background.
+     */
+    public void record(String userId, long timestamp, double total, List<Holding> holdings) {
+        // Copy out what the background thread needs; Holding is immutable
+        List<Holding> snapshot = holdings != null ? new ArrayList<>(holdings) : null;
+        executor.execute(() -> {
+            if (state == null || !userId.equals(this.userId)) {
+                this.userId = userId;
+                state = new RiskState(WINDOW_BARS);
+            }
+            if (state.add(timestamp, total, snapshot)) {
+                publish();
+            }
+        });
+    }
+
+    private void publish() {
+        RiskMetrics metrics = state.metrics();
+        latest = metrics;
+        mainHandler.post(() -> {
+            for (Listener listener : listeners) {
+                listener.onRiskMetricsUpdated(metrics);
+            }
+        });
+    }
+
+    /**
+     * Immutable snapshot of the metrics. Ratios are fractions (0.05 = 5%); volatility and
+     * Sharpe are annualized from the average bar spacing. Values are NaN until the window
+     * holds enough returns.
+     */
+    public static class RiskMetrics {
+        public final int returnCount;
+        public final double volatility;
+        public final double sharpe;
+        public final double maxDrawdown;
+        public final double currentDrawdown;
+        // Share of portfolio variance per asset (sums to about 1 when weights were stable)
+        public final Map<String, Double> varianceContribution;
+
+        public RiskMetrics(int returnCount, double volatility, double sharpe, double maxDrawdown,
+                           double currentDrawdown, Map<String, Double> varianceContribution) {
+            this.returnCount = returnCount;
+            this.volatility = volatility;
+            this.sharpe = sharpe;
+            this.maxDrawdown = maxDrawdown;
+            this.currentDrawdown = currentDrawdown;
+            this.varianceContribution = varianceContribution;
+        }
+    }
+
+    /**
+     * Bar sampling plus windowed running sums. Not thread-safe; confined to one thread.
+     */
+    static class RiskState {
+        private final int window;
+
+        // Bar being filled: last sample wins
+        private long barStart = Long.MIN_VALUE;
+        private double barValue;
+        private final Map<String, Integer> slots = new HashMap<>();
+        private final List<String> slotSymbols = new ArrayList<>();
+        private double[] barPrices = new double[8];
+        private double[] barWeights = new double[8];
+
+        // Previous closed bar
+        private double prevValue;
+        private double[] prevPrices = new double[8];
+
+        // Window of returns, ring-indexed by bar; asset returns row-major [bar * stride + slot]
+        private final long[] times;
+        private final double[] portfolioReturns;
+        private double[] assetReturns;
+        private int stride = 8;
+        private int head;
+        private int count;
+        private int evictionsSinceResum;
+
+        private double sumR;
+        private double sumR2;
+        private double[] sumA = new double[8];
+        private double[] sumAR = new double[8];
+
+        // Drawdown over everything seen since the last rebuild
+        private double peak;
+        private double maxDrawdown;
+        private double currentDrawdown;
+
+        RiskState(int window) {
+            this.window = window;
+            times = new long[window];
+            portfolioReturns = new double[window];
+            assetReturns = new double[window * stride];
+        }
+
+        /**
+         * Feed one sample. holdings may be null when only the total is known.
+         * @return true if a bar closed and the metrics changed
+         */
+        boolean add(long timestamp, double value, List<Holding> holdings) {
+            if (value <= 0) return false;
+            long bar = timestamp - Math.floorMod(timestamp, BAR_MS);
+            if (barStart != Long.MIN_VALUE && bar < barStart) {
+                return false; // late sample for a bar that already closed
+            }
+
+            boolean closed = false;
+            if (barStart != Long.MIN_VALUE && bar > barStart) {
+                closeBar();
+                closed = true;
+            }
+            barStart = bar;
+            barValue = value;
+            if (holdings != null) {
+                for (int slot = 0; slot < slotSymbols.size(); slot++) {
+                    barWeights[slot] = 0.0;
+                }
+                for (Holding holding : holdings) {
+                    if (!holding.hasPrice()) continue;
+                    int slot = slotFor(holding.getSymbol());
+                    barPrices[slot] = holding.getPrice();
+                    barWeights[slot] = holding.getValue() / value;
+                }
+            }
+            return closed;
+        }
+
+        private void closeBar() {
+            if (prevValue > 0) {
+                double r = barValue / prevValue - 1.0;
+                if (count == window) {
+                    evictOldest();
+                }
+                int i = (head + count) % window;
+                times[i] = barStart;
+                portfolioReturns[i] = r;
+                sumR += r;
+                sumR2 += r * r;
+                int row = i * stride;
+                for (int slot = 0; slot < slotSymbols.size(); slot++) {
+                    double a = prevPrices[slot] > 0 && barPrices[slot] > 0
+                            ? barPrices[slot] / prevPrices[slot] - 1.0 : 0.0;
+                    assetReturns[row + slot] = a;
+                    sumA[slot] += a;
+                    sumAR[slot] += a * r;
+                }
+                count++;
+            }
+
+            prevValue = barValue;
+            System.arraycopy(barPrices, 0, prevPrices, 0, slotSymbols.size());
+
+            if (barValue > peak) {
+                peak = barValue;
+            }
+            currentDrawdown = peak > 0 ? (peak - barValue) / peak : 0.0;
+            if (currentDrawdown > maxDrawdown) {
+                maxDrawdown = currentDrawdown;
+            }
+        }
+
+        private void evictOldest() {
+            double r = portfolioReturns[head];
+            sumR -= r;
+            sumR2 -= r * r;
+            int row = head * stride;
+            for (int slot = 0; slot < slotSymbols.size(); slot++) {
+                double a = assetReturns[row + slot];
+                sumA[slot] -= a;
+                sumAR[slot] -= a * r;
+            }
+            head = (head + 1) % window;
+            count--;
+            if (++evictionsSinceResum >= window) {
+                resum();
+            }
+        }
+
+        /**
+         * Recompute the running sums from the window to shed accumulated rounding error.
+         * Runs once per window's worth of evictions, so it stays O(1) amortized.
+         */
+        private void resum() {
+            sumR = 0;
+            sumR2 = 0;
+            for (int slot = 0; slot < slotSymbols.size(); slot++) {
+                sumA[slot] = 0;
+                sumAR[slot] = 0;
+            }
+            for (int k = 0; k < count; k++) {
+                int i = (head + k) % window;
+                double r = portfolioReturns[i];
+                sumR += r;
+                sumR2 += r * r;
+                int row = i * stride;
+                for (int slot = 0; slot < slotSymbols.size(); slot++) {
+                    sumA[slot] += assetReturns[row + slot];
+                    sumAR[slot] += assetReturns[row + slot] * r;
+                }
+            }
+            evictionsSinceResum = 0;
+        }
+
+        private int slotFor(String symbol) {
+            Integer slot = slots.get(symbol);
+            if (slot != null) return slot;
+            int newSlot = slotSymbols.size();
+            if (newSlot == stride) {
+                widen(stride * 2);
+            }
+            slotSymbols.add(symbol);
+            slots.put(symbol, newSlot);
+            // Returns before the asset appeared count as 0 (it was not held)
+            return newSlot;
+        }
+
+        private void widen(int newStride) {
+            double[] newAssetReturns = new double[window * newStride];
+            for (int i = 0; i < window; i++) {
+                System.arraycopy(assetReturns, i * stride, newAssetReturns, i * newStride, stride);
+            }
+            assetReturns = newAssetReturns;
+            barPrices = Arrays.copyOf(barPrices, newStride);
+            barWeights = Arrays.copyOf(barWeights, newStride);
+            prevPrices = Arrays.copyOf(prevPrices, newStride);
+            sumA = Arrays.copyOf(sumA, newStride);
+            sumAR = Arrays.copyOf(sumAR, newStride);
+            stride = newStride;
+        }
+
+        double variance() {
+            if (count < 2) return Double.NaN;
+            double mean = sumR / count;
+            return Math.max(0.0, (sumR2 - count * mean * mean) / (count - 1));
+        }
+
+        RiskMetrics metrics() {
+            double variance = variance();
+            double stdDev = Math.sqrt(variance);
+
+            // Annualize from the average spacing of the bars in the window
+            double periodsPerYear = Double.NaN;
+            if (count >= 2) {
+                long first = times[head];
+                long last = times[(head + count - 1) % window];
+                double spacing = (double) (last - first) / (count - 1);
+                if (spacing > 0) {
+                    periodsPerYear = YEAR_MS / spacing;
+                }
+            }
+            double volatility = stdDev * Math.sqrt(periodsPerYear);
+            double sharpe = stdDev > 0 ? (sumR / count) / stdDev * Math.sqrt(periodsPerYear) : Double.NaN;
+
+            // contribution_i = w_i * cov(r_i, r_p) / var(r_p), using the latest weights
+            Map<String, Double> contribution = new HashMap<>();
+            if (count >= 2 && variance > 0) {
+                double meanR = sumR / count;
+                for (int slot = 0; slot < slotSymbols.size(); slot++) {
+                    if (barWeights[slot] == 0) continue;
+                    double cov = (sumAR[slot] - sumA[slot] * meanR) / (count - 1);
+                    contribution.put(slotSymbols.get(slot), barWeights[slot] * cov / variance);
+                }
+            }
+            return new RiskMetrics(count, volatility, sharpe, maxDrawdown, currentDrawdown, contribution);
+        }
+    }
+}
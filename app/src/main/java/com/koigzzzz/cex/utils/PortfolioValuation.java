@@ -0,0 +1,299 @@
+package com.koigzzzz.cex.utils;
+
+import android.os.Handler;
+import android.os.Looper;
+
+import com.koigzzzz.cex.models.Holding;
+import com.koigzzzz.cex.models.TokenPrice;
+import com.koigzzzz.cex.models.Wallet;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
+
+/**
+ * Live valuation of the signed-in user's wallet, kept current from PriceHistoryTracker ticks.
+ *
+ * Holdings are a vector indexed by a per-symbol slot with the quantity, last price and
+ * position value side by side. A tick only touches its own slot and adjusts the running
+ * total by the change in that position's value, so it costs O(1) however many tokens the
+ * wallet holds. The total is re-summed every RESUM_INTERVAL updates to shed floating-point
+ * drift. Listeners are notified on the main thread.
+ */
+public class PortfolioValuation implements PriceHistoryTracker.TickListener {
+    private static PortfolioValuation instance;
+
+    private static final String QUOTE_ASSET = "USDT";
+    private static final int INITIAL_CAPACITY = 16;
+    private static final int RESUM_INTERVAL = 1024;
+
+    /**
+     * Called when a position or the total changes. symbol is the position that changed,
+     * or null when the holdings were replaced.
+     */
+    public interface Listener {
+        void onValuationChanged(String symbol);
+    }
+
+    private final List<Listener> listeners = new CopyOnWriteArrayList<>();
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+
+    private String userId;
+    private final Map<String, Integer> slots = new HashMap<>();
+    private String[] symbols;
+    private double[] quantities;
+    private double[] prices;  // 0 until a price is known
+    private double[] values;  // quantity * price
+    private int count;
+    private double total;
+    private int updatesSinceResum;
+
+    private PortfolioValuation() {
+        allocate(INITIAL_CAPACITY);
+    }
+
+    public static synchronized PortfolioValuation getInstance() {
+        if (instance == null) {
+            instance = new PortfolioValuation();
+            PriceHistoryTracker.getInstance().addTickListener(instance);
+        }
+        return instance;
+    }
+
+    public void addListener(Listener listener) {
+        if (!listeners.contains(listener)) {
+            listeners.add(listener);
+        }
+    }
+
+    public void removeListener(Listener listener) {
+        listeners.remove(listener);
+    }
+
+    /**
+     * Replace the holdings with a freshly loaded wallet. Prices start from PriceManager's
+     * cache and are kept current by ticks afterwards.
+     */
+    public void setHoldings(String userId, Wallet wallet) {
+        synchronized (this) {
+            this.userId = userId;
+            slots.clear();
+            count = 0;
+            PriceManager priceManager = PriceManager.getInstance();
+            // Funds locked by pending orders are still owned
+            for (Map.Entry<String, Object> entry : wallet.toTotalsMap().entrySet()) {
+                if (!(entry.getValue() instanceof Number)) continue;
+                String symbol = entry.getKey().toUpperCase();
+                int slot = slotFor(symbol);
+                quantities[slot] = ((Number) entry.getValue()).doubleValue();
+                if (QUOTE_ASSET.equals(symbol)) {
+                    prices[slot] = 1.0;
+                } else {
+                    TokenPrice cached = priceManager.getCachedPrice(symbol);
+                    prices[slot] = cached != null ? cached.getPrice() : 0.0;
+                }
+                values[slot] = quantities[slot] * prices[slot];
+            }
+            resum();
+        }
+        notifyListeners(null);
+    }
+
+    /**
+     * Apply a local balance change (e.g. right after a trade) without reloading the wallet.
+     */
+    public void setBalance(String symbol, double quantity) {
+        String symbolUpper = symbol.toUpperCase();
+        synchronized (this) {
+            int slot = slotFor(symbolUpper);
+            quantities[slot] = quantity;
+            if (QUOTE_ASSET.equals(symbolUpper)) {
+                prices[slot] = 1.0;
+            }
+            updateValue(slot);
+        }
+        notifyListeners(symbolUpper);
+    }
+
+    @Override
+    public void onTick(String symbol, double price, long timestamp) {
+        if (price <= 0) return;
+        String symbolUpper = symbol.toUpperCase();
+        synchronized (this) {
+            Integer slot = slots.get(symbolUpper);
+            if (slot == null || prices[slot] == price) {
+                return;
+            }
+            prices[slot] = price;
+            updateValue(slot);
+        }
+        notifyListeners(symbolUpper);
+    }
+
+    /**
+     * Apply a batch of prices, e.g. a fetch answered from PriceManager's cache, which does
+     * not produce ticks. Unchanged prices are skipped.
+     */
+    public void updatePrices(Map<String, TokenPrice> tokenPrices) {
+        boolean changed = false;
+        synchronized (this) {
+            for (TokenPrice tokenPrice : tokenPrices.values()) {
+                Integer slot = slots.get(tokenPrice.getSymbol().toUpperCase());
+                if (slot != null && tokenPrice.getPrice() > 0 && prices[slot] != tokenPrice.getPrice()) {
+                    prices[slot] = tokenPrice.getPrice();
+                    updateValue(slot);
+                    changed = true;
+                }
+            }
+        }
+        if (changed) {
+            notifyListeners(null);
+        }
+    }
+
+    /**
+     * Snapshot of every non-zero position, in slot order
+     */
+    public synchronized List<Holding> getHoldings() {
+        List<Holding> holdings = new ArrayList<>(count);
+        for (int slot = 0; slot < count; slot++) {
+            if (quantities[slot] != 0) {
+                holdings.add(new Holding(symbols[slot], quantities[slot], prices[slot]));
+            }
+        }
+        return holdings;
+    }
+
+    /**
+     * Symbols of non-zero positions that need a market price (everything but USDT)
+     */
+    public synchronized String[] getPricedSymbols() {
+        List<String> result = new ArrayList<>();
+        for (int slot = 0; slot < count; slot++) {
+            if (quantities[slot] != 0 && !QUOTE_ASSET.equals(symbols[slot])) {
+                result.add(symbols[slot]);
+            }
+        }
+        return result.toArray(new String[0]);
+    }
+
+    /**
+     * Whether every non-zero position has a price, i.e. the total is not missing anything.
+     * Right after setHoldings on a cold start, tokens missing from PriceManager's cache count
+     * as 0 until their first tick.
+     */
+    public synchronized boolean isFullyPriced() {
+        for (int slot = 0; slot < count; slot++) {
+            if (quantities[slot] != 0 && !(prices[slot] > 0)) {
+                return false;
+            }
+        }
+        return true;
+    }
+
+    public synchronized String getUserId() {
+        return userId;
+    }
+
+    public synchronized boolean hasHoldings(String userId) {
+        return userId != null && userId.equals(this.userId);
+    }
+
+    public synchronized double getTotal() {
+        return total;
+    }
+
+    public synchronized double getBalance(String symbol) {
+        Integer slot = slots.get(symbol.toUpperCase());
+        return slot != null ? quantities[slot] : 0.0;
+    }
+
+    /**
+     * Last known price, or 0 if none yet
+     */
+    public synchronized double getPrice(String symbol) {
+        Integer slot = slots.get(symbol.toUpperCase());
+        return slot != null ? prices[slot] : 0.0;
+    }
+
+    public synchronized double getPositionValue(String symbol) {
+        Integer slot = slots.get(symbol.toUpperCase());
+        return slot != null ? values[slot] : 0.0;
+    }
+
+    public synchronized void clear() {
+        userId = null;
+        slots.clear();
+        count = 0;
+        total = 0.0;
+    }
+
+    private void updateValue(int slot) {
+        double value = quantities[slot] * prices[slot];
+        total += value - values[slot];
+        values[slot] = value;
+        if (++updatesSinceResum >= RESUM_INTERVAL) {
+            resum();
+        }
+    }
+
+    private void resum() {
+        double sum = 0.0;
+        for (int slot = 0; slot < count; slot++) {
+            sum += values[slot];
+        }
+        total = sum;
+        updatesSinceResum = 0;
+    }
+
+    private int slotFor(String symbol) {
+        Integer slot = slots.get(symbol);
+        if (slot != null) return slot;
+        if (count == symbols.length) {
+            grow();
+        }
+        int newSlot = count++;
+        symbols[newSlot] = symbol;
+        quantities[newSlot] = 0.0;
+        prices[newSlot] = 0.0;
+        values[newSlot] = 0.0;
+        slots.put(symbol, newSlot);
+        return newSlot;
+    }
+
+    private void allocate(int capacity) {
+        symbols = new String[capacity];
+        quantities = new double[capacity];
+        prices = new double[capacity];
+        values = new double[capacity];
+    }
+
+    private void grow() {
+        String[] oldSymbols = symbols;
+        double[] oldQuantities = quantities;
+        double[] oldPrices = prices;
+        double[] oldValues = values;
+        allocate(oldSymbols.length * 2);
+        System.arraycopy(oldSymbols, 0, symbols, 0, count);
+        System.arraycopy(oldQuantities, 0, quantities, 0, count);
+        System.arraycopy(oldPrices, 0, prices, 0, count);
+        System.arraycopy(oldValues, 0, values, 0, count);
+    }
+
+    private void notifyListeners(String symbol) {
+        if (listeners.isEmpty()) return;
+        if (Looper.myLooper() == Looper.getMainLooper()) {
+            for (Listener listener : listeners) {
+                listener.onValuationChanged(symbol);
+            }
+        } else {
+            mainHandler.post(() -> {
+                for (Listener listener : listeners) {
+                    listener.onValuationChanged(symbol);
+                }
+            });
+        }
+    }
+}
@@ -7,67 +7,76 @@ import java.util.Map;
 
 /**
  * Tracks portfolio value over time for revenue calculation.
+ * Points are kept sorted by timestamp in primitive arrays so appends are O(1)
+ * amortized and lookups by time are binary searches.
  */
 public class PortfolioValueTracker {
     private static PortfolioValueTracker instance;
-    
-    // Maximum number of data points to keep (for 7 days, checking hourly = 168 points)
-    private static final int MAX_DATA_POINTS = 200;
-    
-    // Data structure: userId -> List of PortfolioValuePoint
-    private Map<String, List<PortfolioValuePoint>> portfolioHistory;
-    
+
+    // Maximum number of data points to keep (one per 5-minute bucket = ~14 days)
+    private static final int MAX_DATA_POINTS = 4096;
+    // Updates within the same bucket replace the latest point instead of appending
+    private static final long POINT_BUCKET_MS = 5 * 60 * 1000L;
+
+    // Cash flows are never coalesced; each transfer is its own sub-period boundary
+    private static final int MAX_CASH_FLOWS = 1024;
+    private static final int IRR_MAX_ITERATIONS = 50;
+    private static final double IRR_TOLERANCE = 1e-10;
+
+    // Data structure: userId -> sorted value series
+    private Map<String, ValueSeries> portfolioHistory;
+    // userId -> sorted external cash flows in USDT (positive = into the portfolio)
+    private Map<String, ValueSeries> cashFlows;
+
     private PortfolioValueTracker() {
         portfolioHistory = new HashMap<>();
+        cashFlows = new HashMap<>();
     }
-    
+
     public static synchronized PortfolioValueTracker getInstance() {
         if (instance == null) {
             instance = new PortfolioValueTracker();
         }
         return instance;
     }
-    
+
     /**
      * Add a new portfolio value point for a user
      */
     public void addPortfolioValue(String userId, double portfolioValue) {
         addPortfolioValue(userId, portfolioValue, System.currentTimeMillis());
     }
-    
+
     /**
      * Add a portfolio value point with a specific timestamp (useful for testing)
+     * Out-of-order points are inserted at their position in time. A point in the same
+     * 5-minute bucket as the latest point replaces it.
      */
-    public void addPortfolioValue(String userId, double portfolioValue, long timestamp) {
-        List<PortfolioValuePoint> history = portfolioHistory.get(userId);
+    public synchronized void addPortfolioValue(String userId, double portfolioValue, long timestamp) {
+        ValueSeries history = portfolioHistory.get(userId);
         if (history == null) {
-            history = new ArrayList<>();
+            history = new ValueSeries(MAX_DATA_POINTS, POINT_BUCKET_MS);
             portfolioHistory.put(userId, history);
         }
-        
-        // Add new value point
-        history.add(new PortfolioValuePoint(portfolioValue, timestamp));
-        
-        // Keep only the most recent MAX_DATA_POINTS
-        if (history.size() > MAX_DATA_POINTS) {
-            history.remove(0);
-        }
-        
-        // Sort by timestamp to maintain chronological order
-        history.sort((p1, p2) -> Long.compare(p1.timestamp, p2.timestamp));
+
+        history.insert(timestamp, portfolioValue);
     }
-    
+
     /**
      * Get portfolio value history for a user
      */
-    public List<PortfolioValuePoint> getPortfolioHistory(String userId) {
-        List<PortfolioValuePoint> history = portfolioHistory.get(userId);
+    public synchronized List<PortfolioValuePoint> getPortfolioHistory(String userId) {
+        List<PortfolioValuePoint> points = new ArrayList<>();
+        ValueSeries history = portfolioHistory.get(userId);
         if (history == null) {
-            return new ArrayList<>();
+            return points;
+        }
+        for (int i = 0; i < history.size; i++) {
+            points.add(new PortfolioValuePoint(history.valueAt(i), history.timeAt(i)));
         }
-        return new ArrayList<>(history); // Return a copy
+        return points;
     }
-    
+
     /**
      * Get portfolio value at a specific time (or closest available)
      * @param userId User ID
@@ -75,76 +84,357 @@ public class PortfolioValueTracker {
      * @return Portfolio value at that time, or -1 if not available
      */
     public double getPortfolioValueAt(String userId, long timeAgoMs) {
-        List<PortfolioValuePoint> history = getPortfolioHistory(userId);
-        if (history.isEmpty()) {
+        return getPortfolioValueAtTime(userId, System.currentTimeMillis() - timeAgoMs);
+    }
+
+    /**
+     * Get portfolio value at an absolute timestamp: the latest point at or before it,
+     * or the oldest point if there is none before it.
+     * @return Portfolio value, or -1 if not available
+     */
+    public synchronized double getPortfolioValueAtTime(String userId, long targetTime) {
+        ValueSeries history = portfolioHistory.get(userId);
+        if (history == null || history.size == 0) {
             return -1;
         }
-        
-        long targetTime = System.currentTimeMillis() - timeAgoMs;
-        
-        // Find the closest value point before or at the target time
-        PortfolioValuePoint closest = null;
-        long minDiff = Long.MAX_VALUE;
-        
-        for (PortfolioValuePoint point : history) {
-            if (point.timestamp <= targetTime) {
-                long diff = targetTime - point.timestamp;
-                if (diff < minDiff) {
-                    minDiff = diff;
-                    closest = point;
-                }
-            }
-        }
-        
+
+        int index = history.floorIndex(targetTime);
+
         // If no point before target time, use the oldest point
-        if (closest == null) {
-            closest = history.get(0);
+        if (index < 0) {
+            index = 0;
         }
-        
-        return closest.value;
+
+        return history.valueAt(index);
     }
-    
+
     /**
      * Calculate revenue for a specific time period
      * @param userId User ID
      * @param currentValue Current portfolio value
      * @param timePeriodMs Time period in milliseconds (1 day, 3 days, 7 days)
-     * @return Revenue amount (current value - value at time period ago)
+     * @return Revenue amount (current value - value at time period ago - net transfers in),
+     * or NaN if there is no history
      */
     public double calculateRevenue(String userId, double currentValue, long timePeriodMs) {
-        double pastValue = getPortfolioValueAt(userId, timePeriodMs);
+        long now = System.currentTimeMillis();
+        double pastValue = getPortfolioValueAtTime(userId, now - timePeriodMs);
         if (pastValue < 0) {
             // No historical data available
+            return Double.NaN;
+        }
+        return currentValue - pastValue - getNetCashFlow(userId, now - timePeriodMs, now);
+    }
+
+    /**
+     * Record an external cash flow (transfer) valued in USDT: positive into the portfolio,
+     * negative out of it, or NaN when no price was available to value it. A period that
+     * contains a NaN flow has no revenue or return.
+     */
+    public synchronized void addCashFlow(String userId, double amount, long timestamp) {
+        ValueSeries flows = cashFlows.get(userId);
+        if (flows == null) {
+            flows = new ValueSeries(MAX_CASH_FLOWS, 0);
+            cashFlows.put(userId, flows);
+        }
+        flows.insert(timestamp, amount);
+    }
+
+    /**
+     * Replace a user's cash flows, e.g. after rebuilding them from the transfer ledger
+     */
+    public synchronized void setCashFlows(String userId, long[] timestamps, double[] amounts) {
+        ValueSeries flows = new ValueSeries(MAX_CASH_FLOWS, 0);
+        for (int i = 0; i < timestamps.length; i++) {
+            flows.insert(timestamps[i], amounts[i]);
+        }
+        cashFlows.put(userId, flows);
+    }
+
+    /**
+     * Net cash flow in (fromExclusive, toInclusive], NaN if one of the flows is unpriced
+     */
+    public synchronized double getNetCashFlow(String userId, long fromExclusive, long toInclusive) {
+        ValueSeries flows = cashFlows.get(userId);
+        if (flows == null) {
             return 0.0;
         }
-        return currentValue - pastValue;
+        double net = 0.0;
+        for (int i = flows.floorIndex(fromExclusive) + 1; i < flows.size && flows.timeAt(i) <= toInclusive; i++) {
+            net += flows.valueAt(i);
+        }
+        return net;
+    }
+
+    /**
+     * Time-weighted return over the period: the period is split at every cash flow and the
+     * sub-period returns are chained, so transfers do not count as performance.
+     * @return Return as a fraction (0.05 = 5%), or NaN if there is no history or a cash flow
+     * in the period is unpriced
+     */
+    public synchronized double calculateTimeWeightedReturn(String userId, double currentValue, long timePeriodMs) {
+        long now = System.currentTimeMillis();
+        long start = now - timePeriodMs;
+        double startValue = getPortfolioValueAtTime(userId, start);
+        if (startValue <= 0 || Double.isNaN(getNetCashFlow(userId, start, now))) {
+            return Double.NaN;
+        }
+
+        double growth = 1.0;
+        ValueSeries flows = cashFlows.get(userId);
+        if (flows != null) {
+            for (int i = flows.floorIndex(start) + 1; i < flows.size && flows.timeAt(i) <= now; i++) {
+                long flowTime = flows.timeAt(i);
+                // Value sampled just before the flow closes the sub-period
+                double beforeFlow = getPortfolioValueAtTime(userId, flowTime - 1);
+                if (beforeFlow > 0 && startValue > 0) {
+                    growth *= beforeFlow / startValue;
+                }
+                startValue = beforeFlow + flows.valueAt(i);
+            }
+        }
+        if (startValue > 0) {
+            growth *= currentValue / startValue;
+        }
+        return growth - 1.0;
     }
-    
+
+    /**
+     * Money-weighted return (IRR) over the period, as a fraction of the whole period rather
+     * than annualized. Solves V0 * (1+x) + sum(f_k * (1+x)^(w_k)) = V_end, where w_k is the
+     * fraction of the period remaining after flow k.
+     * @return Return as a fraction, or NaN if there is no history, a cash flow in the period
+     * is unpriced, or there is no solution
+     */
+    public synchronized double calculateMoneyWeightedReturn(String userId, double currentValue, long timePeriodMs) {
+        long now = System.currentTimeMillis();
+        long start = now - timePeriodMs;
+        double startValue = getPortfolioValueAtTime(userId, start);
+        if (startValue <= 0 || Double.isNaN(getNetCashFlow(userId, start, now))) {
+            return Double.NaN;
+        }
+
+        ValueSeries flows = cashFlows.get(userId);
+        int first = flows != null ? flows.floorIndex(start) + 1 : 0;
+        int n = 0;
+        if (flows != null) {
+            while (first + n < flows.size && flows.timeAt(first + n) <= now) n++;
+        }
+        double[] amounts = new double[n + 1];
+        double[] weights = new double[n + 1];
+        amounts[0] = startValue;
+        weights[0] = 1.0;
+        for (int k = 0; k < n; k++) {
+            amounts[k + 1] = flows.valueAt(first + k);
+            weights[k + 1] = (double) (now - flows.timeAt(first + k)) / timePeriodMs;
+        }
+        return solveIrr(amounts, weights, currentValue);
+    }
+
+    /**
+     * Find x with sum(amounts[k] * (1+x)^weights[k]) = endValue.
+     * Newton's method from the modified Dietz estimate, which is usually within a few
+     * iterations of the root; a step that leaves the bracket or fails to shrink the
+     * residual falls back to bisection, so convergence is guaranteed once bracketed.
+     */
+    static double solveIrr(double[] amounts, double[] weights, double endValue) {
+        // Modified Dietz: (end - start - flows) / (start + weighted flows)
+        double gain = endValue;
+        double base = 0.0;
+        for (int k = 0; k < amounts.length; k++) {
+            gain -= amounts[k];
+            base += amounts[k] * weights[k];
+        }
+        double x = base > 0 ? gain / base : 0.0;
+
+        double lo = -0.999999;
+        double hi = Math.max(1.0, 2 * Math.abs(x) + 1.0);
+        double fLo = irrResidual(amounts, weights, endValue, lo);
+        double fHi = irrResidual(amounts, weights, endValue, hi);
+        while (fLo * fHi > 0 && hi < 1e6) {
+            hi *= 10;
+            fHi = irrResidual(amounts, weights, endValue, hi);
+        }
+        if (fLo * fHi > 0) {
+            return Double.NaN;
+        }
+        if (x <= lo || x >= hi) {
+            x = (lo + hi) / 2;
+        }
+
+        for (int iteration = 0; iteration < IRR_MAX_ITERATIONS; iteration++) {
+            double f = 0.0;
+            double df = 0.0;
+            for (int k = 0; k < amounts.length; k++) {
+                double growth = Math.pow(1 + x, weights[k]);
+                f += amounts[k] * growth;
+                df += amounts[k] * weights[k] * growth / (1 + x);
+            }
+            f -= endValue;
+            if (Math.abs(f) <= IRR_TOLERANCE * Math.max(1.0, Math.abs(endValue))) {
+                return x;
+            }
+
+            // Keep the bracket around the root
+            if ((f < 0) == (fLo < 0)) {
+                lo = x;
+                fLo = f;
+            } else {
+                hi = x;
+            }
+
+            double next = df != 0 ? x - f / df : Double.NaN;
+            if (Double.isNaN(next) || next <= lo || next >= hi) {
+                next = (lo + hi) / 2;
+            }
+            if (Math.abs(next - x) <= IRR_TOLERANCE * Math.max(1.0, Math.abs(x))) {
+                return next;
+            }
+            x = next;
+        }
+        return x;
+    }
+
+    private static double irrResidual(double[] amounts, double[] weights, double endValue, double x) {
+        double f = -endValue;
+        for (int k = 0; k < amounts.length; k++) {
+            f += amounts[k] * Math.pow(1 + x, weights[k]);
+        }
+        return f;
+    }
+
     /**
      * Clear history for a user
      */
-    public void clearHistory(String userId) {
+    public synchronized void clearHistory(String userId) {
         portfolioHistory.remove(userId);
+        cashFlows.remove(userId);
     }
-    
+
     /**
      * Clear all history
      */
-    public void clearAllHistory() {
+    public synchronized void clearAllHistory() {
         portfolioHistory.clear();
+        cashFlows.clear();
     }
-    
+
     /**
      * Data class to store a single portfolio value point with timestamp
      */
     public static class PortfolioValuePoint {
         public double value;
         public long timestamp;
-        
+
         public PortfolioValuePoint(double value, long timestamp) {
             this.value = value;
             this.timestamp = timestamp;
         }
     }
-}
 
+    /**
+     * Bounded, timestamp-sorted series in parallel primitive arrays.
+     * Live data occupies [start, start + size); dropping the oldest point just advances start.
+     */
+    static class ValueSeries {
+        final int maxPoints;
+        final long bucketMs;
+        long[] times;
+        double[] values;
+        int start;
+        int size;
+
+        ValueSeries(int maxPoints, long bucketMs) {
+            this.maxPoints = maxPoints;
+            this.bucketMs = bucketMs;
+            int initial = Math.min(maxPoints, 16);
+            times = new long[initial];
+            values = new double[initial];
+        }
+
+        long timeAt(int i) {
+            return times[start + i];
+        }
+
+        double valueAt(int i) {
+            return values[start + i];
+        }
+
+        /**
+         * Index of the last point with timestamp <= target, or -1 if none
+         */
+        int floorIndex(long target) {
+            int lo = 0;
+            int hi = size - 1;
+            int result = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (times[start + mid] <= target) {
+                    result = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return result;
+        }
+
+        void insert(long timestamp, double value) {
+            if (size > 0 && bucketMs > 0) {
+                int last = start + size - 1;
+                if (timestamp >= times[last] && timestamp / bucketMs == times[last] / bucketMs) {
+                    times[last] = timestamp;
+                    values[last] = value;
+                    return;
+                }
+            }
+
+            // Insert after any points with the same timestamp (append in the common case)
+            int position = size == 0 || timestamp >= times[start + size - 1]
+                    ? size : floorIndex(timestamp) + 1;
+
+            if (size == maxPoints) {
+                if (position == 0) {
+                    // Older than everything we keep and no room: drop it
+                    return;
+                }
+                start++;
+                size--;
+                position--;
+            }
+            ensureRoom();
+
+            int at = start + position;
+            int tail = size - position;
+            if (tail > 0) {
+                System.arraycopy(times, at, times, at + 1, tail);
+                System.arraycopy(values, at, values, at + 1, tail);
+            }
+            times[at] = timestamp;
+            values[at] = value;
+            size++;
+        }
+
+        private void ensureRoom() {
+            if (start + size < times.length) {
+                return;
+            }
+            if (size <= times.length / 2) {
+                // Reclaim slots freed by dropped points; arrays are up to 2x maxPoints,
+                // so this happens at most once every maxPoints inserts
+                System.arraycopy(times, start, times, 0, size);
+                System.arraycopy(values, start, values, 0, size);
+                start = 0;
+                return;
+            }
+            int newLength = Math.min(2 * maxPoints, times.length * 2);
+            long[] newTimes = new long[newLength];
+            double[] newValues = new double[newLength];
+            System.arraycopy(times, start, newTimes, 0, size);
+            System.arraycopy(values, start, newValues, 0, size);
+            times = newTimes;
+            values = newValues;
+            start = 0;
+        }
+    }
+}
@@ -0,0 +1,446 @@
+package com.koigzzzz.cex.utils;
+
+import com.koigzzzz.cex.engine.PriceSeries;
+
+import java.io.File;
+import java.io.IOException;
+import java.io.RandomAccessFile;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.channels.ReadableByteChannel;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.util.List;
+import java.util.zip.CRC32;
+
+/**
+ * Compact binary export/import of PriceHistoryTracker data (raw ticks and candles).
+ *
+ * Layout (big-endian):
+ * <pre>
+ * header:  int magic "CXPH", short version, short flags, long createdAt, int symbolCount
+ * block:   short nameLength, UTF-8 name, then three tiers (raw, minute, hour):
+ *          byte tier, int count, count records
+ *          raw record:    varint timestamp delta, double price
+ *          candle record: varint timestamp delta, double open, high, low, close
+ * trailer: int CRC32 of everything before it
+ * </pre>
+ * Timestamps are delta-encoded against the previous record of the same tier.
+ * Export streams each tier straight from the tracker's ring buffers through a fixed
+ * buffer; import verifies the checksum first and then merges block by block. readSeries
+ * pulls one token back out as a PriceSeries for the Backtester.
+ */
+public class PriceHistoryCodec {
+    private static final int MAGIC = 0x43585048; // "CXPH"
+    private static final short VERSION = 1;
+    private static final int BUFFER_SIZE = 64 * 1024;
+    private static final int TICK_RECORD_MAX = 10 + 8;
+    private static final int CANDLE_RECORD_MAX = 10 + 4 * 8;
+
+    private PriceHistoryCodec() {
+    }
+
+    /**
+     * Export all tracked history to a file, replacing it.
+     */
+    public static void exportToFile(PriceHistoryTracker tracker, File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "rw");
+             FileChannel channel = raf.getChannel()) {
+            channel.truncate(0);
+            export(tracker, channel);
+            channel.force(false);
+        }
+    }
+
+    /**
+     * Export all tracked history to a channel.
+     * Tokens whose history is cleared while exporting are written as empty blocks.
+     */
+    public static void export(PriceHistoryTracker tracker, WritableByteChannel channel) throws IOException {
+        ChannelWriter out = new ChannelWriter(channel);
+        List<String> symbols = tracker.getSymbols();
+
+        out.ensure(20);
+        out.buffer.putInt(MAGIC);
+        out.buffer.putShort(VERSION);
+        out.buffer.putShort((short) 0);
+        out.buffer.putLong(System.currentTimeMillis());
+        out.buffer.putInt(symbols.size());
+
+        for (String symbol : symbols) {
+            byte[] name = symbol.getBytes(StandardCharsets.UTF_8);
+            out.ensure(2 + name.length);
+            out.buffer.putShort((short) name.length);
+            out.buffer.put(name);
+
+            BlockWriter block = new BlockWriter(out);
+            if (!tracker.visitSeries(symbol, block)) {
+                for (int tier = PriceHistoryTracker.TIER_RAW; tier <= PriceHistoryTracker.TIER_HOUR; tier++) {
+                    block.onTier(tier, 0);
+                }
+            }
+        }
+
+        out.finish();
+    }
+
+    /**
+     * Import a file produced by export, merging it into the tracker by timestamp.
+     * @return Number of tokens merged
+     */
+    public static int importFromFile(PriceHistoryTracker tracker, File file) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            // Pass 1: verify the checksum before touching the tracker
+            verifyChecksum(channel);
+
+            // Pass 2: decode and merge block by block
+            channel.position(0);
+            return importBlocks(tracker, new ChannelReader(channel));
+        }
+    }
+
+    /**
+     * Read one token's history from a file produced by export as a single series for
+     * backtesting: hour candles up to where minute candles start, minute candles up to where
+     * raw ticks start, then the raw ticks. Candles become four ticks each (see PriceSeries).
+     * @return null if the file has no history for the symbol
+     */
+    public static PriceSeries readSeries(File file, String symbol) throws IOException {
+        try (RandomAccessFile raf = new RandomAccessFile(file, "r");
+             FileChannel channel = raf.getChannel()) {
+            verifyChecksum(channel);
+            channel.position(0);
+            ChannelReader in = new ChannelReader(channel);
+            int symbolCount = readHeader(in);
+
+            for (int s = 0; s < symbolCount; s++) {
+                byte[] name = new byte[in.readShort()];
+                in.readFully(name);
+                String blockSymbol = new String(name, StandardCharsets.UTF_8);
+                boolean wanted = symbol.equalsIgnoreCase(blockSymbol);
+
+                long[][] times = new long[3][];
+                double[][] values = new double[3][];
+                for (int t = 0; t < 3; t++) {
+                    int tier = in.readByte();
+                    int count = in.readInt();
+                    // Export always writes raw, minute, hour in that order
+                    if (count < 0 || tier != t) {
+                        throw new IOException("Corrupt block for " + blockSymbol);
+                    }
+                    int width = tier == PriceHistoryTracker.TIER_RAW ? 1 : 4;
+                    long[] tierTimes = wanted ? new long[count] : null;
+                    double[] tierValues = wanted ? new double[count * width] : null;
+                    long time = 0;
+                    for (int k = 0; k < count; k++) {
+                        time += in.readVarLong();
+                        for (int v = 0; v < width; v++) {
+                            double value = in.readDouble();
+                            if (wanted) tierValues[k * width + v] = value;
+                        }
+                        if (wanted) tierTimes[k] = time;
+                    }
+                    times[tier] = tierTimes;
+                    values[tier] = tierValues;
+                }
+                if (wanted) {
+                    return toSeries(symbol, times, values);
+                }
+            }
+            return null;
+        }
+    }
+
+    private static PriceSeries toSeries(String symbol, long[][] times, double[][] values) {
+        long[] ticks = times[PriceHistoryTracker.TIER_RAW];
+        long[] minutes = times[PriceHistoryTracker.TIER_MINUTE];
+        long[] hours = times[PriceHistoryTracker.TIER_HOUR];
+        int total = ticks.length + 4 * (minutes.length + hours.length);
+        if (total == 0) {
+            return null;
+        }
+        PriceSeries series = new PriceSeries(symbol.toUpperCase(), total);
+        long rawStart = ticks.length > 0 ? ticks[0] : Long.MAX_VALUE;
+        long minuteStart = minutes.length > 0 ? Math.min(minutes[0], rawStart) : rawStart;
+        addCandles(series, hours, values[PriceHistoryTracker.TIER_HOUR], PriceHistoryTracker.HOUR_MS, minuteStart);
+        addCandles(series, minutes, values[PriceHistoryTracker.TIER_MINUTE], PriceHistoryTracker.MINUTE_MS, rawStart);
+        double[] prices = values[PriceHistoryTracker.TIER_RAW];
+        for (int k = 0; k < ticks.length; k++) {
+            series.add(ticks[k], prices[k]);
+        }
+        return series;
+    }
+
+    /**
+     * Add the candles that end before a finer tier starts
+     */
+    private static void addCandles(PriceSeries series, long[] times, double[] ohlc, long bucketMs, long before) {
+        for (int k = 0; k < times.length && times[k] + bucketMs <= before; k++) {
+            if (times[k] < series.getLastTime()) continue;
+            series.addCandle(times[k], bucketMs, ohlc[4 * k], ohlc[4 * k + 1], ohlc[4 * k + 2], ohlc[4 * k + 3]);
+        }
+    }
+
+    private static void verifyChecksum(FileChannel channel) throws IOException {
+        long size = channel.size();
+        if (size < 24) {
+            throw new IOException("Not a price history file");
+        }
+        CRC32 crc = new CRC32();
+        ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        long remaining = size - 4;
+        while (remaining > 0) {
+            buffer.clear();
+            if (remaining < buffer.capacity()) {
+                buffer.limit((int) remaining);
+            }
+            int read = channel.read(buffer);
+            if (read < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+            crc.update(buffer.array(), 0, read);
+            remaining -= read;
+        }
+        ByteBuffer trailer = ByteBuffer.allocate(4);
+        while (trailer.hasRemaining()) {
+            if (channel.read(trailer) < 0) {
+                throw new IOException("Unexpected end of file");
+            }
+        }
+        trailer.flip();
+        if (trailer.getInt() != (int) crc.getValue()) {
+            throw new IOException("Checksum mismatch");
+        }
+    }
+
+    /**
+     * @return Number of symbol blocks that follow
+     */
+    private static int readHeader(ChannelReader in) throws IOException {
+        if (in.readInt() != MAGIC) {
+            throw new IOException("Not a price history file");
+        }
+        short version = in.readShort();
+        if (version != VERSION) {
+            throw new IOException("Unsupported price history version: " + version);
+        }
+        in.readShort(); // flags
+        in.readLong();  // createdAt
+        return in.readInt();
+    }
+
+    private static int importBlocks(PriceHistoryTracker tracker, ChannelReader in) throws IOException {
+        int symbolCount = readHeader(in);
+
+        int merged = 0;
+        for (int s = 0; s < symbolCount; s++) {
+            byte[] name = new byte[in.readShort()];
+            in.readFully(name);
+            String symbol = new String(name, StandardCharsets.UTF_8);
+
+            PriceHistoryTracker.TickRing ticks = null;
+            PriceHistoryTracker.CandleRing minutes = null;
+            PriceHistoryTracker.CandleRing hours = null;
+            for (int t = 0; t < 3; t++) {
+                int tier = in.readByte();
+                int count = in.readInt();
+                if (count < 0) {
+                    throw new IOException("Corrupt block for " + symbol);
+                }
+                long time = 0;
+                if (tier == PriceHistoryTracker.TIER_RAW) {
+                    if (count > 0) ticks = new PriceHistoryTracker.TickRing(count);
+                    for (int k = 0; k < count; k++) {
+                        time += in.readVarLong();
+                        ticks.push(time, in.readDouble());
+                    }
+                } else if (tier == PriceHistoryTracker.TIER_MINUTE || tier == PriceHistoryTracker.TIER_HOUR) {
+                    long bucketMs = tier == PriceHistoryTracker.TIER_MINUTE
+                            ? PriceHistoryTracker.MINUTE_MS : PriceHistoryTracker.HOUR_MS;
+                    PriceHistoryTracker.CandleRing candles = count > 0
+                            ? new PriceHistoryTracker.CandleRing(bucketMs, count) : null;
+                    for (int k = 0; k < count; k++) {
+                        time += in.readVarLong();
+                        candles.fold(time, in.readDouble(), in.readDouble(), in.readDouble(), in.readDouble());
+                    }
+                    if (tier == PriceHistoryTracker.TIER_MINUTE) {
+                        minutes = candles;
+                    } else {
+                        hours = candles;
+                    }
+                } else {
+                    throw new IOException("Unknown tier " + tier + " for " + symbol);
+                }
+            }
+
+            if (ticks != null || minutes != null || hours != null) {
+                tracker.mergeSeries(symbol, ticks, minutes, hours);
+                merged++;
+            }
+        }
+        return merged;
+    }
+
+    /**
+     * Writes one token's tiers as they are visited.
+     */
+    private static class BlockWriter implements PriceHistoryTracker.SeriesVisitor {
+        private final ChannelWriter out;
+        private long previousTime;
+
+        BlockWriter(ChannelWriter out) {
+            this.out = out;
+        }
+
+        @Override
+        public void onTier(int tier, int count) throws IOException {
+            out.ensure(5);
+            out.buffer.put((byte) tier);
+            out.buffer.putInt(count);
+            previousTime = 0;
+        }
+
+        @Override
+        public void onTick(long timestamp, double price) throws IOException {
+            out.ensure(TICK_RECORD_MAX);
+            out.putVarLong(timestamp - previousTime);
+            out.buffer.putDouble(price);
+            previousTime = timestamp;
+        }
+
+        @Override
+        public void onCandle(long timestamp, double open, double high, double low, double close) throws IOException {
+            out.ensure(CANDLE_RECORD_MAX);
+            out.putVarLong(timestamp - previousTime);
+            out.buffer.putDouble(open);
+            out.buffer.putDouble(high);
+            out.buffer.putDouble(low);
+            out.buffer.putDouble(close);
+            previousTime = timestamp;
+        }
+    }
+
+    /**
+     * Fixed buffer in front of a channel that checksums everything it flushes.
+     */
+    private static class ChannelWriter {
+        final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+        private final WritableByteChannel channel;
+        private final CRC32 crc = new CRC32();
+
+        ChannelWriter(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        void ensure(int bytes) throws IOException {
+            if (bytes > buffer.capacity()) {
+                throw new IOException("Record too large");
+            }
+            if (buffer.remaining() < bytes) {
+                flush();
+            }
+        }
+
+        void putVarLong(long value) {
+            if (value < 0) {
+                throw new IllegalStateException("Timestamps must be in ascending order");
+            }
+            while ((value & ~0x7FL) != 0) {
+                buffer.put((byte) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            buffer.put((byte) value);
+        }
+
+        private void flush() throws IOException {
+            buffer.flip();
+            crc.update(buffer.array(), 0, buffer.limit());
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+
+        void finish() throws IOException {
+            flush();
+            buffer.putInt((int) crc.getValue());
+            buffer.flip();
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+            buffer.clear();
+        }
+    }
+
+    /**
+     * Fixed buffer behind a channel with big-endian primitive reads.
+     */
+    private static class ChannelReader {
+        private final ReadableByteChannel channel;
+        private final ByteBuffer buffer = ByteBuffer.allocate(BUFFER_SIZE);
+
+        ChannelReader(ReadableByteChannel channel) {
+            this.channel = channel;
+            buffer.limit(0);
+        }
+
+        private void require(int bytes) throws IOException {
+            if (buffer.remaining() >= bytes) return;
+            buffer.compact();
+            while (buffer.position() < bytes) {
+                if (channel.read(buffer) < 0) {
+                    throw new IOException("Unexpected end of file");
+                }
+            }
+            buffer.flip();
+        }
+
+        byte readByte() throws IOException {
+            require(1);
+            return buffer.get();
+        }
+
+        short readShort() throws IOException {
+            require(2);
+            return buffer.getShort();
+        }
+
+        int readInt() throws IOException {
+            require(4);
+            return buffer.getInt();
+        }
+
+        long readLong() throws IOException {
+            require(8);
+            return buffer.getLong();
+        }
+
+        double readDouble() throws IOException {
+            require(8);
+            return buffer.getDouble();
+        }
+
+        long readVarLong() throws IOException {
+            long value = 0;
+            for (int shift = 0; shift < 64; shift += 7) {
+                byte b = readByte();
+                value |= (long) (b & 0x7F) << shift;
+                if ((b & 0x80) == 0) {
+                    return value;
+                }
+            }
+            throw new IOException("Malformed varint");
+        }
+
+        void readFully(byte[] bytes) throws IOException {
+            int offset = 0;
+            while (offset < bytes.length) {
+                require(1);
+                int n = Math.min(buffer.remaining(), bytes.length - offset);
+                buffer.get(bytes, offset, n);
+                offset += n;
+            }
+        }
+    }
+}
@@ -1,67 +1,133 @@
 package com.koigzzzz.cex.utils;
 
+import java.io.IOException;
 import java.util.ArrayList;
+import java.util.Arrays;
 import java.util.HashMap;
 import java.util.List;
 import java.util.Map;
+import java.util.concurrent.CopyOnWriteArrayList;
 
 /**
  * Tracks price history for tokens over time.
  * Stores price points with timestamps to enable charting.
+ *
+ * History is kept in three tiers per token: raw ticks for the most recent hours,
+ * 1-minute candles for the last days and hourly candles for the last months.
+ * When a tick ages out of the raw tier it is folded into the current minute candle,
+ * and when a minute candle ages out it is folded into the current hourly candle.
+ * Every tier is a fixed-capacity ring buffer, so memory per token is bounded no
+ * matter how long the app runs.
  */
 public class PriceHistoryTracker {
     private static PriceHistoryTracker instance;
-    
-    // Maximum number of data points to keep per token (last 50 points = ~4 hours if refreshed every 5 min)
-    private static final int MAX_DATA_POINTS = 50;
-    
-    // Data structure: symbol -> List of PricePoint
-    private Map<String, List<PricePoint>> priceHistory;
-    
+
+    public static final long MINUTE_MS = 60 * 1000L;
+    public static final long HOUR_MS = 60 * MINUTE_MS;
+    public static final long DAY_MS = 24 * HOUR_MS;
+
+    // Raw ticks for 6 hours (capped at 512 ticks), minute candles for 1 day, hourly candles for 30 days
+    public static final RetentionPolicy DEFAULT_RETENTION =
+            new RetentionPolicy(6 * HOUR_MS, 512, DAY_MS, 30 * DAY_MS);
+
+    // Sliding windows maintained on every tick for high/low/volatility queries
+    public static final long WINDOW_1H = HOUR_MS;
+    public static final long WINDOW_24H = DAY_MS;
+    private static final long[] TRACKED_WINDOWS = {WINDOW_1H, WINDOW_24H};
+    private static final int MAX_WINDOW_TICKS = 2048;
+
+    // Data structure: symbol -> tiered series
+    private Map<String, TieredSeries> priceHistory;
+    private RetentionPolicy retentionPolicy;
+    private final List<TickListener> tickListeners = new CopyOnWriteArrayList<>();
+
+    /**
+     * Notified after each accepted tick, outside the tracker lock.
+     */
+    public interface TickListener {
+        void onTick(String symbol, double price, long timestamp);
+    }
+
     private PriceHistoryTracker() {
         priceHistory = new HashMap<>();
+        retentionPolicy = DEFAULT_RETENTION;
     }
-    
+
     public static synchronized PriceHistoryTracker getInstance() {
         if (instance == null) {
             instance = new PriceHistoryTracker();
         }
         return instance;
     }
-    
+
+    /**
+     * Set the retention policy. Applies to tokens first seen after this call,
+     * so it should be configured at startup.
+     */
+    public synchronized void setRetentionPolicy(RetentionPolicy policy) {
+        if (policy != null) {
+            retentionPolicy = policy;
+        }
+    }
+
+    public synchronized RetentionPolicy getRetentionPolicy() {
+        return retentionPolicy;
+    }
+
     /**
      * Add a new price point for a token
      */
     public void addPricePoint(String symbol, double price) {
+        addPricePoint(symbol, price, System.currentTimeMillis());
+    }
+
+    /**
+     * Add a price point with a specific timestamp.
+     * Ticks older than the newest tick of the token are ignored.
+     */
+    public void addPricePoint(String symbol, double price, long timestamp) {
         String symbolUpper = symbol.toUpperCase();
-        
-        List<PricePoint> history = priceHistory.get(symbolUpper);
-        if (history == null) {
-            history = new ArrayList<>();
-            priceHistory.put(symbolUpper, history);
+
+        boolean accepted;
+        synchronized (this) {
+            TieredSeries series = priceHistory.get(symbolUpper);
+            if (series == null) {
+                series = new TieredSeries(retentionPolicy);
+                priceHistory.put(symbolUpper, series);
+            }
+            accepted = series.add(timestamp, price);
         }
-        
-        // Add new price point
-        history.add(new PricePoint(price, System.currentTimeMillis()));
-        
-        // Keep only the most recent MAX_DATA_POINTS
-        if (history.size() > MAX_DATA_POINTS) {
-            history.remove(0);
+
+        if (accepted) {
+            for (TickListener listener : tickListeners) {
+                listener.onTick(symbolUpper, price, timestamp);
+            }
+        }
+    }
+
+    public void addTickListener(TickListener listener) {
+        if (!tickListeners.contains(listener)) {
+            tickListeners.add(listener);
         }
     }
-    
+
+    public void removeTickListener(TickListener listener) {
+        tickListeners.remove(listener);
+    }
+
     /**
-     * Get price history for a token
+     * Get raw price history (most recent tier) for a token
      */
-    public List<PricePoint> getPriceHistory(String symbol) {
-        String symbolUpper = symbol.toUpperCase();
-        List<PricePoint> history = priceHistory.get(symbolUpper);
-        if (history == null) {
-            return new ArrayList<>();
+    public synchronized List<PricePoint> getPriceHistory(String symbol) {
+        TieredSeries series = priceHistory.get(symbol.toUpperCase());
+        List<PricePoint> history = new ArrayList<>();
+        if (series == null) {
+            return history;
         }
-        return new ArrayList<>(history); // Return a copy
+        series.raw.appendTo(history, Long.MIN_VALUE, Long.MAX_VALUE);
+        return history;
     }
-    
+
     /**
      * Get price values only (for charting)
      */
@@ -73,35 +139,80 @@ public class PriceHistoryTracker {
         }
         return values;
     }
-    
+
+    /**
+     * Get high/low/stddev/volatility over one of the tracked windows (WINDOW_1H, WINDOW_24H).
+     * O(1): the aggregates are maintained incrementally as ticks arrive.
+     * @return Window statistics, or null if the token has no ticks in the window
+     */
+    public synchronized WindowStats getWindowStats(String symbol, long windowMs) {
+        TieredSeries series = priceHistory.get(symbol.toUpperCase());
+        if (series == null) {
+            return null;
+        }
+        SlidingWindowStats stats = series.getWindow(windowMs);
+        if (stats == null) {
+            throw new IllegalArgumentException("Window is not tracked: " + windowMs);
+        }
+        stats.evictBefore(System.currentTimeMillis() - windowMs);
+        if (stats.getCount() == 0) {
+            return null;
+        }
+        return new WindowStats(stats.getHigh(), stats.getLow(), stats.getStdDev(),
+                stats.getVolatility(), stats.getCount());
+    }
+
+    /**
+     * Get 1-minute candles that have been rolled up from aged-out raw ticks
+     */
+    public synchronized List<Candle> getMinuteCandles(String symbol) {
+        TieredSeries series = priceHistory.get(symbol.toUpperCase());
+        List<Candle> candles = new ArrayList<>();
+        if (series != null) {
+            series.minutes.appendTo(candles);
+        }
+        return candles;
+    }
+
+    /**
+     * Get hourly candles that have been rolled up from aged-out minute candles
+     */
+    public synchronized List<Candle> getHourlyCandles(String symbol) {
+        TieredSeries series = priceHistory.get(symbol.toUpperCase());
+        List<Candle> candles = new ArrayList<>();
+        if (series != null) {
+            series.hours.appendTo(candles);
+        }
+        return candles;
+    }
+
     /**
      * Get price history filtered by time frame (milliseconds)
+     * Older parts of the frame are served from the minute and hourly tiers (candle close prices).
      * @param symbol Token symbol
      * @param timeFrameMs Time frame in milliseconds (e.g., 5 minutes = 5 * 60 * 1000)
      * @return List of price points within the time frame, sorted by timestamp
      */
-    public List<PricePoint> getPriceHistoryByTimeFrame(String symbol, long timeFrameMs) {
-        List<PricePoint> allHistory = getPriceHistory(symbol);
-        if (allHistory.isEmpty()) {
-            return new ArrayList<>();
-        }
-        
-        long currentTime = System.currentTimeMillis();
-        long cutoffTime = currentTime - timeFrameMs;
-        
+    public synchronized List<PricePoint> getPriceHistoryByTimeFrame(String symbol, long timeFrameMs) {
         List<PricePoint> filtered = new ArrayList<>();
-        for (PricePoint point : allHistory) {
-            if (point.timestamp >= cutoffTime) {
-                filtered.add(point);
-            }
+        TieredSeries series = priceHistory.get(symbol.toUpperCase());
+        if (series == null) {
+            return filtered;
         }
-        
-        // Sort by timestamp to ensure chronological order
-        filtered.sort((p1, p2) -> Long.compare(p1.timestamp, p2.timestamp));
-        
+
+        long cutoffTime = System.currentTimeMillis() - timeFrameMs;
+
+        // Each tier only contributes the part not covered by a finer tier
+        long rawStart = series.raw.size > 0 ? series.raw.oldestTime() : Long.MAX_VALUE;
+        long minuteStart = series.minutes.size > 0 ? Math.min(series.minutes.oldestTime(), rawStart) : rawStart;
+
+        series.hours.appendClosesTo(filtered, cutoffTime, minuteStart);
+        series.minutes.appendClosesTo(filtered, cutoffTime, rawStart);
+        series.raw.appendTo(filtered, cutoffTime, Long.MAX_VALUE);
+
         return filtered;
     }
-    
+
     /**
      * Get price values filtered by time frame (for charting)
      * @param symbol Token symbol
@@ -116,33 +227,708 @@ public class PriceHistoryTracker {
         }
         return values;
     }
-    
+
+    /**
+     * Get the price of a token at a timestamp from the finest tier covering it: the last raw
+     * tick at or before it, otherwise the close of the minute or hourly candle containing it.
+     * Timestamps before all history are unknown rather than given the oldest known price.
+     * @return Price, or -1 if the token has no history at or before timestamp
+     */
+    public synchronized double getPriceAt(String symbol, long timestamp) {
+        TieredSeries series = priceHistory.get(symbol.toUpperCase());
+        return series != null ? series.priceAt(timestamp) : -1;
+    }
+
+    /**
+     * Fill out[i] with getPriceAt(symbol, times[i]) under a single lock acquisition, so
+     * times before the token's history get -1.
+     * @return false if the token has no history (out is left untouched)
+     */
+    public synchronized boolean getPricesAt(String symbol, long[] times, double[] out) {
+        TieredSeries series = priceHistory.get(symbol.toUpperCase());
+        if (series == null) {
+            return false;
+        }
+        for (int i = 0; i < times.length; i++) {
+            out[i] = series.priceAt(times[i]);
+        }
+        return true;
+    }
+
+    /**
+     * Get all tokens that currently have history
+     */
+    public synchronized List<String> getSymbols() {
+        return new ArrayList<>(priceHistory.keySet());
+    }
+
+    /**
+     * Stream one token's tiers to a visitor, oldest first, without copying them into lists.
+     * The tiers' arrays are copied under the tracker lock and visited outside it, so a slow
+     * visitor (e.g. writing a file) does not block ticks.
+     * @return false if the token has no history
+     */
+    boolean visitSeries(String symbol, SeriesVisitor visitor) throws IOException {
+        TickRing raw;
+        CandleRing minutes;
+        CandleRing hours;
+        synchronized (this) {
+            TieredSeries series = priceHistory.get(symbol.toUpperCase());
+            if (series == null) {
+                return false;
+            }
+            raw = series.raw.copy();
+            minutes = series.minutes.copy();
+            hours = series.hours.copy();
+        }
+        raw.visit(visitor);
+        minutes.visit(TIER_MINUTE, visitor);
+        hours.visit(TIER_HOUR, visitor);
+        return true;
+    }
+
+    /**
+     * Merge imported data for a token into its history by timestamp.
+     * Imported ticks do not notify tick listeners.
+     */
+    synchronized void mergeSeries(String symbol, TickRing ticks, CandleRing minuteCandles, CandleRing hourCandles) {
+        String symbolUpper = symbol.toUpperCase();
+        TieredSeries existing = priceHistory.get(symbolUpper);
+        RetentionPolicy policy = existing != null ? existing.policy : retentionPolicy;
+        priceHistory.put(symbolUpper, TieredSeries.merge(policy, existing, ticks, minuteCandles, hourCandles));
+    }
+
     /**
      * Clear history for a token
      */
-    public void clearHistory(String symbol) {
+    public synchronized void clearHistory(String symbol) {
         String symbolUpper = symbol.toUpperCase();
         priceHistory.remove(symbolUpper);
     }
-    
+
     /**
      * Clear all history
      */
-    public void clearAllHistory() {
+    public synchronized void clearAllHistory() {
         priceHistory.clear();
     }
-    
+
     /**
      * Data class to store a single price point with timestamp
      */
     public static class PricePoint {
         public double price;
         public long timestamp;
-        
+
         public PricePoint(double price, long timestamp) {
             this.price = price;
             this.timestamp = timestamp;
         }
     }
-}
 
+    /**
+     * Data class for a rolled-up OHLC candle. timestamp is the bucket start.
+     */
+    public static class Candle {
+        public long timestamp;
+        public double open;
+        public double high;
+        public double low;
+        public double close;
+
+        public Candle(long timestamp, double open, double high, double low, double close) {
+            this.timestamp = timestamp;
+            this.open = open;
+            this.high = high;
+            this.low = low;
+            this.close = close;
+        }
+    }
+
+    /**
+     * Snapshot of sliding-window aggregates for one token.
+     * volatility is the standard deviation of tick-to-tick log returns.
+     */
+    public static class WindowStats {
+        public double high;
+        public double low;
+        public double stdDev;
+        public double volatility;
+        public int count;
+
+        public WindowStats(double high, double low, double stdDev, double volatility, int count) {
+            this.high = high;
+            this.low = low;
+            this.stdDev = stdDev;
+            this.volatility = volatility;
+            this.count = count;
+        }
+    }
+
+    /**
+     * How long each tier keeps data. Tier capacities are derived from these values.
+     */
+    public static class RetentionPolicy {
+        public final long rawRetentionMs;
+        public final int maxRawPoints;
+        public final long minuteRetentionMs;
+        public final long hourRetentionMs;
+
+        public RetentionPolicy(long rawRetentionMs, int maxRawPoints, long minuteRetentionMs, long hourRetentionMs) {
+            if (rawRetentionMs <= 0 || maxRawPoints <= 0 || minuteRetentionMs < MINUTE_MS || hourRetentionMs < HOUR_MS) {
+                throw new IllegalArgumentException("Invalid retention policy");
+            }
+            this.rawRetentionMs = rawRetentionMs;
+            this.maxRawPoints = maxRawPoints;
+            this.minuteRetentionMs = minuteRetentionMs;
+            this.hourRetentionMs = hourRetentionMs;
+        }
+    }
+
+    static final int TIER_RAW = 0;
+    static final int TIER_MINUTE = 1;
+    static final int TIER_HOUR = 2;
+
+    /**
+     * Receives a token's tiers in order: raw ticks, then minute candles, then hourly candles.
+     */
+    interface SeriesVisitor {
+        void onTier(int tier, int count) throws IOException;
+        void onTick(long timestamp, double price) throws IOException;
+        void onCandle(long timestamp, double open, double high, double low, double close) throws IOException;
+    }
+
+    /**
+     * Raw tier + minute tier + hourly tier for one token.
+     */
+    private static class TieredSeries {
+        final RetentionPolicy policy;
+        final TickRing raw;
+        final CandleRing minutes;
+        final CandleRing hours;
+        final SlidingWindowStats[] windows;
+
+        TieredSeries(RetentionPolicy policy) {
+            this(policy, null);
+        }
+
+        private TieredSeries(RetentionPolicy policy, SlidingWindowStats[] windows) {
+            this.policy = policy;
+            raw = new TickRing(policy.maxRawPoints);
+            minutes = new CandleRing(MINUTE_MS, (int) (policy.minuteRetentionMs / MINUTE_MS));
+            hours = new CandleRing(HOUR_MS, (int) (policy.hourRetentionMs / HOUR_MS));
+            if (windows == null) {
+                windows = new SlidingWindowStats[TRACKED_WINDOWS.length];
+                for (int i = 0; i < TRACKED_WINDOWS.length; i++) {
+                    windows[i] = new SlidingWindowStats(TRACKED_WINDOWS[i], MAX_WINDOW_TICKS);
+                }
+            }
+            this.windows = windows;
+        }
+
+        /**
+         * Build a series holding existing and imported data merged by timestamp.
+         * Candles in the same bucket are combined; for equal tick timestamps the existing tick wins.
+         * The live sliding windows are kept and only see imported ticks newer than existing data.
+         *
+         * Each tier is merged on its own, then data a tier cannot hold rolls down to the next
+         * one. Replaying ticks through add() instead would fold old ticks into newer imported
+         * candles. Afterwards every tier is older than the one above it, as add() expects.
+         */
+        static TieredSeries merge(RetentionPolicy policy, TieredSeries existing,
+                                  TickRing ticks, CandleRing minuteCandles, CandleRing hourCandles) {
+            TieredSeries merged = new TieredSeries(policy, existing != null ? existing.windows : null);
+            TickRing oldTicks = existing != null ? existing.raw : null;
+            long windowStart = oldTicks != null && oldTicks.size > 0 ? oldTicks.newestTime() : Long.MIN_VALUE;
+
+            TickRing allTicks = TickRing.merge(oldTicks, ticks);
+            CandleRing allMinutes = new CandleRing(MINUTE_MS, Integer.MAX_VALUE);
+            CandleRing.mergeInto(allMinutes, existing != null ? existing.minutes : null, minuteCandles);
+            CandleRing allHours = new CandleRing(HOUR_MS, Integer.MAX_VALUE);
+            CandleRing.mergeInto(allHours, existing != null ? existing.hours : null, hourCandles);
+            long now = Math.max(allTicks.size > 0 ? allTicks.newestTime() : Long.MIN_VALUE,
+                    Math.max(allMinutes.newestTime(), allHours.newestTime()));
+
+            // Raw keeps the newest ticks that fit and are not older than the newest minute candle
+            int firstTick = Math.max(0, allTicks.size - merged.raw.capacity);
+            while (firstTick < allTicks.size
+                    && (allTicks.timeAt(firstTick) < now - policy.rawRetentionMs
+                    || allTicks.timeAt(firstTick) < allMinutes.newestTime())) {
+                firstTick++;
+            }
+            CandleRing rolledTicks = new CandleRing(MINUTE_MS, Integer.MAX_VALUE);
+            for (int k = 0; k < allTicks.size; k++) {
+                long time = allTicks.timeAt(k);
+                double price = allTicks.priceAt(k);
+                if (k < firstTick) {
+                    rolledTicks.fold(time, price, price, price, price);
+                } else {
+                    merged.raw.push(time, price);
+                }
+                if (time > windowStart) {
+                    for (SlidingWindowStats window : merged.windows) {
+                        window.add(time, price);
+                    }
+                }
+            }
+
+            // Same for minute candles against the hour tier
+            CandleRing minutes = new CandleRing(MINUTE_MS, Integer.MAX_VALUE);
+            CandleRing.mergeInto(minutes, allMinutes, rolledTicks);
+            int firstMinute = Math.max(0, minutes.size - merged.minutes.capacity);
+            while (firstMinute < minutes.size
+                    && (minutes.timeAt(firstMinute) < now - policy.minuteRetentionMs
+                    || minutes.timeAt(firstMinute) < allHours.newestTime())) {
+                firstMinute++;
+            }
+            CandleRing rolledMinutes = new CandleRing(HOUR_MS, Integer.MAX_VALUE);
+            for (int k = 0; k < minutes.size; k++) {
+                minutes.foldInto(k < firstMinute ? rolledMinutes : merged.minutes, k);
+            }
+
+            CandleRing hours = new CandleRing(HOUR_MS, Integer.MAX_VALUE);
+            CandleRing.mergeInto(hours, allHours, rolledMinutes);
+            for (int k = 0; k < hours.size; k++) {
+                if (hours.timeAt(k) >= now - policy.hourRetentionMs) {
+                    hours.foldInto(merged.hours, k);
+                }
+            }
+            return merged;
+        }
+
+        SlidingWindowStats getWindow(long windowMs) {
+            for (SlidingWindowStats window : windows) {
+                if (window.getWindowMs() == windowMs) {
+                    return window;
+                }
+            }
+            return null;
+        }
+
+        boolean add(long timestamp, double price) {
+            return add(timestamp, price, true);
+        }
+
+        boolean add(long timestamp, double price, boolean feedWindows) {
+            if (raw.size > 0 && timestamp < raw.newestTime()) {
+                return false;
+            }
+
+            // Age out ticks by time first, then by capacity
+            while (raw.size > 0 && raw.oldestTime() < timestamp - policy.rawRetentionMs) {
+                evictRawTick();
+            }
+            if (raw.size == raw.capacity) {
+                evictRawTick();
+            }
+            raw.push(timestamp, price);
+            if (feedWindows) {
+                for (SlidingWindowStats window : windows) {
+                    window.add(timestamp, price);
+                }
+            }
+
+            // Candles older than their tier's window move down even when no tick evicted them
+            while (minutes.size > 0 && minutes.oldestTime() < timestamp - policy.minuteRetentionMs) {
+                evictMinuteCandle();
+            }
+            while (hours.size > 0 && hours.oldestTime() < timestamp - policy.hourRetentionMs) {
+                hours.removeOldest();
+            }
+            return true;
+        }
+
+        double priceAt(long timestamp) {
+            if (raw.size > 0 && timestamp >= raw.oldestTime()) {
+                return raw.priceAt(raw.floorIndex(timestamp));
+            }
+            int k = minutes.floorIndex(timestamp);
+            if (k >= 0) {
+                return minutes.closeAt(k);
+            }
+            k = hours.floorIndex(timestamp);
+            if (k >= 0) {
+                return hours.closeAt(k);
+            }
+            // Before all history: unknown
+            return -1;
+        }
+
+        private void evictRawTick() {
+            int i = raw.oldestIndex();
+            long time = raw.times[i];
+            double price = raw.prices[i];
+            raw.removeOldest();
+            if (minutes.wouldAppend(time) && minutes.size == minutes.capacity) {
+                evictMinuteCandle();
+            }
+            minutes.fold(time, price, price, price, price);
+        }
+
+        private void evictMinuteCandle() {
+            int i = minutes.oldestIndex();
+            long time = minutes.times[i];
+            double open = minutes.opens[i];
+            double high = minutes.highs[i];
+            double low = minutes.lows[i];
+            double close = minutes.closes[i];
+            minutes.removeOldest();
+            if (hours.wouldAppend(time) && hours.size == hours.capacity) {
+                hours.removeOldest();
+            }
+            hours.fold(time, open, high, low, close);
+        }
+    }
+
+    /**
+     * Fixed-capacity ring of (timestamp, price) ticks backed by primitive arrays.
+     */
+    static class TickRing {
+        final int capacity;
+        long[] times;
+        double[] prices;
+        int head; // index of the oldest element
+        int size;
+
+        TickRing(int capacity) {
+            this.capacity = capacity;
+            // Start small and grow up to capacity so rarely-traded tokens stay cheap
+            int initial = Math.min(capacity, 16);
+            times = new long[initial];
+            prices = new double[initial];
+        }
+
+        int oldestIndex() {
+            return head;
+        }
+
+        long oldestTime() {
+            return times[head];
+        }
+
+        long timeAt(int k) {
+            return times[(head + k) % times.length];
+        }
+
+        double priceAt(int k) {
+            return prices[(head + k) % times.length];
+        }
+
+        long newestTime() {
+            return times[(head + size - 1) % times.length];
+        }
+
+        void push(long time, double price) {
+            if (size == times.length) {
+                grow();
+            }
+            int i = (head + size) % times.length;
+            times[i] = time;
+            prices[i] = price;
+            size++;
+        }
+
+        void removeOldest() {
+            head = (head + 1) % times.length;
+            size--;
+        }
+
+        private void grow() {
+            int newLength = Math.min(capacity, times.length * 2);
+            long[] newTimes = new long[newLength];
+            double[] newPrices = new double[newLength];
+            for (int k = 0; k < size; k++) {
+                int i = (head + k) % times.length;
+                newTimes[k] = times[i];
+                newPrices[k] = prices[i];
+            }
+            times = newTimes;
+            prices = newPrices;
+            head = 0;
+        }
+
+        /**
+         * Logical index of the last tick at or before time, or -1 if none
+         */
+        int floorIndex(long time) {
+            int lo = 0;
+            int hi = size - 1;
+            int result = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (timeAt(mid) <= time) {
+                    result = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return result;
+        }
+
+        void appendTo(List<PricePoint> out, long fromInclusive, long toExclusive) {
+            for (int k = 0; k < size; k++) {
+                int i = (head + k) % times.length;
+                if (times[i] >= fromInclusive && times[i] < toExclusive) {
+                    out.add(new PricePoint(prices[i], times[i]));
+                }
+            }
+        }
+
+        TickRing copy() {
+            TickRing copy = new TickRing(capacity);
+            copy.times = Arrays.copyOf(times, times.length);
+            copy.prices = Arrays.copyOf(prices, prices.length);
+            copy.head = head;
+            copy.size = size;
+            return copy;
+        }
+
+        /**
+         * Merge two sorted rings by timestamp into a new unbounded ring; on equal timestamps
+         * the tick from first wins
+         */
+        static TickRing merge(TickRing first, TickRing second) {
+            int firstSize = first != null ? first.size : 0;
+            int secondSize = second != null ? second.size : 0;
+            TickRing merged = new TickRing(Math.max(1, firstSize + secondSize));
+            int i = 0;
+            int j = 0;
+            while (i < firstSize || j < secondSize) {
+                long timeA = i < firstSize ? first.timeAt(i) : Long.MAX_VALUE;
+                long timeB = j < secondSize ? second.timeAt(j) : Long.MAX_VALUE;
+                if (timeA <= timeB) {
+                    merged.push(timeA, first.priceAt(i));
+                    i++;
+                    if (timeA == timeB) j++;
+                } else {
+                    merged.push(timeB, second.priceAt(j));
+                    j++;
+                }
+            }
+            return merged;
+        }
+
+        void visit(SeriesVisitor visitor) throws IOException {
+            visitor.onTier(TIER_RAW, size);
+            for (int k = 0; k < size; k++) {
+                int i = (head + k) % times.length;
+                visitor.onTick(times[i], prices[i]);
+            }
+        }
+    }
+
+    /**
+     * Fixed-capacity ring of OHLC candles for one bucket width, backed by primitive arrays.
+     */
+    static class CandleRing {
+        final long bucketMs;
+        final int capacity;
+        long[] times;
+        double[] opens;
+        double[] highs;
+        double[] lows;
+        double[] closes;
+        int head;
+        int size;
+
+        CandleRing(long bucketMs, int capacity) {
+            this.bucketMs = bucketMs;
+            this.capacity = capacity;
+            allocate(Math.min(capacity, 16));
+        }
+
+        private void allocate(int length) {
+            times = new long[length];
+            opens = new double[length];
+            highs = new double[length];
+            lows = new double[length];
+            closes = new double[length];
+        }
+
+        int oldestIndex() {
+            return head;
+        }
+
+        long oldestTime() {
+            return times[head];
+        }
+
+        private int newestIndex() {
+            return (head + size - 1) % times.length;
+        }
+
+        /**
+         * Start of the newest candle, or Long.MIN_VALUE if empty
+         */
+        long newestTime() {
+            return size > 0 ? times[newestIndex()] : Long.MIN_VALUE;
+        }
+
+        /**
+         * Whether folding data at this timestamp would open a new candle
+         */
+        boolean wouldAppend(long time) {
+            return size == 0 || bucketStart(time) > times[newestIndex()];
+        }
+
+        private long bucketStart(long time) {
+            return time - Math.floorMod(time, bucketMs);
+        }
+
+        /**
+         * Merge an OHLC range into the candle for its bucket. Input arrives in time order,
+         * so it either extends the newest candle or opens a new one.
+         */
+        void fold(long time, double open, double high, double low, double close) {
+            long bucket = bucketStart(time);
+            if (size > 0) {
+                int n = newestIndex();
+                if (bucket <= times[n]) {
+                    if (high > highs[n]) highs[n] = high;
+                    if (low < lows[n]) lows[n] = low;
+                    closes[n] = close;
+                    return;
+                }
+            }
+            if (size == capacity) {
+                removeOldest();
+            }
+            if (size == times.length) {
+                grow();
+            }
+            int i = (head + size) % times.length;
+            times[i] = bucket;
+            opens[i] = open;
+            highs[i] = high;
+            lows[i] = low;
+            closes[i] = close;
+            size++;
+        }
+
+        void removeOldest() {
+            head = (head + 1) % times.length;
+            size--;
+        }
+
+        private void grow() {
+            long[] oldTimes = times;
+            double[] oldOpens = opens;
+            double[] oldHighs = highs;
+            double[] oldLows = lows;
+            double[] oldCloses = closes;
+            allocate(Math.min(capacity, oldTimes.length * 2));
+            for (int k = 0; k < size; k++) {
+                int i = (head + k) % oldTimes.length;
+                times[k] = oldTimes[i];
+                opens[k] = oldOpens[i];
+                highs[k] = oldHighs[i];
+                lows[k] = oldLows[i];
+                closes[k] = oldCloses[i];
+            }
+            head = 0;
+        }
+
+        void appendTo(List<Candle> out) {
+            for (int k = 0; k < size; k++) {
+                int i = (head + k) % times.length;
+                out.add(new Candle(times[i], opens[i], highs[i], lows[i], closes[i]));
+            }
+        }
+
+        CandleRing copy() {
+            CandleRing copy = new CandleRing(bucketMs, capacity);
+            copy.times = Arrays.copyOf(times, times.length);
+            copy.opens = Arrays.copyOf(opens, opens.length);
+            copy.highs = Arrays.copyOf(highs, highs.length);
+            copy.lows = Arrays.copyOf(lows, lows.length);
+            copy.closes = Arrays.copyOf(closes, closes.length);
+            copy.head = head;
+            copy.size = size;
+            return copy;
+        }
+
+        /**
+         * Fold the candle at logical index k into target, which may have wider buckets
+         */
+        void foldInto(CandleRing target, int k) {
+            int i = (head + k) % times.length;
+            target.fold(times[i], opens[i], highs[i], lows[i], closes[i]);
+        }
+
+        void visit(int tier, SeriesVisitor visitor) throws IOException {
+            visitor.onTier(tier, size);
+            for (int k = 0; k < size; k++) {
+                int i = (head + k) % times.length;
+                visitor.onCandle(times[i], opens[i], highs[i], lows[i], closes[i]);
+            }
+        }
+
+        /**
+         * Two-way merge of sorted candle rings into an empty target. Candles in the same
+         * bucket are combined, keeping open/close from the first ring.
+         */
+        static void mergeInto(CandleRing target, CandleRing first, CandleRing second) {
+            int i = 0;
+            int j = 0;
+            int firstSize = first != null ? first.size : 0;
+            int secondSize = second != null ? second.size : 0;
+            while (i < firstSize || j < secondSize) {
+                int a = i < firstSize ? (first.head + i) % first.times.length : -1;
+                int b = j < secondSize ? (second.head + j) % second.times.length : -1;
+                long timeA = a >= 0 ? target.bucketStart(first.times[a]) : Long.MAX_VALUE;
+                long timeB = b >= 0 ? target.bucketStart(second.times[b]) : Long.MAX_VALUE;
+                if (timeA < timeB) {
+                    target.fold(timeA, first.opens[a], first.highs[a], first.lows[a], first.closes[a]);
+                    i++;
+                } else if (timeB < timeA) {
+                    target.fold(timeB, second.opens[b], second.highs[b], second.lows[b], second.closes[b]);
+                    j++;
+                } else {
+                    target.fold(timeA, first.opens[a],
+                            Math.max(first.highs[a], second.highs[b]),
+                            Math.min(first.lows[a], second.lows[b]),
+                            first.closes[a]);
+                    i++;
+                    j++;
+                }
+            }
+        }
+
+        long timeAt(int k) {
+            return times[(head + k) % times.length];
+        }
+
+        double closeAt(int k) {
+            return closes[(head + k) % times.length];
+        }
+
+        /**
+         * Logical index of the last candle starting at or before time, or -1 if none
+         */
+        int floorIndex(long time) {
+            int lo = 0;
+            int hi = size - 1;
+            int result = -1;
+            while (lo <= hi) {
+                int mid = (lo + hi) >>> 1;
+                if (timeAt(mid) <= time) {
+                    result = mid;
+                    lo = mid + 1;
+                } else {
+                    hi = mid - 1;
+                }
+            }
+            return result;
+        }
+
+        void appendClosesTo(List<PricePoint> out, long fromInclusive, long toExclusive) {
+            for (int k = 0; k < size; k++) {
+                int i = (head + k) % times.length;
+                if (times[i] >= fromInclusive && times[i] < toExclusive) {
+                    out.add(new PricePoint(closes[i], times[i]));
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,254 @@
+package com.koigzzzz.cex.utils;
+
+/**
+ * Rolling high/low/standard deviation of a price series over a fixed time window.
+ *
+ * High and low are kept with monotonic deques, mean and variance with running
+ * (Welford) sums that support removal. Each tick and each query is O(1) amortized.
+ * The window holds at most {@code capacity} ticks; when ticks arrive faster than that
+ * the oldest ones leave early so memory stays bounded.
+ */
+public class SlidingWindowStats {
+    private final long windowMs;
+    private final int capacity;
+
+    // Ticks in the window: key = timestamp, value = price
+    private final PairDeque window;
+    // Log return of each tick against the previous tick (NaN for the first tick ever seen)
+    private final PairDeque returns;
+    // Monotonic deques: key = tick sequence number, value = price
+    private final PairDeque maxDeque;
+    private final PairDeque minDeque;
+
+    private long nextSeq;
+    private long headSeq;
+    private double lastPrice = Double.NaN;
+
+    // Welford running sums for prices
+    private int priceCount;
+    private double priceMean;
+    private double priceM2;
+
+    // Welford running sums for log returns
+    private int returnCount;
+    private double returnMean;
+    private double returnM2;
+
+    public SlidingWindowStats(long windowMs, int capacity) {
+        if (windowMs <= 0 || capacity <= 0) {
+            throw new IllegalArgumentException("Window and capacity must be positive");
+        }
+        this.windowMs = windowMs;
+        this.capacity = capacity;
+        window = new PairDeque(capacity);
+        returns = new PairDeque(capacity);
+        maxDeque = new PairDeque(capacity);
+        minDeque = new PairDeque(capacity);
+    }
+
+    public long getWindowMs() {
+        return windowMs;
+    }
+
+    /**
+     * Add a tick. Timestamps are expected in non-decreasing order.
+     */
+    public void add(long timestamp, double price) {
+        evictBefore(timestamp - windowMs);
+        if (window.size == capacity) {
+            evictOldest();
+        }
+
+        long seq = nextSeq++;
+        window.pushBack(timestamp, price);
+        addPrice(price);
+
+        double logReturn = Double.NaN;
+        if (!Double.isNaN(lastPrice) && lastPrice > 0 && price > 0) {
+            logReturn = Math.log(price / lastPrice);
+            addReturn(logReturn);
+        }
+        returns.pushBack(seq, logReturn);
+        lastPrice = price;
+
+        while (maxDeque.size > 0 && maxDeque.backValue() <= price) {
+            maxDeque.popBack();
+        }
+        maxDeque.pushBack(seq, price);
+        while (minDeque.size > 0 && minDeque.backValue() >= price) {
+            minDeque.popBack();
+        }
+        minDeque.pushBack(seq, price);
+    }
+
+    /**
+     * Drop ticks older than the cutoff. Queries call this with the current time
+     * so a token that stopped ticking does not report stale extremes.
+     */
+    public void evictBefore(long cutoffTime) {
+        while (window.size > 0 && window.frontKey() < cutoffTime) {
+            evictOldest();
+        }
+    }
+
+    private void evictOldest() {
+        double price = window.frontValue();
+        window.popFront();
+        removePrice(price);
+
+        double logReturn = returns.frontValue();
+        returns.popFront();
+        if (!Double.isNaN(logReturn)) {
+            removeReturn(logReturn);
+        }
+
+        headSeq++;
+        while (maxDeque.size > 0 && maxDeque.frontKey() < headSeq) {
+            maxDeque.popFront();
+        }
+        while (minDeque.size > 0 && minDeque.frontKey() < headSeq) {
+            minDeque.popFront();
+        }
+    }
+
+    public int getCount() {
+        return window.size;
+    }
+
+    /**
+     * @return Highest price in the window, or NaN if the window is empty
+     */
+    public double getHigh() {
+        return maxDeque.size > 0 ? maxDeque.frontValue() : Double.NaN;
+    }
+
+    /**
+     * @return Lowest price in the window, or NaN if the window is empty
+     */
+    public double getLow() {
+        return minDeque.size > 0 ? minDeque.frontValue() : Double.NaN;
+    }
+
+    public double getMean() {
+        return priceCount > 0 ? priceMean : Double.NaN;
+    }
+
+    /**
+     * @return Sample standard deviation of prices in the window
+     */
+    public double getStdDev() {
+        if (priceCount < 2) return 0.0;
+        return Math.sqrt(Math.max(0.0, priceM2 / (priceCount - 1)));
+    }
+
+    /**
+     * @return Sample standard deviation of tick-to-tick log returns (volatility per tick)
+     */
+    public double getVolatility() {
+        if (returnCount < 2) return 0.0;
+        return Math.sqrt(Math.max(0.0, returnM2 / (returnCount - 1)));
+    }
+
+    private void addPrice(double x) {
+        priceCount++;
+        double delta = x - priceMean;
+        priceMean += delta / priceCount;
+        priceM2 += delta * (x - priceMean);
+    }
+
+    private void removePrice(double x) {
+        if (priceCount <= 1) {
+            priceCount = 0;
+            priceMean = 0.0;
+            priceM2 = 0.0;
+            return;
+        }
+        priceCount--;
+        double delta = x - priceMean;
+        priceMean -= delta / priceCount;
+        priceM2 -= delta * (x - priceMean);
+    }
+
+    private void addReturn(double x) {
+        returnCount++;
+        double delta = x - returnMean;
+        returnMean += delta / returnCount;
+        returnM2 += delta * (x - returnMean);
+    }
+
+    private void removeReturn(double x) {
+        if (returnCount <= 1) {
+            returnCount = 0;
+            returnMean = 0.0;
+            returnM2 = 0.0;
+            return;
+        }
+        returnCount--;
+        double delta = x - returnMean;
+        returnMean -= delta / returnCount;
+        returnM2 -= delta * (x - returnMean);
+    }
+
+    /**
+     * Growable ring of (long, double) pairs supporting push/pop at both ends.
+     */
+    private static class PairDeque {
+        private final int maxCapacity;
+        private long[] keys;
+        private double[] values;
+        private int head;
+        int size;
+
+        PairDeque(int maxCapacity) {
+            this.maxCapacity = maxCapacity;
+            int initial = Math.min(maxCapacity, 16);
+            keys = new long[initial];
+            values = new double[initial];
+        }
+
+        void pushBack(long key, double value) {
+            if (size == keys.length) {
+                grow();
+            }
+            int i = (head + size) % keys.length;
+            keys[i] = key;
+            values[i] = value;
+            size++;
+        }
+
+        void popBack() {
+            size--;
+        }
+
+        void popFront() {
+            head = (head + 1) % keys.length;
+            size--;
+        }
+
+        long frontKey() {
+            return keys[head];
+        }
+
+        double frontValue() {
+            return values[head];
+        }
+
+        double backValue() {
+            return values[(head + size - 1) % keys.length];
+        }
+
+        private void grow() {
+            int newLength = Math.min(maxCapacity, keys.length * 2);
+            long[] newKeys = new long[newLength];
+            double[] newValues = new double[newLength];
+            for (int k = 0; k < size; k++) {
+                int i = (head + k) % keys.length;
+                newKeys[k] = keys[i];
+                newValues[k] = values[i];
+            }
+            keys = newKeys;
+            values = newValues;
+            head = 0;
+        }
+    }
+}
@@ -0,0 +1,155 @@
+package com.koigzzzz.cex.utils;
+
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Throughput of the app's in-memory analytics on this machine, run with
+ * ./gradlew :app:benchmark. Kept out of the unit tests, which only assert.
+ *
+ * Each workload is run a few times untimed to let the JIT compile it, then timed once.
+ * Inputs are generated up front from a fixed seed, so only the measured code is timed.
+ */
+public final class AppBenchmark {
+    private static final int WARMUP_ROUNDS = 3;
+
+    private AppBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        for (int points : new int[]{200, 100_000}) {
+            int inserts = Math.max(200_000, 2 * points);
+            run("value series " + points + " inserts", inserts, valueSeriesInserts(points, inserts));
+            run("value series " + points + " lookups", 1_000_000, valueSeriesLookups(points, 1_000_000));
+        }
+        for (int symbols : new int[]{50, 200}) {
+            int bars = 200_000 / symbols;
+            run("correlation " + symbols + " bar closes", bars, correlationBars(symbols, bars));
+            run("correlation " + symbols + " matrix reads", 2_000, correlationReads(symbols, 2_000));
+        }
+    }
+
+    interface Workload {
+        /**
+         * @return A value derived from the results, so the work cannot be optimised away
+         */
+        long run();
+    }
+
+    private static void run(String name, long events, Workload workload) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            workload.run();
+        }
+        long startedAt = System.nanoTime();
+        long check = workload.run();
+        double seconds = (System.nanoTime() - startedAt) / 1e9;
+        System.out.println(String.format(Locale.US, "%-32s %,d in %.2f s: %,.0f ns each (check %d)",
+                name, events, seconds, seconds * 1e9 / events, check));
+    }
+
+    /**
+     * Inserts into a full PortfolioValueTracker series, one in a hundred arriving late
+     */
+    static Workload valueSeriesInserts(int points, int inserts) {
+        Random random = new Random(30);
+        long[] times = new long[inserts];
+        long now = 0;
+        for (int i = 0; i < inserts; i++) {
+            now += 1 + random.nextInt(1000);
+            times[i] = i % 100 == 0 ? now - random.nextInt(100_000) : now;
+        }
+        return () -> {
+            PortfolioValueTracker.ValueSeries series = new PortfolioValueTracker.ValueSeries(points, 0);
+            for (int i = 0; i < inserts; i++) {
+                series.insert(times[i], i);
+            }
+            return series.size;
+        };
+    }
+
+    /**
+     * Floor lookups at random times over a full series
+     */
+    static Workload valueSeriesLookups(int points, int lookups) {
+        Random random = new Random(30);
+        PortfolioValueTracker.ValueSeries series = new PortfolioValueTracker.ValueSeries(points, 0);
+        long now = 0;
+        for (int i = 0; i < points; i++) {
+            now += 1 + random.nextInt(1000);
+            series.insert(now, i);
+        }
+        long[] probes = new long[lookups];
+        for (int i = 0; i < lookups; i++) {
+            probes[i] = now - random.nextInt(1 << 30);
+        }
+        return () -> {
+            long check = 0;
+            for (long probe : probes) {
+                check += series.floorIndex(probe);
+            }
+            return check;
+        };
+    }
+
+    /**
+     * Every symbol ticks once per 1-minute bar, so each bar close updates every pair
+     */
+    static Workload correlationBars(int symbols, int bars) {
+        String[] names = symbolNames(symbols);
+        double[][] prices = randomWalks(symbols, bars + 1);
+        return () -> {
+            CorrelationEngine engine = new CorrelationEngine(24 * 60);
+            for (int bar = 0; bar <= bars; bar++) {
+                long time = bar * PriceHistoryTracker.MINUTE_MS;
+                for (int s = 0; s < symbols; s++) {
+                    engine.addTick(names[s], prices[bar][s], time);
+                }
+            }
+            return engine.getBarsClosed();
+        };
+    }
+
+    /**
+     * Reading the full matrix from an engine that has already seen a day of bars
+     */
+    static Workload correlationReads(int symbols, int reads) {
+        String[] names = symbolNames(symbols);
+        int bars = 24 * 60;
+        double[][] prices = randomWalks(symbols, bars);
+        CorrelationEngine engine = new CorrelationEngine(24 * 60);
+        for (int bar = 0; bar < bars; bar++) {
+            for (int s = 0; s < symbols; s++) {
+                engine.addTick(names[s], prices[bar][s], bar * PriceHistoryTracker.MINUTE_MS);
+            }
+        }
+        return () -> {
+            long check = 0;
+            for (int i = 0; i < reads; i++) {
+                check += engine.getMatrix().size;
+            }
+            return check;
+        };
+    }
+
+    private static String[] symbolNames(int symbols) {
+        String[] names = new String[symbols];
+        for (int s = 0; s < symbols; s++) {
+            names[s] = "T" + s;
+        }
+        return names;
+    }
+
+    private static double[][] randomWalks(int symbols, int steps) {
+        Random random = new Random(28);
+        double[][] prices = new double[steps][symbols];
+        for (int s = 0; s < symbols; s++) {
+            prices[0][s] = 10 + random.nextInt(1000);
+        }
+        for (int step = 1; step < steps; step++) {
+            for (int s = 0; s < symbols; s++) {
+                prices[step][s] = prices[step - 1][s] * Math.exp((random.nextDouble() - 0.5) * 0.02);
+            }
+        }
+        return prices;
+    }
+}
@@ -0,0 +1,202 @@
+package com.koigzzzz.cex.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Seeded tick streams through CorrelationEngine, checked against a Pearson matrix computed
+ * from scratch over every bar's returns, with tokens joining, leaving and skipping bars.
+ */
+public class CorrelationEngineTest {
+    private static final long MINUTE = PriceHistoryTracker.MINUTE_MS;
+
+    @Test
+    public void matchesFromScratchPearson() {
+        Random random = new Random(28);
+        for (int trial = 0; trial < 100; trial++) {
+            int halfLife = random.nextBoolean() ? 1_000_000_000 : 5 + random.nextInt(50);
+            CorrelationEngine engine = new CorrelationEngine(halfLife);
+            NaiveCorrelation naive = new NaiveCorrelation(Math.pow(0.5, 1.0 / halfLife));
+            Map<String, Double> prices = new LinkedHashMap<>();
+            int symbols = 2 + random.nextInt(25);
+            for (int s = 0; s < symbols; s++) {
+                prices.put("T" + s, 10.0 + random.nextInt(1000));
+            }
+
+            long time = 1_700_000_000_000L;
+            for (int bar = 0; bar < 150; bar++) {
+                for (Map.Entry<String, Double> entry : prices.entrySet()) {
+                    // Tokens skip bars now and then, like prices that refresh slowly
+                    if (random.nextInt(5) == 0) continue;
+                    double price = entry.getValue() * Math.exp((random.nextDouble() - 0.5) * 0.02);
+                    entry.setValue(price);
+                    long at = time + random.nextInt((int) MINUTE);
+                    engine.addTick(entry.getKey(), price, at);
+                    naive.addTick(entry.getKey(), price, at);
+                }
+                if (random.nextInt(30) == 0) {
+                    String leaving = "T" + random.nextInt(symbols);
+                    engine.removeSymbol(leaving);
+                    naive.remove(leaving);
+                }
+                time += MINUTE;
+            }
+            // A tick in the next minute closes the last bar
+            engine.addTick("T0", prices.get("T0"), time);
+            naive.addTick("T0", prices.get("T0"), time);
+
+            CorrelationEngine.CorrelationMatrix matrix = engine.getMatrix();
+            assertEquals(naive.barsClosed, engine.getBarsClosed());
+            assertEquals(naive.tracked.size(), matrix.size);
+            for (int i = 0; i < matrix.size; i++) {
+                assertEquals(1.0, matrix.get(i, i), 0.0);
+                for (int j = 0; j < matrix.size; j++) {
+                    if (i == j) continue;
+                    double expected = naive.correlation(matrix.symbols[i], matrix.symbols[j]);
+                    String where = "trial " + trial + " " + matrix.symbols[i] + "/" + matrix.symbols[j];
+                    if (Double.isNaN(expected)) {
+                        assertTrue(where, Double.isNaN(matrix.get(i, j)));
+                    } else {
+                        assertEquals(where, expected, matrix.get(i, j), 1e-9);
+                    }
+                }
+            }
+        }
+    }
+
+    @Test
+    public void perfectlyCorrelatedAndOpposedPairs() {
+        CorrelationEngine engine = new CorrelationEngine(1_000_000);
+        Random random = new Random(3);
+        double a = 100;
+        double b = 50;
+        double c = 20;
+        for (int bar = 0; bar <= 100; bar++) {
+            double r = (random.nextDouble() - 0.5) * 0.02;
+            a *= Math.exp(r);
+            b *= Math.exp(2 * r);
+            c *= Math.exp(-r);
+            engine.addTick("A", a, bar * MINUTE);
+            engine.addTick("B", b, bar * MINUTE);
+            engine.addTick("C", c, bar * MINUTE);
+        }
+        CorrelationEngine.CorrelationMatrix matrix = engine.getMatrix();
+        int ia = matrix.indexOf("a");
+        int ib = matrix.indexOf("B");
+        int ic = matrix.indexOf("C");
+        assertEquals(1.0, matrix.get(ia, ib), 1e-9);
+        assertEquals(-1.0, matrix.get(ia, ic), 1e-9);
+
+        Map<String, Double> weights = new HashMap<>();
+        weights.put("A", 100.0);
+        weights.put("B", 100.0);
+        assertEquals(1.0, matrix.averageCorrelation(weights), 1e-9);
+        // A-B +1 at weight 100*100, A-C -1 and B-C -1 at 100*300 each
+        weights.put("C", 300.0);
+        assertEquals((10_000.0 - 60_000.0) / 70_000.0, matrix.averageCorrelation(weights), 1e-9);
+        weights.clear();
+        weights.put("A", 1.0);
+        weights.put("USDT", 1.0);
+        assertTrue(Double.isNaN(matrix.averageCorrelation(weights)));
+    }
+
+    /**
+     * Keeps every counted bar's returns and recomputes a decay-weighted Pearson per pair
+     */
+    private static final class NaiveCorrelation {
+        final double decay;
+        final List<String> tracked = new ArrayList<>();
+        final Map<String, Double> last = new HashMap<>();
+        final Map<String, Double> prevClose = new HashMap<>();
+        final List<String> tickedInBar = new ArrayList<>();
+        // Returns per counted bar, oldest first
+        final List<Map<String, Double>> bars = new ArrayList<>();
+        long barStart = Long.MIN_VALUE;
+        long barsClosed;
+
+        NaiveCorrelation(double decay) {
+            this.decay = decay;
+        }
+
+        void addTick(String symbol, double price, long time) {
+            long start = time - Math.floorMod(time, MINUTE);
+            if (barStart == Long.MIN_VALUE) {
+                barStart = start;
+            } else if (start > barStart) {
+                closeBar();
+                barStart = start;
+            }
+            if (!tracked.contains(symbol)) {
+                tracked.add(symbol);
+            }
+            last.put(symbol, price);
+            if (!tickedInBar.contains(symbol)) {
+                tickedInBar.add(symbol);
+            }
+        }
+
+        void closeBar() {
+            Map<String, Double> returns = new HashMap<>();
+            for (String symbol : tickedInBar) {
+                Double previous = prevClose.get(symbol);
+                if (previous != null) {
+                    returns.put(symbol, Math.log(last.get(symbol) / previous));
+                }
+                prevClose.put(symbol, last.get(symbol));
+            }
+            tickedInBar.clear();
+            if (returns.size() < 2) return;
+            bars.add(returns);
+            barsClosed++;
+        }
+
+        void remove(String symbol) {
+            if (!tracked.remove(symbol)) return;
+            last.remove(symbol);
+            prevClose.remove(symbol);
+            tickedInBar.remove(symbol);
+            for (Map<String, Double> bar : bars) {
+                bar.remove(symbol);
+            }
+        }
+
+        double correlation(String a, String b) {
+            double totalWeight = 0;
+            double sumA = 0;
+            double sumB = 0;
+            List<double[]> common = new ArrayList<>();
+            for (int k = 0; k < bars.size(); k++) {
+                Double ra = bars.get(k).get(a);
+                Double rb = bars.get(k).get(b);
+                if (ra == null || rb == null) continue;
+                double w = Math.pow(decay, bars.size() - 1 - k);
+                common.add(new double[]{w, ra, rb});
+                totalWeight += w;
+                sumA += w * ra;
+                sumB += w * rb;
+            }
+            if (totalWeight < 2.0) return Double.NaN;
+            double meanA = sumA / totalWeight;
+            double meanB = sumB / totalWeight;
+            double cov = 0;
+            double varA = 0;
+            double varB = 0;
+            for (double[] point : common) {
+                cov += point[0] * (point[1] - meanA) * (point[2] - meanB);
+                varA += point[0] * (point[1] - meanA) * (point[1] - meanA);
+                varB += point[0] * (point[2] - meanB) * (point[2] - meanB);
+            }
+            if (varA <= 0 || varB <= 0) return Double.NaN;
+            return Math.max(-1.0, Math.min(1.0, cov / Math.sqrt(varA * varB)));
+        }
+    }
+}
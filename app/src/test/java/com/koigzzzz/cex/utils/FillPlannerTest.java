@@ -0,0 +1,323 @@
+package com.koigzzzz.cex.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import com.koigzzzz.cex.models.Order;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Fill decisions under many competing executors. A small in-memory store stands in for
+ * Firestore: each transaction reads the store, decides with FillPlanner and applies the
+ * writes the way FirebaseHelper.fillChunk does, one transaction at a time as Firestore
+ * serialises transactions on the same user document.
+ */
+public class FillPlannerTest {
+    private static final String USER = "u1";
+    // Free balance beside the reservations; small, so gapped buys can run out
+    private static final double FREE_USDT = 500.0;
+    private static final double FREE_BTC = 1.0;
+
+    @Test
+    public void competingExecutorsNeverDoubleFillOrLeakFunds() {
+        Random random = new Random(45);
+        for (int trial = 0; trial < 1000; trial++) {
+            Store store = new Store(random);
+            List<Executor> executors = new ArrayList<>();
+            for (int i = 0; i < 12; i++) {
+                executors.add(new Executor());
+            }
+            for (int step = 0; step < 60; step++) {
+                Executor executor = executors.get(random.nextInt(executors.size()));
+                executor.step(store, random);
+                store.checkInvariants("trial " + trial + " step " + step);
+            }
+            // Every committed fill was applied exactly once
+            for (StoredOrder order : store.orders.values()) {
+                double recorded = 0;
+                for (double quantity : order.fills.values()) {
+                    recorded += quantity;
+                }
+                assertEquals(order.filledQuantity, recorded, 1e-9);
+            }
+        }
+    }
+
+    @Test
+    public void exactlyOneOfManyFullFillsWins() {
+        Store store = new Store(new Random(1));
+        StoredOrder order = store.orders.values().iterator().next();
+        long version = order.version;
+        int filled = 0;
+        for (int i = 0; i < 20; i++) {
+            List<FillPlanner.Decision> decisions = store.transact(Execution.full("e" + i, order.id, version,
+                    order.limitPrice));
+            if (decisions.get(0).outcome == FillPlanner.Outcome.FILLED) {
+                filled++;
+            } else {
+                assertEquals(FillPlanner.Outcome.NOT_PENDING, decisions.get(0).outcome);
+            }
+        }
+        assertEquals(1, filled);
+        store.checkInvariants("full fills");
+    }
+
+    @Test
+    public void replayReportsOriginalOutcomeWithoutReapplying() {
+        Store store = new Store(new Random(2));
+        StoredOrder order = store.orders.values().iterator().next();
+        Execution partial = new Execution("p1", order.id, order.version, order.limitPrice, order.quantity / 4);
+        assertEquals(FillPlanner.Outcome.PARTIALLY_FILLED, store.transact(partial).get(0).outcome);
+        Map<String, Double> wallet = new HashMap<>(store.wallet);
+        double filled = order.filledQuantity;
+
+        FillPlanner.Decision replay = store.transact(partial).get(0);
+        assertEquals(FillPlanner.Outcome.PARTIALLY_FILLED, replay.outcome);
+        assertTrue(replay.replayed);
+        assertEquals(wallet, store.wallet);
+        assertEquals(filled, order.filledQuantity, 0.0);
+
+        // Two executions of one order in a chunk: the first closes it
+        List<FillPlanner.Decision> twice = store.transact(
+                Execution.full("f1", order.id, order.version, order.limitPrice),
+                Execution.full("f2", order.id, order.version, order.limitPrice));
+        assertEquals(FillPlanner.Outcome.FILLED, twice.get(0).outcome);
+        assertEquals(FillPlanner.Outcome.NOT_PENDING, twice.get(1).outcome);
+        store.checkInvariants("replay");
+    }
+
+    @Test
+    public void gapPastReservationIsRejectedAndRefunded() {
+        Map<String, Double> balances = new HashMap<>();
+        balances.put("usdt", 10.0);
+        FillPlanner planner = new FillPlanner(USER, balances);
+        // Reserved 1000 for 1 BTC at 1000, but it executes at 1500
+        planner.addOrder(new FillPlanner.OrderState("o1", USER, Order.STATUS_PENDING, 0, null, true, "BTC",
+                1.0, 0, 0, 1000.0, null));
+        FillPlanner.Decision decision = planner.decide("e1", "o1", 0, 1500.0, 0, false);
+        assertEquals(FillPlanner.Outcome.REJECTED, decision.outcome);
+        assertEquals(1000.0, planner.getDeltas().get("usdt"), 0.0);
+        assertEquals(FillPlanner.Outcome.NOT_PENDING, planner.decide("e2", "o1", 0, 1000.0, 0, false).outcome);
+    }
+
+    private static final class Execution {
+        final String executionId;
+        final String orderId;
+        final long expectedVersion;
+        final double price;
+        final double quantity;
+
+        Execution(String executionId, String orderId, long expectedVersion, double price, double quantity) {
+            this.executionId = executionId;
+            this.orderId = orderId;
+            this.expectedVersion = expectedVersion;
+            this.price = price;
+            this.quantity = quantity;
+        }
+
+        static Execution full(String executionId, String orderId, long expectedVersion, double price) {
+            return new Execution(executionId, orderId, expectedVersion, price, 0);
+        }
+    }
+
+    /**
+     * A device with its own, possibly out of date, view of the orders. It fires executions,
+     * sometimes loses the acknowledgement and retries the same ids, and re-reads an order's
+     * version when told it is stale.
+     */
+    private static final class Executor {
+        final Map<String, Long> seenVersions = new HashMap<>();
+        final List<Execution> unacknowledged = new ArrayList<>();
+
+        void step(Store store, Random random) {
+            List<Execution> chunk = new ArrayList<>();
+            if (!unacknowledged.isEmpty() && random.nextInt(3) == 0) {
+                chunk.addAll(unacknowledged);
+                unacknowledged.clear();
+            } else {
+                List<StoredOrder> orders = new ArrayList<>(store.orders.values());
+                int size = 1 + random.nextInt(3);
+                for (int i = 0; i < size; i++) {
+                    StoredOrder order = orders.get(random.nextInt(orders.size()));
+                    Long seen = seenVersions.get(order.id);
+                    long version = seen != null ? seen : order.version;
+                    seenVersions.put(order.id, version);
+                    // Mostly near the limit, sometimes gapped well past it
+                    double slip = random.nextInt(4) == 0 ? 0.5 : 0.02 * random.nextDouble();
+                    double price = order.limitPrice * (order.buy ? 1 + slip : 1 - slip);
+                    double quantity = random.nextBoolean() ? 0 : order.quantity * (0.1 + random.nextInt(5) * 0.1);
+                    chunk.add(new Execution("x" + random.nextLong(), order.id, version, price, quantity));
+                }
+            }
+            List<FillPlanner.Decision> decisions = store.transact(chunk.toArray(new Execution[0]));
+            if (random.nextInt(5) == 0) {
+                unacknowledged.addAll(chunk);
+                return;
+            }
+            for (int i = 0; i < chunk.size(); i++) {
+                if (decisions.get(i).outcome == FillPlanner.Outcome.STALE
+                        || decisions.get(i).outcome == FillPlanner.Outcome.PARTIALLY_FILLED) {
+                    seenVersions.put(chunk.get(i).orderId, store.orders.get(chunk.get(i).orderId).version);
+                }
+            }
+        }
+    }
+
+    private static final class StoredOrder {
+        final String id;
+        final boolean buy;
+        final double quantity;
+        final double limitPrice;
+        final String linkedOrderId;
+        // Legacy per-order reservation; 0 for the second leg of an OCO pair
+        final double legacyReserved;
+        String status = Order.STATUS_PENDING;
+        long version;
+        String executionId;
+        double filledQuantity;
+        double averageFillPrice;
+        final Map<String, Double> fills = new LinkedHashMap<>();
+
+        StoredOrder(String id, boolean buy, double quantity, double limitPrice, String linkedOrderId,
+                    double legacyReserved) {
+            this.id = id;
+            this.buy = buy;
+            this.quantity = quantity;
+            this.limitPrice = limitPrice;
+            this.linkedOrderId = linkedOrderId;
+            this.legacyReserved = legacyReserved;
+        }
+    }
+
+    private static final class Store {
+        final Map<String, Double> wallet = new HashMap<>();
+        final Map<String, Double> reservations = new HashMap<>();
+        final Map<String, StoredOrder> orders = new LinkedHashMap<>();
+        final double startUsdt;
+        final double startBtc;
+        // Running totals of what fills moved, to check conservation against
+        double usdtSpent;
+        double btcBought;
+
+        Store(Random random) {
+            double usdtReserved = 0;
+            double btcReserved = 0;
+            for (int i = 0; i < 8; i++) {
+                boolean buy = random.nextBoolean();
+                double quantity = 0.5 + random.nextInt(4) * 0.5;
+                double price = 900 + random.nextInt(200);
+                String id = "o" + i;
+                double reserve = buy ? quantity * price : quantity;
+                if (random.nextInt(3) == 0) {
+                    // OCO pair on the same side: one reservation, held on the first leg
+                    String partnerId = id + "b";
+                    double partnerPrice = price + (buy ? -50 : 50);
+                    orders.put(id, new StoredOrder(id, buy, quantity, price, partnerId, 0));
+                    orders.put(partnerId, new StoredOrder(partnerId, buy, quantity, partnerPrice, id, 0));
+                } else {
+                    orders.put(id, new StoredOrder(id, buy, quantity, price, null, 0));
+                }
+                reservations.put(id, reserve);
+                if (buy) {
+                    usdtReserved += reserve;
+                } else {
+                    btcReserved += reserve;
+                }
+            }
+            wallet.put("usdt", FREE_USDT);
+            wallet.put("btc", FREE_BTC);
+            startUsdt = FREE_USDT + usdtReserved;
+            startBtc = FREE_BTC + btcReserved;
+        }
+
+        /**
+         * One fillOrders chunk: read, decide, write
+         */
+        List<FillPlanner.Decision> transact(Execution... chunk) {
+            FillPlanner planner = new FillPlanner(USER, new HashMap<>(wallet));
+            for (StoredOrder order : orders.values()) {
+                Double reserved = reservations.get(order.id);
+                planner.addOrder(new FillPlanner.OrderState(order.id, USER, order.status, order.version,
+                        order.executionId, order.buy, "BTC", order.quantity, order.filledQuantity,
+                        order.averageFillPrice, reserved != null ? reserved : order.legacyReserved, order.linkedOrderId));
+            }
+            List<FillPlanner.Decision> decisions = new ArrayList<>();
+            for (Execution execution : chunk) {
+                StoredOrder order = orders.get(execution.orderId);
+                FillPlanner.Decision decision = planner.decide(execution.executionId, execution.orderId,
+                        execution.expectedVersion, execution.price, execution.quantity,
+                        order.fills.containsKey(execution.executionId));
+                decisions.add(decision);
+                if (!decision.isApplied()) continue;
+                // Only the version the execution was decided on may change
+                assertEquals(execution.orderId, order.version, execution.expectedVersion);
+
+                order.executionId = execution.executionId;
+                order.version++;
+                reservations.remove(order.id);
+                if (decision.outcome == FillPlanner.Outcome.REJECTED) {
+                    order.status = Order.STATUS_CANCELLED;
+                } else {
+                    order.filledQuantity = decision.filledQuantity;
+                    order.averageFillPrice = decision.averageFillPrice;
+                    order.fills.put(execution.executionId, decision.quantity);
+                    if (decision.outcome == FillPlanner.Outcome.FILLED) {
+                        order.status = Order.STATUS_COMPLETED;
+                    } else {
+                        reservations.put(order.id, decision.reservationLeft);
+                    }
+                    double cost = decision.quantity * decision.price;
+                    usdtSpent += order.buy ? cost : -cost;
+                    btcBought += order.buy ? decision.quantity : -decision.quantity;
+                }
+                if (decision.cancelledSiblingId != null) {
+                    StoredOrder sibling = orders.get(decision.cancelledSiblingId);
+                    sibling.status = Order.STATUS_CANCELLED;
+                    sibling.version++;
+                    reservations.remove(sibling.id);
+                }
+            }
+            for (Map.Entry<String, Double> delta : planner.getDeltas().entrySet()) {
+                wallet.merge(delta.getKey(), delta.getValue(), Double::sum);
+            }
+            return decisions;
+        }
+
+        void checkInvariants(String where) {
+            double usdtReserved = 0;
+            double btcReserved = 0;
+            for (StoredOrder order : orders.values()) {
+                assertTrue(where, order.filledQuantity <= order.quantity + 1e-9);
+                // Once one leg of an OCO pair starts filling the other is cancelled
+                if (order.linkedOrderId != null && order.filledQuantity > 0) {
+                    assertEquals(where, 0.0, orders.get(order.linkedOrderId).filledQuantity, 0.0);
+                }
+                Double reserved = reservations.get(order.id);
+                if (!Order.STATUS_PENDING.equals(order.status)) {
+                    assertEquals(where + ": closed order kept funds", null, reserved);
+                }
+                if (reserved != null) {
+                    assertTrue(where, reserved >= -1e-9);
+                    if (order.buy) {
+                        usdtReserved += reserved;
+                    } else {
+                        btcReserved += reserved;
+                    }
+                }
+            }
+            assertTrue(where, wallet.get("usdt") >= -1e-6);
+            assertTrue(where, wallet.get("btc") >= -1e-9);
+            // Nothing is created or lost: free plus reserved moves only by what fills traded
+            assertEquals(where, startUsdt - usdtSpent, wallet.get("usdt") + usdtReserved, 1e-6);
+            assertEquals(where, startBtc + btcBought, wallet.get("btc") + btcReserved, 1e-9);
+        }
+    }
+}
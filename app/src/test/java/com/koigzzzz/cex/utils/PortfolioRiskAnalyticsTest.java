@@ -0,0 +1,226 @@
+package com.koigzzzz.cex.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import com.koigzzzz.cex.models.Holding;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * RiskState's running sums against a brute-force recompute over the same closed bars, for
+ * random windows, sample spacings and asset sets.
+ */
+public class PortfolioRiskAnalyticsTest {
+    private static final double YEAR_MS = 365.0 * 24 * 60 * 60 * 1000;
+    private static final String[] SYMBOLS = {"BTC", "ETH", "SOL", "BNB", "XRP", "ADA", "DOGE", "DOT", "LINK", "AVAX"};
+
+    @Test
+    public void incrementalMetricsMatchBatchRecompute() {
+        Random random = new Random(7);
+        for (int round = 0; round < 40; round++) {
+            int window = 2 + random.nextInt(40);
+            PortfolioRiskAnalytics.RiskState state = new PortfolioRiskAnalytics.RiskState(window);
+            Naive naive = new Naive(window);
+
+            long time = 1_700_000_000_000L + random.nextInt(1_000_000);
+            double value = 1000 + random.nextInt(10_000);
+            Map<String, Double> prices = new HashMap<>();
+            int symbolCount = 1 + random.nextInt(SYMBOLS.length);
+            for (int step = 0; step < 1500; step++) {
+                // Several samples per bar, sometimes skipping bars, occasionally late
+                time += random.nextInt(10) == 0
+                        ? -random.nextInt((int) PortfolioRiskAnalytics.BAR_MS)
+                        : random.nextInt((int) PortfolioRiskAnalytics.BAR_MS);
+                value = Math.max(1.0, value * (1 + (random.nextDouble() - 0.5) * 0.02));
+                List<Holding> holdings = randomHoldings(random, prices, symbolCount, value);
+
+                boolean closed = state.add(time, value, holdings);
+                assertEquals(naive.add(time, value, holdings), closed);
+                if (closed) {
+                    assertMetrics(naive.metrics(), state.metrics());
+                }
+            }
+        }
+    }
+
+    @Test
+    public void totalsOnlySamplesHaveNoContributions() {
+        PortfolioRiskAnalytics.RiskState state = new PortfolioRiskAnalytics.RiskState(10);
+        long time = 0;
+        for (int i = 0; i < 20; i++) {
+            state.add(time, 100 + (i % 3), null);
+            time += PortfolioRiskAnalytics.BAR_MS;
+        }
+        PortfolioRiskAnalytics.RiskMetrics metrics = state.metrics();
+        assertEquals(10, metrics.returnCount);
+        assertFalse(Double.isNaN(metrics.volatility));
+        assertTrue(metrics.varianceContribution.isEmpty());
+    }
+
+    @Test
+    public void ignoresNonPositiveAndLateSamples() {
+        PortfolioRiskAnalytics.RiskState state = new PortfolioRiskAnalytics.RiskState(10);
+        long bar = PortfolioRiskAnalytics.BAR_MS;
+        assertFalse(state.add(bar, 100, null));
+        assertFalse(state.add(2 * bar, 0, null));
+        assertTrue(state.add(2 * bar, 110, null));
+        assertFalse(state.add(bar, 50, null));
+        assertTrue(state.add(3 * bar, 120, null));
+        assertEquals(1, state.metrics().returnCount);
+    }
+
+    private static List<Holding> randomHoldings(Random random, Map<String, Double> prices, int symbolCount,
+                                                double total) {
+        List<Holding> holdings = new ArrayList<>();
+        double remaining = total;
+        for (int s = 0; s < symbolCount; s++) {
+            if (random.nextInt(4) == 0) continue; // not held this sample
+            String symbol = SYMBOLS[s];
+            Double last = prices.get(symbol);
+            double price = last == null ? 1 + random.nextInt(1000)
+                    : last * (1 + (random.nextDouble() - 0.5) * 0.04);
+            prices.put(symbol, price);
+            if (random.nextInt(20) == 0) {
+                holdings.add(new Holding(symbol, 1.0, 0.0)); // price not known yet
+                continue;
+            }
+            double positionValue = remaining * random.nextDouble() * 0.5;
+            remaining -= positionValue;
+            holdings.add(new Holding(symbol, positionValue / price, price));
+        }
+        return holdings;
+    }
+
+    private static void assertMetrics(PortfolioRiskAnalytics.RiskMetrics expected,
+                                      PortfolioRiskAnalytics.RiskMetrics actual) {
+        assertEquals(expected.returnCount, actual.returnCount);
+        assertClose(expected.volatility, actual.volatility);
+        assertClose(expected.sharpe, actual.sharpe);
+        assertClose(expected.maxDrawdown, actual.maxDrawdown);
+        assertClose(expected.currentDrawdown, actual.currentDrawdown);
+        assertEquals(expected.varianceContribution.keySet(), actual.varianceContribution.keySet());
+        for (Map.Entry<String, Double> entry : expected.varianceContribution.entrySet()) {
+            assertClose(entry.getValue(), actual.varianceContribution.get(entry.getKey()));
+        }
+    }
+
+    private static void assertClose(double expected, double actual) {
+        if (Double.isNaN(expected)) {
+            assertTrue("expected NaN but was " + actual, Double.isNaN(actual));
+            return;
+        }
+        assertEquals(expected, actual, 1e-9 * Math.max(1.0, Math.abs(expected)));
+    }
+
+    /**
+     * Keeps every closed bar and recomputes everything from scratch
+     */
+    private static class Naive {
+        private final int window;
+        private long barStart = Long.MIN_VALUE;
+        private double barValue;
+        private final Map<String, Double> barPrices = new HashMap<>();
+        private final Map<String, Double> barWeights = new HashMap<>();
+
+        private final List<Long> barTimes = new ArrayList<>();
+        private final List<Double> barValues = new ArrayList<>();
+        private final List<Map<String, Double>> closedPrices = new ArrayList<>();
+
+        Naive(int window) {
+            this.window = window;
+        }
+
+        boolean add(long timestamp, double value, List<Holding> holdings) {
+            if (value <= 0) return false;
+            long bar = timestamp - Math.floorMod(timestamp, PortfolioRiskAnalytics.BAR_MS);
+            if (barStart != Long.MIN_VALUE && bar < barStart) return false;
+            boolean closed = false;
+            if (barStart != Long.MIN_VALUE && bar > barStart) {
+                barTimes.add(barStart);
+                barValues.add(barValue);
+                closedPrices.add(new HashMap<>(barPrices));
+                closed = true;
+            }
+            barStart = bar;
+            barValue = value;
+            if (holdings != null) {
+                barWeights.clear();
+                for (Holding holding : holdings) {
+                    if (!holding.hasPrice()) continue;
+                    barPrices.put(holding.getSymbol(), holding.getPrice());
+                    barWeights.put(holding.getSymbol(), holding.getValue() / value);
+                }
+            }
+            return closed;
+        }
+
+        PortfolioRiskAnalytics.RiskMetrics metrics() {
+            // Returns between consecutive closed bars; the last `window` of them are in play
+            int first = Math.max(1, barValues.size() - window);
+            int n = barValues.size() - first;
+            double[] returns = new double[n];
+            for (int k = 0; k < n; k++) {
+                returns[k] = barValues.get(first + k) / barValues.get(first + k - 1) - 1.0;
+            }
+
+            double mean = 0;
+            for (double r : returns) mean += r;
+            mean /= Math.max(1, n);
+            double variance = Double.NaN;
+            if (n >= 2) {
+                double squares = 0;
+                for (double r : returns) squares += (r - mean) * (r - mean);
+                variance = squares / (n - 1);
+            }
+            double stdDev = Math.sqrt(variance);
+            double periodsPerYear = Double.NaN;
+            if (n >= 2) {
+                double spacing = (double) (barTimes.get(first + n - 1) - barTimes.get(first)) / (n - 1);
+                if (spacing > 0) periodsPerYear = YEAR_MS / spacing;
+            }
+            double volatility = stdDev * Math.sqrt(periodsPerYear);
+            double sharpe = stdDev > 0 ? mean / stdDev * Math.sqrt(periodsPerYear) : Double.NaN;
+
+            double peak = 0;
+            double maxDrawdown = 0;
+            double currentDrawdown = 0;
+            for (double v : barValues) {
+                peak = Math.max(peak, v);
+                currentDrawdown = (peak - v) / peak;
+                maxDrawdown = Math.max(maxDrawdown, currentDrawdown);
+            }
+
+            Map<String, Double> contribution = new HashMap<>();
+            if (n >= 2 && variance > 0) {
+                for (Map.Entry<String, Double> weight : barWeights.entrySet()) {
+                    if (weight.getValue() == 0) continue;
+                    double[] assetReturns = new double[n];
+                    double assetMean = 0;
+                    for (int k = 0; k < n; k++) {
+                        Double prev = closedPrices.get(first + k - 1).get(weight.getKey());
+                        Double cur = closedPrices.get(first + k).get(weight.getKey());
+                        assetReturns[k] = prev != null && cur != null ? cur / prev - 1.0 : 0.0;
+                        assetMean += assetReturns[k];
+                    }
+                    assetMean /= n;
+                    double cov = 0;
+                    for (int k = 0; k < n; k++) {
+                        cov += (assetReturns[k] - assetMean) * (returns[k] - mean);
+                    }
+                    cov /= n - 1;
+                    contribution.put(weight.getKey(), weight.getValue() * cov / variance);
+                }
+            }
+            return new PortfolioRiskAnalytics.RiskMetrics(n, volatility, sharpe, maxDrawdown, currentDrawdown,
+                    contribution);
+        }
+    }
+}
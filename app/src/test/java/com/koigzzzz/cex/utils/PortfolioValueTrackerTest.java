@@ -0,0 +1,215 @@
+package com.koigzzzz.cex.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * ValueSeries against a naive sorted list, time- and money-weighted returns on known cash-flow
+ * schedules, the IRR solver against a brute-force bisection, and cash flows that leave a
+ * period's return unknown. Insert and lookup timings are in AppBenchmark.
+ */
+public class PortfolioValueTrackerTest {
+
+    @Test
+    public void valueSeriesMatchesNaiveSortedList() {
+        Random random = new Random(42);
+        for (int round = 0; round < 50; round++) {
+            int maxPoints = 1 + random.nextInt(300);
+            PortfolioValueTracker.ValueSeries series = new PortfolioValueTracker.ValueSeries(maxPoints, 0);
+            List<long[]> naive = new ArrayList<>();
+            long now = 1_000_000;
+            for (int i = 0; i < 2000; i++) {
+                now += random.nextInt(1000);
+                // Mostly appends, some late points
+                long time = random.nextInt(10) == 0 ? now - random.nextInt(50_000) : now;
+                long value = random.nextInt(1_000_000);
+                series.insert(time, value);
+                naiveInsert(naive, maxPoints, time, value);
+
+                assertEquals(naive.size(), series.size);
+                long probe = now - random.nextInt(60_000);
+                int expected = -1;
+                for (int k = 0; k < naive.size(); k++) {
+                    if (naive.get(k)[0] <= probe) expected = k;
+                }
+                assertEquals(expected, series.floorIndex(probe));
+            }
+            for (int k = 0; k < naive.size(); k++) {
+                assertEquals(naive.get(k)[0], series.timeAt(k));
+                assertEquals((double) naive.get(k)[1], series.valueAt(k), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void sameBucketReplacesLatestPoint() {
+        PortfolioValueTracker.ValueSeries series = new PortfolioValueTracker.ValueSeries(10, 1000);
+        series.insert(1000, 1);
+        series.insert(1500, 2);
+        series.insert(2100, 3);
+        assertEquals(2, series.size);
+        assertEquals(1500, series.timeAt(0));
+        assertEquals(2.0, series.valueAt(0), 0.0);
+    }
+
+    @Test
+    public void unpricedCashFlowLeavesPeriodUnknown() {
+        PortfolioValueTracker tracker = PortfolioValueTracker.getInstance();
+        String userId = "unpriced-flow-test";
+        long now = System.currentTimeMillis();
+        long day = 24 * 60 * 60 * 1000L;
+        tracker.addPortfolioValue(userId, 1000, now - 2 * day);
+        tracker.addCashFlow(userId, -100, now - day - 1000);
+        assertEquals(-100, tracker.getNetCashFlow(userId, now - 2 * day, now), 0.0);
+        assertFalse(Double.isNaN(tracker.calculateTimeWeightedReturn(userId, 950, 2 * day)));
+
+        tracker.addCashFlow(userId, Double.NaN, now - day / 2);
+        assertTrue(Double.isNaN(tracker.getNetCashFlow(userId, now - 2 * day, now)));
+        assertTrue(Double.isNaN(tracker.calculateRevenue(userId, 950, 2 * day)));
+        assertTrue(Double.isNaN(tracker.calculateTimeWeightedReturn(userId, 950, 2 * day)));
+        assertTrue(Double.isNaN(tracker.calculateMoneyWeightedReturn(userId, 950, 2 * day)));
+        // Periods before the unpriced flow are unaffected
+        assertEquals(-100, tracker.getNetCashFlow(userId, now - 2 * day, now - day), 0.0);
+        tracker.clearHistory(userId);
+    }
+
+    @Test
+    public void timeWeightedReturnChainsSubPeriods() {
+        PortfolioValueTracker tracker = PortfolioValueTracker.getInstance();
+        String userId = "twr-test";
+        long now = System.currentTimeMillis();
+        long day = 24 * 60 * 60 * 1000L;
+        tracker.addPortfolioValue(userId, 1000, now - 7 * day - 60_000);
+        // Up 10% before a 500 deposit, then up 3.125% on the 1600 after it
+        tracker.addPortfolioValue(userId, 1100, now - 3 * day - 60_000);
+        tracker.addCashFlow(userId, 500, now - 3 * day);
+        assertEquals(1.1 * 1.03125 - 1, tracker.calculateTimeWeightedReturn(userId, 1650, 7 * day), 1e-12);
+        // The deposit alone is not performance
+        assertEquals(0.1, tracker.calculateTimeWeightedReturn(userId, 1600, 7 * day), 1e-12);
+        assertEquals(150, tracker.calculateRevenue(userId, 1650, 7 * day), 1e-9);
+
+        // Money-weighted: 1000 * (1+x) + 500 * (1+x)^(3/7) = 1650
+        double mwr = tracker.calculateMoneyWeightedReturn(userId, 1650, 7 * day);
+        assertEquals(0, 1000 * (1 + mwr) + 500 * Math.pow(1 + mwr, 3.0 / 7) - 1650, 1e-4);
+        assertEquals(bisect(new double[]{1000, 500}, new double[]{1, 3.0 / 7}, 1650, -0.5, 1), mwr, 1e-6);
+        tracker.clearHistory(userId);
+    }
+
+    @Test
+    public void irrSolvesKnownSchedules() {
+        // No flows: plain growth
+        assertEquals(0.1, PortfolioValueTracker.solveIrr(new double[]{100}, new double[]{1}, 110), 1e-10);
+        assertEquals(-0.25, PortfolioValueTracker.solveIrr(new double[]{100}, new double[]{1}, 75), 1e-10);
+        // A deposit halfway through, both grown at 10% for the time they were held
+        double end = 100 * 1.1 + 50 * Math.sqrt(1.1);
+        assertEquals(0.1, PortfolioValueTracker.solveIrr(new double[]{100, 50}, new double[]{1, 0.5}, end), 1e-10);
+        // A withdrawal
+        end = 100 * 1.2 - 30 * Math.pow(1.2, 0.25);
+        assertEquals(0.2, PortfolioValueTracker.solveIrr(new double[]{100, -30}, new double[]{1, 0.25}, end), 1e-10);
+    }
+
+    @Test
+    public void irrReportsNoRootAsNaN() {
+        // Nothing can grow a positive balance into a negative one
+        assertTrue(Double.isNaN(PortfolioValueTracker.solveIrr(new double[]{100}, new double[]{1}, -10)));
+        // Two roots (x = 0.21 and 0.44) with no sign change across the search range: the
+        // return is ambiguous, so none is reported
+        assertTrue(Double.isNaN(PortfolioValueTracker.solveIrr(
+                new double[]{100, -230, 132}, new double[]{1, 0.5, 0}, 0)));
+    }
+
+    @Test
+    public void irrPicksARootWhenFlowsChangeSignRepeatedly() {
+        // 100 (y - 1.1)(y - 1.2)(y - 1.3) with y = (1+x)^(1/3): three roots
+        double[] amounts = {100, -360, 431, -171.6};
+        double[] weights = {1, 2.0 / 3, 1.0 / 3, 0};
+        double x = PortfolioValueTracker.solveIrr(amounts, weights, 0);
+        double y = Math.cbrt(1 + x);
+        double nearest = Math.min(Math.abs(y - 1.1), Math.min(Math.abs(y - 1.2), Math.abs(y - 1.3)));
+        assertEquals(0, nearest, 1e-8);
+    }
+
+    @Test
+    public void irrMatchesBruteForceBisection() {
+        Random random = new Random(36);
+        int compared = 0;
+        for (int round = 0; round < 2000; round++) {
+            int flows = random.nextInt(300);
+            double[] amounts = new double[flows + 1];
+            double[] weights = new double[flows + 1];
+            amounts[0] = 100 + random.nextInt(10_000);
+            weights[0] = 1;
+            double end = amounts[0];
+            for (int k = 1; k <= flows; k++) {
+                // Deposits and smaller withdrawals at random points of the period
+                amounts[k] = random.nextInt(3) == 0 ? -random.nextDouble() * amounts[0] / (flows + 1)
+                        : random.nextDouble() * amounts[0] / 10;
+                weights[k] = random.nextDouble();
+                end += amounts[k];
+            }
+            end *= 0.5 + random.nextDouble();
+
+            double x = PortfolioValueTracker.solveIrr(amounts, weights, end);
+            // Withdrawals total less than the starting balance, so there is one root to find
+            double expected = bisect(amounts, weights, end, -0.999999, 1e6);
+            String where = "round " + round;
+            if (Double.isNaN(expected)) {
+                assertTrue(where, Double.isNaN(x));
+                continue;
+            }
+            assertEquals(where, expected, x, 1e-8 * Math.max(1, Math.abs(expected)));
+            compared++;
+        }
+        assertTrue(compared > 1900);
+    }
+
+    /**
+     * Root of sum(amounts[k] * (1+x)^weights[k]) - end in [lo, hi] by plain bisection,
+     * or NaN if the residual has the same sign at both ends
+     */
+    private static double bisect(double[] amounts, double[] weights, double end, double lo, double hi) {
+        double fLo = residual(amounts, weights, end, lo);
+        if (fLo * residual(amounts, weights, end, hi) > 0) {
+            return Double.NaN;
+        }
+        for (int i = 0; i < 200; i++) {
+            double mid = (lo + hi) / 2;
+            double fMid = residual(amounts, weights, end, mid);
+            if ((fMid < 0) == (fLo < 0)) {
+                lo = mid;
+                fLo = fMid;
+            } else {
+                hi = mid;
+            }
+        }
+        return (lo + hi) / 2;
+    }
+
+    private static double residual(double[] amounts, double[] weights, double end, double x) {
+        double f = -end;
+        for (int k = 0; k < amounts.length; k++) {
+            f += amounts[k] * Math.pow(1 + x, weights[k]);
+        }
+        return f;
+    }
+
+    private static void naiveInsert(List<long[]> naive, int maxPoints, long time, long value) {
+        int position = 0;
+        while (position < naive.size() && naive.get(position)[0] <= time) {
+            position++;
+        }
+        if (naive.size() == maxPoints) {
+            if (position == 0) return;
+            naive.remove(0);
+            position--;
+        }
+        naive.add(position, new long[]{time, value});
+    }
+}
@@ -0,0 +1,257 @@
+package com.koigzzzz.cex.utils;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+import com.koigzzzz.cex.engine.PriceSeries;
+
+import org.junit.After;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.List;
+import java.util.Random;
+import java.util.zip.CRC32;
+
+/**
+ * Export/import round trips through a temporary file, merging into existing history, and
+ * files with a bad header or a corrupted byte that must be rejected before the tracker is
+ * touched.
+ */
+public class PriceHistoryCodecTest {
+    private static final long MINUTE = PriceHistoryTracker.MINUTE_MS;
+    private static final long HOUR = PriceHistoryTracker.HOUR_MS;
+    private static final long START = 1_700_000_000_000L;
+    // Ten minutes of raw ticks and three hours of minute candles, so a half-day fills all tiers
+    private static final PriceHistoryTracker.RetentionPolicy SMALL_TIERS =
+            new PriceHistoryTracker.RetentionPolicy(10 * MINUTE, 64, 3 * HOUR, 30 * PriceHistoryTracker.DAY_MS);
+    private static final PriceHistoryTracker.RetentionPolicy RAW_ONLY =
+            new PriceHistoryTracker.RetentionPolicy(PriceHistoryTracker.DAY_MS, 10_000, HOUR, HOUR);
+
+    private final PriceHistoryTracker tracker = PriceHistoryTracker.getInstance();
+
+    @Before
+    public void clearTracker() {
+        tracker.clearAllHistory();
+    }
+
+    @After
+    public void restoreTracker() {
+        tracker.clearAllHistory();
+        tracker.setRetentionPolicy(PriceHistoryTracker.DEFAULT_RETENTION);
+    }
+
+    @Test
+    public void roundTripRestoresEveryTier() throws IOException {
+        tracker.setRetentionPolicy(SMALL_TIERS);
+        fillHalfDay(new Random(29), "BTC", "ETH", "SOL");
+        List<PriceHistoryTracker.PricePoint> ticks = tracker.getPriceHistory("ETH");
+        List<PriceHistoryTracker.Candle> minutes = tracker.getMinuteCandles("ETH");
+        List<PriceHistoryTracker.Candle> hours = tracker.getHourlyCandles("ETH");
+        assertTrue(ticks.size() > 0 && minutes.size() > 0 && hours.size() > 0);
+
+        File file = export();
+        tracker.clearAllHistory();
+        assertEquals(3, PriceHistoryCodec.importFromFile(tracker, file));
+
+        assertEquals(3, tracker.getSymbols().size());
+        assertTicksEqual(ticks, tracker.getPriceHistory("ETH"));
+        assertCandlesEqual(minutes, tracker.getMinuteCandles("ETH"));
+        assertCandlesEqual(hours, tracker.getHourlyCandles("ETH"));
+    }
+
+    @Test
+    public void importMergesByTimestamp() throws IOException {
+        tracker.setRetentionPolicy(RAW_ONLY);
+        for (int i = 0; i < 100; i++) {
+            tracker.addPricePoint("BTC", 100 + i, START + i * 1000L);
+        }
+        File file = export();
+
+        tracker.clearAllHistory();
+        // Overlaps the file at 50 s, then continues after it
+        tracker.addPricePoint("BTC", 999, START + 50_000);
+        for (int i = 100; i < 150; i++) {
+            tracker.addPricePoint("BTC", 100 + i, START + i * 1000L);
+        }
+        tracker.addPricePoint("ETH", 10, START);
+        assertEquals(1, PriceHistoryCodec.importFromFile(tracker, file));
+
+        List<PriceHistoryTracker.PricePoint> merged = tracker.getPriceHistory("BTC");
+        assertEquals(150, merged.size());
+        for (int i = 0; i < 150; i++) {
+            assertEquals(START + i * 1000L, merged.get(i).timestamp);
+            // The existing tick wins over an imported one at the same time
+            assertEquals(i == 50 ? 999 : 100 + i, merged.get(i).price, 0.0);
+        }
+        assertEquals(1, tracker.getPriceHistory("ETH").size());
+    }
+
+    @Test
+    public void rejectsBadMagicAndVersion() throws IOException {
+        tracker.setRetentionPolicy(RAW_ONLY);
+        tracker.addPricePoint("BTC", 100, START);
+        File file = export();
+        byte[] bytes = Files.readAllBytes(file.toPath());
+
+        byte[] badMagic = bytes.clone();
+        badMagic[0] = 'X';
+        expectRejected(withChecksum(badMagic), "Not a price history file");
+
+        byte[] badVersion = bytes.clone();
+        badVersion[5] = 2;
+        expectRejected(withChecksum(badVersion), "Unsupported price history version: 2");
+
+        expectRejected(write(new byte[]{1, 2, 3}), "Not a price history file");
+    }
+
+    @Test
+    public void rejectsFlippedByte() throws IOException {
+        tracker.setRetentionPolicy(SMALL_TIERS);
+        fillHalfDay(new Random(30), "BTC");
+        byte[] bytes = Files.readAllBytes(export().toPath());
+        for (int position : new int[]{6, bytes.length / 2, bytes.length - 5}) {
+            byte[] flipped = bytes.clone();
+            flipped[position] ^= 0x10;
+            expectRejected(write(flipped), "Checksum mismatch");
+        }
+    }
+
+    @Test
+    public void readSeriesOrdersTiersOldestFirst() throws IOException {
+        tracker.setRetentionPolicy(SMALL_TIERS);
+        fillHalfDay(new Random(31), "BTC", "ETH");
+        List<PriceHistoryTracker.PricePoint> ticks = tracker.getPriceHistory("BTC");
+        List<PriceHistoryTracker.Candle> minutes = tracker.getMinuteCandles("BTC");
+        List<PriceHistoryTracker.Candle> hours = tracker.getHourlyCandles("BTC");
+        File file = export();
+
+        PriceSeries series = PriceHistoryCodec.readSeries(file, "btc");
+        assertEquals("BTC", series.getSymbol());
+
+        // Hour candles that end before the minute tier starts, then minute candles that end
+        // before the raw ticks start, then the raw ticks unchanged
+        PriceSeries expected = new PriceSeries("BTC");
+        long rawStart = ticks.get(0).timestamp;
+        long minuteStart = Math.min(minutes.get(0).timestamp, rawStart);
+        int hourCandles = addCandles(expected, hours, HOUR, minuteStart);
+        int minuteCandles = addCandles(expected, minutes, MINUTE, rawStart);
+        for (PriceHistoryTracker.PricePoint tick : ticks) {
+            expected.add(tick.timestamp, tick.price);
+        }
+        assertTrue(hourCandles > 0 && minuteCandles > 0);
+        assertEquals(expected.size(), series.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.getTime(i), series.getTime(i));
+            assertEquals(expected.getPrice(i), series.getPrice(i), 0.0);
+        }
+        assertEquals(hours.get(0).open, series.getPrice(0), 0.0);
+        assertTicksEqual(ticks, series, series.size() - ticks.size());
+
+        assertNull(PriceHistoryCodec.readSeries(file, "DOGE"));
+    }
+
+    private static int addCandles(PriceSeries series, List<PriceHistoryTracker.Candle> candles, long bucketMs,
+                                  long before) {
+        int added = 0;
+        for (PriceHistoryTracker.Candle candle : candles) {
+            if (candle.timestamp + bucketMs > before) break;
+            series.addCandle(candle.timestamp, bucketMs, candle.open, candle.high, candle.low, candle.close);
+            added++;
+        }
+        return added;
+    }
+
+    /**
+     * A tick every 20 s per symbol for 12 hours
+     */
+    private void fillHalfDay(Random random, String... symbols) {
+        double[] prices = new double[symbols.length];
+        for (int s = 0; s < symbols.length; s++) {
+            prices[s] = 100 + random.nextInt(1000);
+        }
+        for (long time = START; time < START + 12 * HOUR; time += 20_000) {
+            for (int s = 0; s < symbols.length; s++) {
+                prices[s] *= Math.exp((random.nextDouble() - 0.5) * 0.01);
+                tracker.addPricePoint(symbols[s], prices[s], time + s);
+            }
+        }
+    }
+
+    private File export() throws IOException {
+        File file = File.createTempFile("history", ".cxph");
+        file.deleteOnExit();
+        PriceHistoryCodec.exportToFile(tracker, file);
+        return file;
+    }
+
+    private static File write(byte[] bytes) throws IOException {
+        File file = File.createTempFile("history", ".cxph");
+        file.deleteOnExit();
+        Files.write(file.toPath(), bytes);
+        return file;
+    }
+
+    /**
+     * Rewrite the CRC32 trailer so the header check is what rejects the file
+     */
+    private static File withChecksum(byte[] bytes) throws IOException {
+        CRC32 crc = new CRC32();
+        crc.update(bytes, 0, bytes.length - 4);
+        ByteBuffer.wrap(bytes).putInt(bytes.length - 4, (int) crc.getValue());
+        return write(bytes);
+    }
+
+    private void expectRejected(File file, String message) throws IOException {
+        List<String> before = tracker.getSymbols();
+        try {
+            PriceHistoryCodec.importFromFile(tracker, file);
+            fail("Expected " + message);
+        } catch (IOException e) {
+            assertEquals(message, e.getMessage());
+        }
+        try {
+            PriceHistoryCodec.readSeries(file, "BTC");
+            fail("Expected " + message);
+        } catch (IOException e) {
+            assertEquals(message, e.getMessage());
+        }
+        assertEquals(before, tracker.getSymbols());
+    }
+
+    private static void assertTicksEqual(List<PriceHistoryTracker.PricePoint> expected,
+                                         List<PriceHistoryTracker.PricePoint> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).timestamp, actual.get(i).timestamp);
+            assertEquals(expected.get(i).price, actual.get(i).price, 0.0);
+        }
+    }
+
+    private static void assertTicksEqual(List<PriceHistoryTracker.PricePoint> expected, PriceSeries series, int from) {
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(expected.get(i).timestamp, series.getTime(from + i));
+            assertEquals(expected.get(i).price, series.getPrice(from + i), 0.0);
+        }
+    }
+
+    private static void assertCandlesEqual(List<PriceHistoryTracker.Candle> expected,
+                                           List<PriceHistoryTracker.Candle> actual) {
+        assertEquals(expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            PriceHistoryTracker.Candle e = expected.get(i);
+            PriceHistoryTracker.Candle a = actual.get(i);
+            assertEquals(e.timestamp, a.timestamp);
+            assertEquals(e.open, a.open, 0.0);
+            assertEquals(e.high, a.high, 0.0);
+            assertEquals(e.low, a.low, 0.0);
+            assertEquals(e.close, a.close, 0.0);
+        }
+    }
+}
@@ -0,0 +1,21 @@
+// Trading engine: plain Java, no Android, so it is built and tested on the JVM.
+// The app depends on it; run the throughput benchmark with ./gradlew :engine:benchmark
+plugins {
+    `java-library`
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+dependencies {
+    testImplementation(libs.junit)
+}
+
+tasks.register<JavaExec>("benchmark") {
+    description = "Measures engine throughput on this machine"
+    group = "verification"
+    classpath = sourceSets["test"].runtimeClasspath
+    mainClass.set("com.koigzzzz.cex.engine.EngineBenchmark")
+}
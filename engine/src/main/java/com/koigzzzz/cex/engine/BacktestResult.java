@@ -0,0 +1,75 @@
+package com.koigzzzz.cex.engine;
+
+import java.util.Collections;
+import java.util.List;
+import java.util.Locale;
+
+/**
+ * Outcome of one Backtester run. Amounts are in the quote asset (USDT); equity is the quote
+ * balance plus the base balance valued at the last price, locked amounts included.
+ */
+public final class BacktestResult {
+    public final String symbol;
+    public final long ticks;
+    public final double startEquity;
+    public final double finalEquity;
+    // Average-cost P&L of base sold so far
+    public final double realizedPnl;
+    // Mark-to-market P&L of the base still held
+    public final double unrealizedPnl;
+    // Largest fall from a previous equity peak, as a fraction of that peak (0.25 = 25%)
+    public final double maxDrawdown;
+    public final double maxDrawdownAmount;
+    public final int buyCount;
+    public final int sellCount;
+    // Orders refused for lack of balance, or cancelled because a gap made them unaffordable
+    public final int rejectedCount;
+    public final double finalQuote;
+    public final double finalBase;
+    // Empty unless the backtester was asked to record fills
+    public final List<Fill> fills;
+
+    BacktestResult(String symbol, long ticks, double startEquity, double finalEquity,
+                   double realizedPnl, double unrealizedPnl, double maxDrawdown, double maxDrawdownAmount,
+                   int buyCount, int sellCount, int rejectedCount, double finalQuote, double finalBase,
+                   List<Fill> fills) {
+        this.symbol = symbol;
+        this.ticks = ticks;
+        this.startEquity = startEquity;
+        this.finalEquity = finalEquity;
+        this.realizedPnl = realizedPnl;
+        this.unrealizedPnl = unrealizedPnl;
+        this.maxDrawdown = maxDrawdown;
+        this.maxDrawdownAmount = maxDrawdownAmount;
+        this.buyCount = buyCount;
+        this.sellCount = sellCount;
+        this.rejectedCount = rejectedCount;
+        this.finalQuote = finalQuote;
+        this.finalBase = finalBase;
+        this.fills = Collections.unmodifiableList(fills);
+    }
+
+    public double getPnl() {
+        return finalEquity - startEquity;
+    }
+
+    /**
+     * Total return as a fraction of the starting equity, 0 if it started empty
+     */
+    public double getReturn() {
+        return startEquity > 0 ? finalEquity / startEquity - 1 : 0;
+    }
+
+    public int getFillCount() {
+        return buyCount + sellCount;
+    }
+
+    @Override
+    public String toString() {
+        return String.format(Locale.US,
+                "%s %d ticks: equity %.2f -> %.2f (%+.2f%%), realized %.2f, unrealized %.2f, "
+                        + "max drawdown %.2f%% (%.2f), %d buys, %d sells, %d rejected",
+                symbol, ticks, startEquity, finalEquity, getReturn() * 100, realizedPnl, unrealizedPnl,
+                maxDrawdown * 100, maxDrawdownAmount, buyCount, sellCount, rejectedCount);
+    }
+}
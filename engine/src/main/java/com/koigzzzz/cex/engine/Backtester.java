@@ -0,0 +1,470 @@
+package com.koigzzzz.cex.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Replays a PriceSeries through OrderTriggerEngine with a simulated wallet, so a strategy's
+ * limit, stop, stop-limit, trailing-stop and OCO orders execute exactly as the app's
+ * PendingOrderWatcher would execute them on the same prices.
+ *
+ * The wallet follows the app's rules: placing an order locks what it could cost (quote for
+ * buys, base for sells) and refuses it if the available balance is short; a fill releases
+ * the lock and pays the execution price, and an order that gapped past what it locked and
+ * cannot be covered by the rest of the balance is cancelled and refunded. OCO partners share
+ * one lock. Orders placed on a tick are checked from the next tick on, like in the app.
+ *
+ * A tick with no open orders costs a few arithmetic operations plus the strategy's own work;
+ * with orders it costs O(log n + fired). Equity peak and drawdown are updated every tick.
+ *
+ * Plain Java with no Android dependencies. Not thread-safe; use one instance per thread
+ * (ParameterSweep does).
+ */
+public class Backtester {
+    // Balances this close to zero after a fill are rounding, not an overdraft
+    private static final double BALANCE_TOLERANCE = 1e-9;
+
+    /**
+     * Trading logic under test. Callbacks run on the replaying thread and may place and cancel
+     * orders through the backtester.
+     */
+    public interface Strategy {
+        /**
+         * Before the first tick; getPrice() and getTime() hold the first tick's values
+         */
+        void onStart(Backtester backtester);
+
+        /**
+         * After the tick's price was applied to open orders and their fills were reported
+         */
+        void onTick(Backtester backtester, long time, double price);
+
+        void onFill(Backtester backtester, Fill fill);
+    }
+
+    private static final class Order {
+        final String id;
+        final boolean buy;
+        final double quantity;
+        // What the order needs locked on its own: quote for buys, base for sells
+        final double lockAmount;
+        // What it holds locked now; an OCO pair keeps the shared lock on one side
+        double reserved;
+        Order ocoPartner;
+
+        Order(String id, boolean buy, double quantity, double lockAmount) {
+            this.id = id;
+            this.buy = buy;
+            this.quantity = quantity;
+            this.lockAmount = lockAmount;
+            this.reserved = lockAmount;
+        }
+    }
+
+    private final PriceSeries series;
+    private final double initialQuote;
+    private final double initialBase;
+    private final boolean recordFills;
+    private final OrderTriggerEngine<Order> engine = new OrderTriggerEngine<>();
+    private final List<Fill> fills = new ArrayList<>();
+    // Fills of the current tick, reported once the trigger engine is done with the tick
+    private final List<Fill> tickFills = new ArrayList<>();
+    private final OrderTriggerEngine.Listener<Order> triggerListener = new OrderTriggerEngine.Listener<Order>() {
+        @Override
+        public void onTriggered(Order order, double executionPrice) {
+            execute(order, executionPrice, order.reserved);
+        }
+
+        @Override
+        public void onArmed(Order order) {
+        }
+
+        @Override
+        public void onCancelled(Order order) {
+            unlock(order.buy, order.reserved);
+        }
+    };
+
+    private Strategy strategy;
+    private long time;
+    private double price;
+    private long nextOrderId;
+    private long fillSequence;
+    private double quoteAvailable;
+    private double quoteLocked;
+    private double baseAvailable;
+    private double baseLocked;
+    // Cost of the base held, for average-cost realized P&L
+    private double positionCost;
+    private double realizedPnl;
+    private int buyCount;
+    private int sellCount;
+    private int rejectedCount;
+
+    /**
+     * @param initialQuote Starting quote (USDT) balance
+     * @param initialBase Starting base balance, valued at the first price
+     * @param recordFills Keep every fill in the result; sweeps usually only need the totals
+     */
+    public Backtester(PriceSeries series, double initialQuote, double initialBase, boolean recordFills) {
+        if (initialQuote < 0 || initialBase < 0) {
+            throw new IllegalArgumentException("Initial balances must not be negative");
+        }
+        this.series = series;
+        this.initialQuote = initialQuote;
+        this.initialBase = initialBase;
+        this.recordFills = recordFills;
+    }
+
+    /**
+     * Replay the whole series through a strategy, starting from the initial balances.
+     * Orders still open at the end are left open and their locked amounts count as equity.
+     */
+    public BacktestResult run(Strategy strategy) {
+        reset(strategy);
+        int size = series.size();
+        if (size == 0) {
+            return result(0, 0, 0, 0);
+        }
+        time = series.getTime(0);
+        price = series.getPrice(0);
+        positionCost = initialBase * price;
+        double startEquity = getEquity();
+        double peak = startEquity;
+        double maxDrawdown = 0;
+        double maxDrawdownAmount = 0;
+        strategy.onStart(this);
+
+        for (int i = 0; i < size; i++) {
+            time = series.getTime(i);
+            price = series.getPrice(i);
+            if (engine.size() > 0) {
+                engine.onPrice(price, triggerListener);
+                if (!tickFills.isEmpty()) {
+                    reportTickFills();
+                }
+            }
+            strategy.onTick(this, time, price);
+
+            double equity = quoteAvailable + quoteLocked + (baseAvailable + baseLocked) * price;
+            if (equity > peak) {
+                peak = equity;
+            } else {
+                double drawdown = peak - equity;
+                if (drawdown > maxDrawdownAmount) {
+                    maxDrawdownAmount = drawdown;
+                }
+                if (peak > 0 && drawdown / peak > maxDrawdown) {
+                    maxDrawdown = drawdown / peak;
+                }
+            }
+        }
+        return result(size, startEquity, maxDrawdown, maxDrawdownAmount);
+    }
+
+    public String getSymbol() {
+        return series.getSymbol();
+    }
+
+    public long getTime() {
+        return time;
+    }
+
+    public double getPrice() {
+        return price;
+    }
+
+    public double getQuoteAvailable() {
+        return quoteAvailable;
+    }
+
+    public double getBaseAvailable() {
+        return baseAvailable;
+    }
+
+    /**
+     * Available plus locked quote
+     */
+    public double getQuoteBalance() {
+        return quoteAvailable + quoteLocked;
+    }
+
+    /**
+     * Available plus locked base
+     */
+    public double getBaseBalance() {
+        return baseAvailable + baseLocked;
+    }
+
+    public double getEquity() {
+        return getQuoteBalance() + getBaseBalance() * price;
+    }
+
+    public int getOpenOrderCount() {
+        return engine.size();
+    }
+
+    public boolean isOpen(String orderId) {
+        return engine.contains(orderId);
+    }
+
+    /**
+     * Buy at the current price
+     * @return false if the available quote does not cover it
+     */
+    public boolean buy(double quantity) {
+        return executeMarket(true, quantity);
+    }
+
+    /**
+     * Sell at the current price
+     * @return false if the available base does not cover it
+     */
+    public boolean sell(double quantity) {
+        return executeMarket(false, quantity);
+    }
+
+    /**
+     * @return The order id, or null if the available balance does not cover it
+     */
+    public String placeLimit(boolean buy, double limitPrice, double quantity) {
+        checkPrice(limitPrice);
+        Order order = open(buy, quantity, limitPrice);
+        if (order != null) {
+            engine.addLimit(order.id, buy, limitPrice, order);
+        }
+        return order != null ? order.id : null;
+    }
+
+    /**
+     * A buy locks quote at the stop price; if it gaps higher the rest of the balance pays
+     * @return The order id, or null if the available balance does not cover it
+     */
+    public String placeStop(boolean buy, double stopPrice, double quantity) {
+        checkPrice(stopPrice);
+        Order order = open(buy, quantity, stopPrice);
+        if (order != null) {
+            engine.addStop(order.id, buy, stopPrice, order);
+        }
+        return order != null ? order.id : null;
+    }
+
+    /**
+     * @return The order id, or null if the available balance does not cover it
+     */
+    public String placeStopLimit(boolean buy, double stopPrice, double limitPrice, double quantity) {
+        checkPrice(stopPrice);
+        checkPrice(limitPrice);
+        Order order = open(buy, quantity, limitPrice);
+        if (order != null) {
+            engine.addStopLimit(order.id, buy, stopPrice, limitPrice, false, order);
+        }
+        return order != null ? order.id : null;
+    }
+
+    /**
+     * Trailing stop starting from the current price. A buy locks quote at its first stop price.
+     * @param offset Distance the stop trails by, in price units
+     * @return The order id, or null if the available balance does not cover it
+     */
+    public String placeTrailingStop(boolean buy, double offset, double quantity) {
+        if (!(offset > 0)) {
+            throw new IllegalArgumentException("Offset must be positive: " + offset);
+        }
+        Order order = open(buy, quantity, price + offset);
+        if (order != null) {
+            engine.addTrailingStop(order.id, buy, price, offset, order);
+        }
+        return order != null ? order.id : null;
+    }
+
+    /**
+     * OCO pair as in the app: a limit on the profitable side of the price and a stop on the
+     * other, same side and quantity. When one fills the other is cancelled. The pair locks
+     * only the larger of the two amounts.
+     * @return The limit and stop order ids, or null if the available balance does not cover it
+     */
+    public String[] placeOco(boolean buy, double limitPrice, double stopPrice, double quantity) {
+        checkPrice(limitPrice);
+        checkPrice(stopPrice);
+        checkQuantity(quantity);
+        Order limit = new Order(nextOrderId(), buy, quantity, buy ? quantity * limitPrice : quantity);
+        Order stop = new Order(nextOrderId(), buy, quantity, buy ? quantity * stopPrice : quantity);
+        double shared = Math.max(limit.lockAmount, stop.lockAmount);
+        if (!lock(buy, shared)) {
+            return null;
+        }
+        limit.reserved = shared;
+        stop.reserved = 0;
+        limit.ocoPartner = stop;
+        stop.ocoPartner = limit;
+        engine.addLimit(limit.id, buy, limitPrice, limit);
+        engine.addStop(stop.id, buy, stopPrice, stop);
+        engine.linkOco(limit.id, stop.id);
+        return new String[]{limit.id, stop.id};
+    }
+
+    /**
+     * Cancel an open order and release what it locked
+     * @return false if it was not open
+     */
+    public boolean cancel(String orderId) {
+        Order order = engine.remove(orderId);
+        if (order == null) {
+            return false;
+        }
+        Order partner = order.ocoPartner;
+        if (partner != null) {
+            // The partner stays open on its own and takes back the lock it needs
+            double total = order.reserved + partner.reserved;
+            partner.reserved = partner.lockAmount;
+            partner.ocoPartner = null;
+            unlock(order.buy, total - partner.lockAmount);
+        } else {
+            unlock(order.buy, order.reserved);
+        }
+        return true;
+    }
+
+    private boolean executeMarket(boolean buy, double quantity) {
+        checkQuantity(quantity);
+        if (buy ? quoteAvailable < quantity * price - BALANCE_TOLERANCE : baseAvailable < quantity - BALANCE_TOLERANCE) {
+            rejectedCount++;
+            return false;
+        }
+        Order order = new Order(nextOrderId(), buy, quantity, 0);
+        execute(order, price, 0);
+        if (!tickFills.isEmpty()) {
+            reportTickFills();
+        }
+        return true;
+    }
+
+    /**
+     * Lock what a new order could cost at the given price
+     * @return null if the available balance is short
+     */
+    private Order open(boolean buy, double quantity, double atPrice) {
+        checkQuantity(quantity);
+        double amount = buy ? quantity * atPrice : quantity;
+        return lock(buy, amount) ? new Order(nextOrderId(), buy, quantity, amount) : null;
+    }
+
+    /**
+     * @return false, counting a rejection, if the available balance is short
+     */
+    private boolean lock(boolean buy, double amount) {
+        if (amount > (buy ? quoteAvailable : baseAvailable) + BALANCE_TOLERANCE) {
+            rejectedCount++;
+            return false;
+        }
+        if (buy) {
+            quoteAvailable -= amount;
+            quoteLocked += amount;
+        } else {
+            baseAvailable -= amount;
+            baseLocked += amount;
+        }
+        return true;
+    }
+
+    private void unlock(boolean buy, double amount) {
+        if (buy) {
+            quoteLocked -= amount;
+            quoteAvailable += amount;
+        } else {
+            baseLocked -= amount;
+            baseAvailable += amount;
+        }
+    }
+
+    /**
+     * Fill an order in full at executionPrice, releasing what it locked first
+     */
+    private void execute(Order order, double executionPrice, double released) {
+        unlock(order.buy, released);
+        double quantity = order.quantity;
+        if (order.buy) {
+            double cost = quantity * executionPrice;
+            if (quoteAvailable - cost < -BALANCE_TOLERANCE) {
+                // Gapped past what was locked and the rest of the balance cannot cover it
+                rejectedCount++;
+                return;
+            }
+            quoteAvailable -= cost;
+            baseAvailable += quantity;
+            positionCost += cost;
+            buyCount++;
+        } else {
+            double held = getBaseBalance();
+            if (baseAvailable - quantity < -BALANCE_TOLERANCE) {
+                rejectedCount++;
+                return;
+            }
+            double averageCost = held > 0 ? positionCost / held : 0;
+            baseAvailable -= quantity;
+            quoteAvailable += quantity * executionPrice;
+            realizedPnl += quantity * (executionPrice - averageCost);
+            positionCost -= quantity * averageCost;
+            sellCount++;
+        }
+        tickFills.add(new Fill(series.getSymbol(), ++fillSequence, order.id, null, null, null,
+                order.buy, executionPrice, quantity, time));
+    }
+
+    private void reportTickFills() {
+        if (recordFills) {
+            fills.addAll(tickFills);
+        }
+        // Copy so fills from orders the strategy places or trades in onFill are reported too
+        List<Fill> report = new ArrayList<>(tickFills);
+        tickFills.clear();
+        for (Fill fill : report) {
+            strategy.onFill(this, fill);
+        }
+    }
+
+    private void reset(Strategy strategy) {
+        this.strategy = strategy;
+        engine.clear();
+        fills.clear();
+        tickFills.clear();
+        time = 0;
+        price = 0;
+        nextOrderId = 0;
+        fillSequence = 0;
+        quoteAvailable = initialQuote;
+        quoteLocked = 0;
+        baseAvailable = initialBase;
+        baseLocked = 0;
+        positionCost = 0;
+        realizedPnl = 0;
+        buyCount = 0;
+        sellCount = 0;
+        rejectedCount = 0;
+    }
+
+    private BacktestResult result(long ticks, double startEquity, double maxDrawdown, double maxDrawdownAmount) {
+        double base = getBaseBalance();
+        return new BacktestResult(series.getSymbol(), ticks, startEquity, getEquity(),
+                realizedPnl, base * price - positionCost, maxDrawdown, maxDrawdownAmount,
+                buyCount, sellCount, rejectedCount, getQuoteBalance(), base,
+                recordFills ? new ArrayList<>(fills) : new ArrayList<>());
+    }
+
+    private String nextOrderId() {
+        return "bt-" + (++nextOrderId);
+    }
+
+    private static void checkPrice(double price) {
+        if (!(price > 0)) {
+            throw new IllegalArgumentException("Price must be positive: " + price);
+        }
+    }
+
+    private static void checkQuantity(double quantity) {
+        if (!(quantity > 0)) {
+            throw new IllegalArgumentException("Quantity must be positive: " + quantity);
+        }
+    }
+}
@@ -0,0 +1,187 @@
+package com.koigzzzz.cex.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Aggregated (L2) depth for one symbol: total quantity and order count per price bucket on
+ * each side, kept up to date order by order, or level by level when fed exact price levels
+ * (see DepthDelta) that it groups into coarser buckets.
+ *
+ * Each entry is remembered with the bucket it was counted in, so placing, changing, filling
+ * or cancelling one order adjusts a single level in O(log levels) without rescanning
+ * the book. Bids are bucketed down and asks up to a multiple of the bucket size, so a level
+ * never shows a better price than any order in it. Changing the bucket size re-aggregates
+ * from the per-order records.
+ *
+ * Plain Java with no Android dependencies. Not thread-safe.
+ */
+public class DepthBook {
+    // Keeps prices that sit exactly on a bucket edge from slipping into the next one
+    private static final double EDGE_TOLERANCE = 1e-9;
+
+    /**
+     * One aggregated price level
+     */
+    public static final class Level {
+        public final double price;
+        public final double quantity;
+        public final int orderCount;
+
+        Level(double price, double quantity, int orderCount) {
+            this.price = price;
+            this.quantity = quantity;
+            this.orderCount = orderCount;
+        }
+    }
+
+    private static final class Bucket {
+        double quantity;
+        int orderCount;
+    }
+
+    private static final class Resting {
+        final boolean buy;
+        final double price;
+        final double quantity;
+        final int orderCount;
+        long bucket;
+
+        Resting(boolean buy, double price, double quantity, int orderCount) {
+            this.buy = buy;
+            this.price = price;
+            this.quantity = quantity;
+            this.orderCount = orderCount;
+        }
+    }
+
+    // Keyed so the best level comes first: asks by bucket, bids by negated bucket
+    private final TreeMap<Long, Bucket> bids = new TreeMap<>();
+    private final TreeMap<Long, Bucket> asks = new TreeMap<>();
+    private final Map<String, Resting> orders = new HashMap<>();
+    private double bucketSize;
+
+    public DepthBook(double bucketSize) {
+        checkBucketSize(bucketSize);
+        this.bucketSize = bucketSize;
+    }
+
+    public double getBucketSize() {
+        return bucketSize;
+    }
+
+    /**
+     * Change the bucket size and re-aggregate every resting order
+     */
+    public void setBucketSize(double bucketSize) {
+        checkBucketSize(bucketSize);
+        if (bucketSize == this.bucketSize) return;
+        this.bucketSize = bucketSize;
+        bids.clear();
+        asks.clear();
+        for (Resting order : orders.values()) {
+            count(order);
+        }
+    }
+
+    /**
+     * Add a resting order, or replace it if it changed (e.g. partially filled)
+     */
+    public void put(String orderId, boolean buy, double price, double quantity) {
+        putLevel(orderId, buy, price, quantity, 1);
+    }
+
+    /**
+     * Add or replace an entry standing for several orders at one price, e.g. a level of the
+     * shared depth record
+     */
+    public void putLevel(String levelId, boolean buy, double price, double quantity, int orderCount) {
+        if (!(price > 0) || !(quantity > 0) || orderCount <= 0) {
+            throw new IllegalArgumentException("Price, quantity and order count must be positive");
+        }
+        remove(levelId);
+        Resting order = new Resting(buy, price, quantity, orderCount);
+        orders.put(levelId, order);
+        count(order);
+    }
+
+    /**
+     * Take an order out of the depth, e.g. once it is filled or cancelled.
+     * @return false if it was not in the depth
+     */
+    public boolean remove(String orderId) {
+        Resting order = orders.remove(orderId);
+        if (order == null) {
+            return false;
+        }
+        TreeMap<Long, Bucket> side = order.buy ? bids : asks;
+        long key = order.buy ? -order.bucket : order.bucket;
+        Bucket bucket = side.get(key);
+        bucket.orderCount -= order.orderCount;
+        bucket.quantity -= order.quantity;
+        if (bucket.orderCount == 0) {
+            side.remove(key);
+        }
+        return true;
+    }
+
+    public boolean contains(String orderId) {
+        return orders.containsKey(orderId);
+    }
+
+    /**
+     * Entries in the depth: orders, or levels if it was fed with putLevel
+     */
+    public int getOrderCount() {
+        return orders.size();
+    }
+
+    public int getLevelCount(boolean bidSide) {
+        return (bidSide ? bids : asks).size();
+    }
+
+    public void clear() {
+        bids.clear();
+        asks.clear();
+        orders.clear();
+    }
+
+    /**
+     * Up to maxLevels levels of one side, best price first
+     */
+    public List<Level> getLevels(boolean bidSide, int maxLevels) {
+        List<Level> levels = new ArrayList<>(Math.min(maxLevels, getLevelCount(bidSide)));
+        for (Map.Entry<Long, Bucket> entry : (bidSide ? bids : asks).entrySet()) {
+            if (levels.size() >= maxLevels) break;
+            long bucket = bidSide ? -entry.getKey() : entry.getKey();
+            Bucket level = entry.getValue();
+            levels.add(new Level(bucket * bucketSize, level.quantity, level.orderCount));
+        }
+        return levels;
+    }
+
+    private void count(Resting order) {
+        double scaled = order.price / bucketSize;
+        order.bucket = order.buy
+                ? (long) Math.floor(scaled + EDGE_TOLERANCE)
+                : (long) Math.ceil(scaled - EDGE_TOLERANCE);
+        TreeMap<Long, Bucket> side = order.buy ? bids : asks;
+        long key = order.buy ? -order.bucket : order.bucket;
+        Bucket bucket = side.get(key);
+        if (bucket == null) {
+            bucket = new Bucket();
+            side.put(key, bucket);
+        }
+        bucket.orderCount += order.orderCount;
+        bucket.quantity += order.quantity;
+    }
+
+    private static void checkBucketSize(double bucketSize) {
+        if (!(bucketSize > 0)) {
+            throw new IllegalArgumentException("Bucket size must be positive");
+        }
+    }
+}
@@ -0,0 +1,99 @@
+package com.koigzzzz.cex.engine;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Net change to one symbol's aggregated depth from a batch of order changes, e.g. everything
+ * one transaction places, fills or cancels. Levels are exact prices, kept to PRICE_DECIMALS
+ * decimals and keyed by levelKey, so a change computed anywhere lands on the same level.
+ *
+ * The changes are deltas (quantity and order count to add, negative to take away), so they
+ * can be applied as increments to a shared depth record without reading it first. A level
+ * whose order count comes back to zero is empty; readers skip it.
+ *
+ * Plain Java with no Android dependencies. Not thread-safe.
+ */
+public class DepthDelta {
+    public static final int PRICE_DECIMALS = 8;
+    private static final double PRICE_SCALE = 1e8;
+
+    /**
+     * Net change to one level
+     */
+    public static final class Change {
+        public final boolean buy;
+        public final String key;
+        public final double price;
+        double quantity;
+        int orderCount;
+
+        Change(boolean buy, String key, double price) {
+            this.buy = buy;
+            this.key = key;
+            this.price = price;
+        }
+
+        public double getQuantity() {
+            return quantity;
+        }
+
+        public int getOrderCount() {
+            return orderCount;
+        }
+    }
+
+    // Side and level key to change, in the order levels were first touched
+    private final Map<String, Change> changes = new LinkedHashMap<>();
+
+    /**
+     * Key of the level a price belongs to: the price in units of 10^-PRICE_DECIMALS
+     */
+    public static String levelKey(double price) {
+        return Long.toString(Math.round(price * PRICE_SCALE));
+    }
+
+    /**
+     * Record that a resting order's remaining quantity went from before to after, 0 meaning
+     * it does not rest (not yet placed, or filled, cancelled or not a limit order).
+     */
+    public void update(boolean buy, double price, double before, double after) {
+        if (before > 0) {
+            add(buy, price, -before, -1);
+        }
+        if (after > 0) {
+            add(buy, price, after, 1);
+        }
+    }
+
+    /**
+     * Levels whose quantity or order count changed
+     */
+    public List<Change> getChanges() {
+        List<Change> nonZero = new ArrayList<>();
+        for (Change change : changes.values()) {
+            if (change.orderCount != 0 || change.quantity != 0) {
+                nonZero.add(change);
+            }
+        }
+        return nonZero;
+    }
+
+    public boolean isEmpty() {
+        return getChanges().isEmpty();
+    }
+
+    private void add(boolean buy, double price, double quantity, int orderCount) {
+        String key = levelKey(price);
+        String id = (buy ? "b" : "a") + key;
+        Change change = changes.get(id);
+        if (change == null) {
+            change = new Change(buy, key, Math.round(price * PRICE_SCALE) / PRICE_SCALE);
+            changes.put(id, change);
+        }
+        change.quantity += quantity;
+        change.orderCount += orderCount;
+    }
+}
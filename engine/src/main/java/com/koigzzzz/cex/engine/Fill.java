@@ -0,0 +1,44 @@
+package com.koigzzzz.cex.engine;
+
+/**
+ * One execution between an incoming (taker) order and a resting (maker) order, or against
+ * the reference market price when makerOrderId is null.
+ */
+public final class Fill {
+    public final String symbol;
+    public final long sequence;
+    public final String takerOrderId;
+    public final String takerUserId;
+    public final String makerOrderId;
+    public final String makerUserId;
+    // Side of the taker; the maker is on the other side
+    public final boolean takerBuy;
+    public final double price;
+    public final double quantity;
+    public final long timestamp;
+
+    public Fill(String symbol, long sequence, String takerOrderId, String takerUserId,
+                String makerOrderId, String makerUserId, boolean takerBuy,
+                double price, double quantity, long timestamp) {
+        this.symbol = symbol;
+        this.sequence = sequence;
+        this.takerOrderId = takerOrderId;
+        this.takerUserId = takerUserId;
+        this.makerOrderId = makerOrderId;
+        this.makerUserId = makerUserId;
+        this.takerBuy = takerBuy;
+        this.price = price;
+        this.quantity = quantity;
+        this.timestamp = timestamp;
+    }
+
+    public boolean isAgainstReference() {
+        return makerOrderId == null;
+    }
+
+    @Override
+    public String toString() {
+        return symbol + " #" + sequence + " " + (takerBuy ? "BUY " : "SELL ") + quantity + " @ " + price
+                + " taker=" + takerOrderId + " maker=" + (makerOrderId != null ? makerOrderId : "reference");
+    }
+}
@@ -0,0 +1,58 @@
+package com.koigzzzz.cex.engine;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * One OrderBook per symbol, created on first use, with a shared fill listener.
+ * Not thread-safe, like the books it holds.
+ */
+public class MatchingEngine {
+    // Fine enough for low-priced tokens; prices up to ~9e10 still fit in a long
+    public static final double DEFAULT_TICK_SIZE = 0.00000001;
+
+    private final double tickSize;
+    private final Map<String, OrderBook> books = new HashMap<>();
+    private OrderBook.Listener listener;
+
+    public MatchingEngine() {
+        this(DEFAULT_TICK_SIZE);
+    }
+
+    public MatchingEngine(double tickSize) {
+        this.tickSize = tickSize;
+    }
+
+    public void setListener(OrderBook.Listener listener) {
+        this.listener = listener;
+        for (OrderBook book : books.values()) {
+            book.setListener(listener);
+        }
+    }
+
+    public OrderBook getBook(String symbol) {
+        String key = symbol.toUpperCase();
+        OrderBook book = books.get(key);
+        if (book == null) {
+            book = new OrderBook(key, tickSize);
+            book.setListener(listener);
+            books.put(key, book);
+        }
+        return book;
+    }
+
+    public double submitLimit(String symbol, String orderId, String userId, boolean buy,
+                              double price, double quantity, long timestamp) {
+        return getBook(symbol).submitLimit(orderId, userId, buy, price, quantity, timestamp);
+    }
+
+    public double submitMarket(String symbol, String orderId, String userId, boolean buy,
+                               double quantity, double referencePrice, long timestamp) {
+        return getBook(symbol).submitMarket(orderId, userId, buy, quantity, referencePrice, timestamp);
+    }
+
+    public boolean cancel(String symbol, String orderId) {
+        OrderBook book = books.get(symbol.toUpperCase());
+        return book != null && book.cancel(orderId);
+    }
+}
@@ -0,0 +1,297 @@
+package com.koigzzzz.cex.engine;
+
+import java.util.HashMap;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Limit order book for one symbol with price-time priority.
+ *
+ * Prices are snapped to whole ticks and each side is a sorted map of price levels, keyed so
+ * the best level comes first (asks by tick, bids by negated tick). A level is a FIFO linked
+ * list of resting orders, so time priority is arrival order within the level. Matching walks
+ * from the best level inward; adding or removing a level is O(log levels), filling or
+ * cancelling an order inside a level is O(1).
+ *
+ * Plain Java with no Android dependencies. Not thread-safe: drive each book from one thread.
+ */
+public class OrderBook {
+    // Quantities at or below this count as fully filled
+    static final double EPSILON = 1e-12;
+
+    public interface Listener {
+        void onFill(Fill fill);
+    }
+
+    private final String symbol;
+    private final double tickSize;
+    private final double ticksPerUnit;
+
+    private final TreeMap<Long, PriceLevel> bids = new TreeMap<>();
+    private final TreeMap<Long, PriceLevel> asks = new TreeMap<>();
+    private final Map<String, RestingOrder> orders = new HashMap<>();
+
+    private Listener listener;
+    private long nextSequence;
+
+    public OrderBook(String symbol, double tickSize) {
+        if (tickSize <= 0) {
+            throw new IllegalArgumentException("Tick size must be positive");
+        }
+        this.symbol = symbol;
+        this.tickSize = tickSize;
+        // Use an exact integer when the tick is 1/10^n so tick -> price divides cleanly
+        double inverse = 1.0 / tickSize;
+        this.ticksPerUnit = Math.abs(inverse - Math.rint(inverse)) < 1e-9 * inverse ? Math.rint(inverse) : inverse;
+    }
+
+    public void setListener(Listener listener) {
+        this.listener = listener;
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public double getTickSize() {
+        return tickSize;
+    }
+
+    /**
+     * Match a limit order against the opposite side and rest whatever is left.
+     * @return Quantity left resting on the book (0 if fully filled)
+     */
+    public double submitLimit(String orderId, String userId, boolean buy, double price,
+                              double quantity, long timestamp) {
+        if (price <= 0 || quantity <= 0) {
+            throw new IllegalArgumentException("Price and quantity must be positive");
+        }
+        if (orders.containsKey(orderId)) {
+            throw new IllegalArgumentException("Duplicate order id: " + orderId);
+        }
+        long ticks = toTicks(price);
+        double remaining = match(orderId, userId, buy, ticks, quantity, timestamp);
+        if (remaining > EPSILON) {
+            rest(orderId, userId, buy, ticks, remaining);
+            return remaining;
+        }
+        return 0.0;
+    }
+
+    /**
+     * Match a market order against resting orders priced at least as well as the reference
+     * price, then fill the rest at the reference price. Market orders never rest.
+     * @param referencePrice External market price, or 0 to match the book only
+     * @return Quantity that could not be filled (only non-zero without a reference price)
+     */
+    public double submitMarket(String orderId, String userId, boolean buy, double quantity,
+                               double referencePrice, long timestamp) {
+        if (quantity <= 0) {
+            throw new IllegalArgumentException("Quantity must be positive");
+        }
+        long limitTicks = referencePrice > 0 ? toTicks(referencePrice) : (buy ? Long.MAX_VALUE : Long.MIN_VALUE);
+        double remaining = match(orderId, userId, buy, limitTicks, quantity, timestamp);
+        if (remaining > EPSILON && referencePrice > 0) {
+            emit(orderId, userId, null, null, buy, referencePrice, remaining, timestamp);
+            remaining = 0.0;
+        }
+        return remaining > EPSILON ? remaining : 0.0;
+    }
+
+    /**
+     * Remove a resting order.
+     * @return false if the order is not on the book (already filled, cancelled or unknown)
+     */
+    public boolean cancel(String orderId) {
+        RestingOrder order = orders.remove(orderId);
+        if (order == null) {
+            return false;
+        }
+        PriceLevel level = order.level;
+        level.remove(order);
+        if (level.isEmpty()) {
+            (order.buy ? bids : asks).remove(order.buy ? -level.ticks : level.ticks);
+        }
+        return true;
+    }
+
+    public boolean contains(String orderId) {
+        return orders.containsKey(orderId);
+    }
+
+    /**
+     * Quantity of an order still resting, or 0 if it is not on the book
+     */
+    public double getRemaining(String orderId) {
+        RestingOrder order = orders.get(orderId);
+        return order != null ? order.remaining : 0.0;
+    }
+
+    public int getOrderCount() {
+        return orders.size();
+    }
+
+    public int getLevelCount(boolean bidSide) {
+        return (bidSide ? bids : asks).size();
+    }
+
+    /**
+     * Best bid price, or NaN if there are no bids
+     */
+    public double getBestBid() {
+        Map.Entry<Long, PriceLevel> best = bids.firstEntry();
+        return best != null ? best.getValue().price : Double.NaN;
+    }
+
+    /**
+     * Best ask price, or NaN if there are no asks
+     */
+    public double getBestAsk() {
+        Map.Entry<Long, PriceLevel> best = asks.firstEntry();
+        return best != null ? best.getValue().price : Double.NaN;
+    }
+
+    /**
+     * Total resting quantity at a price, or 0 if there is no such level
+     */
+    public double getQuantityAt(boolean bidSide, double price) {
+        long ticks = toTicks(price);
+        PriceLevel level = (bidSide ? bids : asks).get(bidSide ? -ticks : ticks);
+        return level != null ? level.totalQuantity : 0.0;
+    }
+
+    long toTicks(double price) {
+        return Math.round(price * ticksPerUnit);
+    }
+
+    double fromTicks(long ticks) {
+        return ticks / ticksPerUnit;
+    }
+
+    private double match(String orderId, String userId, boolean buy, long limitTicks,
+                         double quantity, long timestamp) {
+        TreeMap<Long, PriceLevel> opposite = buy ? asks : bids;
+        double remaining = quantity;
+        while (remaining > EPSILON) {
+            Map.Entry<Long, PriceLevel> best = opposite.firstEntry();
+            if (best == null) break;
+            PriceLevel level = best.getValue();
+            if (buy ? level.ticks > limitTicks : level.ticks < limitTicks) break;
+
+            while (remaining > EPSILON && level.head != null) {
+                RestingOrder maker = level.head;
+                double quantityFilled = Math.min(remaining, maker.remaining);
+                remaining -= quantityFilled;
+                level.reduce(maker, quantityFilled);
+                emit(orderId, userId, maker.orderId, maker.userId, buy, level.price, quantityFilled, timestamp);
+                if (maker.remaining <= EPSILON) {
+                    level.remove(maker);
+                    orders.remove(maker.orderId);
+                }
+            }
+            if (level.isEmpty()) {
+                opposite.pollFirstEntry();
+            }
+        }
+        return remaining;
+    }
+
+    private void rest(String orderId, String userId, boolean buy, long ticks, double quantity) {
+        TreeMap<Long, PriceLevel> side = buy ? bids : asks;
+        long key = buy ? -ticks : ticks;
+        PriceLevel level = side.get(key);
+        if (level == null) {
+            level = new PriceLevel(ticks, fromTicks(ticks));
+            side.put(key, level);
+        }
+        RestingOrder order = new RestingOrder(orderId, userId, buy, quantity);
+        level.append(order);
+        orders.put(orderId, order);
+    }
+
+    private void emit(String takerOrderId, String takerUserId, String makerOrderId, String makerUserId,
+                      boolean takerBuy, double price, double quantity, long timestamp) {
+        long sequence = nextSequence++;
+        if (listener != null) {
+            listener.onFill(new Fill(symbol, sequence, takerOrderId, takerUserId, makerOrderId, makerUserId,
+                    takerBuy, price, quantity, timestamp));
+        }
+    }
+
+    private static final class RestingOrder {
+        final String orderId;
+        final String userId;
+        final boolean buy;
+        double remaining;
+        PriceLevel level;
+        RestingOrder prev;
+        RestingOrder next;
+
+        RestingOrder(String orderId, String userId, boolean buy, double remaining) {
+            this.orderId = orderId;
+            this.userId = userId;
+            this.buy = buy;
+            this.remaining = remaining;
+        }
+    }
+
+    /**
+     * Orders at one price in arrival order, with their running total
+     */
+    private static final class PriceLevel {
+        final long ticks;
+        final double price;
+        RestingOrder head;
+        RestingOrder tail;
+        double totalQuantity;
+        int orderCount;
+
+        PriceLevel(long ticks, double price) {
+            this.ticks = ticks;
+            this.price = price;
+        }
+
+        void append(RestingOrder order) {
+            order.level = this;
+            order.prev = tail;
+            if (tail != null) {
+                tail.next = order;
+            } else {
+                head = order;
+            }
+            tail = order;
+            totalQuantity += order.remaining;
+            orderCount++;
+        }
+
+        void reduce(RestingOrder order, double quantity) {
+            order.remaining -= quantity;
+            totalQuantity -= quantity;
+        }
+
+        void remove(RestingOrder order) {
+            if (order.prev != null) {
+                order.prev.next = order.next;
+            } else {
+                head = order.next;
+            }
+            if (order.next != null) {
+                order.next.prev = order.prev;
+            } else {
+                tail = order.prev;
+            }
+            order.prev = null;
+            order.next = null;
+            totalQuantity -= order.remaining;
+            orderCount--;
+            if (orderCount == 0) {
+                // Drop accumulated rounding so an empty level reads exactly 0
+                totalQuantity = 0.0;
+            }
+        }
+
+        boolean isEmpty() {
+            return head == null;
+        }
+    }
+}
@@ -0,0 +1,212 @@
+package com.koigzzzz.cex.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Decides when one symbol's conditional orders execute as the price moves.
+ *
+ * - Limit: a buy executes once the price falls to its limit, a sell once it rises to it,
+ *   at the limit price.
+ * - Stop: a buy fires once the price rises to its stop, a sell once it falls to it, at the
+ *   price that crossed it.
+ * - Stop-limit: reaching the stop arms the order, which then behaves as a limit order.
+ * - Trailing stop: a sell's stop trails the highest price since it was added by a fixed
+ *   offset, a buy's trails the lowest price; fires like a stop.
+ * - OCO: two linked orders; when one fires the other is cancelled.
+ *
+ * Limits, stops and armed stop-limits share one TriggerBook; trailing stops live in two
+ * TrailingStopBooks (buys on negated prices). A tick costs O(log n + fired). Results are
+ * reported in a fixed order for a given sequence of adds and prices, so tick replays are
+ * deterministic.
+ *
+ * Plain Java with no Android dependencies. Not thread-safe.
+ */
+public class OrderTriggerEngine<T> {
+    public interface Listener<T> {
+        void onTriggered(T payload, double executionPrice);
+
+        /**
+         * A stop-limit reached its stop and now waits for its limit
+         */
+        void onArmed(T payload);
+
+        /**
+         * The OCO partner of a triggered order was cancelled
+         */
+        void onCancelled(T payload);
+    }
+
+    private static final int LIMIT = 0;
+    private static final int STOP = 1;
+    private static final int STOP_LIMIT = 2;
+    private static final int TRAILING_STOP = 3;
+
+    private static final class Entry<T> {
+        final String id;
+        final T payload;
+        final int kind;
+        final boolean buy;
+        final double limitPrice;
+        boolean armed;
+        String ocoPartner;
+
+        Entry(String id, T payload, int kind, boolean buy, double limitPrice) {
+            this.id = id;
+            this.payload = payload;
+            this.kind = kind;
+            this.buy = buy;
+            this.limitPrice = limitPrice;
+        }
+    }
+
+    private final TriggerBook<Entry<T>> triggers = new TriggerBook<>();
+    private final TrailingStopBook<Entry<T>> trailingSells = new TrailingStopBook<>();
+    private final TrailingStopBook<Entry<T>> trailingBuys = new TrailingStopBook<>();
+    private final Map<String, Entry<T>> entries = new HashMap<>();
+    private final List<Entry<T>> fired = new ArrayList<>();
+
+    public void addLimit(String id, boolean buy, double limitPrice, T payload) {
+        Entry<T> entry = put(new Entry<>(id, payload, LIMIT, buy, limitPrice));
+        triggers.add(id, limitPrice, !buy, entry);
+    }
+
+    public void addStop(String id, boolean buy, double stopPrice, T payload) {
+        Entry<T> entry = put(new Entry<>(id, payload, STOP, buy, Double.NaN));
+        triggers.add(id, stopPrice, buy, entry);
+    }
+
+    /**
+     * @param armed true if the stop was already reached (e.g. restored from storage)
+     */
+    public void addStopLimit(String id, boolean buy, double stopPrice, double limitPrice, boolean armed, T payload) {
+        Entry<T> entry = put(new Entry<>(id, payload, STOP_LIMIT, buy, limitPrice));
+        entry.armed = armed;
+        if (armed) {
+            triggers.add(id, limitPrice, !buy, entry);
+        } else {
+            triggers.add(id, stopPrice, buy, entry);
+        }
+    }
+
+    /**
+     * @param referencePrice Starting high (sells) or low (buys), normally the current price
+     * @param offset Distance the stop trails by, in price units
+     */
+    public void addTrailingStop(String id, boolean buy, double referencePrice, double offset, T payload) {
+        Entry<T> entry = put(new Entry<>(id, payload, TRAILING_STOP, buy, Double.NaN));
+        if (buy) {
+            trailingBuys.add(id, -referencePrice, offset, entry);
+        } else {
+            trailingSells.add(id, referencePrice, offset, entry);
+        }
+    }
+
+    /**
+     * Link two orders already added so that when one fires the other is cancelled
+     */
+    public void linkOco(String idA, String idB) {
+        Entry<T> a = entries.get(idA);
+        Entry<T> b = entries.get(idB);
+        if (a == null || b == null || a == b) {
+            throw new IllegalArgumentException("Both OCO orders must be added first");
+        }
+        a.ocoPartner = idB;
+        b.ocoPartner = idA;
+    }
+
+    /**
+     * @return The removed order's payload, or null if there was none
+     */
+    public T remove(String id) {
+        Entry<T> entry = entries.remove(id);
+        if (entry == null) {
+            return null;
+        }
+        triggers.remove(id);
+        trailingSells.remove(id);
+        trailingBuys.remove(id);
+        if (entry.ocoPartner != null) {
+            Entry<T> partner = entries.get(entry.ocoPartner);
+            if (partner != null) {
+                partner.ocoPartner = null;
+            }
+        }
+        return entry.payload;
+    }
+
+    public boolean contains(String id) {
+        return entries.containsKey(id);
+    }
+
+    public int size() {
+        return entries.size();
+    }
+
+    public void clear() {
+        triggers.clear();
+        trailingSells.clear();
+        trailingBuys.clear();
+        entries.clear();
+    }
+
+    /**
+     * Price at which an order currently fires (its limit, stop or trailing stop), or NaN
+     */
+    public double getTriggerPrice(String id) {
+        Entry<T> entry = entries.get(id);
+        if (entry == null) return Double.NaN;
+        if (entry.kind == TRAILING_STOP) {
+            return entry.buy ? -trailingBuys.getStopPrice(id) : trailingSells.getStopPrice(id);
+        }
+        if (entry.kind == LIMIT || entry.armed) {
+            return entry.limitPrice;
+        }
+        return Double.NaN;
+    }
+
+    /**
+     * Apply a price and report everything it triggers, arms or cancels
+     */
+    public void onPrice(double price, Listener<T> listener) {
+        if (!(price > 0)) return;
+        fired.clear();
+        triggers.pollTriggered(price, fired);
+        trailingSells.onPrice(price, fired);
+        trailingBuys.onPrice(-price, fired);
+
+        for (Entry<T> entry : fired) {
+            // Cancelled earlier in this tick as the partner of another fired order
+            if (entries.get(entry.id) != entry) continue;
+
+            if (entry.kind == STOP_LIMIT && !entry.armed) {
+                entry.armed = true;
+                listener.onArmed(entry.payload);
+                boolean limitReached = entry.buy ? price <= entry.limitPrice : price >= entry.limitPrice;
+                if (!limitReached) {
+                    triggers.add(entry.id, entry.limitPrice, !entry.buy, entry);
+                    continue;
+                }
+            }
+
+            entries.remove(entry.id);
+            if (entry.ocoPartner != null) {
+                T partner = remove(entry.ocoPartner);
+                if (partner != null) {
+                    listener.onCancelled(partner);
+                }
+            }
+            boolean atLimit = entry.kind == LIMIT || entry.kind == STOP_LIMIT;
+            listener.onTriggered(entry.payload, atLimit ? entry.limitPrice : price);
+        }
+        fired.clear();
+    }
+
+    private Entry<T> put(Entry<T> entry) {
+        remove(entry.id);
+        entries.put(entry.id, entry);
+        return entry;
+    }
+}
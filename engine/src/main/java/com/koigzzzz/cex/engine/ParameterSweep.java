@@ -0,0 +1,115 @@
+package com.koigzzzz.cex.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Runs one backtest per parameter set over the same PriceSeries, in parallel on a
+ * ForkJoinPool. The grid is split in halves down to single runs so idle workers steal the
+ * remaining halves; each run gets its own Backtester and strategy and only reads the shared
+ * series, so results are identical to running the grid one by one, and come back in grid
+ * order.
+ *
+ * Plain Java with no Android dependencies.
+ */
+public class ParameterSweep<P> {
+    /**
+     * Builds a fresh strategy for one parameter set; called on a pool thread
+     */
+    public interface StrategyFactory<P> {
+        Backtester.Strategy create(P parameters);
+    }
+
+    /**
+     * One parameter set and its result
+     */
+    public static final class Run<P> {
+        public final P parameters;
+        public final BacktestResult result;
+
+        Run(P parameters, BacktestResult result) {
+            this.parameters = parameters;
+            this.result = result;
+        }
+    }
+
+    private final PriceSeries series;
+    private final double initialQuote;
+    private final double initialBase;
+    private final StrategyFactory<P> factory;
+
+    public ParameterSweep(PriceSeries series, double initialQuote, double initialBase, StrategyFactory<P> factory) {
+        this.series = series;
+        this.initialQuote = initialQuote;
+        this.initialBase = initialBase;
+        this.factory = factory;
+    }
+
+    /**
+     * Sweep on the common pool
+     */
+    public List<Run<P>> run(List<P> grid) {
+        return run(grid, ForkJoinPool.commonPool());
+    }
+
+    public List<Run<P>> run(List<P> grid, ForkJoinPool pool) {
+        List<P> parameters = new ArrayList<>(grid);
+        BacktestResult[] results = new BacktestResult[parameters.size()];
+        if (!parameters.isEmpty()) {
+            pool.invoke(new SweepTask(parameters, results, 0, parameters.size()));
+        }
+        List<Run<P>> runs = new ArrayList<>(results.length);
+        for (int i = 0; i < results.length; i++) {
+            runs.add(new Run<>(parameters.get(i), results[i]));
+        }
+        return runs;
+    }
+
+    /**
+     * The run with the highest final equity, or null for an empty sweep. Ties go to the
+     * earlier parameter set.
+     */
+    public static <P> Run<P> best(List<Run<P>> runs) {
+        Run<P> best = null;
+        for (Run<P> run : runs) {
+            if (best == null || run.result.finalEquity > best.result.finalEquity) {
+                best = run;
+            }
+        }
+        return best;
+    }
+
+    private BacktestResult runOne(P parameters) {
+        return new Backtester(series, initialQuote, initialBase, false).run(factory.create(parameters));
+    }
+
+    private class SweepTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final List<P> parameters;
+        private final BacktestResult[] results;
+        private final int from;
+        private final int to;
+
+        SweepTask(List<P> parameters, BacktestResult[] results, int from, int to) {
+            this.parameters = parameters;
+            this.results = results;
+            this.from = from;
+            this.to = to;
+        }
+
+        @Override
+        protected void compute() {
+            if (to - from == 1) {
+                // Each slot is written by exactly one task; invoke's join publishes it
+                results[from] = runOne(parameters.get(from));
+                return;
+            }
+            int middle = (from + to) >>> 1;
+            invokeAll(new SweepTask(parameters, results, from, middle),
+                    new SweepTask(parameters, results, middle, to));
+        }
+    }
+}
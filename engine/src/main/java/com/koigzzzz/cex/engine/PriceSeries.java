@@ -0,0 +1,130 @@
+package com.koigzzzz.cex.engine;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.Reader;
+import java.util.Arrays;
+
+/**
+ * One symbol's prices in time order, held in two primitive arrays so a replay walks memory
+ * sequentially without boxing.
+ *
+ * Candles are expanded into four ticks spread over their interval: open, then low and high
+ * (low first on an up candle, high first on a down one), then close. That is the usual
+ * assumption when only OHLC is known; fills inside one candle are approximate.
+ *
+ * Plain Java with no Android dependencies. Not thread-safe while being built; safe to
+ * replay from several threads once complete.
+ */
+public class PriceSeries {
+    // Timestamps below this are taken as seconds: 1e11 ms is 1973 but 1e11 s is year 5138
+    private static final long SECONDS_CUTOFF = 100_000_000_000L;
+
+    private final String symbol;
+    private long[] times;
+    private double[] prices;
+    private int size;
+
+    public PriceSeries(String symbol) {
+        this(symbol, 1024);
+    }
+
+    public PriceSeries(String symbol, int capacity) {
+        this.symbol = symbol;
+        this.times = new long[Math.max(1, capacity)];
+        this.prices = new double[Math.max(1, capacity)];
+    }
+
+    public String getSymbol() {
+        return symbol;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    public long getTime(int index) {
+        return times[index];
+    }
+
+    public double getPrice(int index) {
+        return prices[index];
+    }
+
+    public long getLastTime() {
+        return size == 0 ? Long.MIN_VALUE : times[size - 1];
+    }
+
+    /**
+     * Append a tick; timestamps must not go backwards
+     */
+    public void add(long time, double price) {
+        if (!(price > 0)) {
+            throw new IllegalArgumentException("Price must be positive: " + price);
+        }
+        if (size > 0 && time < times[size - 1]) {
+            throw new IllegalArgumentException("Ticks must be in time order");
+        }
+        if (size == times.length) {
+            times = Arrays.copyOf(times, size * 2);
+            prices = Arrays.copyOf(prices, size * 2);
+        }
+        times[size] = time;
+        prices[size] = price;
+        size++;
+    }
+
+    /**
+     * Append a candle starting at time as four ticks within its interval
+     */
+    public void addCandle(long time, long intervalMs, double open, double high, double low, double close) {
+        long step = Math.max(1, intervalMs / 4);
+        boolean up = close >= open;
+        add(time, open);
+        add(time + step, up ? low : high);
+        add(time + 2 * step, up ? high : low);
+        add(time + 3 * step, close);
+    }
+
+    /**
+     * Read candles from CSV lines of "timestamp,open,high,low,close", any further columns
+     * (e.g. volume) ignored. A header line, blank lines and lines starting with # are
+     * skipped. Timestamps may be in seconds or milliseconds.
+     */
+    public static PriceSeries readCandleCsv(String symbol, Reader reader, long intervalMs) throws IOException {
+        PriceSeries series = new PriceSeries(symbol);
+        BufferedReader in = reader instanceof BufferedReader ? (BufferedReader) reader : new BufferedReader(reader);
+        String line;
+        int lineNumber = 0;
+        boolean firstRow = true;
+        while ((line = in.readLine()) != null) {
+            lineNumber++;
+            line = line.trim();
+            if (line.isEmpty() || line.startsWith("#")) continue;
+            boolean header = firstRow;
+            firstRow = false;
+            String[] columns = line.split("[,;\t]");
+            if (columns.length < 5) {
+                if (header) continue;
+                throw new IOException("Expected timestamp,open,high,low,close on line " + lineNumber);
+            }
+            try {
+                long time = (long) Double.parseDouble(columns[0].trim());
+                if (time < SECONDS_CUTOFF) {
+                    time *= 1000;
+                }
+                series.addCandle(time, intervalMs,
+                        Double.parseDouble(columns[1].trim()),
+                        Double.parseDouble(columns[2].trim()),
+                        Double.parseDouble(columns[3].trim()),
+                        Double.parseDouble(columns[4].trim()));
+            } catch (NumberFormatException e) {
+                if (header) continue;
+                throw new IOException("Malformed number on line " + lineNumber, e);
+            } catch (IllegalArgumentException e) {
+                throw new IOException(e.getMessage() + " on line " + lineNumber, e);
+            }
+        }
+        return series;
+    }
+}
@@ -0,0 +1,189 @@
+package com.koigzzzz.cex.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Trailing stops that follow the price up: each stop's peak is the highest price seen since
+ * it was added, and it fires once the price falls to peak - offset. Trailing stops that
+ * follow the price down are the same thing on negated prices.
+ *
+ * Updating every stop's peak on every tick would cost O(stops) per tick. Instead stops that
+ * share a peak are grouped: once the price rises past a group's peak, that group's stops
+ * all have the same peak from then on, so groups below the new price are merged (smaller
+ * into larger) into one group at the new price. Each group's highest stop price
+ * (peak - smallest offset) sits in a TriggerBook, so a tick only touches the groups it
+ * merges or fires. Per-order state is just its offset and a group pointer.
+ *
+ * Plain Java with no Android dependencies. Not thread-safe.
+ */
+public class TrailingStopBook<T> {
+    private static final class Group<T> {
+        final String id;
+        double peak;
+        // Stops by offset, smallest (first to fire) first
+        final TreeMap<Double, LinkedHashMap<String, T>> byOffset = new TreeMap<>();
+        int size;
+
+        Group(String id, double peak) {
+            this.id = id;
+            this.peak = peak;
+        }
+    }
+
+    private final TreeMap<Double, Group<T>> groupsByPeak = new TreeMap<>();
+    private final TriggerBook<Group<T>> groupStops = new TriggerBook<>();
+    private final Map<String, Group<T>> groupOf = new HashMap<>();
+    private final Map<String, Double> offsetOf = new HashMap<>();
+    private final List<Group<T>> crossed = new ArrayList<>();
+    private long nextGroupId;
+
+    /**
+     * Add a stop, replacing any existing one with the same id.
+     * @param peak Starting peak, normally the current price
+     * @param offset Distance below the peak at which the stop fires; must be positive
+     */
+    public void add(String id, double peak, double offset, T payload) {
+        if (!(offset > 0) || Double.isNaN(peak)) {
+            throw new IllegalArgumentException("Offset must be positive and peak a number");
+        }
+        remove(id);
+        Group<T> group = groupsByPeak.get(peak);
+        if (group == null) {
+            group = new Group<>("g" + nextGroupId++, peak);
+            groupsByPeak.put(peak, group);
+        }
+        insert(group, id, offset, payload);
+        refreshStop(group);
+    }
+
+    /**
+     * @return The removed stop's payload, or null if there was none
+     */
+    public T remove(String id) {
+        Group<T> group = groupOf.remove(id);
+        if (group == null) {
+            return null;
+        }
+        double offset = offsetOf.remove(id);
+        LinkedHashMap<String, T> level = group.byOffset.get(offset);
+        T payload = level.remove(id);
+        if (level.isEmpty()) {
+            group.byOffset.remove(offset);
+        }
+        group.size--;
+        if (group.size == 0) {
+            groupsByPeak.remove(group.peak);
+            groupStops.remove(group.id);
+        } else {
+            refreshStop(group);
+        }
+        return payload;
+    }
+
+    public boolean contains(String id) {
+        return groupOf.containsKey(id);
+    }
+
+    public int size() {
+        return groupOf.size();
+    }
+
+    /**
+     * Current stop price (peak - offset), or NaN if there is no such stop
+     */
+    public double getStopPrice(String id) {
+        Group<T> group = groupOf.get(id);
+        return group != null ? group.peak - offsetOf.get(id) : Double.NaN;
+    }
+
+    public void clear() {
+        groupsByPeak.clear();
+        groupStops.clear();
+        groupOf.clear();
+        offsetOf.clear();
+    }
+
+    /**
+     * Raise peaks to price, then remove every stop the price fell to and append its payload
+     * to out, highest stop price first.
+     * @return Number of stops fired
+     */
+    public int onPrice(double price, List<T> out) {
+        raisePeaks(price);
+
+        int fired = 0;
+        crossed.clear();
+        groupStops.pollTriggered(price, crossed);
+        for (Group<T> group : crossed) {
+            // Fire every offset <= peak - price, smallest offset (highest stop) first
+            Iterator<LinkedHashMap<String, T>> levels = group.byOffset.headMap(group.peak - price, true).values().iterator();
+            while (levels.hasNext()) {
+                for (Map.Entry<String, T> entry : levels.next().entrySet()) {
+                    groupOf.remove(entry.getKey());
+                    offsetOf.remove(entry.getKey());
+                    out.add(entry.getValue());
+                    group.size--;
+                    fired++;
+                }
+                levels.remove();
+            }
+            if (group.size == 0) {
+                groupsByPeak.remove(group.peak);
+            } else {
+                refreshStop(group);
+            }
+        }
+        crossed.clear();
+        return fired;
+    }
+
+    private void raisePeaks(double price) {
+        if (groupsByPeak.isEmpty() || groupsByPeak.firstKey() >= price) return;
+        NavigableMap<Double, Group<T>> below = groupsByPeak.headMap(price, false);
+        if (below.isEmpty()) return;
+
+        List<Group<T>> merging = new ArrayList<>(below.values());
+        below.clear();
+        Group<T> existing = groupsByPeak.remove(price);
+        if (existing != null) {
+            merging.add(existing);
+        }
+        // Merge smaller groups into the largest so each stop moves O(log n) times overall
+        Group<T> target = merging.get(0);
+        for (Group<T> group : merging) {
+            if (group.size > target.size) {
+                target = group;
+            }
+        }
+        for (Group<T> group : merging) {
+            if (group == target) continue;
+            groupStops.remove(group.id);
+            for (LinkedHashMap<String, T> level : group.byOffset.values()) {
+                for (Map.Entry<String, T> entry : level.entrySet()) {
+                    insert(target, entry.getKey(), offsetOf.get(entry.getKey()), entry.getValue());
+                }
+            }
+        }
+        target.peak = price;
+        groupsByPeak.put(price, target);
+        refreshStop(target);
+    }
+
+    private void insert(Group<T> group, String id, double offset, T payload) {
+        group.byOffset.computeIfAbsent(offset, o -> new LinkedHashMap<>()).put(id, payload);
+        group.size++;
+        groupOf.put(id, group);
+        offsetOf.put(id, offset);
+    }
+
+    private void refreshStop(Group<T> group) {
+        groupStops.add(group.id, group.peak - group.byOffset.firstKey(), false, group);
+    }
+}
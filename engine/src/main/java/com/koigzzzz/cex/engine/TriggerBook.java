@@ -0,0 +1,126 @@
+package com.koigzzzz.cex.engine;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.NavigableMap;
+import java.util.TreeMap;
+
+/**
+ * Price-indexed set of pending triggers. Each trigger fires once the price rises to or above
+ * its level, or falls to or below it, and is then removed.
+ *
+ * Triggers are grouped by level in one sorted map per direction, so a tick only visits the
+ * levels it crossed: O(log levels + fired). Within a level triggers fire in the order they
+ * were added. Add and remove by id are O(log levels).
+ *
+ * Plain Java with no Android dependencies. Not thread-safe.
+ */
+public class TriggerBook<T> {
+    private final TreeMap<Double, LinkedHashMap<String, T>> rising = new TreeMap<>();
+    private final TreeMap<Double, LinkedHashMap<String, T>> falling = new TreeMap<>();
+    private final Map<String, Key> keys = new HashMap<>();
+
+    private static final class Key {
+        final double price;
+        final boolean onRise;
+
+        Key(double price, boolean onRise) {
+            this.price = price;
+            this.onRise = onRise;
+        }
+    }
+
+    /**
+     * Add a trigger, replacing any existing one with the same id.
+     * @param onRise true to fire when price >= triggerPrice, false for price <= triggerPrice
+     */
+    public void add(String id, double triggerPrice, boolean onRise, T payload) {
+        if (Double.isNaN(triggerPrice)) {
+            throw new IllegalArgumentException("Trigger price is NaN");
+        }
+        remove(id);
+        (onRise ? rising : falling).computeIfAbsent(triggerPrice, p -> new LinkedHashMap<>()).put(id, payload);
+        keys.put(id, new Key(triggerPrice, onRise));
+    }
+
+    /**
+     * Remove a trigger.
+     * @return Its payload, or null if there was none
+     */
+    public T remove(String id) {
+        Key key = keys.remove(id);
+        if (key == null) {
+            return null;
+        }
+        TreeMap<Double, LinkedHashMap<String, T>> side = key.onRise ? rising : falling;
+        LinkedHashMap<String, T> level = side.get(key.price);
+        T payload = level.remove(id);
+        if (level.isEmpty()) {
+            side.remove(key.price);
+        }
+        return payload;
+    }
+
+    public boolean contains(String id) {
+        return keys.containsKey(id);
+    }
+
+    public T get(String id) {
+        Key key = keys.get(id);
+        return key != null ? (key.onRise ? rising : falling).get(key.price).get(id) : null;
+    }
+
+    public int size() {
+        return keys.size();
+    }
+
+    public void clear() {
+        rising.clear();
+        falling.clear();
+        keys.clear();
+    }
+
+    /**
+     * Remove every trigger crossed by price and append its payload to out, rising triggers
+     * lowest level first, then falling triggers highest level first.
+     * @return Number of triggers fired
+     */
+    public int pollTriggered(double price, List<T> out) {
+        int fired = 0;
+        // Most ticks cross nothing; checking the nearest levels first skips the view allocations
+        if (!rising.isEmpty() && rising.firstKey() <= price) {
+            fired += drain(rising.headMap(price, true), out);
+        }
+        if (!falling.isEmpty() && falling.lastKey() >= price) {
+            fired += drain(falling.tailMap(price, true).descendingMap(), out);
+        }
+        return fired;
+    }
+
+    /**
+     * Convenience form of {@link #pollTriggered(double, List)}
+     */
+    public List<T> pollTriggered(double price) {
+        List<T> out = new ArrayList<>();
+        pollTriggered(price, out);
+        return out;
+    }
+
+    private int drain(NavigableMap<Double, LinkedHashMap<String, T>> crossed, List<T> out) {
+        int fired = 0;
+        Iterator<LinkedHashMap<String, T>> levels = crossed.values().iterator();
+        while (levels.hasNext()) {
+            for (Map.Entry<String, T> entry : levels.next().entrySet()) {
+                keys.remove(entry.getKey());
+                out.add(entry.getValue());
+                fired++;
+            }
+            levels.remove();
+        }
+        return fired;
+    }
+}
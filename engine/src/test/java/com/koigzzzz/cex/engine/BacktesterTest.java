@@ -0,0 +1,153 @@
+package com.koigzzzz.cex.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.io.StringReader;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.ForkJoinPool;
+
+/**
+ * Backtests on hand-built prices with known outcomes, and a parameter sweep checked against
+ * running the same grid one by one.
+ */
+public class BacktesterTest {
+
+    @Test
+    public void limitRoundTripReportsPnlAndDrawdown() {
+        PriceSeries series = new PriceSeries("BTC");
+        double[] prices = {100, 95, 90, 110};
+        for (int i = 0; i < prices.length; i++) {
+            series.add(i * 1000L, prices[i]);
+        }
+        Backtester.Strategy strategy = new Backtester.Strategy() {
+            @Override
+            public void onStart(Backtester backtester) {
+                backtester.placeLimit(true, 95, 1);
+            }
+
+            @Override
+            public void onTick(Backtester backtester, long time, double price) {
+            }
+
+            @Override
+            public void onFill(Backtester backtester, Fill fill) {
+                if (fill.takerBuy) {
+                    backtester.placeLimit(false, 105, 1);
+                }
+            }
+        };
+
+        BacktestResult result = new Backtester(series, 1000, 0, true).run(strategy);
+        assertEquals(4, result.ticks);
+        assertEquals(1, result.buyCount);
+        assertEquals(1, result.sellCount);
+        assertEquals(2, result.fills.size());
+        assertEquals(95, result.fills.get(0).price, 0.0);
+        assertEquals(105, result.fills.get(1).price, 0.0);
+        assertEquals(10, result.realizedPnl, 1e-9);
+        assertEquals(1010, result.finalEquity, 1e-9);
+        assertEquals(0, result.finalBase, 0.0);
+        // Holding 1 BTC bought at 95 while the price dipped to 90
+        assertEquals(5, result.maxDrawdownAmount, 1e-9);
+        assertEquals(0.005, result.maxDrawdown, 1e-12);
+    }
+
+    @Test
+    public void unaffordableOrdersAreRejected() {
+        PriceSeries series = new PriceSeries("ETH");
+        series.add(0, 100);
+        series.add(1000, 90);
+        Backtester backtester = new Backtester(series, 50, 0, false);
+        BacktestResult result = backtester.run(new Backtester.Strategy() {
+            @Override
+            public void onStart(Backtester backtester) {
+                assertEquals(null, backtester.placeLimit(true, 90, 1));
+            }
+
+            @Override
+            public void onTick(Backtester backtester, long time, double price) {
+            }
+
+            @Override
+            public void onFill(Backtester backtester, Fill fill) {
+            }
+        });
+        assertEquals(1, result.rejectedCount);
+        assertEquals(0, result.getFillCount());
+        assertEquals(50, result.finalEquity, 0.0);
+    }
+
+    @Test
+    public void sweepMatchesSequentialRuns() {
+        PriceSeries series = randomWalk(50, 100_000);
+        List<Double> offsets = new ArrayList<>();
+        for (int i = 1; i <= 16; i++) {
+            offsets.add(i * 0.25);
+        }
+        ParameterSweep<Double> sweep = new ParameterSweep<>(series, 1000, 0,
+                offset -> new TrailingSwingStrategy(offset, 1));
+
+        ForkJoinPool pool = new ForkJoinPool(4);
+        List<ParameterSweep.Run<Double>> runs;
+        try {
+            runs = sweep.run(offsets, pool);
+        } finally {
+            pool.shutdown();
+        }
+
+        assertEquals(offsets.size(), runs.size());
+        ParameterSweep.Run<Double> best = null;
+        for (int i = 0; i < offsets.size(); i++) {
+            ParameterSweep.Run<Double> run = runs.get(i);
+            assertEquals(offsets.get(i), run.parameters);
+            BacktestResult expected = new Backtester(series, 1000, 0, false)
+                    .run(new TrailingSwingStrategy(offsets.get(i), 1));
+            assertEquals(expected.toString(), run.result.toString());
+            assertEquals(expected.finalEquity, run.result.finalEquity, 0.0);
+            assertTrue(run.result.getFillCount() > 0);
+            // Equity is cash plus holdings at the last price, nothing created on the way
+            assertEquals(run.result.finalQuote + run.result.finalBase * series.getPrice(series.size() - 1),
+                    run.result.finalEquity, 1e-6);
+            if (best == null || run.result.finalEquity > best.result.finalEquity) {
+                best = run;
+            }
+        }
+        assertSame(best, ParameterSweep.best(runs));
+    }
+
+    @Test
+    public void readsCandleCsv() throws IOException {
+        String csv = "time,open,high,low,close,volume\n"
+                + "# comment\n"
+                + "1700000000,100,110,95,105,12\n"
+                + "\n"
+                + "1700000060;105;106;90;92;3\n";
+        PriceSeries series = PriceSeries.readCandleCsv("BTC", new StringReader(csv), 60_000);
+        assertEquals(8, series.size());
+        assertEquals(1_700_000_000_000L, series.getTime(0));
+        // Up candle: open, low, high, close; down candle: open, high, low, close
+        double[] expected = {100, 95, 110, 105, 105, 106, 90, 92};
+        for (int i = 0; i < expected.length; i++) {
+            assertEquals(expected[i], series.getPrice(i), 0.0);
+        }
+        assertEquals(1_700_000_060_000L + 45_000, series.getLastTime());
+    }
+
+    static PriceSeries randomWalk(long seed, int ticks) {
+        Random random = new Random(seed);
+        PriceSeries series = new PriceSeries("BTC", ticks);
+        double price = 100;
+        for (int i = 0; i < ticks; i++) {
+            price = Math.max(1, price + (random.nextDouble() - 0.5));
+            series.add(i * 1000L, price);
+        }
+        return series;
+    }
+}
@@ -0,0 +1,200 @@
+package com.koigzzzz.cex.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.TreeMap;
+
+/**
+ * Seeded order flow in transaction-sized batches, applied to a shared depth record as
+ * DepthDelta increments and read back through DepthBook, against a naive re-aggregation of
+ * every resting order at each step.
+ */
+public class DepthBookTest {
+    private static final double[] BUCKET_SIZES = {0.01, 0.1, 0.5, 1, 5};
+
+    @Test
+    public void levelsMatchNaiveReaggregation() {
+        Random random = new Random(44);
+        for (int trial = 0; trial < 200; trial++) {
+            double bucketSize = BUCKET_SIZES[random.nextInt(BUCKET_SIZES.length)];
+            // Fed order by order, and fed the record's exact price levels
+            DepthBook byOrder = new DepthBook(bucketSize);
+            DepthBook byLevel = new DepthBook(bucketSize);
+            Map<String, Resting> orders = new LinkedHashMap<>();
+            // Side and level key to {price, quantity, orders}, as the depth document holds them
+            Map<String, double[]> record = new HashMap<>();
+            int nextId = 0;
+
+            for (int batch = 0; batch < 300; batch++) {
+                // What each touched order showed when the batch started
+                Map<String, Resting> before = new LinkedHashMap<>();
+                int ops = 1 + random.nextInt(4);
+                for (int op = 0; op < ops; op++) {
+                    int kind = random.nextInt(10);
+                    if (kind < 4 || orders.isEmpty()) {
+                        boolean buy = random.nextBoolean();
+                        double price = (9_000 + random.nextInt(2_000)) / 100.0;
+                        Resting order = new Resting(buy, price, 0.001 * (1 + random.nextInt(5_000)));
+                        String id = "o" + nextId++;
+                        before.put(id, null);
+                        orders.put(id, order);
+                    } else {
+                        List<String> ids = new ArrayList<>(orders.keySet());
+                        String id = ids.get(random.nextInt(ids.size()));
+                        Resting order = orders.get(id);
+                        if (!before.containsKey(id)) {
+                            before.put(id, order.copy());
+                        }
+                        if (kind < 7) {
+                            // Partial fill
+                            order.remaining *= 0.1 + 0.8 * random.nextDouble();
+                        } else {
+                            // Filled or cancelled
+                            orders.remove(id);
+                        }
+                    }
+                }
+
+                DepthDelta delta = new DepthDelta();
+                for (Map.Entry<String, Resting> touched : before.entrySet()) {
+                    Resting was = touched.getValue();
+                    Resting now = orders.get(touched.getKey());
+                    Resting either = was != null ? was : now;
+                    if (either == null) continue;
+                    delta.update(either.buy, either.price, was != null ? was.remaining : 0.0,
+                            now != null ? now.remaining : 0.0);
+                    if (now != null) {
+                        byOrder.put(touched.getKey(), now.buy, now.price, now.remaining);
+                    } else {
+                        byOrder.remove(touched.getKey());
+                    }
+                }
+                applyIncrements(record, delta);
+
+                if (random.nextInt(50) == 0) {
+                    bucketSize = BUCKET_SIZES[random.nextInt(BUCKET_SIZES.length)];
+                    byOrder.setBucketSize(bucketSize);
+                    byLevel.setBucketSize(bucketSize);
+                }
+                byLevel.clear();
+                for (Map.Entry<String, double[]> level : record.entrySet()) {
+                    double[] values = level.getValue();
+                    if (values[2] > 0 && values[1] > 0) {
+                        byLevel.putLevel(level.getKey(), level.getKey().startsWith("b"), values[0], values[1],
+                                (int) values[2]);
+                    }
+                }
+
+                String where = "trial " + trial + " batch " + batch;
+                for (boolean bidSide : new boolean[]{true, false}) {
+                    List<double[]> expected = naiveLevels(orders.values(), bidSide, bucketSize);
+                    assertLevels(where, expected, byOrder.getLevels(bidSide, Integer.MAX_VALUE));
+                    assertLevels(where, expected, byLevel.getLevels(bidSide, Integer.MAX_VALUE));
+                }
+            }
+        }
+    }
+
+    @Test
+    public void placeAndCancelInOneBatchLeaveNoChange() {
+        DepthDelta delta = new DepthDelta();
+        delta.update(true, 100.25, 0.0, 2.0);
+        delta.update(true, 100.25, 2.0, 0.0);
+        assertTrue(delta.isEmpty());
+
+        delta.update(false, 101, 0.0, 1.5);
+        delta.update(false, 101, 3.0, 1.0);
+        List<DepthDelta.Change> changes = delta.getChanges();
+        assertEquals(1, changes.size());
+        assertEquals(DepthDelta.levelKey(101), changes.get(0).key);
+        assertEquals(-0.5, changes.get(0).getQuantity(), 1e-12);
+        assertEquals(1, changes.get(0).getOrderCount());
+    }
+
+    @Test
+    public void putLevelCountsEveryOrderInIt() {
+        DepthBook book = new DepthBook(1);
+        book.putLevel("b100.2", true, 100.2, 3, 4);
+        book.putLevel("b100.7", true, 100.7, 1, 2);
+        book.put("single", true, 99.5, 1);
+        List<DepthBook.Level> levels = book.getLevels(true, 10);
+        assertEquals(2, levels.size());
+        assertEquals(100, levels.get(0).price, 0.0);
+        assertEquals(4, levels.get(0).quantity, 1e-12);
+        assertEquals(6, levels.get(0).orderCount);
+        assertEquals(1, levels.get(1).orderCount);
+
+        book.putLevel("b100.2", true, 100.2, 1, 1);
+        assertEquals(3, book.getLevels(true, 1).get(0).orderCount);
+        assertTrue(book.remove("b100.7"));
+        assertEquals(1, book.getLevels(true, 1).get(0).orderCount);
+    }
+
+    private static final class Resting {
+        final boolean buy;
+        final double price;
+        double remaining;
+
+        Resting(boolean buy, double price, double remaining) {
+            this.buy = buy;
+            this.price = price;
+            this.remaining = remaining;
+        }
+
+        Resting copy() {
+            return new Resting(buy, price, remaining);
+        }
+    }
+
+    /**
+     * What FieldValue.increment does to the depth document, one level at a time
+     */
+    private static void applyIncrements(Map<String, double[]> record, DepthDelta delta) {
+        for (DepthDelta.Change change : delta.getChanges()) {
+            String id = (change.buy ? "b" : "a") + change.key;
+            double[] level = record.get(id);
+            if (level == null) {
+                level = new double[3];
+                record.put(id, level);
+            }
+            level[0] = change.price;
+            level[1] += change.getQuantity();
+            level[2] += change.getOrderCount();
+        }
+    }
+
+    /**
+     * Buckets every resting order from scratch; best level first
+     */
+    private static List<double[]> naiveLevels(Iterable<Resting> orders, boolean bidSide, double bucketSize) {
+        TreeMap<Long, double[]> buckets = new TreeMap<>();
+        for (Resting order : orders) {
+            if (order.buy != bidSide) continue;
+            double scaled = order.price / bucketSize;
+            long bucket = bidSide ? (long) Math.floor(scaled + 1e-9) : (long) Math.ceil(scaled - 1e-9);
+            double[] level = buckets.computeIfAbsent(bidSide ? -bucket : bucket, k -> new double[3]);
+            level[0] = bucket * bucketSize;
+            level[1] += order.remaining;
+            level[2]++;
+        }
+        return new ArrayList<>(buckets.values());
+    }
+
+    private static void assertLevels(String where, List<double[]> expected, List<DepthBook.Level> actual) {
+        assertEquals(where, expected.size(), actual.size());
+        for (int i = 0; i < expected.size(); i++) {
+            assertEquals(where, expected.get(i)[0], actual.get(i).price, 1e-9);
+            assertEquals(where, expected.get(i)[1], actual.get(i).quantity, 1e-6);
+            assertEquals(where, (int) expected.get(i)[2], actual.get(i).orderCount);
+        }
+    }
+}
@@ -0,0 +1,119 @@
+package com.koigzzzz.cex.engine;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Random;
+
+/**
+ * Throughput of the engine on this machine, run with ./gradlew :engine:benchmark.
+ *
+ * Each workload is run a few times untimed to let the JIT compile it, then timed once.
+ * Inputs are generated up front from a fixed seed, so only engine work is measured.
+ */
+public final class EngineBenchmark {
+    private static final int WARMUP_ROUNDS = 3;
+
+    private EngineBenchmark() {
+    }
+
+    public static void main(String[] args) {
+        int events = 2_000_000;
+        run("order book", events, orderBook(events));
+        int ticks = 2_000_000;
+        run("backtest", ticks, backtest(ticks));
+        int sweepTicks = 500_000;
+        int grid = 32;
+        run("sweep", sweepTicks * grid, sweep(sweepTicks, grid));
+    }
+
+    interface Workload {
+        /**
+         * @return A value derived from the results, so the work cannot be optimised away
+         */
+        long run();
+    }
+
+    private static void run(String name, long events, Workload workload) {
+        for (int i = 0; i < WARMUP_ROUNDS; i++) {
+            workload.run();
+        }
+        long startedAt = System.nanoTime();
+        long check = workload.run();
+        double seconds = (System.nanoTime() - startedAt) / 1e9;
+        System.out.println(String.format(Locale.US, "%-12s %,d events in %.2f s: %,.0f events/s (check %d)",
+                name, events, seconds, events / seconds, check));
+    }
+
+    /**
+     * Mixed flow around a drifting mid price: 60% limit orders, 25% cancels of recent orders,
+     * 15% market orders against the mid
+     */
+    static Workload orderBook(int events) {
+        Random random = new Random(38);
+        int[] kinds = new int[events];
+        int[] cancelTargets = new int[events];
+        double[] prices = new double[events];
+        double[] mids = new double[events];
+        double[] quantities = new double[events];
+        boolean[] sides = new boolean[events];
+        String[] ids = new String[events];
+        double mid = 100.0;
+        for (int i = 0; i < events; i++) {
+            mid = Math.max(1.0, mid + (random.nextDouble() - 0.5) * 0.05);
+            mids[i] = mid;
+            kinds[i] = random.nextInt(100);
+            cancelTargets[i] = Math.max(0, i - 1 - random.nextInt(500));
+            sides[i] = random.nextBoolean();
+            // Buys sit mostly below the mid and sells above, so the book stays deep
+            prices[i] = mid + (sides[i] ? -1 : 1) * (random.nextInt(200) - 20) * 0.01;
+            quantities[i] = 0.1 + random.nextInt(50) * 0.1;
+            ids[i] = Integer.toString(i);
+        }
+
+        return () -> {
+            OrderBook book = new OrderBook("BTC", 0.01);
+            long[] filled = new long[1];
+            book.setListener(fill -> filled[0]++);
+            for (int i = 0; i < events; i++) {
+                if (kinds[i] < 60) {
+                    book.submitLimit(ids[i], "u", sides[i], prices[i], quantities[i], i);
+                } else if (kinds[i] < 85) {
+                    book.cancel(ids[cancelTargets[i]]);
+                } else {
+                    book.submitMarket(ids[i], "u", sides[i], quantities[i], mids[i], i);
+                }
+            }
+            return filled[0] + book.getOrderCount();
+        };
+    }
+
+    /**
+     * One trailing-stop swing strategy over a random walk, counted in ticks
+     */
+    static Workload backtest(int ticks) {
+        PriceSeries series = BacktesterTest.randomWalk(38, ticks);
+        return () -> new Backtester(series, 1000, 0, false).run(new TrailingSwingStrategy(1, 1)).getFillCount();
+    }
+
+    /**
+     * The same strategy swept over a grid of offsets on the common pool, counted in ticks
+     * across all runs
+     */
+    static Workload sweep(int ticks, int grid) {
+        PriceSeries series = BacktesterTest.randomWalk(38, ticks);
+        List<Double> offsets = new ArrayList<>();
+        for (int i = 1; i <= grid; i++) {
+            offsets.add(i * 0.25);
+        }
+        ParameterSweep<Double> sweep = new ParameterSweep<>(series, 1000, 0,
+                offset -> new TrailingSwingStrategy(offset, 1));
+        return () -> {
+            long fills = 0;
+            for (ParameterSweep.Run<Double> run : sweep.run(offsets)) {
+                fills += run.result.getFillCount();
+            }
+            return fills;
+        };
+    }
+}
@@ -0,0 +1,184 @@
+package com.koigzzzz.cex.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+/**
+ * OrderBook against a naive book that keeps every resting order in one list and rescans it
+ * for the best match, over seeded random order flow.
+ */
+public class OrderBookTest {
+
+    @Test
+    public void matchesNaiveBookOnRandomFlow() {
+        Random random = new Random(38);
+        for (int trial = 0; trial < 200; trial++) {
+            OrderBook book = new OrderBook("BTC", 0.01);
+            List<Fill> fills = new ArrayList<>();
+            book.setListener(fills::add);
+            NaiveBook naive = new NaiveBook();
+            List<String> ids = new ArrayList<>();
+
+            for (int i = 0; i < 500; i++) {
+                int kind = random.nextInt(10);
+                boolean buy = random.nextBoolean();
+                // Whole prices and quantities keep both books free of rounding differences
+                double price = 95 + random.nextInt(11);
+                double quantity = 1 + random.nextInt(5);
+                String id = "o" + i;
+                fills.clear();
+                if (kind < 6) {
+                    double resting = book.submitLimit(id, "u" + random.nextInt(5), buy, price, quantity, i);
+                    assertEquals(naive.submit(id, buy, price, quantity, false), resting, 0.0);
+                    ids.add(id);
+                } else if (kind < 8 && !ids.isEmpty()) {
+                    String cancelId = ids.get(random.nextInt(ids.size()));
+                    assertEquals(naive.cancel(cancelId), book.cancel(cancelId));
+                    continue;
+                } else {
+                    double reference = random.nextInt(4) == 0 ? 0.0 : price;
+                    double unfilled = book.submitMarket(id, "u0", buy, quantity, reference, i);
+                    assertEquals(naive.submit(id, buy, reference, quantity, true), unfilled, 0.0);
+                }
+                assertEquals("trial " + trial + " event " + i, naive.fills.size(), fills.size());
+                for (int f = 0; f < fills.size(); f++) {
+                    Fill expected = naive.fills.get(f);
+                    Fill actual = fills.get(f);
+                    assertEquals(expected.makerOrderId, actual.makerOrderId);
+                    assertEquals(expected.price, actual.price, 1e-9);
+                    assertEquals(expected.quantity, actual.quantity, 0.0);
+                    assertEquals(buy, actual.takerBuy);
+                }
+                assertEquals(naive.best(true), book.getBestBid(), 1e-9);
+                assertEquals(naive.best(false), book.getBestAsk(), 1e-9);
+                assertEquals(naive.resting.size(), book.getOrderCount());
+            }
+            for (NaiveOrder order : naive.resting) {
+                assertEquals(order.remaining, book.getRemaining(order.id), 0.0);
+            }
+        }
+    }
+
+    @Test
+    public void marketOrderFillsRestAtReferencePrice() {
+        OrderBook book = new OrderBook("ETH", 0.01);
+        List<Fill> fills = new ArrayList<>();
+        book.setListener(fills::add);
+        book.submitLimit("a1", "maker", false, 2000.0, 1.0, 1);
+        book.submitLimit("a2", "maker", false, 2100.0, 1.0, 2);
+
+        // The 2100 ask is worse than the reference, so only a1 matches
+        assertEquals(0.0, book.submitMarket("m1", "taker", true, 3.0, 2050.0, 3), 0.0);
+        assertEquals(2, fills.size());
+        assertEquals("a1", fills.get(0).makerOrderId);
+        assertEquals(1.0, fills.get(0).quantity, 0.0);
+        assertTrue(fills.get(1).isAgainstReference());
+        assertEquals(2050.0, fills.get(1).price, 0.0);
+        assertEquals(2.0, fills.get(1).quantity, 0.0);
+        assertEquals(2100.0, book.getBestAsk(), 1e-9);
+
+        // Without a reference price a market order only takes the book
+        assertEquals(1.0, book.submitMarket("m2", "taker", true, 2.0, 0.0, 4), 0.0);
+        assertTrue(Double.isNaN(book.getBestAsk()));
+        assertFalse(book.cancel("a2"));
+    }
+
+    @Test
+    public void engineKeepsOneBookPerSymbol() {
+        MatchingEngine engine = new MatchingEngine();
+        List<Fill> fills = new ArrayList<>();
+        engine.setListener(fills::add);
+        engine.submitLimit("btc", "b1", "u1", true, 100.0, 1.0, 1);
+        engine.submitLimit("ETH", "e1", "u2", false, 100.0, 1.0, 2);
+        assertTrue(fills.isEmpty());
+
+        engine.submitLimit("BTC", "s1", "u3", false, 100.0, 1.0, 3);
+        assertEquals(1, fills.size());
+        assertEquals("BTC", fills.get(0).symbol);
+        assertEquals("b1", fills.get(0).makerOrderId);
+        assertTrue(engine.cancel("eth", "e1"));
+        assertFalse(engine.cancel("SOL", "x"));
+    }
+
+    private static final class NaiveOrder {
+        final String id;
+        final boolean buy;
+        final double price;
+        double remaining;
+
+        NaiveOrder(String id, boolean buy, double price, double remaining) {
+            this.id = id;
+            this.buy = buy;
+            this.price = price;
+            this.remaining = remaining;
+        }
+    }
+
+    /**
+     * Resting orders in arrival order; every match rescans the whole list for the best price
+     */
+    private static final class NaiveBook {
+        final List<NaiveOrder> resting = new ArrayList<>();
+        final List<Fill> fills = new ArrayList<>();
+
+        /**
+         * @param price Limit price, or the reference price for a market order (0 for none)
+         * @return Quantity resting (limit) or unfilled (market)
+         */
+        double submit(String id, boolean buy, double price, double quantity, boolean market) {
+            fills.clear();
+            boolean priced = !market || price > 0;
+            double remaining = quantity;
+            while (remaining > 0) {
+                NaiveOrder best = null;
+                for (NaiveOrder order : resting) {
+                    if (order.buy == buy) continue;
+                    if (priced && (buy ? order.price > price : order.price < price)) continue;
+                    if (best == null || (buy ? order.price < best.price : order.price > best.price)) {
+                        best = order;
+                    }
+                }
+                if (best == null) break;
+                double quantityFilled = Math.min(remaining, best.remaining);
+                remaining -= quantityFilled;
+                best.remaining -= quantityFilled;
+                fills.add(new Fill("", 0, id, null, best.id, null, buy, best.price, quantityFilled, 0));
+                if (best.remaining == 0) {
+                    resting.remove(best);
+                }
+            }
+            if (remaining == 0) return 0.0;
+            if (!market) {
+                resting.add(new NaiveOrder(id, buy, price, remaining));
+                return remaining;
+            }
+            if (priced) {
+                fills.add(new Fill("", 0, id, null, null, null, buy, price, remaining, 0));
+                return 0.0;
+            }
+            return remaining;
+        }
+
+        boolean cancel(String id) {
+            return resting.removeIf(order -> order.id.equals(id));
+        }
+
+        double best(boolean bidSide) {
+            double best = Double.NaN;
+            for (NaiveOrder order : resting) {
+                if (order.buy != bidSide) continue;
+                if (Double.isNaN(best) || (bidSide ? order.price > best : order.price < best)) {
+                    best = order.price;
+                }
+            }
+            return best;
+        }
+    }
+}
@@ -0,0 +1,275 @@
+package com.koigzzzz.cex.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+import java.util.Set;
+
+/**
+ * Seeded tick replays through OrderTriggerEngine, checked against a naive model that tests
+ * every order's condition on every tick, and replayed twice to check the event log is
+ * deterministic.
+ */
+public class OrderTriggerEngineTest {
+    private static final int LIMIT = 0;
+    private static final int STOP = 1;
+    private static final int STOP_LIMIT = 2;
+    private static final int TRAILING_STOP = 3;
+
+    @Test
+    public void matchesNaiveModelOnSeededReplay() {
+        Random random = new Random(43);
+        for (int trial = 0; trial < 200; trial++) {
+            OrderTriggerEngine<String> engine = new OrderTriggerEngine<>();
+            Map<String, NaiveOrder> naive = new LinkedHashMap<>();
+            double price = 100;
+            int nextId = 0;
+            for (int i = 0; i < 1500; i++) {
+                int kind = random.nextInt(12);
+                if (kind < 6) {
+                    NaiveOrder order = new NaiveOrder("o" + nextId++, random.nextInt(4), random.nextBoolean(),
+                            price + random.nextInt(21) - 10, price + random.nextInt(21) - 10, price, 1 + random.nextInt(5));
+                    order.addTo(engine);
+                    naive.put(order.id, order);
+                    if (random.nextInt(4) == 0 && naive.size() > 1) {
+                        List<String> ids = new ArrayList<>(naive.keySet());
+                        NaiveOrder other = naive.get(ids.get(random.nextInt(ids.size() - 1)));
+                        if (other.ocoPartner == null) {
+                            engine.linkOco(order.id, other.id);
+                            order.ocoPartner = other.id;
+                            other.ocoPartner = order.id;
+                        }
+                    }
+                } else if (kind < 7 && !naive.isEmpty()) {
+                    List<String> ids = new ArrayList<>(naive.keySet());
+                    String id = ids.get(random.nextInt(ids.size()));
+                    assertEquals(id, engine.remove(id));
+                    unlink(naive, naive.remove(id));
+                } else {
+                    price = Math.max(1, price + random.nextInt(9) - 4);
+                    checkTick(engine, naive, price, "trial " + trial + " tick " + i);
+                }
+                assertEquals(naive.size(), engine.size());
+            }
+        }
+    }
+
+    @Test
+    public void replayIsDeterministic() {
+        assertEquals(replayLog(5), replayLog(5));
+        assertFalse(replayLog(5).equals(replayLog(6)));
+    }
+
+    @Test
+    public void stopLimitArmsThenFillsAtLimit() {
+        OrderTriggerEngine<String> engine = new OrderTriggerEngine<>();
+        engine.addStopLimit("sl", true, 105, 103, false, "sl");
+        RecordingListener listener = new RecordingListener();
+
+        engine.onPrice(106, listener);
+        assertEquals(Arrays.asList("sl"), listener.armed);
+        assertTrue(listener.triggered.isEmpty());
+        assertEquals(103, engine.getTriggerPrice("sl"), 0.0);
+
+        engine.onPrice(102, listener);
+        assertEquals(103.0, listener.triggered.get("sl"), 0.0);
+        assertFalse(engine.contains("sl"));
+    }
+
+    @Test
+    public void ocoPartnerIsCancelledWhenOneFires() {
+        OrderTriggerEngine<String> engine = new OrderTriggerEngine<>();
+        engine.addLimit("take", false, 110, "take");
+        engine.addStop("stop", false, 90, "stop");
+        engine.linkOco("take", "stop");
+        RecordingListener listener = new RecordingListener();
+
+        engine.onPrice(89, listener);
+        assertEquals(89.0, listener.triggered.get("stop"), 0.0);
+        assertEquals(Arrays.asList("take"), listener.cancelled);
+        assertEquals(0, engine.size());
+    }
+
+    private static void checkTick(OrderTriggerEngine<String> engine, Map<String, NaiveOrder> naive,
+                                  double price, String where) {
+        RecordingListener listener = new RecordingListener();
+        engine.onPrice(price, listener);
+
+        Map<String, Double> expectedFires = new HashMap<>();
+        Set<String> expectedArmed = new HashSet<>();
+        for (NaiveOrder order : naive.values()) {
+            double executionPrice = order.onPrice(price, expectedArmed);
+            if (!Double.isNaN(executionPrice)) {
+                expectedFires.put(order.id, executionPrice);
+            }
+        }
+
+        // When both legs of an OCO pair cross in one tick either may win, so check each
+        // outcome against the conditions rather than against one fixed answer
+        for (Map.Entry<String, Double> fired : listener.triggered.entrySet()) {
+            assertTrue(where + ": unexpected " + fired.getKey(), expectedFires.containsKey(fired.getKey()));
+            assertEquals(where, expectedFires.get(fired.getKey()), fired.getValue(), 0.0);
+        }
+        for (String id : expectedFires.keySet()) {
+            assertTrue(where + ": missing " + id, listener.triggered.containsKey(id) || listener.cancelled.contains(id));
+        }
+        for (String id : listener.cancelled) {
+            NaiveOrder order = naive.get(id);
+            assertNotNull(where, order);
+            assertTrue(where + ": cancelled without its partner firing",
+                    order.ocoPartner != null && listener.triggered.containsKey(order.ocoPartner));
+        }
+        Set<String> armed = new HashSet<>(listener.armed);
+        armed.removeAll(listener.cancelled);
+        expectedArmed.removeAll(listener.cancelled);
+        assertEquals(where, expectedArmed, armed);
+
+        for (String id : expectedArmed) {
+            naive.get(id).armed = true;
+        }
+        for (String id : listener.triggered.keySet()) {
+            unlink(naive, naive.remove(id));
+        }
+        for (String id : listener.cancelled) {
+            unlink(naive, naive.remove(id));
+        }
+    }
+
+    private static void unlink(Map<String, NaiveOrder> naive, NaiveOrder removed) {
+        if (removed != null && removed.ocoPartner != null && naive.containsKey(removed.ocoPartner)) {
+            naive.get(removed.ocoPartner).ocoPartner = null;
+        }
+    }
+
+    /**
+     * Event log of a replay where trailing stops are added between ticks
+     */
+    private static String replayLog(long seed) {
+        Random random = new Random(seed);
+        OrderTriggerEngine<String> engine = new OrderTriggerEngine<>();
+        StringBuilder log = new StringBuilder();
+        OrderTriggerEngine.Listener<String> listener = new OrderTriggerEngine.Listener<String>() {
+            @Override
+            public void onTriggered(String payload, double executionPrice) {
+                log.append(payload).append('@').append(executionPrice).append(',');
+            }
+
+            @Override
+            public void onArmed(String payload) {
+                log.append(payload).append(" armed,");
+            }
+
+            @Override
+            public void onCancelled(String payload) {
+                log.append(payload).append(" cancelled,");
+            }
+        };
+        double price = 100;
+        for (int i = 0; i < 20_000; i++) {
+            int kind = random.nextInt(6);
+            String id = "t" + i;
+            if (kind == 0) {
+                engine.addTrailingStop(id, random.nextBoolean(), price, 1 + random.nextInt(5), id);
+            } else if (kind == 1) {
+                engine.addStopLimit(id, random.nextBoolean(), price + random.nextInt(11) - 5,
+                        price + random.nextInt(11) - 5, false, id);
+            } else {
+                price = Math.max(1, price + random.nextInt(9) - 4);
+                engine.onPrice(price, listener);
+            }
+        }
+        return log.toString();
+    }
+
+    private static final class NaiveOrder {
+        final String id;
+        final int kind;
+        final boolean buy;
+        final double stopPrice;
+        final double limitPrice;
+        final double offset;
+        // Lowest price since added for trailing buys, highest for trailing sells
+        double extreme;
+        boolean armed;
+        String ocoPartner;
+
+        NaiveOrder(String id, int kind, boolean buy, double stopPrice, double limitPrice, double price, double offset) {
+            this.id = id;
+            this.kind = kind;
+            this.buy = buy;
+            this.stopPrice = stopPrice;
+            this.limitPrice = limitPrice;
+            this.extreme = price;
+            this.offset = offset;
+        }
+
+        void addTo(OrderTriggerEngine<String> engine) {
+            if (kind == LIMIT) {
+                engine.addLimit(id, buy, limitPrice, id);
+            } else if (kind == STOP) {
+                engine.addStop(id, buy, stopPrice, id);
+            } else if (kind == STOP_LIMIT) {
+                engine.addStopLimit(id, buy, stopPrice, limitPrice, false, id);
+            } else {
+                engine.addTrailingStop(id, buy, extreme, offset, id);
+            }
+        }
+
+        /**
+         * @return Execution price if the order fires at this price, otherwise NaN
+         */
+        double onPrice(double price, Set<String> armedNow) {
+            switch (kind) {
+                case LIMIT:
+                    return limitReached(price) ? limitPrice : Double.NaN;
+                case STOP:
+                    return (buy ? price >= stopPrice : price <= stopPrice) ? price : Double.NaN;
+                case STOP_LIMIT:
+                    if (!armed && (buy ? price >= stopPrice : price <= stopPrice)) {
+                        armedNow.add(id);
+                    }
+                    return (armed || armedNow.contains(id)) && limitReached(price) ? limitPrice : Double.NaN;
+                default:
+                    extreme = buy ? Math.min(extreme, price) : Math.max(extreme, price);
+                    return (buy ? price >= extreme + offset : price <= extreme - offset) ? price : Double.NaN;
+            }
+        }
+
+        private boolean limitReached(double price) {
+            return buy ? price <= limitPrice : price >= limitPrice;
+        }
+    }
+
+    private static final class RecordingListener implements OrderTriggerEngine.Listener<String> {
+        final Map<String, Double> triggered = new LinkedHashMap<>();
+        final List<String> armed = new ArrayList<>();
+        final List<String> cancelled = new ArrayList<>();
+
+        @Override
+        public void onTriggered(String payload, double executionPrice) {
+            triggered.put(payload, executionPrice);
+        }
+
+        @Override
+        public void onArmed(String payload) {
+            armed.add(payload);
+        }
+
+        @Override
+        public void onCancelled(String payload) {
+            cancelled.add(payload);
+        }
+    }
+}
@@ -0,0 +1,84 @@
+package com.koigzzzz.cex.engine;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashSet;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * TrailingStopBook against a naive book that raises every stop's peak on every tick.
+ */
+public class TrailingStopBookTest {
+
+    @Test
+    public void matchesNaiveBookOnSeededReplay() {
+        Random random = new Random(43);
+        for (int trial = 0; trial < 200; trial++) {
+            TrailingStopBook<String> book = new TrailingStopBook<>();
+            // Id to {peak, offset}
+            Map<String, double[]> naive = new LinkedHashMap<>();
+            double price = 100;
+            for (int i = 0; i < 2000; i++) {
+                int kind = random.nextInt(10);
+                String id = "s" + random.nextInt(200);
+                if (kind < 3) {
+                    double offset = 1 + random.nextInt(5);
+                    book.add(id, price, offset, id);
+                    naive.put(id, new double[]{price, offset});
+                } else if (kind < 4) {
+                    assertEquals(naive.remove(id) != null, book.remove(id) != null);
+                } else {
+                    price = Math.max(1, price + random.nextInt(7) - 3);
+                    List<String> fired = new ArrayList<>();
+                    book.onPrice(price, fired);
+
+                    List<String> expected = new ArrayList<>();
+                    for (Iterator<Map.Entry<String, double[]>> it = naive.entrySet().iterator(); it.hasNext(); ) {
+                        Map.Entry<String, double[]> entry = it.next();
+                        double[] stop = entry.getValue();
+                        stop[0] = Math.max(stop[0], price);
+                        if (price <= stop[0] - stop[1]) {
+                            expected.add(entry.getKey());
+                            it.remove();
+                        }
+                    }
+                    assertEquals("trial " + trial + " tick " + i, new HashSet<>(expected), new HashSet<>(fired));
+                    assertEquals(expected.size(), fired.size());
+                    for (Map.Entry<String, double[]> entry : naive.entrySet()) {
+                        assertEquals(entry.getValue()[0] - entry.getValue()[1], book.getStopPrice(entry.getKey()), 1e-9);
+                    }
+                }
+                assertEquals(naive.size(), book.size());
+            }
+        }
+    }
+
+    @Test
+    public void firesHighestStopFirstAndForgetsIt() {
+        TrailingStopBook<String> book = new TrailingStopBook<>();
+        book.add("wide", 100, 10, "wide");
+        book.add("tight", 100, 2, "tight");
+        List<String> fired = new ArrayList<>();
+
+        // Peaks follow the price up; nothing fires on the way
+        assertEquals(0, book.onPrice(120, fired));
+        assertEquals(118, book.getStopPrice("tight"), 0.0);
+        assertEquals(110, book.getStopPrice("wide"), 0.0);
+
+        assertEquals(2, book.onPrice(105, fired));
+        assertEquals(Arrays.asList("tight", "wide"), fired);
+        assertEquals(0, book.size());
+        assertTrue(Double.isNaN(book.getStopPrice("tight")));
+        assertNull(book.remove("wide"));
+    }
+}
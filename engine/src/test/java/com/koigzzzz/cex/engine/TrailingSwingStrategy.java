@@ -0,0 +1,35 @@
+package com.koigzzzz.cex.engine;
+
+/**
+ * Swing strategy used by the tests and benchmark: a trailing buy stop catches each rebound,
+ * then a trailing sell stop rides it until it turns, and so on. Exercises trailing stops,
+ * fills and wallet locking on every swing.
+ */
+final class TrailingSwingStrategy implements Backtester.Strategy {
+    private final double offset;
+    private final double quantity;
+
+    TrailingSwingStrategy(double offset, double quantity) {
+        this.offset = offset;
+        this.quantity = quantity;
+    }
+
+    @Override
+    public void onStart(Backtester backtester) {
+        backtester.placeTrailingStop(true, offset, quantity);
+    }
+
+    @Override
+    public void onTick(Backtester backtester, long time, double price) {
+        // Re-enter after a rejection so the strategy keeps trading
+        if (backtester.getOpenOrderCount() == 0) {
+            boolean holding = backtester.getBaseAvailable() >= quantity;
+            backtester.placeTrailingStop(!holding, offset, quantity);
+        }
+    }
+
+    @Override
+    public void onFill(Backtester backtester, Fill fill) {
+        backtester.placeTrailingStop(!fill.takerBuy, offset, quantity);
+    }
+}
@@ -0,0 +1,20 @@
+// Server-side leaderboard job: plain JVM, run with
+// ./gradlew :leaderboard:run --args="--project <firebase-project-id>"
+plugins {
+    application
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+application {
+    mainClass.set("com.koigzzzz.cex.leaderboard.LeaderboardJob")
+}
+
+dependencies {
+    implementation(libs.firebase.admin)
+    implementation(libs.gson)
+    testImplementation(libs.junit)
+}
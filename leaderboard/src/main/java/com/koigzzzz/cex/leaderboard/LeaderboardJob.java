@@ -0,0 +1,204 @@
+package com.koigzzzz.cex.leaderboard;
+
+import com.google.api.core.ApiFuture;
+import com.google.cloud.firestore.FieldPath;
+import com.google.cloud.firestore.Firestore;
+import com.google.cloud.firestore.FirestoreOptions;
+import com.google.cloud.firestore.Query;
+import com.google.cloud.firestore.QueryDocumentSnapshot;
+import com.google.cloud.firestore.QuerySnapshot;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Batch job that ranks every user by portfolio return and writes the top N to
+ * leaderboard/global. It runs on a plain JVM with the Firestore server client, so no device
+ * has to page through other users' data:
+ *
+ *   ./gradlew :leaderboard:run --args="--project <project-id> [--top 100] [--price BTC=65000 ...]"
+ *
+ * With FIRESTORE_EMULATOR_HOST set (e.g. localhost:8080) it talks to the emulator and needs
+ * no credentials; otherwise it uses application default credentials. Prices come from one
+ * LiveCoinWatch request (LIVECOINWATCH_API_KEY) unless given with --price, which keeps
+ * emulator runs offline.
+ *
+ * Users are streamed PAGE_SIZE at a time by document id, together with that page's pending
+ * orders and transfers, and the next page is requested while the current one is scored.
+ * Memory is two pages plus the top-N heap however many users there are.
+ */
+public class LeaderboardJob {
+    // Firestore allows at most 30 values in an in filter
+    private static final int PAGE_SIZE = 30;
+    private static final int DEFAULT_TOP = 100;
+    private static final String STATUS_PENDING = "PENDING";
+
+    private final Firestore db;
+
+    public LeaderboardJob(Firestore db) {
+        this.db = db;
+    }
+
+    public static void main(String[] args) throws Exception {
+        String projectId = System.getenv("GOOGLE_CLOUD_PROJECT");
+        int top = DEFAULT_TOP;
+        Map<String, Double> fixedPrices = new HashMap<>();
+        for (int i = 0; i < args.length; i++) {
+            String value = i + 1 < args.length ? args[i + 1] : null;
+            if ("--project".equals(args[i]) && value != null) {
+                projectId = value;
+            } else if ("--top".equals(args[i]) && value != null) {
+                top = Integer.parseInt(value);
+            } else if ("--price".equals(args[i]) && value != null && value.indexOf('=') > 0) {
+                int split = value.indexOf('=');
+                fixedPrices.put(value.substring(0, split).toLowerCase(), Double.parseDouble(value.substring(split + 1)));
+            } else {
+                usage();
+                return;
+            }
+            i++;
+        }
+        if (projectId == null) {
+            usage();
+            return;
+        }
+
+        FirestoreOptions options = FirestoreOptions.newBuilder().setProjectId(projectId).build();
+        try (Firestore db = options.getService()) {
+            RunStats stats = new LeaderboardJob(db).run(top, fixedPrices);
+            System.out.println(stats);
+        }
+    }
+
+    private static void usage() {
+        System.err.println("Usage: LeaderboardJob --project <project-id> [--top <n>] [--price <SYMBOL>=<usd> ...]");
+        System.exit(2);
+    }
+
+    /**
+     * Rank every user and save the leaderboard.
+     * @param fixedPrices Lowercase symbol to price; if empty, prices are fetched
+     */
+    public RunStats run(int top, Map<String, Double> fixedPrices) throws Exception {
+        Map<String, Double> prices = fixedPrices.isEmpty() ? fetchPrices() : fixedPrices;
+
+        long startedAt = System.nanoTime();
+        LeaderboardScorer scorer = new LeaderboardScorer(prices);
+        TopN ranking = new TopN(top);
+        int pages = 0;
+        ApiFuture<QuerySnapshot> nextPage = usersPage(null);
+        while (nextPage != null) {
+            List<QueryDocumentSnapshot> users = nextPage.get().getDocuments();
+            if (users.isEmpty()) break;
+            nextPage = users.size() < PAGE_SIZE ? null : usersPage(users.get(users.size() - 1));
+
+            List<String> userIds = new ArrayList<>(users.size());
+            Map<String, Map<String, Object>> userFields = new LinkedHashMap<>();
+            for (QueryDocumentSnapshot user : users) {
+                userIds.add(user.getId());
+                userFields.put(user.getId(), user.getData());
+            }
+            ApiFuture<QuerySnapshot> ordersFuture = db.collection("orders")
+                    .whereIn("userId", userIds)
+                    .whereEqualTo("status", STATUS_PENDING)
+                    .get();
+            ApiFuture<QuerySnapshot> sentFuture = db.collection("transfers").whereIn("fromUserId", userIds).get();
+            ApiFuture<QuerySnapshot> receivedFuture = db.collection("transfers").whereIn("toUserId", userIds).get();
+
+            Map<String, Map<String, Object>> pendingOrders = new HashMap<>();
+            for (QueryDocumentSnapshot order : ordersFuture.get().getDocuments()) {
+                pendingOrders.put(order.getId(), order.getData());
+            }
+            scorer.scorePage(userFields, pendingOrders, fields(sentFuture.get()), fields(receivedFuture.get()), ranking);
+            pages++;
+            if (pages % 100 == 0) {
+                System.out.println("Ranked " + scorer.getUsersProcessed() + " users...");
+            }
+        }
+        long durationMs = (System.nanoTime() - startedAt) / 1_000_000;
+
+        save(ranking.toSortedList(), prices, scorer.getUsersProcessed(), durationMs);
+        return new RunStats(scorer.getUsersProcessed(), scorer.getUnpricedUsers(), pages, durationMs);
+    }
+
+    private Map<String, Double> fetchPrices() throws Exception {
+        String apiKey = System.getenv("LIVECOINWATCH_API_KEY");
+        if (apiKey == null || apiKey.isEmpty()) {
+            throw new IllegalStateException("Set LIVECOINWATCH_API_KEY or pass prices with --price SYMBOL=USD");
+        }
+        List<String> symbols = new ArrayList<>();
+        for (QueryDocumentSnapshot token : db.collection("tokens").whereEqualTo("enabled", true).get().get().getDocuments()) {
+            String symbol = token.getString("symbol");
+            if (symbol != null) {
+                symbols.add(symbol);
+            }
+        }
+        return symbols.isEmpty() ? new HashMap<>() : PriceSnapshot.fetch(symbols, apiKey);
+    }
+
+    private ApiFuture<QuerySnapshot> usersPage(QueryDocumentSnapshot startAfter) {
+        Query query = db.collection("users").orderBy(FieldPath.documentId()).limit(PAGE_SIZE);
+        if (startAfter != null) {
+            query = query.startAfter(startAfter);
+        }
+        return query.get();
+    }
+
+    private static List<Map<String, Object>> fields(QuerySnapshot snapshot) {
+        List<Map<String, Object>> result = new ArrayList<>(snapshot.size());
+        for (QueryDocumentSnapshot doc : snapshot.getDocuments()) {
+            result.add(doc.getData());
+        }
+        return result;
+    }
+
+    private void save(List<TopN.Entry> ranked, Map<String, Double> prices, int userCount, long durationMs)
+            throws Exception {
+        List<Map<String, Object>> entries = new ArrayList<>(ranked.size());
+        for (int i = 0; i < ranked.size(); i++) {
+            TopN.Entry entry = ranked.get(i);
+            Map<String, Object> map = new HashMap<>();
+            map.put("rank", i + 1);
+            map.put("userId", entry.userId);
+            map.put("username", entry.username);
+            map.put("value", entry.value);
+            map.put("returnPct", entry.returnRatio * 100.0);
+            entries.add(map);
+        }
+        Map<String, Object> leaderboard = new HashMap<>();
+        leaderboard.put("entries", entries);
+        leaderboard.put("prices", prices);
+        leaderboard.put("userCount", userCount);
+        leaderboard.put("updatedAt", System.currentTimeMillis());
+        leaderboard.put("durationMs", durationMs);
+        db.collection("leaderboard").document("global").set(leaderboard).get();
+    }
+
+    public static class RunStats {
+        public final int usersProcessed;
+        public final int unpricedUsers;
+        public final int pages;
+        public final long durationMs;
+
+        public RunStats(int usersProcessed, int unpricedUsers, int pages, long durationMs) {
+            this.usersProcessed = usersProcessed;
+            this.unpricedUsers = unpricedUsers;
+            this.pages = pages;
+            this.durationMs = durationMs;
+        }
+
+        public double usersPerSecond() {
+            return durationMs > 0 ? usersProcessed * 1000.0 / durationMs : 0.0;
+        }
+
+        @Override
+        public String toString() {
+            return String.format(Locale.US, "Ranked %d users in %d ms (%.1f users/s, %d pages, %d with unpriced tokens)",
+                    usersProcessed, durationMs, usersPerSecond(), pages, unpricedUsers);
+        }
+    }
+}
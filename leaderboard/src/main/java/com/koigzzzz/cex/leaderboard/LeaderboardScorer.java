@@ -0,0 +1,148 @@
+package com.koigzzzz.cex.leaderboard;
+
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * Scores users one page at a time against a single price snapshot. Works on plain
+ * Firestore field maps, so it has no Firestore dependency.
+ *
+ * A user's value is their available wallet balances plus the funds their pending orders
+ * have locked: the "reservations" map on the user document, and for pending orders placed
+ * before reservation records existed, the funds the order itself says it holds. Net
+ * transfers in are capital, not returns, so they are added to the starting capital.
+ */
+public class LeaderboardScorer {
+    // Every wallet starts with this much USDT (see Wallet in the app)
+    static final double STARTING_CAPITAL = 10000.0;
+    private static final String QUOTE_ASSET = "usdt";
+    private static final String TYPE_BUY = "BUY";
+
+    private final Map<String, Double> prices;
+    private int usersProcessed;
+    private int unpricedUsers;
+
+    /**
+     * @param prices Lowercase symbol to USD price; USDT is always 1
+     */
+    public LeaderboardScorer(Map<String, Double> prices) {
+        this.prices = new HashMap<>(prices);
+        this.prices.put(QUOTE_ASSET, 1.0);
+    }
+
+    public int getUsersProcessed() {
+        return usersProcessed;
+    }
+
+    /**
+     * Users holding a token with no price in the snapshot; they are ranked on the rest
+     */
+    public int getUnpricedUsers() {
+        return unpricedUsers;
+    }
+
+    /**
+     * Score one page of users and offer them to the ranking.
+     * @param users User id to user document fields, for this page
+     * @param pendingOrders Order id to order fields, for this page's pending orders
+     * @param sent Transfers sent by this page's users
+     * @param received Transfers received by this page's users
+     */
+    public void scorePage(Map<String, Map<String, Object>> users, Map<String, Map<String, Object>> pendingOrders,
+                          List<Map<String, Object>> sent, List<Map<String, Object>> received, TopN ranking) {
+        // Per-page accumulators, dropped once the page is scored
+        Map<String, Double> legacyReserved = new HashMap<>();
+        for (Map.Entry<String, Map<String, Object>> order : pendingOrders.entrySet()) {
+            Object userId = order.getValue().get("userId");
+            Map<String, Object> user = userId instanceof String ? users.get(userId) : null;
+            // An OCO pair's reservation is keyed by one of its two orders
+            if (user == null || hasReservation(user, order.getKey())
+                    || hasReservation(user, order.getValue().get("linkedOrderId"))) continue;
+            double value = reservedValue(order.getValue());
+            if (value > 0) {
+                legacyReserved.merge((String) userId, value, Double::sum);
+            }
+        }
+        Map<String, Double> netTransfers = new HashMap<>();
+        addTransfers(netTransfers, sent, "fromUserId", -1);
+        addTransfers(netTransfers, received, "toUserId", 1);
+
+        for (Map.Entry<String, Map<String, Object>> user : users.entrySet()) {
+            usersProcessed++;
+            Map<String, Object> fields = user.getValue();
+            Object walletObj = fields.get("wallet");
+            if (!(walletObj instanceof Map)) continue;
+
+            boolean[] priced = {true};
+            double value = legacyReserved.getOrDefault(user.getKey(), 0.0);
+            for (Map.Entry<?, ?> entry : ((Map<?, ?>) walletObj).entrySet()) {
+                if (entry.getValue() instanceof Number) {
+                    value += valueOf(String.valueOf(entry.getKey()), ((Number) entry.getValue()).doubleValue(), priced);
+                }
+            }
+            Object reservationsObj = fields.get("reservations");
+            if (reservationsObj instanceof Map) {
+                for (Object record : ((Map<?, ?>) reservationsObj).values()) {
+                    if (!(record instanceof Map)) continue;
+                    Object asset = ((Map<?, ?>) record).get("asset");
+                    Object amount = ((Map<?, ?>) record).get("amount");
+                    if (asset instanceof String && amount instanceof Number) {
+                        value += valueOf((String) asset, ((Number) amount).doubleValue(), priced);
+                    }
+                }
+            }
+            if (!priced[0]) {
+                unpricedUsers++;
+            }
+
+            double capital = STARTING_CAPITAL + netTransfers.getOrDefault(user.getKey(), 0.0);
+            if (capital <= 0) continue;
+            Object username = fields.get("username");
+            ranking.offer(new TopN.Entry(user.getKey(), username instanceof String ? (String) username : null,
+                    value, value / capital - 1.0));
+        }
+    }
+
+    private double valueOf(String asset, double quantity, boolean[] priced) {
+        if (quantity == 0) return 0.0;
+        Double price = prices.get(asset.toLowerCase());
+        if (price == null) {
+            priced[0] = false;
+            return 0.0;
+        }
+        return quantity * price;
+    }
+
+    private static boolean hasReservation(Map<String, Object> user, Object orderId) {
+        Object reservations = user.get("reservations");
+        return orderId != null && reservations instanceof Map && ((Map<?, ?>) reservations).containsKey(orderId);
+    }
+
+    private double reservedValue(Map<String, Object> order) {
+        Object qtyObj = order.get("quantity");
+        Object totalObj = order.get("total");
+        Object symbol = order.get("symbol");
+        if (!(qtyObj instanceof Number) || !(symbol instanceof String)) return 0.0;
+        // Buys reserve the USDT total, sells reserve the tokens
+        if (TYPE_BUY.equals(order.get("type"))) {
+            return totalObj instanceof Number ? ((Number) totalObj).doubleValue() : 0.0;
+        }
+        Double price = prices.get(((String) symbol).toLowerCase());
+        return price != null ? ((Number) qtyObj).doubleValue() * price : 0.0;
+    }
+
+    private void addTransfers(Map<String, Double> netTransfers, List<Map<String, Object>> transfers,
+                              String userField, int sign) {
+        for (Map<String, Object> transfer : transfers) {
+            Object userId = transfer.get(userField);
+            Object symbol = transfer.get("symbol");
+            Object amount = transfer.get("amount");
+            if (!(userId instanceof String) || !(symbol instanceof String) || !(amount instanceof Number)) continue;
+            Double price = prices.get(((String) symbol).toLowerCase());
+            if (price != null) {
+                netTransfers.merge((String) userId, sign * ((Number) amount).doubleValue() * price, Double::sum);
+            }
+        }
+    }
+}
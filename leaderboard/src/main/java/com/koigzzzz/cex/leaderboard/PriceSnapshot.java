@@ -0,0 +1,66 @@
+package com.koigzzzz.cex.leaderboard;
+
+import com.google.gson.JsonArray;
+import com.google.gson.JsonElement;
+import com.google.gson.JsonObject;
+import com.google.gson.JsonParser;
+
+import java.io.IOException;
+import java.net.URI;
+import java.net.http.HttpClient;
+import java.net.http.HttpRequest;
+import java.net.http.HttpResponse;
+import java.time.Duration;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+
+/**
+ * One batched price snapshot for a set of tokens from LiveCoinWatch (the app's price
+ * source), so every user in a run is valued at the same prices.
+ */
+public class PriceSnapshot {
+    private static final String MAP_URL = "https://api.livecoinwatch.com/coins/map";
+
+    private PriceSnapshot() {
+    }
+
+    /**
+     * Fetch all symbols in one coins/map request.
+     * @return Lowercase symbol to USD price; symbols the API does not know are left out
+     */
+    public static Map<String, Double> fetch(List<String> symbols, String apiKey) throws IOException, InterruptedException {
+        JsonArray codes = new JsonArray();
+        for (String symbol : symbols) {
+            codes.add(symbol.toUpperCase());
+        }
+        JsonObject body = new JsonObject();
+        body.addProperty("currency", "USD");
+        body.add("codes", codes);
+        body.addProperty("sort", "rank");
+        body.addProperty("order", "ascending");
+        body.addProperty("offset", 0);
+        body.addProperty("limit", 0);
+        body.addProperty("meta", false);
+
+        HttpRequest request = HttpRequest.newBuilder(URI.create(MAP_URL))
+                .timeout(Duration.ofSeconds(30))
+                .header("content-type", "application/json")
+                .header("x-api-key", apiKey)
+                .POST(HttpRequest.BodyPublishers.ofString(body.toString()))
+                .build();
+        HttpResponse<String> response = HttpClient.newHttpClient().send(request, HttpResponse.BodyHandlers.ofString());
+        if (response.statusCode() != 200) {
+            throw new IOException("Price request failed with HTTP " + response.statusCode() + ": " + response.body());
+        }
+
+        Map<String, Double> prices = new HashMap<>();
+        for (JsonElement element : JsonParser.parseString(response.body()).getAsJsonArray()) {
+            JsonObject coin = element.getAsJsonObject();
+            if (coin.has("code") && coin.has("rate") && !coin.get("rate").isJsonNull()) {
+                prices.put(coin.get("code").getAsString().toLowerCase(), coin.get("rate").getAsDouble());
+            }
+        }
+        return prices;
+    }
+}
@@ -0,0 +1,58 @@
+package com.koigzzzz.cex.leaderboard;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.PriorityQueue;
+
+/**
+ * Best n entries by return, kept in a min-heap so each offer is O(log n) and memory is
+ * bounded by n however many users are offered
+ */
+public class TopN {
+    public static final class Entry {
+        public final String userId;
+        public final String username;
+        public final double value;
+        public final double returnRatio;
+
+        public Entry(String userId, String username, double value, double returnRatio) {
+            this.userId = userId;
+            this.username = username;
+            this.value = value;
+            this.returnRatio = returnRatio;
+        }
+    }
+
+    private final int capacity;
+    private final PriorityQueue<Entry> heap;
+
+    public TopN(int capacity) {
+        this.capacity = capacity;
+        // Worst entry on top; ties broken by user id so reruns rank identically
+        this.heap = new PriorityQueue<>(Math.max(1, capacity), (a, b) -> a.returnRatio != b.returnRatio
+                ? Double.compare(a.returnRatio, b.returnRatio) : b.userId.compareTo(a.userId));
+    }
+
+    public void offer(Entry entry) {
+        if (capacity <= 0) return;
+        if (heap.size() < capacity) {
+            heap.add(entry);
+        } else if (heap.comparator().compare(entry, heap.peek()) > 0) {
+            heap.poll();
+            heap.add(entry);
+        }
+    }
+
+    public int size() {
+        return heap.size();
+    }
+
+    /**
+     * Entries best first
+     */
+    public List<Entry> toSortedList() {
+        List<Entry> result = new ArrayList<>(heap);
+        result.sort((a, b) -> heap.comparator().compare(b, a));
+        return result;
+    }
+}
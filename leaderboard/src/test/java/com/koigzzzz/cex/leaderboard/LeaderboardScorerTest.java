@@ -0,0 +1,155 @@
+package com.koigzzzz.cex.leaderboard;
+
+import static org.junit.Assert.assertEquals;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Random;
+
+/**
+ * Scoring rules on hand-built documents, and the bounded ranking against a full sort.
+ */
+public class LeaderboardScorerTest {
+
+    @Test
+    public void topNMatchesFullSort() {
+        Random random = new Random(3);
+        for (int round = 0; round < 100; round++) {
+            int capacity = random.nextInt(20);
+            TopN ranking = new TopN(capacity);
+            List<TopN.Entry> all = new ArrayList<>();
+            int users = random.nextInt(500);
+            for (int i = 0; i < users; i++) {
+                // Few distinct returns, so ties are common
+                TopN.Entry entry = new TopN.Entry("u" + random.nextInt(100_000), null, 0, random.nextInt(10) / 10.0);
+                all.add(entry);
+                ranking.offer(entry);
+            }
+            all.sort((a, b) -> a.returnRatio != b.returnRatio
+                    ? Double.compare(b.returnRatio, a.returnRatio) : a.userId.compareTo(b.userId));
+            List<TopN.Entry> ranked = ranking.toSortedList();
+            assertEquals(Math.min(capacity, users), ranked.size());
+            for (int i = 0; i < ranked.size(); i++) {
+                assertEquals(all.get(i).returnRatio, ranked.get(i).returnRatio, 0.0);
+                assertEquals(all.get(i).userId, ranked.get(i).userId);
+            }
+        }
+    }
+
+    @Test
+    public void valuesWalletReservationsAndLegacyOrders() {
+        Map<String, Double> prices = new HashMap<>();
+        prices.put("btc", 50_000.0);
+        LeaderboardScorer scorer = new LeaderboardScorer(prices);
+
+        Map<String, Map<String, Object>> users = new LinkedHashMap<>();
+        // 5000 USDT + 0.1 BTC available, 1000 USDT reserved by order o1
+        users.put("a", user("alice", wallet("usdt", 5000.0, "btc", 0.1),
+                Collections.singletonMap("o1", reservation("usdt", 1000.0))));
+        // 9000 USDT available plus a pending order from before reservations existed
+        users.put("b", user("bob", wallet("usdt", 9000.0), null));
+
+        Map<String, Map<String, Object>> pending = new HashMap<>();
+        pending.put("o1", order("a", "BUY", "BTC", 0.02, 1000.0, null));
+        // OCO partner of o1: its funds are already in o1's reservation
+        pending.put("o2", order("a", "BUY", "BTC", 0.02, 1000.0, "o1"));
+        pending.put("o3", order("b", "SELL", "BTC", 0.01, 500.0, null));
+
+        TopN ranking = new TopN(10);
+        scorer.scorePage(users, pending, new ArrayList<>(), new ArrayList<>(), ranking);
+        List<TopN.Entry> ranked = ranking.toSortedList();
+
+        assertEquals(2, ranked.size());
+        assertEquals("a", ranked.get(0).userId);
+        assertEquals(5000 + 5000 + 1000, ranked.get(0).value, 1e-9);
+        assertEquals(0.1, ranked.get(0).returnRatio, 1e-12);
+        assertEquals("b", ranked.get(1).userId);
+        assertEquals(9000 + 500, ranked.get(1).value, 1e-9);
+        assertEquals(0, scorer.getUnpricedUsers());
+    }
+
+    @Test
+    public void transfersAreCapitalAndUnpricedTokensAreCounted() {
+        Map<String, Double> prices = new HashMap<>();
+        prices.put("btc", 50_000.0);
+        LeaderboardScorer scorer = new LeaderboardScorer(prices);
+
+        Map<String, Map<String, Object>> users = new LinkedHashMap<>();
+        users.put("a", user("alice", wallet("usdt", 5000.0), null));
+        users.put("b", user("bob", wallet("usdt", 10_000.0, "btc", 0.1, "doge", 100.0), null));
+
+        List<Map<String, Object>> sent = new ArrayList<>();
+        sent.add(transfer("a", "b", "BTC", 0.1));
+        List<Map<String, Object>> received = new ArrayList<>(sent);
+
+        TopN ranking = new TopN(10);
+        scorer.scorePage(users, new HashMap<>(), sent, received, ranking);
+        Map<String, TopN.Entry> byUser = new HashMap<>();
+        for (TopN.Entry entry : ranking.toSortedList()) {
+            byUser.put(entry.userId, entry);
+        }
+
+        // Alice sent 5000 worth: capital 5000, value 5000, no gain or loss
+        assertEquals(0.0, byUser.get("a").returnRatio, 1e-12);
+        // Bob received it: capital 15000, value 15000 (doge has no price)
+        assertEquals(0.0, byUser.get("b").returnRatio, 1e-12);
+        assertEquals(1, scorer.getUnpricedUsers());
+        assertEquals(2, scorer.getUsersProcessed());
+    }
+
+    private static Map<String, Object> user(String username, Map<String, Object> wallet,
+                                            Map<String, Object> reservations) {
+        Map<String, Object> user = new HashMap<>();
+        user.put("username", username);
+        user.put("wallet", wallet);
+        if (reservations != null) {
+            user.put("reservations", reservations);
+        }
+        return user;
+    }
+
+    private static Map<String, Object> wallet(Object... entries) {
+        Map<String, Object> wallet = new HashMap<>();
+        for (int i = 0; i < entries.length; i += 2) {
+            wallet.put((String) entries[i], entries[i + 1]);
+        }
+        return wallet;
+    }
+
+    private static Map<String, Object> reservation(String asset, double amount) {
+        Map<String, Object> reservation = new HashMap<>();
+        reservation.put("asset", asset);
+        reservation.put("amount", amount);
+        return reservation;
+    }
+
+    private static Map<String, Object> order(String userId, String type, String symbol, double quantity,
+                                             double total, String linkedOrderId) {
+        Map<String, Object> order = new HashMap<>();
+        order.put("userId", userId);
+        order.put("type", type);
+        order.put("symbol", symbol);
+        order.put("quantity", quantity);
+        order.put("total", total);
+        order.put("status", "PENDING");
+        if (linkedOrderId != null) {
+            order.put("linkedOrderId", linkedOrderId);
+        }
+        return order;
+    }
+
+    private static Map<String, Object> transfer(String from, String to, String symbol, double amount) {
+        Map<String, Object> transfer = new HashMap<>();
+        transfer.put("fromUserId", from);
+        transfer.put("toUserId", to);
+        transfer.put("symbol", symbol);
+        transfer.put("amount", amount);
+        return transfer;
+    }
+}
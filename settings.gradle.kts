@@ -22,3 +22,5 @@ dependencyResolutionManagement {
 
 rootProject.name = "Cex Simulator"
 include(":app")
+include(":engine")
+include(":leaderboard")